@@ -0,0 +1,33 @@
+package uk.ac.rhul.cs2810.Exceptions;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Used to represent when there isn't enough stock for an order, so none of it was taken.
+ */
+public class OutOfStockException extends ExecutionError {
+  private static final long serialVersionUID = 1L;
+  private final Map<Integer, Integer> shortItems;
+  
+  /**
+   * Instantiates a new out of stock exception with a message and the items there weren't enough
+   * of.
+   *
+   * @param message    the message explaining the error
+   * @param shortItems a map of item id to how many more of the item were needed
+   */
+  public OutOfStockException(String message, Map<Integer, Integer> shortItems) {
+    super(message);
+    this.shortItems = Collections.unmodifiableMap(shortItems);
+  }
+  
+  /**
+   * Gets the items there weren't enough of.
+   *
+   * @return a map of item id to how many more of the item were needed
+   */
+  public Map<Integer, Integer> getShortItems() {
+    return shortItems;
+  }
+}
@@ -19,6 +19,8 @@ public class Employee {
   private int numOrders;
   private LocalTime timeOrdersLastUpdated;
   private int halfHoursWorked;
+  private final float averageConfirmTime;
+  private final float averageServeTime;
 
   private final int dataTimeToLive = 2000;
   private OrderDB orderDB;
@@ -33,12 +35,31 @@ public class Employee {
    */
   public Employee(int id, String name, LocalDate dateOfBirth, LocalDate dateOfHire, int numOrders,
       int halfHoursWorked) {
+    this(id, name, dateOfBirth, dateOfHire, numOrders, halfHoursWorked, 0, 0);
+  }
+
+  /**
+   * Instantiates a new Employee with their order statistics.
+   *
+   * @param id the employees id
+   * @param name the employees name
+   * @param dateOfBirth the employees date of birth
+   * @param dateOfHire the date the employee was hired
+   * @param numOrders the number of orders assigned to the employee
+   * @param halfHoursWorked the number of half hours worked
+   * @param averageConfirmTime the average minutes taken to confirm an order
+   * @param averageServeTime the average minutes taken to serve an order
+   */
+  public Employee(int id, String name, LocalDate dateOfBirth, LocalDate dateOfHire, int numOrders,
+      int halfHoursWorked, float averageConfirmTime, float averageServeTime) {
     this.id = id;
     this.name = name;
     this.dateOfBirth = dateOfBirth;
     this.dateOfHire = dateOfHire;
     this.numOrders = numOrders;
     this.halfHoursWorked = halfHoursWorked;
+    this.averageConfirmTime = averageConfirmTime;
+    this.averageServeTime = averageServeTime;
 
     this.timeOrdersLastUpdated = LocalTime.now();
   }
@@ -107,4 +128,22 @@ public class Employee {
   public int getHalfHoursWorked() {
     return halfHoursWorked;
   }
+
+  /**
+   * Gets the average time the employee takes to confirm an order.
+   *
+   * @return the average time in minutes - 0 if they haven't confirmed any
+   */
+  public float getAverageConfirmTime() {
+    return averageConfirmTime;
+  }
+
+  /**
+   * Gets the average time the employee takes to serve an order.
+   *
+   * @return the average time in minutes - 0 if they haven't served any
+   */
+  public float getAverageServeTime() {
+    return averageServeTime;
+  }
 }
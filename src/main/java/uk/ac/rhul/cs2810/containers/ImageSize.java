@@ -0,0 +1,28 @@
+package uk.ac.rhul.cs2810.containers;
+
+/**
+ * The sizes each menu items image is stored at.
+ * Smaller sizes are made when the image is added, so screens only fetch the pixels they show.
+ */
+public enum ImageSize {
+  THUMBNAIL(96),
+  LIST(240),
+  DETAIL(640),
+  ORIGINAL(0);
+
+  private final int maxEdge;
+
+  ImageSize(int maxEdge) {
+    this.maxEdge = maxEdge;
+  }
+
+  /**
+   * Gets the longest the width or height of an image this size can be.
+   * Images smaller than this are never scaled up.
+   *
+   * @return the max edge length in pixels - 0 for the image as it was uploaded
+   */
+  public int getMaxEdge() {
+    return maxEdge;
+  }
+}
@@ -0,0 +1,142 @@
+package uk.ac.rhul.cs2810.containers;
+
+import java.util.Objects;
+
+/**
+ * Represents the kitchen statistics and stock of one menu item at one moment.
+ * Two statistics are equal when every value is the same, so a screen can compare a fresh set
+ * against the one it is showing and only redraw the items that changed.
+ */
+public class ItemStatistics {
+  private final int itemID;
+  private final String name;
+  private final int price;
+  private final int stock;
+  private final int numServed;
+  private final double totalTimeToCook;
+  private final QuantileSketch prepTimes;
+
+  /**
+   * Instantiates new item statistics.
+   *
+   * @param itemID          the items id
+   * @param name            the items name
+   * @param price           the items price in pence
+   * @param stock           the items stock level
+   * @param numServed       the number of times the item has been served
+   * @param totalTimeToCook the total minutes spent cooking the item
+   * @param prepTimes       the spread of times the item has taken to cook
+   */
+  public ItemStatistics(int itemID, String name, int price, int stock, int numServed,
+                        double totalTimeToCook, QuantileSketch prepTimes) {
+    this.itemID = itemID;
+    this.name = name;
+    this.price = price;
+    this.stock = stock;
+    this.numServed = numServed;
+    this.totalTimeToCook = totalTimeToCook;
+    this.prepTimes = prepTimes;
+  }
+
+  /**
+   * Gets the items id.
+   *
+   * @return the id
+   */
+  public int getItemID() {
+    return itemID;
+  }
+
+  /**
+   * Gets the items name.
+   *
+   * @return the name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Gets the items price.
+   *
+   * @return the price
+   */
+  public Price getPrice() {
+    return new Price(price);
+  }
+
+  /**
+   * Gets the items stock level.
+   *
+   * @return the stock
+   */
+  public int getStock() {
+    return stock;
+  }
+
+  /**
+   * Gets the number of times the item has been served.
+   *
+   * @return the number served
+   */
+  public int getNumServed() {
+    return numServed;
+  }
+
+  /**
+   * Gets the total time spent cooking the item.
+   *
+   * @return the total time in minutes
+   */
+  public double getTotalTimeToCook() {
+    return totalTimeToCook;
+  }
+
+  /**
+   * Gets the average time taken to cook the item.
+   *
+   * @return the average time in minutes - 0 if it hasn't been served
+   */
+  public float getAverageTimeToCook() {
+    return numServed == 0 ? 0 : (float) (totalTimeToCook / numServed);
+  }
+
+  /**
+   * Gets the spread of times the item has taken to cook, such as to find the time 90% of them
+   * are done by.
+   *
+   * @return the sketch of the cooking times
+   */
+  public QuantileSketch getPrepTimes() {
+    return prepTimes;
+  }
+
+  /**
+   * Makes the row showing these statistics in the managers stock table.
+   *
+   * @return the stock table row
+   */
+  public StockTableData toStockTableData() {
+    return new StockTableData(itemID, name, getPrice(), stock, getAverageTimeToCook());
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ItemStatistics)) {
+      return false;
+    }
+    ItemStatistics other = (ItemStatistics) o;
+    return itemID == other.itemID && price == other.price && stock == other.stock
+        && numServed == other.numServed
+        && Double.compare(totalTimeToCook, other.totalTimeToCook) == 0
+        && Objects.equals(name, other.name) && Objects.equals(prepTimes, other.prepTimes);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(itemID, name, price, stock, numServed, totalTimeToCook, prepTimes);
+  }
+}
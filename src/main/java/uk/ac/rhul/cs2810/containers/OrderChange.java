@@ -0,0 +1,65 @@
+package uk.ac.rhul.cs2810.containers;
+
+/**
+ * Represents a change made to an order in the database.
+ */
+public class OrderChange {
+
+  /**
+   * The kind of change made to the order.
+   */
+  public enum Type {
+    ADDED,
+    UPDATED,
+    REMOVED
+  }
+
+  private final Type type;
+  private final int orderID;
+  private final Order order;
+
+  /**
+   * Instantiates a new order change.
+   *
+   * @param type    the kind of change
+   * @param orderID the id of the changed order
+   * @param order   the order as it is now - null if it has been removed
+   */
+  public OrderChange(Type type, int orderID, Order order) {
+    this.type = type;
+    this.orderID = orderID;
+    this.order = order;
+  }
+
+  /**
+   * Gets the kind of change made.
+   *
+   * @return the type of change
+   */
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * Gets the id of the changed order.
+   *
+   * @return the order id
+   */
+  public int getOrderID() {
+    return orderID;
+  }
+
+  /**
+   * Gets the order as it is after the change.
+   *
+   * @return the order - null if it has been removed
+   */
+  public Order getOrder() {
+    return order;
+  }
+
+  @Override
+  public String toString() {
+    return type + " order " + orderID;
+  }
+}
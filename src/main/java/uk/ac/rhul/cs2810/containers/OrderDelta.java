@@ -0,0 +1,101 @@
+package uk.ac.rhul.cs2810.containers;
+
+import java.util.List;
+
+/**
+ * Represents the orders that have changed since a given change version.
+ * Used to update a local copy of the orders without fetching all of them again.
+ */
+public class OrderDelta {
+
+  private final List<Order> changedOrders;
+  private final List<Integer> removedOrderIDs;
+  private final long version;
+  private final long horizon;
+
+  /**
+   * Instantiates a new order delta with no transactions left to finish.
+   *
+   * @param changedOrders   the orders added or updated since the given version
+   * @param removedOrderIDs the ids of the orders removed since the given version
+   * @param version         the change version this delta brings the orders up to
+   */
+  public OrderDelta(List<Order> changedOrders, List<Integer> removedOrderIDs, long version) {
+    this(changedOrders, removedOrderIDs, version, Long.MAX_VALUE);
+  }
+
+  /**
+   * Instantiates a new order delta.
+   *
+   * @param changedOrders   the orders added or updated since the given version
+   * @param removedOrderIDs the ids of the orders removed since the given version
+   * @param version         the change version this delta brings the orders up to
+   * @param horizon         the oldest transaction still running when the delta was read
+   */
+  public OrderDelta(List<Order> changedOrders, List<Integer> removedOrderIDs, long version,
+                    long horizon) {
+    this.changedOrders = changedOrders;
+    this.removedOrderIDs = removedOrderIDs;
+    this.version = version;
+    this.horizon = horizon;
+  }
+
+  /**
+   * Gets the orders added or updated since the given version.
+   *
+   * @return the changed orders
+   */
+  public List<Order> getChangedOrders() {
+    return changedOrders;
+  }
+
+  /**
+   * Gets the ids of the orders removed since the given version.
+   *
+   * @return the removed order ids
+   */
+  public List<Integer> getRemovedOrderIDs() {
+    return removedOrderIDs;
+  }
+
+  /**
+   * Gets the change version the orders are up to date with.
+   * Should be passed in the next time changes are requested.
+   *
+   * @return the new version
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Gets the oldest transaction that was still running when the delta was read.
+   * Versions are taken when a change is made but only seen once it commits, so a transaction
+   * running then can still commit changes below the version. Changes from it and any later
+   * transaction should be read again, so this should be passed in with the version.
+   *
+   * @return the transaction id - Long.MAX_VALUE if none were running
+   */
+  public long getHorizon() {
+    return horizon;
+  }
+
+  /**
+   * Checks if transactions were running when the delta was read, so changes below its version
+   * may still appear.
+   *
+   * @return if there may be changes still to come below the version
+   */
+  public boolean hasUnfinishedChanges() {
+    return horizon != Long.MAX_VALUE;
+  }
+
+  /**
+   * Checks if anything has changed.
+   *
+   * @return if there are no changes
+   */
+  public boolean isEmpty() {
+    return changedOrders.isEmpty() && removedOrderIDs.isEmpty();
+  }
+}
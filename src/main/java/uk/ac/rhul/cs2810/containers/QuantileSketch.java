@@ -0,0 +1,234 @@
+package uk.ac.rhul.cs2810.containers;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * A fixed size summary of a stream of times that can estimate any percentile of them.
+ * Each time is counted in a bucket whose bounds grow by a fixed ratio, so every estimate is
+ * within 2% of a time that was really added however many are added. Two sketches are merged by
+ * adding their bucket counts, so sketches made separately, such as one per batch of orders, can
+ * be combined into the sketch of all of them.
+ */
+public class QuantileSketch {
+  /**
+   * How far an estimate can be from a real value, as a fraction of it.
+   */
+  public static final double RELATIVE_ACCURACY = 0.02;
+
+  private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+  private static final double LOG_GAMMA = Math.log(GAMMA);
+  private static final double MIN_VALUE = 0.1; // Anything smaller is counted as 0
+  private static final double MAX_VALUE = 24 * 60; // Anything larger is counted as this
+  private static final int BUCKETS =
+      2 + (int) Math.ceil(Math.log(MAX_VALUE / MIN_VALUE) / LOG_GAMMA);
+
+  private final long[] counts = new long[BUCKETS];
+  private long count = 0;
+
+  /**
+   * Instantiates a new empty sketch.
+   */
+  public QuantileSketch() {
+  }
+
+  /**
+   * Adds a time.
+   *
+   * @param minutes the time in minutes
+   */
+  public void add(double minutes) {
+    add(minutes, 1);
+  }
+
+  /**
+   * Adds the same time a number of times.
+   *
+   * @param minutes the time in minutes
+   * @param times   how many times to add it
+   */
+  public void add(double minutes, long times) {
+    if (times < 0 || Double.isNaN(minutes)) {
+      throw new IllegalArgumentException("Can't add " + times + " times of " + minutes);
+    }
+    counts[bucketOf(minutes)] += times;
+    count += times;
+  }
+
+  /**
+   * Adds every time in another sketch to this one.
+   *
+   * @param other the sketch to merge in
+   */
+  public void merge(QuantileSketch other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] += other.counts[i];
+    }
+    count += other.count;
+  }
+
+  /**
+   * Gets the number of times added.
+   *
+   * @return the count
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Gets an estimate of the time the given fraction of times are at or below.
+   *
+   * @param quantile the fraction, such as 0.9 for the 90th percentile
+   * @return the estimated time in minutes - NaN if no times have been added
+   */
+  public double getQuantile(double quantile) {
+    if (quantile < 0 || quantile > 1) {
+      throw new IllegalArgumentException("Quantile must be between 0 and 1");
+    }
+    if (count == 0) {
+      return Double.NaN;
+    }
+
+    // The nearest rank, so the 99th percentile of 10 times is the slowest
+    long rank = Math.max(0, (long) Math.ceil(quantile * count) - 1);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen > rank) {
+        return valueOf(i);
+      }
+    }
+    return valueOf(BUCKETS - 1);
+  }
+
+  /**
+   * Gets the estimated median time.
+   *
+   * @return the 50th percentile in minutes - NaN if no times have been added
+   */
+  public double getP50() {
+    return getQuantile(0.5);
+  }
+
+  /**
+   * Gets the estimated time 90% of times are at or below.
+   *
+   * @return the 90th percentile in minutes - NaN if no times have been added
+   */
+  public double getP90() {
+    return getQuantile(0.9);
+  }
+
+  /**
+   * Gets the estimated time 99% of times are at or below.
+   *
+   * @return the 99th percentile in minutes - NaN if no times have been added
+   */
+  public double getP99() {
+    return getQuantile(0.99);
+  }
+
+  /**
+   * Encodes the sketch to be stored.
+   * Only buckets with times in are written, as the gap from the last one and the count, each as
+   * a variable length number, so a sketch of a few similar times is only a few bytes.
+   *
+   * @return the encoded sketch
+   */
+  public byte[] toBytes() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int last = -1;
+    for (int i = 0; i < BUCKETS; i++) {
+      if (counts[i] != 0) {
+        writeVarLong(out, i - last);
+        writeVarLong(out, counts[i]);
+        last = i;
+      }
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Decodes a stored sketch.
+   *
+   * @param bytes the encoded sketch - null for an empty sketch
+   * @return the sketch
+   * @throws IllegalArgumentException if the bytes aren't an encoded sketch
+   */
+  public static QuantileSketch fromBytes(byte[] bytes) {
+    QuantileSketch sketch = new QuantileSketch();
+    if (bytes == null) {
+      return sketch;
+    }
+
+    int[] position = {0};
+    int bucket = -1;
+    while (position[0] < bytes.length) {
+      long gap = readVarLong(bytes, position);
+      long count = readVarLong(bytes, position);
+      if (gap <= 0 || bucket + gap >= BUCKETS || count <= 0) {
+        throw new IllegalArgumentException("Not an encoded sketch");
+      }
+      bucket += (int) gap;
+      sketch.counts[bucket] = count;
+      sketch.count += count;
+    }
+    return sketch;
+  }
+
+  private static int bucketOf(double minutes) {
+    if (minutes < MIN_VALUE) {
+      return 0;
+    }
+    int bucket = 1 + (int) Math.ceil(Math.log(minutes / MIN_VALUE) / LOG_GAMMA);
+    return Math.min(bucket, BUCKETS - 1);
+  }
+
+  private static double valueOf(int bucket) {
+    if (bucket == 0) {
+      return 0;
+    }
+    // The point within 2% of both ends of the bucket
+    return MIN_VALUE * 2 * Math.pow(GAMMA, bucket - 1) / (GAMMA + 1);
+  }
+
+  private static void writeVarLong(ByteArrayOutputStream out, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  private static long readVarLong(byte[] bytes, int[] position) {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      if (position[0] >= bytes.length) {
+        break;
+      }
+      byte b = bytes[position[0]++];
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Not an encoded sketch");
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof QuantileSketch)) {
+      return false;
+    }
+    return Arrays.equals(counts, ((QuantileSketch) o).counts);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(counts);
+  }
+}
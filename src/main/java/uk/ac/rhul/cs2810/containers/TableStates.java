@@ -0,0 +1,186 @@
+package uk.ac.rhul.cs2810.containers;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Represents the state of every table in the restaurant at one moment.
+ * Each table's waiter is held in an array indexed by table id and its flags in bit sets, so a
+ * snapshot of the whole floor is a few small arrays. Snapshots are never changed once made, the
+ * with methods return an updated copy, so they can be shared between threads freely.
+ */
+public class TableStates {
+  private final int[] waiters;
+  private final BitSet clean;
+  private final BitSet seated;
+  private final BitSet alerted;
+
+  /**
+   * Instantiates a new snapshot of the tables.
+   *
+   * @param waiters the waiter assigned to each table, indexed by table id - index 0 is unused
+   * @param clean   the tables that are clean
+   * @param seated  the tables that are being used
+   * @param alerted the tables that have called their waiter
+   */
+  public TableStates(int[] waiters, BitSet clean, BitSet seated, BitSet alerted) {
+    this.waiters = waiters.clone();
+    this.clean = (BitSet) clean.clone();
+    this.seated = (BitSet) seated.clone();
+    this.alerted = (BitSet) alerted.clone();
+  }
+
+  /**
+   * Gets the highest table id in the snapshot.
+   *
+   * @return the max table id
+   */
+  public int getMaxTableNum() {
+    return waiters.length - 1;
+  }
+
+  /**
+   * Gets the id of the waiter assigned to a table.
+   *
+   * @param tableID the table id
+   * @return the waiters id - -1 if no waiter is assigned
+   */
+  public int getWaiter(int tableID) {
+    checkTable(tableID);
+    return waiters[tableID];
+  }
+
+  /**
+   * Gets if the given table is clean.
+   *
+   * @param tableID the table id
+   * @return is the table clean
+   */
+  public boolean isClean(int tableID) {
+    checkTable(tableID);
+    return clean.get(tableID);
+  }
+
+  /**
+   * Gets if the given table is being used.
+   *
+   * @param tableID the table id
+   * @return is the table used
+   */
+  public boolean isSeated(int tableID) {
+    checkTable(tableID);
+    return seated.get(tableID);
+  }
+
+  /**
+   * Gets if a table has called for the waiter.
+   *
+   * @param tableID the table id
+   * @return is the waiter called for
+   */
+  public boolean isAlerted(int tableID) {
+    checkTable(tableID);
+    return alerted.get(tableID);
+  }
+
+  /**
+   * Gets the tables being used that are assigned to a waiter.
+   *
+   * @param waiterID the waiters id
+   * @return the table ids in order
+   */
+  public List<Integer> getAssignedTables(int waiterID) {
+    List<Integer> tables = new LinkedList<>();
+    for (int tableID = seated.nextSetBit(1); tableID >= 0;
+         tableID = seated.nextSetBit(tableID + 1)) {
+      if (waiters[tableID] == waiterID) {
+        tables.add(tableID);
+      }
+    }
+    return tables;
+  }
+
+  /**
+   * Gets the tables assigned to a waiter that have called for them.
+   *
+   * @param waiterID the waiters id
+   * @return the table ids in order
+   */
+  public List<Integer> getNeededTables(int waiterID) {
+    List<Integer> tables = new LinkedList<>();
+    for (int tableID = alerted.nextSetBit(1); tableID >= 0;
+         tableID = alerted.nextSetBit(tableID + 1)) {
+      if (waiters[tableID] == waiterID) {
+        tables.add(tableID);
+      }
+    }
+    return tables;
+  }
+
+  /**
+   * Gets a copy of the snapshot with tables assigned to new waiters.
+   *
+   * @param tableIDs the table ids
+   * @param waiterID the waiter now assigned to them
+   * @return the updated snapshot
+   */
+  public TableStates withWaiter(Collection<Integer> tableIDs, int waiterID) {
+    int[] newWaiters = Arrays.copyOf(waiters, waiters.length);
+    for (int tableID : tableIDs) {
+      checkTable(tableID);
+      newWaiters[tableID] = waiterID;
+    }
+    return new TableStates(newWaiters, clean, seated, alerted);
+  }
+
+  /**
+   * Gets a copy of the snapshot with tables marked clean or not.
+   *
+   * @param tableIDs the table ids
+   * @param isClean  are the tables clean
+   * @return the updated snapshot
+   */
+  public TableStates withClean(Collection<Integer> tableIDs, boolean isClean) {
+    return new TableStates(waiters, with(clean, tableIDs, isClean), seated, alerted);
+  }
+
+  /**
+   * Gets a copy of the snapshot with tables marked used or not.
+   *
+   * @param tableIDs the table ids
+   * @param isSeated are the tables being used
+   * @return the updated snapshot
+   */
+  public TableStates withSeated(Collection<Integer> tableIDs, boolean isSeated) {
+    return new TableStates(waiters, clean, with(seated, tableIDs, isSeated), alerted);
+  }
+
+  /**
+   * Gets a copy of the snapshot with tables marked as calling their waiter or not.
+   *
+   * @param tableIDs  the table ids
+   * @param isAlerted have the tables called their waiter
+   * @return the updated snapshot
+   */
+  public TableStates withAlerted(Collection<Integer> tableIDs, boolean isAlerted) {
+    return new TableStates(waiters, clean, seated, with(alerted, tableIDs, isAlerted));
+  }
+
+  private BitSet with(BitSet flags, Collection<Integer> tableIDs, boolean value) {
+    BitSet newFlags = (BitSet) flags.clone();
+    for (int tableID : tableIDs) {
+      checkTable(tableID);
+      newFlags.set(tableID, value);
+    }
+    return newFlags;
+  }
+
+  private void checkTable(int tableID) {
+    if (tableID < 1 || tableID >= waiters.length) {
+      throw new IllegalArgumentException("Table " + tableID + " not found");
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package uk.ac.rhul.cs2810.containers;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents everything the waiter screen shows at one moment.
+ * Holds a waiters orders grouped by state and the tables asking for help, so the whole screen can
+ * be refreshed from one call to the database.
+ */
+public class WaiterDashboard {
+
+  private final Map<OrderState, List<Order>> ordersByState;
+  private final List<Integer> neededTables;
+
+  /**
+   * Instantiates a new waiter dashboard.
+   *
+   * @param ordersByState the waiters orders by state, each in the order they were added
+   * @param neededTables  the ids of the waiters tables asking for help
+   */
+  public WaiterDashboard(Map<OrderState, List<Order>> ordersByState, List<Integer> neededTables) {
+    this.ordersByState = new EnumMap<>(OrderState.class);
+    this.ordersByState.putAll(ordersByState);
+    this.neededTables = neededTables;
+  }
+
+  /**
+   * Gets the waiters orders with the given state.
+   *
+   * @param state the state
+   * @return the orders in the order they were added - empty if there are none
+   */
+  public List<Order> getOrders(OrderState state) {
+    return ordersByState.getOrDefault(state, Collections.emptyList());
+  }
+
+  /**
+   * Gets the tables asking for a waiter.
+   *
+   * @return the table ids
+   */
+  public List<Integer> getNeededTables() {
+    return neededTables;
+  }
+}
@@ -0,0 +1,100 @@
+package uk.ac.rhul.cs2810.containers;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Represents how many orders a waiter has confirmed and served, and how long they took, over
+ * the last hour, their current shift and today.
+ */
+public class WaiterMetrics {
+
+  /**
+   * The stretches of time the metrics cover.
+   */
+  public enum Window {
+    LAST_HOUR,
+    SHIFT,
+    TODAY
+  }
+
+  private final int waiterID;
+  private final Map<Window, long[]> confirmed;
+  private final Map<Window, long[]> served;
+
+  /**
+   * Instantiates new waiter metrics.
+   * Each window maps to the number of orders and the total minutes they took.
+   *
+   * @param waiterID  the waiters id
+   * @param confirmed the orders confirmed in each window
+   * @param served    the orders served in each window
+   */
+  public WaiterMetrics(int waiterID, Map<Window, long[]> confirmed, Map<Window, long[]> served) {
+    this.waiterID = waiterID;
+    this.confirmed = copy(confirmed);
+    this.served = copy(served);
+  }
+
+  /**
+   * Gets the waiters id.
+   *
+   * @return the id
+   */
+  public int getWaiterID() {
+    return waiterID;
+  }
+
+  /**
+   * Gets the number of orders the waiter confirmed.
+   *
+   * @param window the stretch of time
+   * @return the number confirmed
+   */
+  public long getNumConfirmed(Window window) {
+    return confirmed.get(window)[0];
+  }
+
+  /**
+   * Gets the average time the waiter took to confirm an order.
+   *
+   * @param window the stretch of time
+   * @return the average in minutes - 0 if they didn't confirm any
+   */
+  public float getAverageConfirmTime(Window window) {
+    return average(confirmed.get(window));
+  }
+
+  /**
+   * Gets the number of orders the waiter served.
+   *
+   * @param window the stretch of time
+   * @return the number served
+   */
+  public long getNumServed(Window window) {
+    return served.get(window)[0];
+  }
+
+  /**
+   * Gets the average time the waiter took to serve an order once it was ready.
+   *
+   * @param window the stretch of time
+   * @return the average in minutes - 0 if they didn't serve any
+   */
+  public float getAverageServeTime(Window window) {
+    return average(served.get(window));
+  }
+
+  private static float average(long[] countAndTotal) {
+    return countAndTotal[0] == 0 ? 0 : (float) countAndTotal[1] / countAndTotal[0];
+  }
+
+  private static Map<Window, long[]> copy(Map<Window, long[]> windows) {
+    Map<Window, long[]> copy = new EnumMap<>(Window.class);
+    for (Window window : Window.values()) {
+      long[] countAndTotal = windows.get(window);
+      copy.put(window, countAndTotal == null ? new long[2] : countAndTotal.clone());
+    }
+    return copy;
+  }
+}
@@ -0,0 +1,156 @@
+package uk.ac.rhul.cs2810.database;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import uk.ac.rhul.cs2810.Exceptions.ConnectionError;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Listens on a channel for changes published by the database triggers and hands them on.
+ * If the connection is lost it is made again, waiting longer after each failure. Uses its own
+ * connection outside of the pool as it is held for as long as the feed is running.
+ */
+class ChangeFeed implements Runnable {
+  private static final int WAIT_MILLIS = 500;
+  private static final long MAX_RETRY_DELAY = 30_000;
+
+  private final String channel;
+  private final String URL;
+  private final String userName;
+  private final String password;
+  private final Runnable onConnect;
+  private final Consumer<List<String>> onChange;
+
+  private volatile boolean running;
+  private volatile boolean connected;
+  private volatile long connectedAt;
+  private volatile Thread thread;
+
+  /**
+   * Instantiates a new change feed.
+   *
+   * @param channel   the channel the triggers notify
+   * @param URL       the url of the database
+   * @param userName  the username to login with
+   * @param password  the password to login with
+   * @param onConnect run each time the feed starts listening, as anything could have changed
+   *                  while it wasn't
+   * @param onChange  given the payloads of each batch of notifications received
+   */
+  ChangeFeed(String channel, String URL, String userName, String password, Runnable onConnect,
+             Consumer<List<String>> onChange) {
+    this.channel = channel;
+    this.URL = URL;
+    this.userName = userName;
+    this.password = password;
+    this.onConnect = onConnect;
+    this.onChange = onChange;
+  }
+
+  /**
+   * Starts the feed if it isn't already running.
+   */
+  synchronized void start() {
+    if (!running) {
+      running = true;
+      thread = new Thread(this, "Change feed " + channel);
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * Checks if the feed is currently receiving changes from the database.
+   * While this is false changes may be missed, so callers should read from the database instead.
+   *
+   * @return if changes are being received
+   */
+  boolean isConnected() {
+    return running && connected;
+  }
+
+  /**
+   * Gets when the feed last started listening, from System.nanoTime.
+   * Anything read before then could have missed a change made while the feed was disconnected.
+   *
+   * @return when the feed connected
+   */
+  long getConnectedAt() {
+    return connectedAt;
+  }
+
+  /**
+   * Stops the feed and closes its connection.
+   */
+  synchronized void close() {
+    running = false;
+    connected = false;
+    if (thread != null) {
+      thread.interrupt();
+      thread = null;
+    }
+  }
+
+  @Override
+  public void run() {
+    long retryDelay = 1000;
+
+    while (isFeedThread()) {
+      Connection connection = null;
+      try {
+        connection = Database.getConnection(URL, userName, password);
+        Statement st = connection.createStatement();
+        st.execute("LISTEN " + channel);
+        st.close();
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        connectedAt = System.nanoTime();
+        onConnect.run();
+        connected = true;
+        retryDelay = 1000;
+
+        while (isFeedThread()) {
+          PGNotification[] notifications = pgConnection.getNotifications(WAIT_MILLIS);
+          if (notifications != null && notifications.length > 0) {
+            List<String> payloads = new ArrayList<>(notifications.length);
+            for (PGNotification notification : notifications) {
+              payloads.add(notification.getParameter());
+            }
+            onChange.accept(payloads);
+          }
+        }
+      } catch (ConnectionError | SQLException E) {
+        connected = false;
+      } finally {
+        connected = false;
+        if (connection != null) {
+          Database.closeConnection(connection);
+        }
+      }
+
+      if (isFeedThread()) { // Lost the connection so waits before trying again
+        try {
+          Thread.sleep(retryDelay);
+        } catch (InterruptedException IE) {
+          // Woken up to be closed
+        }
+        retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+      }
+    }
+  }
+
+  /**
+   * Checks if the current thread is still the one the feed should run on.
+   * Stops an old thread carrying on if the feed is closed and started again quickly.
+   *
+   * @return if the current thread should keep running
+   */
+  private boolean isFeedThread() {
+    return running && Thread.currentThread() == thread;
+  }
+}
@@ -0,0 +1,84 @@
+package uk.ac.rhul.cs2810.database;
+
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Loads some data on a database thread and hands it to a callback, usually to show it in the UI.
+ * Only one load runs at a time. Refreshes asked for while one is running are combined into a
+ * single load started once it finishes, so a slow database can't build up a queue of refreshes.
+ *
+ * @param <T> the type of the data loaded
+ */
+public class CoalescingRefresh<T> {
+  private final DatabaseCall<T> load;
+  private final Executor resultExecutor;
+  private final Consumer<T> onResult;
+  private final Consumer<Throwable> onError;
+  
+  private boolean running = false;
+  private boolean pending = false;
+  
+  /**
+   * Instantiates a new coalescing refresh.
+   *
+   * @param load           loads the data, run on a database thread
+   * @param resultExecutor runs the callbacks, for JavaFX use Platform::runLater
+   * @param onResult       given the loaded data
+   * @param onError        given the error if the load fails
+   */
+  public CoalescingRefresh(DatabaseCall<T> load, Executor resultExecutor, Consumer<T> onResult,
+                           Consumer<Throwable> onError) {
+    this.load = load;
+    this.resultExecutor = resultExecutor;
+    this.onResult = onResult;
+    this.onError = onError;
+  }
+  
+  /**
+   * Asks for the data to be loaded again.
+   * If a load is already running another is made once it finishes instead.
+   */
+  public synchronized void request() {
+    if (running) {
+      pending = true;
+      return;
+    }
+    running = true;
+    start();
+  }
+  
+  /**
+   * Checks if a load is running or waiting to run.
+   *
+   * @return if a load is in progress
+   */
+  public synchronized boolean isRunning() {
+    return running;
+  }
+  
+  private void start() {
+    DatabaseExecutor.submit(load).whenComplete((result, error) -> {
+      try {
+        resultExecutor.execute(() -> {
+          if (error == null) {
+            onResult.accept(result);
+          } else {
+            onError.accept(DatabaseExecutor.unwrap(error));
+          }
+        });
+      } finally {
+        finished();
+      }
+    });
+  }
+  
+  private synchronized void finished() {
+    if (pending) {
+      pending = false;
+      start();
+    } else {
+      running = false;
+    }
+  }
+}
@@ -0,0 +1,454 @@
+package uk.ac.rhul.cs2810.database;
+
+import uk.ac.rhul.cs2810.Exceptions.ConnectionError;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of connections to a single database.
+ * <p>
+ * Connections handed out are proxies, closing them returns the underlying connection to the pool
+ * rather than closing it. Statements made from a pooled connection return the proxy from
+ * getConnection so the existing closeConnection(st.getConnection()) pattern also returns it.
+ * Connections that are dropped without being closed are reclaimed once they are garbage collected.
+ */
+class ConnectionPool {
+
+  private static final long WAIT_SLICE_MILLIS = 100; // How often waiters check for leaks
+
+  private final String URL;
+  private final String userName;
+  private final String password;
+  private final int minSize;
+  private final int maxSize;
+  private final long acquireTimeoutMillis;
+  private final long idleTimeoutMillis;
+  private final long validationIntervalMillis;
+
+  private final Semaphore permits;
+  private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+  private final ReferenceQueue<Connection> dropped = new ReferenceQueue<>();
+  private final Map<Reference<Connection>, PooledConnection> borrowed = new ConcurrentHashMap<>();
+  private final ScheduledJob housekeeper;
+  private volatile boolean closed = false;
+
+  // Statistics
+  private final AtomicInteger active = new AtomicInteger();
+  private final AtomicInteger waiters = new AtomicInteger();
+  private final AtomicLong acquireCount = new AtomicLong();
+  private final AtomicLong timeoutCount = new AtomicLong();
+  private final AtomicLong reclaimedCount = new AtomicLong();
+  private final AtomicLong totalAcquireNanos = new AtomicLong();
+  private final AtomicLong maxAcquireNanos = new AtomicLong();
+
+  /**
+   * Instantiates a new connection pool.
+   *
+   * @param URL                      the url of the database
+   * @param userName                 the username to login with
+   * @param password                 the password to login with
+   * @param minSize                  the number of idle connections to keep open
+   * @param maxSize                  the maximum number of connections open at once
+   * @param acquireTimeoutMillis     how long to wait for a free connection
+   * @param idleTimeoutMillis        how long a connection above the min size can stay idle
+   * @param validationIntervalMillis how long a connection can be idle before it's checked
+   */
+  ConnectionPool(String URL, String userName, String password, int minSize, int maxSize,
+                 long acquireTimeoutMillis, long idleTimeoutMillis,
+                 long validationIntervalMillis) {
+    this.URL = URL;
+    this.userName = userName;
+    this.password = password;
+    this.maxSize = Math.max(1, maxSize);
+    this.minSize = Math.max(0, Math.min(minSize, this.maxSize));
+    this.acquireTimeoutMillis = acquireTimeoutMillis;
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    this.validationIntervalMillis = validationIntervalMillis;
+
+    permits = new Semaphore(this.maxSize, true);
+
+    long period = Math.max(1000, idleTimeoutMillis / 2);
+    // Runs straight away to fill the pool to its min size
+    housekeeper = Scheduler.getHousekeeping().scheduleRepeating(
+        "pool.housekeeper " + userName + "@" + URL, 0, period, TimeUnit.MILLISECONDS, 0,
+        this::houseKeep);
+  }
+
+  /**
+   * Gets a connection from the pool, opening a new one if none are idle.
+   * Blocks until a connection is free or the acquire timeout passes.
+   *
+   * @return the connection, closing it returns it to the pool
+   * @throws ConnectionError if unable to get a connection in time
+   */
+  Connection getConnection() throws ConnectionError {
+    if (closed) {
+      throw new ConnectionError("Connection pool has been closed");
+    }
+
+    long start = System.nanoTime();
+    long deadline = start + TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+    boolean acquired = false;
+
+    waiters.incrementAndGet();
+    try {
+      while (!acquired) {
+        reclaimDropped();
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          timeoutCount.incrementAndGet();
+          throw new ConnectionError("Timed out waiting for a database connection ("
+              + getStatistics() + ")");
+        }
+        acquired = permits.tryAcquire(Math.min(remaining,
+            TimeUnit.MILLISECONDS.toNanos(WAIT_SLICE_MILLIS)), TimeUnit.NANOSECONDS);
+      }
+    } catch (InterruptedException IE) {
+      Thread.currentThread().interrupt();
+      throw new ConnectionError("Interrupted while waiting for a database connection", IE);
+    } finally {
+      waiters.decrementAndGet();
+    }
+
+    PooledConnection pooled;
+    try {
+      pooled = takeIdle();
+      if (pooled == null) {
+        pooled = new PooledConnection(Database.getConnection(URL, userName, password));
+      }
+    } catch (ConnectionError | RuntimeException E) {
+      permits.release();
+      throw E;
+    }
+
+    long waited = System.nanoTime() - start;
+    acquireCount.incrementAndGet();
+    totalAcquireNanos.addAndGet(waited);
+    maxAcquireNanos.accumulateAndGet(waited, Math::max);
+    active.incrementAndGet();
+
+    return pooled.lend();
+  }
+
+  /**
+   * Gets the current statistics of the pool.
+   *
+   * @return the statistics
+   */
+  PoolStatistics getStatistics() {
+    return new PoolStatistics(active.get(), idle.size(), waiters.get(), maxSize,
+        acquireCount.get(), timeoutCount.get(), reclaimedCount.get(), totalAcquireNanos.get(),
+        maxAcquireNanos.get());
+  }
+
+  /**
+   * Closes all idle connections and stops handing out new ones.
+   * Borrowed connections are closed when they are returned.
+   */
+  void close() {
+    closed = true;
+    housekeeper.cancel();
+    PooledConnection pooled = idle.pollFirst();
+    while (pooled != null) {
+      pooled.closePhysical();
+      pooled = idle.pollFirst();
+    }
+  }
+
+  /**
+   * Has the pool been closed.
+   *
+   * @return is the pool closed
+   */
+  boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Takes the most recently used idle connection which is still usable.
+   *
+   * @return the connection, null if there are no usable idle connections
+   */
+  private PooledConnection takeIdle() {
+    PooledConnection pooled = idle.pollFirst();
+    while (pooled != null) {
+      if (pooled.isUsable(validationIntervalMillis)) {
+        return pooled;
+      }
+      pooled.closePhysical();
+      pooled = idle.pollFirst();
+    }
+    return null;
+  }
+
+  /**
+   * Returns a borrowed connection to the pool.
+   *
+   * @param pooled the connection to return
+   */
+  private void giveBack(PooledConnection pooled) {
+    active.decrementAndGet();
+    try {
+      if (closed || !pooled.reset()) {
+        pooled.closePhysical();
+      } else {
+        idle.offerFirst(pooled); // LIFO keeps the same few connections warm
+      }
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * Reclaims the connections whose proxies have been garbage collected without being closed.
+   */
+  private void reclaimDropped() {
+    Reference<? extends Connection> reference = dropped.poll();
+    while (reference != null) {
+      PooledConnection pooled = borrowed.remove(reference);
+      if (pooled != null) {
+        reclaimedCount.incrementAndGet();
+        active.decrementAndGet();
+        pooled.closePhysical(); // State is unknown so don't reuse it
+        permits.release();
+      }
+      reference = dropped.poll();
+    }
+  }
+
+  /**
+   * Evicts connections that have been idle too long and tops the pool back up to the min size.
+   */
+  private void houseKeep() {
+    if (closed) {
+      return;
+    }
+    reclaimDropped();
+
+    long now = System.currentTimeMillis();
+    Iterator<PooledConnection> connections = idle.descendingIterator(); // Oldest first
+    while (connections.hasNext() && idle.size() + active.get() > minSize) {
+      PooledConnection pooled = connections.next();
+      if (now - pooled.lastUsed > idleTimeoutMillis && idle.removeFirstOccurrence(pooled)) {
+        pooled.closePhysical();
+      }
+    }
+
+    while (!closed && idle.size() + active.get() < minSize && permits.tryAcquire()) {
+      try {
+        idle.offerLast(new PooledConnection(Database.getConnection(URL, userName, password)));
+      } catch (ConnectionError CE) {
+        break; // Will try again next time round
+      } finally {
+        permits.release();
+      }
+    }
+  }
+
+  /**
+   * A physical connection owned by the pool.
+   */
+  private class PooledConnection {
+    private final Connection physical;
+    private final List<Statement> statements = new CopyOnWriteArrayList<>();
+    private volatile long lastUsed = System.currentTimeMillis();
+    private volatile Reference<Connection> lease;
+
+    /**
+     * Instantiates a new pooled connection.
+     *
+     * @param physical the underlying connection to the database
+     */
+    PooledConnection(Connection physical) {
+      this.physical = physical;
+    }
+
+    /**
+     * Makes a new proxy for this connection to give out.
+     *
+     * @return the proxy
+     */
+    Connection lend() {
+      ConnectionHandler handler = new ConnectionHandler(this);
+      Connection proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+          new Class<?>[]{Connection.class}, handler);
+      handler.self = proxy;
+      lease = new WeakReference<>(proxy, dropped);
+      borrowed.put(lease, this);
+      return proxy;
+    }
+
+    /**
+     * Returns the connection to the pool. Does nothing if it was already returned.
+     */
+    void release() {
+      Reference<Connection> reference = lease;
+      if (reference != null && borrowed.remove(reference) != null) {
+        lease = null;
+        giveBack(this);
+      }
+    }
+
+    /**
+     * Cleans up the connection so it can be handed out again.
+     *
+     * @return can the connection be reused
+     */
+    boolean reset() {
+      try {
+        for (Statement statement : statements) {
+          statement.close(); // Stops leaked statements holding server resources
+        }
+        statements.clear();
+        if (physical.isClosed()) {
+          return false;
+        }
+        if (!physical.getAutoCommit()) {
+          physical.rollback(); // Unfinished transactions shouldn't leak into the next user
+          physical.setAutoCommit(true);
+        }
+        physical.clearWarnings();
+      } catch (SQLException SQLE) {
+        return false;
+      }
+      lastUsed = System.currentTimeMillis();
+      return true;
+    }
+
+    /**
+     * Checks the connection is still alive if it has been idle for a while.
+     *
+     * @param validationInterval how long it can be idle before being checked
+     * @return is the connection usable
+     */
+    boolean isUsable(long validationInterval) {
+      try {
+        if (physical.isClosed()) {
+          return false;
+        }
+        if (System.currentTimeMillis() - lastUsed > validationInterval) {
+          return physical.isValid(2);
+        }
+        return true;
+      } catch (SQLException SQLE) {
+        return false;
+      }
+    }
+
+    /**
+     * Closes the underlying connection.
+     */
+    void closePhysical() {
+      Database.closeConnection(physical);
+    }
+  }
+
+  /**
+   * Handles calls to a pooled connection's proxy.
+   */
+  private static class ConnectionHandler implements InvocationHandler {
+    private final PooledConnection pooled;
+    private volatile boolean released = false;
+    private Connection self;
+
+    /**
+     * Instantiates a new connection handler.
+     *
+     * @param pooled the connection being proxied
+     */
+    ConnectionHandler(PooledConnection pooled) {
+      this.pooled = pooled;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "close":
+          if (!released) {
+            released = true;
+            pooled.release();
+          }
+          return null;
+        case "isClosed":
+          return released || pooled.physical.isClosed();
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return "Pooled " + pooled.physical;
+        default:
+          break;
+      }
+
+      if (released) {
+        throw new SQLException("Connection has already been returned to the pool");
+      }
+
+      Object result;
+      try {
+        result = method.invoke(pooled.physical, args);
+      } catch (InvocationTargetException ITE) {
+        throw ITE.getCause();
+      }
+
+      if (result instanceof Statement) { // Covers prepared and callable statements
+        pooled.statements.add((Statement) result);
+        result = Proxy.newProxyInstance(Statement.class.getClassLoader(),
+            new Class<?>[]{method.getReturnType()},
+            new StatementHandler((Statement) result, self));
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Handles calls to statements made by a pooled connection so they point back at the proxy.
+   */
+  private static class StatementHandler implements InvocationHandler {
+    private final Statement statement;
+    private final Connection connection;
+
+    /**
+     * Instantiates a new statement handler.
+     *
+     * @param statement  the real statement
+     * @param connection the proxy connection that made it
+     */
+    StatementHandler(Statement statement, Connection connection) {
+      this.statement = statement;
+      this.connection = connection;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      if (method.getName().equals("getConnection")) {
+        return connection;
+      }
+      try {
+        return method.invoke(statement, args);
+      } catch (InvocationTargetException ITE) {
+        throw ITE.getCause();
+      }
+    }
+  }
+}
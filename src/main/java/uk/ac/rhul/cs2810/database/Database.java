@@ -10,6 +10,7 @@ import java.sql.*;
 import java.time.LocalDate;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static java.lang.Thread.sleep;
 
@@ -30,6 +31,14 @@ abstract class Database {
   protected final String[] tables;
   protected final boolean testing;
   protected final int pollingRate;
+  protected final int poolMinSize;
+  protected final int poolMaxSize;
+  protected final long poolAcquireTimeout;
+  protected final long poolIdleTimeout;
+  protected final long poolValidationInterval;
+  protected final long imageCacheBytes;
+  
+  private static final Map<String, ConnectionPool> pools = new HashMap<>();
   
   /**
    * Instantiates a new Database object.
@@ -64,10 +73,23 @@ abstract class Database {
     format = connectionData[3];
     tableCount = Integer.parseInt(connectionData[4]);
     pollingRate = Integer.parseInt(connectionData[5]);
+    poolMinSize = Integer.parseInt(connectionData[6]);
+    poolMaxSize = Integer.parseInt(connectionData[7]);
+    poolAcquireTimeout = Long.parseLong(connectionData[8]);
+    poolIdleTimeout = Long.parseLong(connectionData[9]) * 1000;
+    poolValidationInterval = Long.parseLong(connectionData[10]) * 1000;
+    imageCacheBytes = Long.parseLong(connectionData[11]) * 1024 * 1024;
     
     this.tables = tables;
     
-    if (!doTablesExist(getStatement())) {
+    Statement st = getStatement();
+    boolean tablesExist = doTablesExist(st);
+    try {
+      closeConnection(st.getConnection());
+    } catch (SQLException SQLE) {
+      // Not worried with closing issues
+    }
+    if (!tablesExist) {
       makeTables();
     }
   }
@@ -100,7 +122,15 @@ abstract class Database {
   static String[] getConfigInfo(String configFile) throws ConnectionError {
     BufferedReader config;
     String configPos = configFile;
-    String[] data = new String[6];
+    String[] data = new String[12];
+    
+    // Pool and cache settings are optional so older config files still work
+    data[6] = "2";
+    data[7] = "10";
+    data[8] = "5000";
+    data[9] = "300";
+    data[10] = "30";
+    data[11] = "64";
     
     InputStreamReader inputStream;
     
@@ -121,8 +151,11 @@ abstract class Database {
     }
     
     try {
-      for (int i = 0; i < data.length; i++) {
-        String line = config.readLine();
+      String line;
+      while ((line = config.readLine()) != null) {
+        if (!line.contains("=")) {
+          continue; // Skips blank lines
+        }
         String[] splitLine = line.split("="); // Splits into name and data
         String info = splitLine[1].strip().substring(1, splitLine[1].length() - 2);
         // Strips quotes
@@ -140,6 +173,18 @@ abstract class Database {
           data[4] = info;
         } else if (splitLine[0].contains("Polling")) {
           data[5] = info;
+        } else if (splitLine[0].contains("PoolMinSize")) {
+          data[6] = info;
+        } else if (splitLine[0].contains("PoolMaxSize")) {
+          data[7] = info;
+        } else if (splitLine[0].contains("PoolAcquireTimeout")) {
+          data[8] = info;
+        } else if (splitLine[0].contains("PoolIdleTimeout")) {
+          data[9] = info;
+        } else if (splitLine[0].contains("PoolValidationInterval")) {
+          data[10] = info;
+        } else if (splitLine[0].contains("ImageCacheSize")) {
+          data[11] = info;
         }
       }
     } catch (IOException IOE) {
@@ -233,6 +278,19 @@ abstract class Database {
     }
   }
   
+  /**
+   * Closes all the connection pools.
+   * New pools are made the next time a connection is needed.
+   */
+  static void closePools() {
+    synchronized (pools) {
+      for (ConnectionPool pool : pools.values()) {
+        pool.close();
+      }
+      pools.clear();
+    }
+  }
+  
   /**
    * Gets the database polling rate.
    * Gives a useful base reference point for how often the check if the database has updated.
@@ -260,17 +318,101 @@ abstract class Database {
    * @throws ConnectionError if unable to connect to the database
    */
   protected Statement getStatement() throws ConnectionError {
-    return getStatement(URL, userName, password);
+    Connection connection = getConnection();
+    try {
+      return connection.createStatement();
+    } catch (SQLException SQLE) {
+      closeConnection(connection);
+      throw new ConnectionError("Couldn't make a new statement", SQLE);
+    }
   }
   
   /**
-   * Gets a connection to the database.
+   * Gets a connection to the database from the shared connection pool.
+   * Closing the connection returns it to the pool.
    *
    * @return the connection
    * @throws ConnectionError if unable to connect to the database
    */
   protected Connection getConnection() throws ConnectionError {
-    return getConnection(URL, userName, password);
+    return getPool().getConnection();
+  }
+  
+  /**
+   * Runs the work in a single transaction on one pooled connection.
+   * The transaction is committed if the work returns and rolled back if it throws.
+   *
+   * @param work the work to run
+   * @param <T>  the type of result the work gives back
+   * @return the result of the work
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError  if the work fails or the transaction can't be committed
+   */
+  protected <T> T inTransaction(UnitOfWork<T> work) throws ConnectionError, ExecutionError {
+    Connection connection = getConnection();
+    try {
+      connection.setAutoCommit(false);
+      T result = work.run(connection);
+      connection.commit();
+      return result;
+    } catch (SQLException SQLE) {
+      rollback(connection);
+      throw new ExecutionError("Transaction failed", SQLE);
+    } catch (ExecutionError | RuntimeException E) {
+      rollback(connection);
+      throw E;
+    } finally {
+      closeConnection(connection); // The pool turns auto commit back on
+    }
+  }
+  
+  private static void rollback(Connection connection) {
+    try {
+      connection.rollback();
+    } catch (SQLException SQLE) {
+      // The pool rolls back anything left when the connection is returned
+    }
+  }
+  
+  /**
+   * Runs some database work on a background database thread.
+   * Used by the UI so it doesn't freeze while waiting on the database. Anything the work does to
+   * the UI has to be passed back to the UI thread, such as with Platform.runLater.
+   *
+   * @param call the work to do
+   * @param <T>  the type of the result
+   * @return a future completed with the result, or failed with the error thrown
+   */
+  public <T> CompletableFuture<T> callAsync(DatabaseCall<T> call) {
+    return DatabaseExecutor.submit(call);
+  }
+  
+  /**
+   * Gets the statistics of the connection pool used by this object.
+   *
+   * @return the pool statistics
+   */
+  public PoolStatistics getPoolStatistics() {
+    return getPool().getStatistics();
+  }
+  
+  /**
+   * Gets the connection pool for this database, making it if needed.
+   * The pool is shared between all the database objects connected to the same database.
+   *
+   * @return the connection pool
+   */
+  private ConnectionPool getPool() {
+    String key = URL + "|" + userName;
+    synchronized (pools) {
+      ConnectionPool pool = pools.get(key);
+      if (pool == null || pool.isClosed()) {
+        pool = new ConnectionPool(URL, userName, password, poolMinSize, poolMaxSize,
+            poolAcquireTimeout, poolIdleTimeout, poolValidationInterval);
+        pools.put(key, pool);
+      }
+      return pool;
+    }
   }
   
   /**
@@ -351,16 +493,26 @@ abstract class Database {
     try {
       ps.executeBatch();
     } catch (SQLException SQLE) {
-      String message = SQLE.getMessage();
-      if (message.contains("duplicate")) {
-        throw new ExecutionError("Input contains duplicate key", SQLE);
-      } else if (message.contains("tableid")) {
-        throw new ExecutionError("Table num " + StringUtils.substringBefore(
-            StringUtils.substringAfter(message, "tableid)=("), ")")
-            + " is not valid", SQLE);
-      } else {
-        throw new ExecutionError("Could not insert data into table", SQLE);
-      }
+      throw getInsertError(SQLE);
+    }
+  }
+  
+  /**
+   * Gets a readable error for an exception thrown when inserting data.
+   *
+   * @param SQLE the exception thrown by the insert
+   * @return the error to throw
+   */
+  protected ExecutionError getInsertError(SQLException SQLE) {
+    String message = SQLE.getMessage();
+    if (message.contains("duplicate")) {
+      return new ExecutionError("Input contains duplicate key", SQLE);
+    } else if (message.contains("tableid")) {
+      return new ExecutionError("Table num " + StringUtils.substringBefore(
+          StringUtils.substringAfter(message, "tableid)=("), ")")
+          + " is not valid", SQLE);
+    } else {
+      return new ExecutionError("Could not insert data into table", SQLE);
     }
   }
   
@@ -371,7 +523,7 @@ abstract class Database {
    * there original types except for files where the file path should specified.
    * <p>
    * The char to type mapping is:
-   * i - int, s - string, b - boolean, t - time, B - Blob (file), d - date
+   * i - int, l - long, s - string, b - boolean, t - time, B - Blob (file), d - date
    *
    * @param inputs the inputs to add to the prepared statement
    * @param layout the layout of the inputs (What type they are)
@@ -392,6 +544,15 @@ abstract class Database {
                   + " is not a valid int", NFE);
             }
             break;
+          case 'l':
+            try {
+              ps.setLong(i + 1, Long.parseLong(inputs[i].strip()));
+            } catch (NumberFormatException NFE) {
+              throw new ExecutionError("Could not insert item " + (i + 1) + " as "
+                  + inputs[i].strip()
+                  + " is not a valid long", NFE);
+            }
+            break;
           case 's':
             ps.setString(i + 1, inputs[i].strip());
             break;
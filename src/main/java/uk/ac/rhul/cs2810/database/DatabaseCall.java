@@ -0,0 +1,18 @@
+package uk.ac.rhul.cs2810.database;
+
+/**
+ * Some database work to be run away from the calling thread.
+ *
+ * @param <T> the type of the result
+ */
+@FunctionalInterface
+public interface DatabaseCall<T> {
+  
+  /**
+   * Does the work.
+   *
+   * @return the result
+   * @throws Exception any error, which fails the returned future
+   */
+  T call() throws Exception;
+}
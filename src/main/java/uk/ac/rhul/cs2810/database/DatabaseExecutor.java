@@ -0,0 +1,76 @@
+package uk.ac.rhul.cs2810.database;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs database work on a small fixed set of background threads so the UI thread never waits on
+ * the database. The queue is bounded, so if the database falls far behind new work fails straight
+ * away rather than piling up.
+ */
+final class DatabaseExecutor {
+  static final int THREADS = 4;
+  static final int QUEUE_SIZE = 64;
+  
+  private static final AtomicInteger threadCount = new AtomicInteger();
+  private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS,
+      30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE), runnable -> {
+        Thread thread = new Thread(runnable, "Database worker " + threadCount.incrementAndGet());
+        thread.setDaemon(true); // Doesn't stop the program closing
+        return thread;
+      });
+  
+  static {
+    executor.allowCoreThreadTimeOut(true);
+  }
+  
+  private DatabaseExecutor() {
+  }
+  
+  /**
+   * Runs the call on a database thread.
+   *
+   * @param call the work to do
+   * @param <T>  the type of the result
+   * @return a future completed with the result, or failed with the error thrown
+   */
+  static <T> CompletableFuture<T> submit(DatabaseCall<T> call) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    try {
+      executor.execute(() -> {
+        try {
+          future.complete(call.call());
+        } catch (Exception E) {
+          future.completeExceptionally(E);
+        } catch (Throwable T) {
+          // Anything waiting on the future would otherwise never hear back
+          future.completeExceptionally(T);
+          throw T;
+        }
+      });
+    } catch (RejectedExecutionException REE) {
+      future.completeExceptionally(REE);
+    }
+    return future;
+  }
+  
+  /**
+   * Gets the error a failed future was failed with, rather than the exception wrapping it.
+   *
+   * @param error the error passed to a futures callback
+   * @return the underlying error
+   */
+  static Throwable unwrap(Throwable error) {
+    while ((error instanceof CompletionException || error instanceof ExecutionException)
+        && error.getCause() != null) {
+      error = error.getCause();
+    }
+    return error;
+  }
+}
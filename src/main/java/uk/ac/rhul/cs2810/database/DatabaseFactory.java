@@ -260,10 +260,44 @@ public class DatabaseFactory {
     return waiterDB;
   }
   
+  /**
+   * Stops the waiter metrics being synced in the background, writing any times still waiting
+   * to be synced. Used when the program is closing so they aren't lost.
+   */
+  public static void stopSyncingMetrics() {
+    if (waiterDB != null) {
+      waiterDB.stopSyncingMetrics();
+    }
+    if (testWaiterDB != null) {
+      testWaiterDB.stopSyncingMetrics();
+    }
+  }
+  
   /**
    * Resets all the instances incase some external change happens.
+   * Also closes the pooled connections and change feeds so none hold on to old tables.
    */
   static void reset() {
+    if (orderDB != null) {
+      orderDB.closeChangeFeed();
+    }
+    if (testOrder != null) {
+      testOrder.closeChangeFeed();
+    }
+    if (loginDB != null) {
+      loginDB.closeChangeFeed();
+    }
+    if (testLoginDB != null) {
+      testLoginDB.closeChangeFeed();
+    }
+    if (tableDB != null) {
+      tableDB.closeChangeFeed();
+    }
+    if (testTable != null) {
+      testTable.closeChangeFeed();
+    }
+    stopSyncingMetrics();
+    Database.closePools();
     menuDB = null;
     orderDB = null;
     testOrder = null;
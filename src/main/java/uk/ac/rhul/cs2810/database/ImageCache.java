@@ -0,0 +1,184 @@
+package uk.ac.rhul.cs2810.database;
+
+import javafx.scene.image.Image;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of decoded images kept within a byte budget.
+ * Each image counts as its decoded size, 4 bytes a pixel, against the budget. Once over budget the
+ * least recently used images are evicted, either dropped or, with the soft tier, kept as soft
+ * references the garbage collector can clear when memory runs low.
+ *
+ * @param <K> the type of key the images are stored under
+ */
+class ImageCache<K> {
+  private static final int BYTES_PER_PIXEL = 4;
+
+  private final long budget;
+  private final boolean softTier;
+  private final LinkedHashMap<K, Image> images = new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<K, SoftImage<K>> evicted = new HashMap<>();
+  private final ReferenceQueue<Image> cleared = new ReferenceQueue<>();
+
+  private long bytes = 0;
+  private long hits = 0;
+  private long softHits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  /**
+   * Instantiates a new image cache.
+   *
+   * @param budget   the most decoded bytes to keep strongly held
+   * @param softTier whether evicted images are kept as soft references
+   */
+  ImageCache(long budget, boolean softTier) {
+    this.budget = budget;
+    this.softTier = softTier;
+  }
+
+  /**
+   * Gets a cached image, marking it as recently used.
+   *
+   * @param key the images key
+   * @return the image - null if it isn't cached
+   */
+  synchronized Image get(K key) {
+    Image image = find(key);
+    if (image == null) {
+      misses++;
+    }
+    return image;
+  }
+
+  /**
+   * Gets a cached image without counting a miss if it isn't cached.
+   * Used to check for an image before it is fetched, so the fetch counts the miss.
+   *
+   * @param key the images key
+   * @return the image - null if it isn't cached
+   */
+  synchronized Image peek(K key) {
+    return find(key);
+  }
+
+  /**
+   * Adds an image, evicting the least recently used images if over budget.
+   *
+   * @param key   the images key
+   * @param image the decoded image
+   */
+  synchronized void put(K key, Image image) {
+    purgeCleared();
+    evicted.remove(key);
+    store(key, image);
+  }
+
+  /**
+   * Removes an image.
+   *
+   * @param key the images key
+   */
+  synchronized void remove(K key) {
+    Image old = images.remove(key);
+    if (old != null) {
+      bytes -= sizeOf(old);
+    }
+    evicted.remove(key);
+  }
+
+  /**
+   * Removes every image.
+   */
+  synchronized void clear() {
+    images.clear();
+    evicted.clear();
+    bytes = 0;
+  }
+
+  /**
+   * Gets the caches hit, miss and eviction counts and how much of the budget is used.
+   *
+   * @return the statistics
+   */
+  synchronized ImageCacheStatistics getStatistics() {
+    purgeCleared();
+    return new ImageCacheStatistics(hits, softHits, misses, evictions, images.size(),
+        evicted.size(), bytes, budget);
+  }
+
+  /**
+   * Gets the bytes an image takes up once decoded.
+   *
+   * @param image the image
+   * @return the decoded size
+   */
+  static long sizeOf(Image image) {
+    return (long) image.getWidth() * (long) image.getHeight() * BYTES_PER_PIXEL;
+  }
+
+  private Image find(K key) {
+    Image image = images.get(key);
+    if (image != null) {
+      hits++;
+      return image;
+    }
+
+    purgeCleared();
+    SoftImage<K> soft = evicted.remove(key);
+    image = soft == null ? null : soft.get();
+    if (image != null) { // Still in memory so is brought back into the budget
+      hits++;
+      softHits++;
+      store(key, image);
+    }
+    return image;
+  }
+
+  private void store(K key, Image image) {
+    Image old = images.put(key, image);
+    if (old != null) {
+      bytes -= sizeOf(old);
+    }
+    bytes += sizeOf(image);
+
+    Iterator<Map.Entry<K, Image>> eldest = images.entrySet().iterator();
+    while (bytes > budget && eldest.hasNext()) {
+      Map.Entry<K, Image> entry = eldest.next();
+      eldest.remove();
+      bytes -= sizeOf(entry.getValue());
+      evictions++;
+      if (softTier) {
+        evicted.put(entry.getKey(), new SoftImage<>(entry.getKey(), entry.getValue(), cleared));
+      }
+    }
+  }
+
+  private void purgeCleared() {
+    Reference<? extends Image> reference;
+    while ((reference = cleared.poll()) != null) {
+      @SuppressWarnings("unchecked")
+      SoftImage<K> soft = (SoftImage<K>) reference;
+      evicted.remove(soft.key, soft);
+    }
+  }
+
+  /**
+   * A soft reference to an evicted image that remembers which key it was stored under.
+   */
+  private static class SoftImage<K> extends SoftReference<Image> {
+    private final K key;
+
+    SoftImage(K key, Image image, ReferenceQueue<Image> queue) {
+      super(image, queue);
+      this.key = key;
+    }
+  }
+}
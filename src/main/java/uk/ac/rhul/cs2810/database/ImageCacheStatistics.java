@@ -0,0 +1,131 @@
+package uk.ac.rhul.cs2810.database;
+
+/**
+ * A snapshot of the state of an image cache.
+ * Used to see how well the cache budget fits the menu so it can be sized correctly.
+ */
+public class ImageCacheStatistics {
+  private final long hits;
+  private final long softHits;
+  private final long misses;
+  private final long evictions;
+  private final int cachedCount;
+  private final int softCount;
+  private final long bytesUsed;
+  private final long budget;
+
+  /**
+   * Instantiates a new set of image cache statistics.
+   *
+   * @param hits        the number of requests answered from memory
+   * @param softHits    the number of those hits that came back from the soft tier
+   * @param misses      the number of requests that had to fetch the image
+   * @param evictions   the number of images evicted to stay in budget
+   * @param cachedCount the number of images held within the budget
+   * @param softCount   the number of evicted images still softly held
+   * @param bytesUsed   the decoded bytes held within the budget
+   * @param budget      the most decoded bytes the cache will hold
+   */
+  ImageCacheStatistics(long hits, long softHits, long misses, long evictions, int cachedCount,
+                       int softCount, long bytesUsed, long budget) {
+    this.hits = hits;
+    this.softHits = softHits;
+    this.misses = misses;
+    this.evictions = evictions;
+    this.cachedCount = cachedCount;
+    this.softCount = softCount;
+    this.bytesUsed = bytesUsed;
+    this.budget = budget;
+  }
+
+  /**
+   * Gets the number of requests answered from memory.
+   *
+   * @return the number of hits
+   */
+  public long getHits() {
+    return hits;
+  }
+
+  /**
+   * Gets the number of hits found in the soft tier after being evicted.
+   *
+   * @return the number of soft hits
+   */
+  public long getSoftHits() {
+    return softHits;
+  }
+
+  /**
+   * Gets the number of requests that had to go to the database.
+   *
+   * @return the number of misses
+   */
+  public long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Gets the number of images evicted to stay within the budget.
+   *
+   * @return the number of evictions
+   */
+  public long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * Gets the number of images held within the budget.
+   *
+   * @return the number of cached images
+   */
+  public int getCachedCount() {
+    return cachedCount;
+  }
+
+  /**
+   * Gets the number of evicted images the garbage collector hasn't cleared yet.
+   *
+   * @return the number of softly held images
+   */
+  public int getSoftCount() {
+    return softCount;
+  }
+
+  /**
+   * Gets the decoded bytes held within the budget.
+   *
+   * @return the bytes used
+   */
+  public long getBytesUsed() {
+    return bytesUsed;
+  }
+
+  /**
+   * Gets the most decoded bytes the cache will hold.
+   *
+   * @return the budget in bytes
+   */
+  public long getBudget() {
+    return budget;
+  }
+
+  /**
+   * Gets the fraction of requests answered from memory.
+   *
+   * @return the hit rate, between 0 and 1
+   */
+  public double getHitRate() {
+    if (hits + misses == 0) {
+      return 0;
+    }
+    return (double) hits / (hits + misses);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("hits=%d softHits=%d misses=%d evictions=%d cached=%d soft=%d "
+            + "used=%d/%d bytes hitRate=%.3f", hits, softHits, misses, evictions, cachedCount,
+        softCount, bytesUsed, budget, getHitRate());
+  }
+}
@@ -1,19 +1,18 @@
 package uk.ac.rhul.cs2810.database;
 
 
-import javafx.embed.swing.SwingFXUtils;
 import javafx.scene.image.Image;
 import uk.ac.rhul.cs2810.Exceptions.ConnectionError;
 import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
+import uk.ac.rhul.cs2810.containers.ImageSize;
 import uk.ac.rhul.cs2810.containers.Item;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.sql.*;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -23,8 +22,11 @@ import java.util.Map;
  */
 public class ImageDB extends Database {
   
-  private final Map<Integer, Image> imageCache;
+  private final ImageCache<String> imageCache;
+  private final ImageDiskCache diskCache;
+  private final String hashColumn;
   private Image imageNotFoundImage;
+  private ImagePrefetcher prefetcher;
   
   /**
    * Instantiates a new imageDB.
@@ -34,12 +36,15 @@ public class ImageDB extends Database {
    * @throws ExecutionError  if unable to setup the tables
    */
   ImageDB(boolean testing) throws ConnectionError, ExecutionError {
-    super(new String[]{"images"}, testing);
+    super(new String[]{"images", "imageVariants"}, testing);
     
     insertStatments.put("images", "INSERT INTO images VALUES (?,?);");
     layouts.put("images", new char[]{'i', 'B'});
     
-    imageCache = new HashMap<>();
+    imageCache = new ImageCache<>(imageCacheBytes, true);
+    diskCache = new ImageDiskCache(ImageDiskCache.getDefaultDirectory(testing));
+    // Hashing every image on each request still saves sending them if the column can't be made
+    hashColumn = makeHashColumn() ? "hash" : "md5(image)";
     
     Statement st = null;
     try {
@@ -63,7 +68,7 @@ public class ImageDB extends Database {
   }
   
   /**
-   * Gets the image of a given menu item.
+   * Gets the image of a given menu item as it was uploaded.
    *
    * @param itemID the item id
    * @return the image
@@ -71,46 +76,296 @@ public class ImageDB extends Database {
    * @throws ExecutionError  if unable to get the image from the database
    */
   public Image getImage(int itemID) throws ConnectionError, ExecutionError {
-    if (imageCache.containsKey(itemID)) {
-      return imageCache.get(itemID);
+    return getImage(itemID, ImageSize.ORIGINAL);
+  }
+  
+  /**
+   * Gets the image of a given menu item at the given size.
+   * Decoded images are cached within the configured image cache size, least recently used first
+   * out. Encoded images are also cached on disk, so the image is only sent by the database if the
+   * hash it has doesn't match the one on disk. Sizes missing for images added before sizes were
+   * stored are made the first time they are asked for. Images are decoded straight into JavaFX,
+   * scaled down as they are decoded if larger than the size.
+   *
+   * @param itemID the item id
+   * @param size   the size to get
+   * @return the image
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError  if unable to get the image from the database
+   */
+  public Image getImage(int itemID, ImageSize size) throws ConnectionError, ExecutionError {
+    String key = getKey(itemID, size);
+    Image cached = imageCache.get(key);
+    if (cached != null) {
+      return cached;
     }
     
+    String diskHash = diskCache.findHash(key);
+    String hash = null;
+    byte[] fetched = null;
+    boolean found;
     Connection connection = getConnection();
-    InputStream imageInput;
-    String path = null;
     try {
-      PreparedStatement ps = connection.prepareStatement("SELECT image FROM images" +
-          " WHERE ItemID = ?");
-      ps.setInt(1, itemID);
+      PreparedStatement ps = connection.prepareStatement("SELECT " + hashColumn + ", " +
+          "CASE WHEN " + hashColumn + " = ? THEN NULL ELSE image END FROM " + getSource(size));
+      ps.setString(1, diskHash);
+      ps.setInt(2, itemID);
+      if (size != ImageSize.ORIGINAL) {
+        ps.setString(3, size.name());
+      }
       ResultSet rs = ps.executeQuery();
-      if (!rs.next()) {
-        connection.close();
-        if (imageNotFoundImage == null) {
-          InputStream stream = getFileAsStream("menu_images/Image_Not_Found.png");
-          imageNotFoundImage = new Image(stream);
-        }
-        return imageNotFoundImage;
+      found = rs.next();
+      if (found) {
+        hash = rs.getString(1);
+        fetched = rs.getBytes(2);
       }
-      imageInput = rs.getBinaryStream(1);
+      rs.close();
     } catch (SQLException SQLE) {
-      closeConnection(connection);
       throw new ExecutionError("Image could not be fetched", SQLE);
-    } catch (FileNotFoundException FNFE) {
-      throw new ExecutionError("Could not find image not found image", FNFE);
+    } finally {
+      closeConnection(connection);
+    }
+    
+    ByteBuffer encoded = found && fetched == null ? diskCache.read(key, hash) : null;
+    if (encoded == null) {
+      if (fetched == null) { // Not made yet, or the cached file was damaged since checking
+        fetched = found ? fetchImage(itemID, size) : null;
+        if (fetched == null && size != ImageSize.ORIGINAL) {
+          fetched = makeVariant(itemID, size);
+        }
+        if (fetched == null) {
+          return getImageNotFoundImage();
+        }
+      }
+      encoded = ByteBuffer.wrap(fetched);
+      diskCache.write(key, ImageDiskCache.md5(encoded.duplicate()), fetched);
     }
     
-    BufferedImage bufferedImage;
+    Image finalImage;
     try {
-      bufferedImage = ImageIO.read(imageInput);
+      finalImage = ImageDecoder.decode(encoded, size.getMaxEdge());
     } catch (IOException IOE) {
-      throw new ExecutionError("Could not read image");
+      throw new ExecutionError("Could not read image", IOE);
+    }
+    
+    imageCache.put(key, finalImage);
+    return finalImage;
+  }
+  
+  /**
+   * Gets an image only if it is already decoded in memory.
+   *
+   * @param itemID the item id
+   * @param size   the size to get
+   * @return the image - null if it would have to be fetched
+   */
+  Image getCachedImage(int itemID, ImageSize size) {
+    return imageCache.peek(getKey(itemID, size));
+  }
+  
+  /**
+   * Gets the prefetcher used to fetch this databases images in the background.
+   *
+   * @return the prefetcher
+   */
+  public synchronized ImagePrefetcher getPrefetcher() {
+    if (prefetcher == null) {
+      prefetcher = new ImagePrefetcher(this);
+    }
+    return prefetcher;
+  }
+  
+  /**
+   * Gets the image shown for items without an image, or while their image is loading.
+   *
+   * @return the placeholder image
+   * @throws ExecutionError if unable to load the placeholder
+   */
+  public Image getPlaceholderImage() throws ExecutionError {
+    return getImageNotFoundImage();
+  }
+  
+  /**
+   * Stores the image for a menu item along with its smaller sizes, replacing any image it had.
+   *
+   * @param itemID the item id
+   * @param image  the encoded image, in a format ImageIO can read
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError  if the image can't be read or stored
+   */
+  public void setImage(int itemID, byte[] image) throws ConnectionError, ExecutionError {
+    Map<ImageSize, byte[]> variants = makeVariants(image);
+    
+    inTransaction(connection -> {
+      PreparedStatement ps = connection.prepareStatement("INSERT INTO images (ItemID, Image) " +
+          "VALUES (?, ?) ON CONFLICT (ItemID) DO UPDATE SET Image = EXCLUDED.Image");
+      ps.setInt(1, itemID);
+      ps.setBytes(2, image);
+      ps.execute();
+      
+      ps = connection.prepareStatement("DELETE FROM imageVariants WHERE ItemID = ?");
+      ps.setInt(1, itemID);
+      ps.execute();
+      
+      insertVariants(connection, itemID, variants);
+      return null;
+    });
+    
+    for (ImageSize size : ImageSize.values()) {
+      imageCache.remove(getKey(itemID, size));
+    }
+  }
+  
+  /**
+   * Fetches an encoded image from the database.
+   *
+   * @param itemID the item id
+   * @param size   the size to get
+   * @return the encoded image - null if it isn't stored
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError  if unable to get the image from the database
+   */
+  private byte[] fetchImage(int itemID, ImageSize size) throws ConnectionError, ExecutionError {
+    Connection connection = getConnection();
+    try {
+      PreparedStatement ps =
+          connection.prepareStatement("SELECT image FROM " + getSource(size));
+      ps.setInt(1, itemID);
+      if (size != ImageSize.ORIGINAL) {
+        ps.setString(2, size.name());
+      }
+      ResultSet rs = ps.executeQuery();
+      return rs.next() ? rs.getBytes(1) : null;
+    } catch (SQLException SQLE) {
+      throw new ExecutionError("Image could not be fetched", SQLE);
     } finally {
       closeConnection(connection);
     }
+  }
+  
+  /**
+   * Makes and stores one size of an items image from the uploaded image.
+   *
+   * @param itemID the item id
+   * @param size   the size to make
+   * @return the encoded image at that size - null if the item has no image
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError  if unable to make or store the image
+   */
+  private byte[] makeVariant(int itemID, ImageSize size) throws ConnectionError, ExecutionError {
+    byte[] original = fetchImage(itemID, ImageSize.ORIGINAL);
+    if (original == null) {
+      return null;
+    }
+    byte[] variant;
+    try {
+      variant = ImageScaler.scale(original, size);
+    } catch (IOException IOE) {
+      throw new ExecutionError("Could not scale image", IOE);
+    }
     
-    Image finalImage = SwingFXUtils.toFXImage(bufferedImage, null);
-    imageCache.put(itemID, finalImage);
-    return finalImage;
+    Connection connection = getConnection();
+    try {
+      insertVariants(connection, itemID, Map.of(size, variant));
+    } catch (SQLException SQLE) {
+      throw new ExecutionError("Could not store scaled image", SQLE);
+    } finally {
+      closeConnection(connection);
+    }
+    return variant;
+  }
+  
+  /**
+   * Makes every smaller size of an image.
+   *
+   * @param image the encoded image as uploaded
+   * @return the encoded images by size
+   * @throws ExecutionError if the image can't be read
+   */
+  private static Map<ImageSize, byte[]> makeVariants(byte[] image) throws ExecutionError {
+    Map<ImageSize, byte[]> variants = new EnumMap<>(ImageSize.class);
+    try {
+      for (ImageSize size : ImageSize.values()) {
+        if (size != ImageSize.ORIGINAL) {
+          variants.put(size, ImageScaler.scale(image, size));
+        }
+      }
+    } catch (IOException IOE) {
+      throw new ExecutionError("Could not scale image", IOE);
+    }
+    return variants;
+  }
+  
+  private static void insertVariants(Connection connection, int itemID,
+                                     Map<ImageSize, byte[]> variants) throws SQLException {
+    PreparedStatement ps = connection.prepareStatement("INSERT INTO imageVariants " +
+        "(ItemID, Size, Image) VALUES (?, ?, ?) ON CONFLICT (ItemID, Size) DO NOTHING");
+    for (Map.Entry<ImageSize, byte[]> variant : variants.entrySet()) {
+      ps.setInt(1, itemID);
+      ps.setString(2, variant.getKey().name());
+      ps.setBytes(3, variant.getValue());
+      ps.addBatch();
+    }
+    ps.executeBatch();
+    ps.close();
+  }
+  
+  /**
+   * Gets the table and condition to find an image of the given size, taking the item id and then
+   * the size as parameters.
+   *
+   * @param size the size
+   * @return the from clause
+   */
+  private static String getSource(ImageSize size) {
+    if (size == ImageSize.ORIGINAL) {
+      return "images WHERE ItemID = ?";
+    }
+    return "imageVariants WHERE ItemID = ? AND Size = ?";
+  }
+  
+  /**
+   * Gets the key an image is cached under. Uploaded images use just the item id.
+   *
+   * @param itemID the item id
+   * @param size   the size
+   * @return the key
+   */
+  private static String getKey(int itemID, ImageSize size) {
+    if (size == ImageSize.ORIGINAL) {
+      return String.valueOf(itemID);
+    }
+    return itemID + "_" + size.name().toLowerCase();
+  }
+  
+  private synchronized Image getImageNotFoundImage() throws ExecutionError {
+    if (imageNotFoundImage == null) {
+      try {
+        InputStream stream = getFileAsStream("menu_images/Image_Not_Found.png");
+        imageNotFoundImage = new Image(stream);
+      } catch (FileNotFoundException FNFE) {
+        throw new ExecutionError("Could not find image not found image", FNFE);
+      }
+    }
+    return imageNotFoundImage;
+  }
+  
+  /**
+   * Gets the statistics of the decoded image cache.
+   *
+   * @return the cache statistics
+   */
+  public ImageCacheStatistics getCacheStatistics() {
+    return imageCache.getStatistics();
+  }
+  
+  /**
+   * Gets the cache of encoded images on disk.
+   *
+   * @return the disk cache
+   */
+  ImageDiskCache getDiskCache() {
+    return diskCache;
   }
   
   private void populateTable() throws ConnectionError, ExecutionError {
@@ -165,6 +420,78 @@ public class ImageDB extends Database {
     }
     
     closeConnection(connection);
+    makeAllVariants();
+  }
+  
+  /**
+   * Makes the smaller sizes of every stored image.
+   * Images that can't be read are skipped, their sizes will be tried again when asked for.
+   *
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError  if unable to read or store the images
+   */
+  private void makeAllVariants() throws ConnectionError, ExecutionError {
+    Connection connection = getConnection();
+    try {
+      Statement st = connection.createStatement();
+      ResultSet rs = st.executeQuery("SELECT ItemID, Image FROM images;");
+      while (rs.next()) {
+        int itemID = rs.getInt(1);
+        try {
+          insertVariants(connection, itemID, makeVariants(rs.getBytes(2)));
+        } catch (ExecutionError EE) {
+          System.err.println("Cannot make image sizes for item " + itemID);
+        }
+      }
+      rs.close();
+      st.close();
+    } catch (SQLException SQLE) {
+      throw new ExecutionError("Couldn't input into imageVariants", SQLE);
+    } finally {
+      closeConnection(connection);
+    }
+  }
+  
+  /**
+   * Makes the column holding the md5 of each image and the trigger keeping it up to date, filling
+   * it in for images already stored.
+   * Failing to make them isn't fatal as the hash can be worked out when asked for.
+   *
+   * @return if the column is in place
+   * @throws ConnectionError if unable to connect to the database
+   */
+  private boolean makeHashColumn() throws ConnectionError {
+    Statement st = getStatement();
+    
+    try {
+      st.execute("ALTER TABLE images ADD COLUMN IF NOT EXISTS Hash char(32);");
+      st.execute("CREATE OR REPLACE FUNCTION hash_image() RETURNS trigger AS $$ " //
+          + "BEGIN " //
+          + "  NEW.hash := md5(NEW.image); " //
+          + "  RETURN NEW; " //
+          + "END; $$ LANGUAGE plpgsql;");
+      st.execute("DO $$ BEGIN " //
+          + "IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'images_hash') THEN " //
+          + "  CREATE TRIGGER images_hash BEFORE INSERT OR UPDATE ON images " //
+          + "  FOR EACH ROW EXECUTE PROCEDURE hash_image(); " //
+          + "END IF; " //
+          + "IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'imagevariants_hash') THEN " //
+          + "  CREATE TRIGGER imagevariants_hash BEFORE INSERT OR UPDATE ON imageVariants " //
+          + "  FOR EACH ROW EXECUTE PROCEDURE hash_image(); " //
+          + "END IF; " //
+          + "END $$;");
+      st.execute("UPDATE images SET hash = md5(image) WHERE hash IS NULL;");
+      return true;
+    } catch (SQLException SQLE) {
+      System.err.println("Could not make image hash column, hashes will be worked out each time");
+      return false;
+    } finally {
+      try {
+        closeConnection(st.getConnection());
+      } catch (SQLException SQLE) {
+        // Closing errors not considered major
+      }
+    }
   }
   
   @Override
@@ -175,10 +502,24 @@ public class ImageDB extends Database {
       st.execute("CREATE TABLE IF NOT EXISTS images(" +
           "ItemID int PRIMARY KEY," +
           "Image bytea," +
+          "Hash char(32)," +
           "FOREIGN KEY (ItemID) REFERENCES menu(ItemID)" +
           ");");
     } catch (SQLException SQLE) {
       throw new ExecutionError("Couldn't make table images", SQLE);
+    }
+    
+    try {
+      st.execute("CREATE TABLE IF NOT EXISTS imageVariants(" +
+          "ItemID int," +
+          "Size varchar(16)," +
+          "Image bytea," +
+          "Hash char(32)," +
+          "PRIMARY KEY (ItemID, Size)," +
+          "FOREIGN KEY (ItemID) REFERENCES images(ItemID) ON DELETE CASCADE" +
+          ");");
+    } catch (SQLException SQLE) {
+      throw new ExecutionError("Couldn't make table imageVariants", SQLE);
     } finally {
       try {
         closeConnection(st.getConnection());
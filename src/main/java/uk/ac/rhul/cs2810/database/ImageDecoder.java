@@ -0,0 +1,72 @@
+package uk.ac.rhul.cs2810.database;
+
+import javafx.scene.image.Image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * Decodes encoded images straight into JavaFX images.
+ * The bytes are streamed into the JavaFX decoder, so only the one pixel buffer the image keeps is
+ * made, and images larger than wanted are scaled down as they are decoded rather than after.
+ */
+final class ImageDecoder {
+
+  private ImageDecoder() {
+  }
+
+  /**
+   * Decodes an image, scaling it down to fit within an edge length.
+   *
+   * @param encoded the encoded image
+   * @param maxEdge the longest the width or height can be - 0 to keep the full size
+   * @return the decoded image
+   * @throws IOException if the image can't be read
+   */
+  static Image decode(ByteBuffer encoded, int maxEdge) throws IOException {
+    double width = 0;
+    double height = 0;
+    if (maxEdge > 0) {
+      int[] dimensions = readDimensions(encoded);
+      // JavaFX scales smaller images up to the size asked for, so only ask when it must shrink
+      if (Math.max(dimensions[0], dimensions[1]) > maxEdge) {
+        width = maxEdge;
+        height = maxEdge;
+      }
+    }
+
+    Image image = new Image(ImageDiskCache.asStream(encoded), width, height, true, true);
+    if (image.isError()) {
+      throw new IOException("Could not read image", image.getException());
+    }
+    return image;
+  }
+
+  /**
+   * Reads the width and height of an image from its header without decoding the pixels.
+   *
+   * @param encoded the encoded image
+   * @return the width then height
+   * @throws IOException if the image format isn't known
+   */
+  static int[] readDimensions(ByteBuffer encoded) throws IOException {
+    try (ImageInputStream stream = ImageIO.createImageInputStream(
+        ImageDiskCache.asStream(encoded))) {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+      if (!readers.hasNext()) {
+        throw new IOException("Unknown image format");
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(stream, true, true);
+        return new int[]{reader.getWidth(0), reader.getHeight(0)};
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+}
@@ -0,0 +1,219 @@
+package uk.ac.rhul.cs2810.database;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of encoded images on the local disk so they don't have to be fetched from the database
+ * every time the program starts.
+ * Files are named by a key for the image, such as its item id, and the md5 of their contents, so
+ * a changed image is simply a different file and an old one can never be mistaken for it. Files
+ * are read by memory mapping them and are checked against their hash, so a damaged file is thrown
+ * away rather than shown.
+ */
+class ImageDiskCache {
+  private static final String EXTENSION = ".img";
+
+  private final Path directory;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Instantiates a new image disk cache.
+   *
+   * @param directory the folder to keep the images in, made if it doesn't exist
+   */
+  ImageDiskCache(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Gets the default folder for cached images.
+   *
+   * @param testing whether this is for the test database
+   * @return the folder
+   */
+  static Path getDefaultDirectory(boolean testing) {
+    if (testing) {
+      return Path.of(System.getProperty("java.io.tmpdir"), "restaurant-test-images");
+    }
+    return Path.of(System.getProperty("user.home"), ".restaurant", "images");
+  }
+
+  /**
+   * Finds which version of an image is cached.
+   *
+   * @param key the images key
+   * @return the md5 of the cached image, as hex - null if none is cached
+   */
+  String findHash(String key) {
+    if (!Files.isDirectory(directory)) {
+      return null;
+    }
+    String prefix = key + "-";
+    try (DirectoryStream<Path> cached =
+             Files.newDirectoryStream(directory, prefix + "*" + EXTENSION)) {
+      for (Path file : cached) {
+        String name = file.getFileName().toString();
+        return name.substring(prefix.length(), name.length() - EXTENSION.length());
+      }
+    } catch (IOException IOE) {
+      // Treated as not cached
+    }
+    return null;
+  }
+
+  /**
+   * Gets a cached image.
+   *
+   * @param key  the images key
+   * @param hash the md5 of the image, as hex
+   * @return the encoded image mapped from disk - null if it isn't cached
+   */
+  ByteBuffer read(String key, String hash) {
+    Path file = getFile(key, hash);
+    if (!Files.isRegularFile(file)) {
+      misses.incrementAndGet();
+      return null;
+    }
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (!hash.equals(md5(mapped.duplicate()))) {
+        throw new IOException("Cached image " + file + " is damaged");
+      }
+      hits.incrementAndGet();
+      return mapped;
+    } catch (IOException IOE) {
+      delete(file);
+      misses.incrementAndGet();
+      return null;
+    }
+  }
+
+  /**
+   * Stores an image, removing any older versions of it.
+   * Failing to write isn't fatal, the image will just be fetched again next time.
+   *
+   * @param key   the images key
+   * @param hash  the md5 of the image, as hex
+   * @param image the encoded image
+   */
+  void write(String key, String hash, byte[] image) {
+    try {
+      Files.createDirectories(directory);
+      Path temp = Files.createTempFile(directory, key + "-", ".tmp");
+      try {
+        Files.write(temp, image);
+        // Moved into place so other terminals sharing the folder never see half a file
+        Files.move(temp, getFile(key, hash), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    } catch (IOException IOE) {
+      System.err.println("Could not cache image " + key + ": " + IOE.getMessage());
+      return;
+    }
+
+    try (DirectoryStream<Path> old =
+             Files.newDirectoryStream(directory, key + "-*" + EXTENSION)) {
+      for (Path file : old) {
+        if (!file.equals(getFile(key, hash))) {
+          delete(file);
+        }
+      }
+    } catch (IOException IOE) {
+      // Old files only take up space
+    }
+  }
+
+  /**
+   * Gets the number of images read from disk.
+   *
+   * @return the number of hits
+   */
+  long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Gets the number of images that weren't on disk.
+   *
+   * @return the number of misses
+   */
+  long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Gets the md5 of some bytes.
+   *
+   * @param bytes the bytes
+   * @return the md5 as 32 hex characters, the same as the databases md5 function
+   */
+  static String md5(ByteBuffer bytes) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("MD5");
+      digest.update(bytes);
+      return String.format("%032x", new BigInteger(1, digest.digest()));
+    } catch (NoSuchAlgorithmException NSAE) {
+      throw new IllegalStateException("MD5 is always available", NSAE);
+    }
+  }
+
+  /**
+   * Gets an input stream reading a buffer.
+   *
+   * @param buffer the buffer to read
+   * @return the stream
+   */
+  static InputStream asStream(ByteBuffer buffer) {
+    ByteBuffer bytes = buffer.duplicate();
+    return new InputStream() {
+      @Override
+      public int read() {
+        return bytes.hasRemaining() ? bytes.get() & 0xFF : -1;
+      }
+
+      @Override
+      public int read(byte[] into, int offset, int length) {
+        if (!bytes.hasRemaining()) {
+          return -1;
+        }
+        int read = Math.min(length, bytes.remaining());
+        bytes.get(into, offset, read);
+        return read;
+      }
+
+      @Override
+      public int available() {
+        return bytes.remaining();
+      }
+    };
+  }
+
+  private Path getFile(String key, String hash) {
+    return directory.resolve(key + "-" + hash + EXTENSION);
+  }
+
+  private static void delete(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException IOE) {
+      // Still mapped somewhere, will be replaced next time
+    }
+  }
+}
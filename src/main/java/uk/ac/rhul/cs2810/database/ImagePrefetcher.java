@@ -0,0 +1,159 @@
+package uk.ac.rhul.cs2810.database;
+
+import javafx.scene.image.Image;
+import uk.ac.rhul.cs2810.containers.ImageSize;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches and decodes menu images in the background on a small pool of threads.
+ * Images the user can see are fetched before the rest, and asking for an image already being
+ * fetched shares the one fetch, so callers can ask for every image up front and show a
+ * placeholder until each one arrives.
+ */
+public class ImagePrefetcher {
+  private static final int THREADS = 4;
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  /**
+   * How soon an image is wanted. Fetches are made in this order.
+   */
+  public enum Priority {
+    VISIBLE,
+    BACKGROUND
+  }
+
+  private final ImageDB imageDB;
+  private final ThreadPoolExecutor executor;
+  private final Map<String, Fetch> pending = new HashMap<>();
+  private long sequence = 0;
+
+  /**
+   * Instantiates a new image prefetcher.
+   *
+   * @param imageDB the image database to fetch from
+   */
+  ImagePrefetcher(ImageDB imageDB) {
+    this.imageDB = imageDB;
+    AtomicInteger threadCount = new AtomicInteger();
+    executor = new ThreadPoolExecutor(THREADS, THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new PriorityBlockingQueue<>(), runnable -> {
+          Thread thread = new Thread(runnable, "Image prefetch " + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Gets an image in the background.
+   * Images already in memory are returned straight away in a completed future.
+   *
+   * @param itemID   the item id
+   * @param size     the size to get
+   * @param priority how soon the image is wanted
+   * @return the image once fetched, or the error if it couldn't be
+   */
+  public synchronized CompletableFuture<Image> fetch(int itemID, ImageSize size,
+                                                     Priority priority) {
+    Image cached = imageDB.getCachedImage(itemID, size);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(cached);
+    }
+
+    String key = itemID + "_" + size;
+    Fetch fetch = pending.get(key);
+    if (fetch == null) {
+      fetch = new Fetch(key, itemID, size, priority, sequence++);
+      pending.put(key, fetch);
+      executor.execute(fetch);
+    } else if (priority.compareTo(fetch.priority) < 0) {
+      reprioritize(fetch, priority);
+    }
+    return fetch.future;
+  }
+
+  /**
+   * Moves any waiting fetches of the given items to the front, such as when they are shown.
+   *
+   * @param itemIDs the item ids
+   * @param size    the size being shown
+   */
+  public synchronized void prioritize(Collection<Integer> itemIDs, ImageSize size) {
+    for (int itemID : itemIDs) {
+      Fetch fetch = pending.get(itemID + "_" + size);
+      if (fetch != null && fetch.priority != Priority.VISIBLE) {
+        reprioritize(fetch, Priority.VISIBLE);
+      }
+    }
+  }
+
+  /**
+   * Gets the number of fetches waiting for a thread.
+   *
+   * @return the number of queued fetches
+   */
+  public int getQueuedCount() {
+    return executor.getQueue().size();
+  }
+
+  private void reprioritize(Fetch fetch, Priority priority) {
+    // Only fetches still waiting can move, the queue can't reorder an item in place
+    if (executor.getQueue().remove(fetch)) {
+      fetch.priority = priority;
+      fetch.order = sequence++;
+      executor.execute(fetch);
+    }
+  }
+
+  private synchronized void finished(Fetch fetch) {
+    pending.remove(fetch.key, fetch);
+  }
+
+  /**
+   * A single image to fetch, ordered by priority and then by when it was asked for.
+   */
+  private class Fetch implements Runnable, Comparable<Fetch> {
+    private final String key;
+    private final int itemID;
+    private final ImageSize size;
+    private final CompletableFuture<Image> future = new CompletableFuture<>();
+    private Priority priority;
+    private long order;
+
+    Fetch(String key, int itemID, ImageSize size, Priority priority, long order) {
+      this.key = key;
+      this.itemID = itemID;
+      this.size = size;
+      this.priority = priority;
+      this.order = order;
+    }
+
+    @Override
+    public void run() {
+      try {
+        future.complete(imageDB.getImage(itemID, size));
+      } catch (Exception E) {
+        future.completeExceptionally(E);
+      } catch (Throwable T) {
+        future.completeExceptionally(T);
+        throw T;
+      } finally {
+        finished(this);
+      }
+    }
+
+    @Override
+    public int compareTo(Fetch other) {
+      int byPriority = priority.compareTo(other.priority);
+      return byPriority != 0 ? byPriority : Long.compare(order, other.order);
+    }
+  }
+}
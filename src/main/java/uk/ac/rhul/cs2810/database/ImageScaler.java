@@ -0,0 +1,76 @@
+package uk.ac.rhul.cs2810.database;
+
+import uk.ac.rhul.cs2810.containers.ImageSize;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Makes the smaller versions of an uploaded image.
+ * Images are halved until close to the size wanted and then scaled the rest of the way, which
+ * keeps the detail a single large scale would lose.
+ */
+final class ImageScaler {
+
+  private ImageScaler() {
+  }
+
+  /**
+   * Scales an encoded image down to fit a size.
+   *
+   * @param original the encoded image as uploaded
+   * @param size     the size to fit
+   * @return the encoded scaled image - the original if it already fits
+   * @throws IOException if the image can't be read or written
+   */
+  static byte[] scale(byte[] original, ImageSize size) throws IOException {
+    if (size.getMaxEdge() <= 0) {
+      return original;
+    }
+    BufferedImage image = ImageIO.read(new ByteArrayInputStream(original));
+    if (image == null) {
+      throw new IOException("Unknown image format");
+    }
+    int longest = Math.max(image.getWidth(), image.getHeight());
+    if (longest <= size.getMaxEdge()) {
+      return original;
+    }
+
+    double ratio = (double) size.getMaxEdge() / longest;
+    int width = Math.max(1, (int) Math.round(image.getWidth() * ratio));
+    int height = Math.max(1, (int) Math.round(image.getHeight() * ratio));
+    boolean alpha = image.getColorModel().hasAlpha();
+
+    BufferedImage scaled = image;
+    int currentWidth = image.getWidth();
+    int currentHeight = image.getHeight();
+    do {
+      currentWidth = Math.max(width, currentWidth / 2);
+      currentHeight = Math.max(height, currentHeight / 2);
+      scaled = draw(scaled, currentWidth, currentHeight, alpha);
+    } while (currentWidth != width || currentHeight != height);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    // Jpeg can't store transparency
+    if (!ImageIO.write(scaled, alpha ? "png" : "jpg", out)) {
+      throw new IOException("No writer for the image");
+    }
+    return out.toByteArray();
+  }
+
+  private static BufferedImage draw(BufferedImage from, int width, int height, boolean alpha) {
+    BufferedImage to = new BufferedImage(width, height,
+        alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = to.createGraphics();
+    graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    graphics.drawImage(from, 0, 0, width, height, null);
+    graphics.dispose();
+    return to;
+  }
+}
@@ -0,0 +1,108 @@
+package uk.ac.rhul.cs2810.database;
+
+import java.time.Instant;
+
+/**
+ * A snapshot of how a scheduled job has been running.
+ * Counts are kept by job name, so carry on across a job being replaced by one of the same name.
+ */
+public class JobStatistics {
+  private final String name;
+  private final long runs;
+  private final long failures;
+  private final Instant lastRun;
+  private final long lastDurationNanos;
+  private final Throwable lastError;
+  private final boolean scheduled;
+
+  /**
+   * Instantiates a new set of job statistics.
+   *
+   * @param name              the jobs name
+   * @param runs              the number of times the job has run
+   * @param failures          the number of those runs that threw an error
+   * @param lastRun           when the job last started - null if it hasn't run
+   * @param lastDurationNanos how long the last run took
+   * @param lastError         the error the last failed run threw - null if none have failed
+   * @param scheduled         whether the job is still waiting to run again
+   */
+  JobStatistics(String name, long runs, long failures, Instant lastRun, long lastDurationNanos,
+                Throwable lastError, boolean scheduled) {
+    this.name = name;
+    this.runs = runs;
+    this.failures = failures;
+    this.lastRun = lastRun;
+    this.lastDurationNanos = lastDurationNanos;
+    this.lastError = lastError;
+    this.scheduled = scheduled;
+  }
+
+  /**
+   * Gets the jobs name.
+   *
+   * @return the name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Gets the number of times the job has run.
+   *
+   * @return the number of runs
+   */
+  public long getRuns() {
+    return runs;
+  }
+
+  /**
+   * Gets the number of runs that threw an error.
+   *
+   * @return the number of failures
+   */
+  public long getFailures() {
+    return failures;
+  }
+
+  /**
+   * Gets when the job last started.
+   *
+   * @return the start of the last run - null if it hasn't run
+   */
+  public Instant getLastRun() {
+    return lastRun;
+  }
+
+  /**
+   * Gets how long the last run took in milliseconds.
+   *
+   * @return the last run time
+   */
+  public double getLastDurationMillis() {
+    return lastDurationNanos / 1_000_000d;
+  }
+
+  /**
+   * Gets the error the last failed run threw.
+   *
+   * @return the error - null if no runs have failed
+   */
+  public Throwable getLastError() {
+    return lastError;
+  }
+
+  /**
+   * Gets whether the job is still waiting to run again.
+   *
+   * @return false once the job has been cancelled or has run for the last time
+   */
+  public boolean isScheduled() {
+    return scheduled;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s: runs=%d failures=%d lastRun=%s lastMs=%.2f scheduled=%b", name,
+        runs, failures, lastRun, getLastDurationMillis(), scheduled);
+  }
+}
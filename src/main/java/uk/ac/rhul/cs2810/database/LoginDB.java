@@ -12,18 +12,28 @@ import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
 import java.sql.*;
 import java.time.Duration;
 import java.time.LocalTime;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static java.lang.Math.abs;
 import static java.lang.Math.round;
 
 /**
  * The object for interacting with the login database.
+ * Staff names and who is logged in are held in memory, so looking them up doesn't need a query
+ * while the change feed is telling this about logins made on other terminals.
  */
 public class LoginDB extends Database {
   
+  static final String CHANGE_CHANNEL = "login_changes";
+  
   private TableDB tableDB;
+  private final SessionRegistry sessions = new SessionRegistry();
+  private final ChangeFeed changeFeed;
+  private final boolean changeTriggers;
   
   /**
    * Instantiates a new loginDB.
@@ -37,6 +47,11 @@ public class LoginDB extends Database {
 
     insertStatments.put("WaiterLogin", "INSERT INTO WaiterLogin VALUES (?, ?, ?);");
     layouts.put("WaiterLogin", new char[] {'i', 's', 's'});
+    
+    // Anyone could have logged in or out while disconnected, and one reload covers any changes
+    changeFeed = new ChangeFeed(CHANGE_CHANNEL, URL, userName, password, this::sessionsChanged,
+        changes -> sessionsChanged());
+    changeTriggers = makeChangeTriggers();
 
     Statement st = null;
     try {
@@ -59,6 +74,31 @@ public class LoginDB extends Database {
     }
   }
   
+  /**
+   * Checks if logins made on other terminals are currently being pushed to this one.
+   * If not, the logins are read from the database on every lookup instead.
+   *
+   * @return if changes are being received
+   */
+  public boolean isReceivingChanges() {
+    return changeTriggers && changeFeed.isConnected();
+  }
+  
+  /**
+   * Stops listening for login changes.
+   */
+  void closeChangeFeed() {
+    changeFeed.close();
+  }
+  
+  /**
+   * Marks the sessions held as out of date. Called by the change feed when it hears about a
+   * change, so the next lookup reads the logins again.
+   */
+  void sessionsChanged() {
+    sessions.markStale();
+  }
+  
   /**
    * Hashes a pin.
    *
@@ -71,6 +111,7 @@ public class LoginDB extends Database {
   
   /**
    * Gets the user id given the hashed password and logs them in.
+   * A waiter logging in has tables rebalanced onto them.
    *
    * @param hash the hashed password
    * @return the user id (returns -1 if user not in database)
@@ -80,6 +121,7 @@ public class LoginDB extends Database {
   public int getID(String hash) throws ConnectionError, ExecutionError {
     Connection connection = getConnection();
     int pin;
+    boolean loggedIn = false;
     try {
       PreparedStatement ps =
           connection.prepareStatement("SELECT waiterid FROM waiterlogin WHERE hashedpin = ?");
@@ -91,7 +133,8 @@ public class LoginDB extends Database {
             "  SignedInAt = ? WHERE waiterid = ? AND loggedin = FALSE");
         ps.setTime(1, Time.valueOf(LocalTime.now()));
         ps.setInt(2, pin);
-        ps.execute();
+        loggedIn = ps.executeUpdate() > 0;
+        sessions.loggedIn(pin);
       } else {
         pin = -1;
       }
@@ -100,6 +143,15 @@ public class LoginDB extends Database {
     } finally {
       Database.closeConnection(connection);
     }
+    
+    if (loggedIn && pin > 0) { // Only waiters look after tables
+      if (testing) {
+        tableDB = DatabaseFactory.getTestTableDB();
+      } else {
+        tableDB = DatabaseFactory.getTableDB();
+      }
+      tableDB.rebalanceTables();
+    }
 
     return pin;
   }
@@ -113,24 +165,7 @@ public class LoginDB extends Database {
    * @throws ExecutionError  if unable to access the database
    */
   public String getName(int id) throws ConnectionError, ExecutionError {
-    Connection connection = getConnection();
-    String username = "";
-
-    try {
-      PreparedStatement ps =
-          connection.prepareStatement("SELECT waitername FROM waiterlogin WHERE waiterid = ?");
-      ps.setInt(1, id);
-      ResultSet rs = ps.executeQuery();
-      if (rs.next()) {
-        username = rs.getString(1);
-      }
-    } catch (SQLException SQLE) {
-      throw new ExecutionError("Couldn't fetch pin", SQLE);
-    } finally {
-      Database.closeConnection(connection);
-    }
-
-    return username;
+    return getSessions().getName(id);
   }
   
   /**
@@ -142,24 +177,7 @@ public class LoginDB extends Database {
    * @throws ExecutionError  if unable to setup the tables
    */
   public List<Integer> getLoggedInWaiters() throws ConnectionError, ExecutionError {
-    Statement st = getStatement();
-    List<Integer> waiters = new LinkedList<>();
-    try {
-      ResultSet rs = st.executeQuery("SELECT waiterid FROM waiterlogin WHERE loggedIn = TRUE");
-      while (rs.next()) {
-        waiters.add(rs.getInt(1));
-      }
-    } catch (SQLException SQLE) {
-      throw new ExecutionError("Could not get list of online waiters", SQLE);
-    } finally {
-      try {
-        closeConnection(st.getConnection());
-      } catch (SQLException SQlE) {
-        // Not worried with closing errors
-      }
-    }
-    
-    return waiters;
+    return getSessions().getLoggedIn();
   }
   
   /**
@@ -186,6 +204,7 @@ public class LoginDB extends Database {
           " WHERE waiterid = ?");
       ps.setInt(1, id);
       ps.execute();
+      sessions.loggedOut(id);
     } catch (SQLException SQLE) {
       closeConnection(connection);
       throw new ExecutionError("Could not update the database", SQLE);
@@ -223,15 +242,41 @@ public class LoginDB extends Database {
 
    */
   public List<Integer> getAllWaiters() throws ExecutionError, ConnectionError {
+    return getSessions().getWaiters();
+  }
+  
+  /**
+   * Gets the sessions, reading the logins again first if they may be out of date.
+   * While the change feed isn't connected, logins made elsewhere could be missed, so they are
+   * read every time.
+   *
+   * @return the up to date sessions
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError  if unable to read the logins
+   */
+  private SessionRegistry getSessions() throws ConnectionError, ExecutionError {
+    if (changeTriggers) {
+      changeFeed.start();
+    }
+    if (!sessions.takeStale() && isReceivingChanges()) {
+      return sessions;
+    }
+    
+    Map<Integer, String> names = new HashMap<>();
+    Set<Integer> loggedIn = new HashSet<>();
     Statement st = getStatement();
-    List<Integer> waiters = new LinkedList<>();
     try {
-      ResultSet rs = st.executeQuery("SELECT waiterid FROM waiterlogin WHERE waiterid>0");
+      ResultSet rs = st.executeQuery("SELECT waiterid, waitername, loggedIn FROM waiterlogin");
       while (rs.next()) {
-        waiters.add(rs.getInt(1));
+        names.put(rs.getInt(1), rs.getString(2));
+        if (rs.getBoolean(3)) {
+          loggedIn.add(rs.getInt(1));
+        }
       }
+      rs.close();
     } catch (SQLException SQLE) {
-      throw new ExecutionError("Could not get list of online waiters");
+      sessions.markStale();
+      throw new ExecutionError("Could not get the logins", SQLE);
     } finally {
       try {
         closeConnection(st.getConnection());
@@ -239,8 +284,44 @@ public class LoginDB extends Database {
         // Not worried with closing errors
       }
     }
+    sessions.load(names, loggedIn);
+    return sessions;
+  }
   
-    return waiters;
+  /**
+   * Makes the trigger that publishes login changes to the change feed.
+   * Failing to make it isn't fatal as the logins can still be read each time.
+   *
+   * @return if the trigger is in place
+   * @throws ConnectionError if unable to connect to the database
+   */
+  private boolean makeChangeTriggers() throws ConnectionError {
+    Statement st = getStatement();
+    
+    try {
+      st.execute("CREATE OR REPLACE FUNCTION notify_login_change() RETURNS trigger AS $$ " //
+          + "BEGIN " //
+          + "  PERFORM pg_notify('" + CHANGE_CHANNEL + "', 'WAITERLOGIN'); " //
+          + "  RETURN NULL; " //
+          + "END; $$ LANGUAGE plpgsql;");
+      st.execute("DO $$ BEGIN " //
+          + "IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'waiterlogin_notify') THEN " //
+          + "  CREATE TRIGGER waiterlogin_notify " //
+          + "  AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON waiterlogin " //
+          + "  FOR EACH STATEMENT EXECUTE PROCEDURE notify_login_change(); " //
+          + "END IF; " //
+          + "END $$;");
+      return true;
+    } catch (SQLException SQLE) {
+      System.err.println("Could not make login change triggers, logins will be read each time");
+      return false;
+    } finally {
+      try {
+        closeConnection(st.getConnection());
+      } catch (SQLException SQLE) {
+        // Not worried with closing errors
+      }
+    }
   }
   
   private void populateTables() throws ConnectionError, ExecutionError {
@@ -3,30 +3,37 @@ package uk.ac.rhul.cs2810.database;
 import uk.ac.rhul.cs2810.Exceptions.ConnectionError;
 import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
 import uk.ac.rhul.cs2810.Exceptions.InvalidItemException;
+import uk.ac.rhul.cs2810.Exceptions.OutOfStockException;
 import uk.ac.rhul.cs2810.containers.Item;
 import uk.ac.rhul.cs2810.containers.ItemCategory;
+import uk.ac.rhul.cs2810.containers.ItemStatistics;
 import uk.ac.rhul.cs2810.containers.Order;
+import uk.ac.rhul.cs2810.containers.QuantileSketch;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.sql.*;
-import java.time.LocalTime;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.lang.Math.max;
-import static java.lang.Math.round;
 
 /**
  * Deals with interacting with the menu part of the DB.
  */
 public class MenuDB extends Database {
   
+  private static final long VERSION_CHECK_NANOS = 2_000_000_000L;
+  
   private boolean ignoreStock = true;
   private final int ttlSeconds = 60;
-  private Map<Filter, List<Item>> filterToItems;
-  private Map<Filter, LocalTime> lastUpdated;
+  private final Object snapshotLock = new Object();
+  private final AtomicBoolean checkingVersion = new AtomicBoolean();
+  private volatile MenuSnapshot snapshot;
+  private volatile long lastVersionCheck;
+  private long stockHorizon = Long.MAX_VALUE;
   
   /**
    * Instantiates a new Menu db.
@@ -38,9 +45,6 @@ public class MenuDB extends Database {
   MenuDB(boolean testing) throws ConnectionError, ExecutionError {
     super(new String[]{"allergens", "menu", "allergensInItems"}, testing);
     
-    filterToItems = new HashMap<>();
-    lastUpdated = new HashMap<>();
-    
     layouts.put("menu", new char[]{'i', 's', 's', 'i', 'i', 's', 'b', 'b', 'b', 'i', 'i'});
     layouts.put("allergens", new char[]{'i', 's'});
     layouts.put("allergensInItems", new char[]{'i', 'i'});
@@ -51,6 +55,9 @@ public class MenuDB extends Database {
     insertStatments.put("allergens", "INSERT INTO Allergens VALUES (?, ?);");
     insertStatments.put("allergensInItems", "INSERT INTO AllergensInItems VALUES (?, ?);");
     
+    addPrepTimesColumn();
+    makeVersionTriggers();
+    
     Statement st = getStatement();
     for (String table : tables) {
       try {
@@ -95,45 +102,25 @@ public class MenuDB extends Database {
    * @throws ConnectionError when unable to connect to database
    */
   public Map<Integer, Item> getMap() throws ExecutionError, ConnectionError {
-    Map<Integer, Item> itemMap = new HashMap<>();
-    
-    Statement st = getStatement();
-    ResultSet rs = null;
-    
-    // Gets items
-    try {
-      rs = st.executeQuery("SELECT * FROM menu");
-    } catch (SQLException SQLE) {
-      throw new ExecutionError("Couldn't execute query to get items", SQLE);
-    }
-    try {
-      while (rs.next()) {
-        itemMap.put(rs.getInt(1), // Items ID
-            new Item(rs.getInt(1), rs.getString(2), rs.getString(3), // Item
-                rs.getInt(4), rs.getInt(5), ItemCategory.toCategory(rs.getString(6)),
-                rs.getBoolean(7), rs.getBoolean(8), rs.getBoolean(9), rs.getInt(10),
-                rs.getInt(11)));
-      }
-    } catch (SQLException SQLE) {
-      throw new ExecutionError("Couldn't read next item", SQLE);
-    }
-    
-    // Gets each items allergens
-    for (Item item : itemMap.values()) {
-      addAllergensToItem(st, item);
-    }
-    
-    try {
-      Database.closeConnection(st.getConnection());
-    } catch (SQLException SQLE) {
-      // Closing errors not considered important
-    }
-    
-    return itemMap;
+    return getMenuSnapshot().getMap();
+  }
+  
+  /**
+   * Gets the items in a category.
+   *
+   * @param category the category
+   * @return the items in the category
+   * @throws ConnectionError when unable to connect to database
+   * @throws ExecutionError when unable to fetch the menu
+   */
+  public List<Item> getItemsFromCategory(ItemCategory category)
+      throws ConnectionError, ExecutionError {
+    return getMenuSnapshot().getItemsFromCategory(category);
   }
   
   /**
    * Gets a filtered menu.
+   * The filter is checked against the in memory menu snapshot without going to the database.
    *
    * @param filter the filter to use
    * @return the list of items
@@ -142,136 +129,164 @@ public class MenuDB extends Database {
    */
   public List<Item> getFilteredMenu(Filter filter)
       throws ConnectionError, ExecutionError {
-    
-    LocalTime time = LocalTime.now();
-    LocalTime validTime = time.minusSeconds(2);
+    return getMenuSnapshot().filter(filter, ignoreStock);
+  }
   
-    // If a recent cache is kept use the cache
-    if (lastUpdated.containsKey(filter) && lastUpdated.get(filter).isAfter(validTime)) {
-      return filterToItems.get(filter);
-    }
-    
-    Connection connection;
-    Statement st = getStatement();
-    
-    try { // Get connection
-      connection = DriverManager.getConnection(URL, userName, password);
-    } catch (SQLException SQLE) {
-      throw new ConnectionError("Could not connect to database", SQLE);
+  /**
+   * Gets the current menu snapshot.
+   * Doesn't lock or query, except for the first call and a check of the menus version every
+   * couple of seconds to see changes made elsewhere. Only one caller makes that check, the rest
+   * carry on with the current snapshot.
+   *
+   * @return the menu snapshot
+   * @throws ConnectionError when unable to connect to the database
+   * @throws ExecutionError when unable to get the menu from the database
+   */
+  MenuSnapshot getMenuSnapshot() throws ConnectionError, ExecutionError {
+    MenuSnapshot current = snapshot;
+    if (current == null) {
+      return refreshSnapshot();
     }
-    
-    try { // Clear old data
-      st.execute("DROP TABLE IF EXISTS badallergenid CASCADE");
-    } catch (SQLException SQLE) {
-      throw new ExecutionError("Could not remove redundant table", SQLE);
-    }
-    
-    StringBuilder blanks;
-    String statement = "";
-    if (filter.getAllergens().size() > 0) {
-      blanks = new StringBuilder("(");
-      blanks.append("?, ".repeat(filter.getAllergens().size()));
-      blanks = new StringBuilder(blanks.substring(0, blanks.length() - 2));
-      blanks.append(")");
-      statement = "CREATE TABLE badAllergenID AS " +
-          "SELECT allergenid FROM allergens " +
-          "WHERE allergenname IN " + blanks + ";";
-    } else {
-      statement = "CREATE TABLE badAllergenID AS " +
-          "SELECT allergenid FROM allergens " +
-          "WHERE allergenId != allergenId";
+    if (System.nanoTime() - lastVersionCheck >= VERSION_CHECK_NANOS
+        && checkingVersion.compareAndSet(false, true)) {
+      try {
+        return refreshSnapshot();
+      } finally {
+        checkingVersion.set(false);
+      }
     }
-    
-    PreparedStatement ps = null;
-    ResultSet rs = null;
-    try {
-      ps = connection.prepareStatement(statement);
-      
-      int count = 1; // SQL indexes from 1
-      for (String allergen : filter.getAllergens()) {
-        ps.setString(count, allergen);
-        count++;
+    return current;
+  }
+  
+  /**
+   * Checks the menus version and swaps in a new snapshot if it has changed.
+   * Stock isn't part of the version, as it changes with every confirmed order. Instead the
+   * stock of items changed by transactions that may have been running at the last check is
+   * read and patched into the snapshot, the same as orders are tracked with their txid.
+   * Called straight after this MenuDB changes the menu so it sees its own changes, and by
+   * anything needing an item the current snapshot doesn't have.
+   *
+   * @return the up to date snapshot
+   * @throws ConnectionError when unable to connect to the database
+   * @throws ExecutionError when unable to get the menu from the database
+   */
+  MenuSnapshot refreshSnapshot() throws ConnectionError, ExecutionError {
+    synchronized (snapshotLock) {
+      lastVersionCheck = System.nanoTime();
+      long version;
+      long horizon;
+      Map<Integer, Integer> newStock = new HashMap<>();
+      Connection connection = getConnection();
+      try {
+        // One statement, so the version, horizon and stock are read from the same snapshot
+        PreparedStatement ps = connection.prepareStatement("SELECT v.Version, "
+            + "txid_snapshot_xmin(s), m.ItemID, m.Stock "
+            + "FROM menuVersion v CROSS JOIN txid_current_snapshot() s "
+            + "LEFT JOIN menu m ON m.StockTxid >= ?");
+        ps.setLong(1, snapshot == null ? Long.MAX_VALUE : stockHorizon);
+        ResultSet rs = ps.executeQuery();
+        rs.next();
+        version = rs.getLong(1);
+        horizon = rs.getLong(2);
+        do {
+          if (rs.getObject(3) != null) {
+            newStock.put(rs.getInt(3), rs.getInt(4));
+          }
+        } while (rs.next());
+        rs.close();
+        ps.close();
+      } catch (SQLException SQLE) {
+        throw new ExecutionError("Could not get the menu version", SQLE);
+      } finally {
+        closeConnection(connection);
       }
-      ps.execute();
       
-    } catch (SQLException SQLE) {
-      throw new ExecutionError("Could not fetch allergenIDs from table", SQLE);
-    }
-    
-    try {
-      ps = connection.prepareStatement("CREATE VIEW badItemID AS " +
-          "SELECT itemID FROM allergensinitems " +
-          "WHERE allergenid IN (SELECT * FROM badAllergenID);");
-      ps.execute();
-    } catch (SQLException SQLE) {
-      throw new ExecutionError("Could not fetch itemIDs from table", SQLE);
-    }
-    
-    try {
-      ps = connection.prepareStatement("SELECT * FROM menu " +
-          "WHERE itemid NOT IN (SELECT * FROM badItemID) " +
-          "AND isVegi >= ? AND isVegen >= ? AND isGlutenFree >= ? AND Stock > ?;");
-      ps.setBoolean(1, filter.isVegi());
-      ps.setBoolean(2, filter.isVegan());
-      ps.setBoolean(3, filter.isGlutenFree());
-      if (ignoreStock) {
-        ps.setInt(4, -1);
+      if (snapshot == null || snapshot.getVersion() != version) {
+        snapshot = loadSnapshot(version);
       } else {
-        ps.setInt(4, 0);
+        newStock.entrySet().removeIf(stock -> {
+          Item item = snapshot.getItem(stock.getKey());
+          return item != null && item.getStock() == stock.getValue();
+        });
+        if (!newStock.isEmpty()) {
+          snapshot = snapshot.withStock(newStock);
+        }
       }
-      rs = ps.executeQuery();
-    } catch (SQLException SQLE) {
-      throw new ExecutionError("Could not fetch itemIDs from table", SQLE);
+      stockHorizon = horizon; // Read before the menu was, so nothing after it is missed
+      return snapshot;
     }
-    
-    List<Item> items = getItemsFromResultSet(rs);
-    
+  }
+  
+  /**
+   * Refreshes the snapshot after a change, a failed refresh is left to the next read.
+   */
+  private void menuChanged() {
     try {
-      ps.close();
-      rs.close();
-      st.close();
-      connection.close();
-    } catch (SQLException SQLE) {
-      //Not concerned with closing errors
+      refreshSnapshot();
+    } catch (ConnectionError | ExecutionError E) {
+      lastVersionCheck = 0;
     }
-    
-    time = LocalTime.now();
-    // Adds the items to cache
-    lastUpdated.put(filter, time);
-    filterToItems.put(filter, items);
-    
-    return items;
   }
   
   /**
-   * Gets a list of allergens present in any of the food.
+   * Reads the whole menu, the allergens of every item and the allergen list in three queries.
    *
-   * @return the list of allergens
-   * @throws ConnectionError when unable to connect to the database
-   * @throws ExecutionError when unable to get the list of allergens from the database
+   * @param version the menu version being read
+   * @return the new menu snapshot
    */
-  public List<String> getAllergens() throws ConnectionError, ExecutionError {
-    Statement st = getStatement();
-    ResultSet rs;
+  private MenuSnapshot loadSnapshot(long version) throws ConnectionError, ExecutionError {
+    Map<Integer, Item> items = new LinkedHashMap<>();
     List<String> allergens = new LinkedList<>();
-    
+    Statement st = getStatement();
     try {
-      rs = getStatement().executeQuery("SELECT allergenname FROM allergens");
+      ResultSet rs = st.executeQuery("SELECT * FROM menu");
+      while (rs.next()) {
+        items.put(rs.getInt(1), new Item(rs.getInt(1), rs.getString(2), rs.getString(3),
+            rs.getInt(4), rs.getInt(5), ItemCategory.toCategory(rs.getString(6)),
+            rs.getBoolean(7), rs.getBoolean(8), rs.getBoolean(9), rs.getInt(10),
+            rs.getInt(11)));
+      }
+      rs.close();
+      
+      rs = st.executeQuery("SELECT allergensinitems.itemid, allergens.allergenName "
+          + "FROM allergens, allergensinitems "
+          + "WHERE allergens.allergenid = allergensinitems.allergenid "
+          + "ORDER BY allergens.allergenid");
+      while (rs.next()) {
+        Item item = items.get(rs.getInt(1));
+        if (item != null) {
+          item.addAllergen(rs.getString(2));
+        }
+      }
+      rs.close();
+      
+      rs = st.executeQuery("SELECT allergenname FROM allergens");
       while (rs.next()) {
         allergens.add(rs.getString(1));
       }
-    } catch (SQLException SQLE) {
-      throw new ExecutionError("Could not get allergen list", SQLE);
-    }
-    
-    try {
       rs.close();
-      Database.closeConnection(st.getConnection());
     } catch (SQLException SQLE) {
-      // Closing exceptions not an issue atm
+      throw new ExecutionError("Could not read the menu", SQLE);
+    } finally {
+      try {
+        closeConnection(st.getConnection());
+      } catch (SQLException SQLE) {
+        // Not concerned with closing errors
+      }
     }
     
-    return allergens;
+    return new MenuSnapshot(version, new LinkedList<>(items.values()), allergens);
+  }
+  
+  /**
+   * Gets a list of allergens present in any of the food.
+   *
+   * @return the list of allergens
+   * @throws ConnectionError when unable to connect to the database
+   * @throws ExecutionError when unable to get the list of allergens from the database
+   */
+  public List<String> getAllergens() throws ConnectionError, ExecutionError {
+    return new LinkedList<>(getMenuSnapshot().getAllergens());
   }
   
   /**
@@ -284,31 +299,129 @@ public class MenuDB extends Database {
   }
   
   /**
-   * Decreases the stock level
+   * Decreases the stock level.
+   * The same as reserveStock.
    *
    * @param order the order to decrease the stock by
    * @throws ConnectionError when unable to connect to the database
    * @throws ExecutionError when unable to update the database
+   * @throws OutOfStockException when there isn't enough stock for the order
    */
-  public void decreaseStock(Order order) throws ConnectionError, ExecutionError {
-    Connection connection = getConnection();
-    try {
-      PreparedStatement ps = connection.prepareStatement("UPDATE menu SET stock = stock - 1" +
-          " WHERE itemid = ?");
-      for (Item item : order.getItemsInOrder()) {
-        ps.setInt(1, item.getID());
-        ps.addBatch();
-      }
-      ps.executeBatch();
-    } catch (SQLException SQLE) {
-      if (SQLE.getMessage().contains("stock")) {
-        throw new ExecutionError("Order out of stock");
-      } else {
-        throw new ExecutionError("Could not update stock levels", SQLE);
+  public void decreaseStock(Order order)
+      throws ConnectionError, ExecutionError, OutOfStockException {
+    reserveStock(order);
+  }
+  
+  /**
+   * Takes the stock needed for an order.
+   * Every item is taken in one statement, so either all of the order is taken or none of it is.
+   * Each items row is locked while it is taken so orders confirmed at the same time can't take
+   * the same stock.
+   *
+   * @param order the order to take the stock for
+   * @throws ConnectionError when unable to connect to the database
+   * @throws ExecutionError when unable to update the database
+   * @throws OutOfStockException when there isn't enough stock, nothing is taken
+   */
+  public void reserveStock(Order order)
+      throws ConnectionError, ExecutionError, OutOfStockException {
+    stockTaken(inTransaction(connection -> takeStock(order, connection)));
+  }
+  
+  /**
+   * Takes the stock needed for an order as part of a bigger transaction.
+   * The rows are locked in item id order, so orders sharing items always lock them in the same
+   * order and can't deadlock each other. Call {@link #stockTaken(Map)} once it has committed.
+   *
+   * @param order      the order to take the stock for
+   * @param connection the connection the transaction is running on
+   * @return the new stock of each item taken
+   * @throws SQLException when a statement fails
+   * @throws OutOfStockException when there isn't enough stock, the caller should roll back
+   */
+  Map<Integer, Integer> takeStock(Order order, Connection connection)
+      throws SQLException, OutOfStockException {
+    
+    // Counts how many of each item are needed, sorted by id
+    Map<Integer, Integer> wanted = new TreeMap<>();
+    for (Item item : order.getItemsInOrder()) {
+      wanted.merge(item.getID(), 1, Integer::sum);
+    }
+    if (wanted.isEmpty()) {
+      return new HashMap<>();
+    }
+    Integer[] itemIDs = wanted.keySet().toArray(new Integer[0]);
+    Integer[] amounts = wanted.values().toArray(new Integer[0]);
+    
+    // The update's join can visit rows in any order, so they are locked in id order first
+    PreparedStatement lock = connection.prepareStatement("SELECT itemid FROM menu "
+        + "WHERE itemid = ANY(?) ORDER BY itemid FOR UPDATE");
+    lock.setArray(1, connection.createArrayOf("integer", itemIDs));
+    lock.executeQuery().close();
+    lock.close();
+    
+    PreparedStatement ps = connection.prepareStatement("UPDATE menu "
+        + "SET stock = menu.stock - wanted.amount "
+        + "FROM unnest(?::int[], ?::int[]) AS wanted(itemID, amount) "
+        + "WHERE menu.itemid = wanted.itemID AND menu.stock >= wanted.amount "
+        + "RETURNING menu.itemid, menu.stock");
+    ps.setArray(1, connection.createArrayOf("integer", itemIDs));
+    ps.setArray(2, connection.createArrayOf("integer", amounts));
+    ResultSet rs = ps.executeQuery();
+    Map<Integer, Integer> taken = new HashMap<>();
+    while (rs.next()) {
+      taken.put(rs.getInt(1), rs.getInt(2));
+    }
+    rs.close();
+    ps.close();
+    
+    if (taken.size() < wanted.size()) {
+      throw getOutOfStockException(connection, wanted, taken);
+    }
+    return taken;
+  }
+  
+  /**
+   * Updates the stored menu with the stock left once taking it has committed.
+   *
+   * @param newStock the new stock of each item taken
+   */
+  void stockTaken(Map<Integer, Integer> newStock) {
+    synchronized (snapshotLock) {
+      snapshot = snapshot == null ? null : snapshot.withStock(newStock);
+    }
+  }
+  
+  private OutOfStockException getOutOfStockException(Connection connection,
+                                                     Map<Integer, Integer> wanted,
+                                                     Map<Integer, Integer> taken)
+      throws SQLException {
+    Map<Integer, Integer> inStock = new HashMap<>();
+    Map<Integer, String> names = new HashMap<>();
+    PreparedStatement ps = connection.prepareStatement("SELECT itemid, itemname, stock "
+        + "FROM menu WHERE itemid = ANY(?)");
+    ps.setArray(1, connection.createArrayOf("integer", wanted.keySet().toArray()));
+    ResultSet rs = ps.executeQuery();
+    while (rs.next()) {
+      names.put(rs.getInt(1), rs.getString(2));
+      inStock.put(rs.getInt(1), rs.getInt(3));
+    }
+    rs.close();
+    ps.close();
+    
+    Map<Integer, Integer> shortItems = new LinkedHashMap<>();
+    StringBuilder message = new StringBuilder("Order out of stock:");
+    for (Map.Entry<Integer, Integer> item : wanted.entrySet()) {
+      if (taken.containsKey(item.getKey())) {
+        continue;
       }
-    } finally {
-      closeConnection(connection);
+      int shortBy = item.getValue() - inStock.getOrDefault(item.getKey(), 0);
+      shortItems.put(item.getKey(), Math.max(shortBy, 1)); // Could have been restocked since
+      message.append(" ").append(names.getOrDefault(item.getKey(), "item " + item.getKey()))
+          .append(" short by ").append(shortItems.get(item.getKey())).append(",");
     }
+    message.setLength(message.length() - 1);
+    return new OutOfStockException(message.toString(), shortItems);
   }
   
   /**
@@ -321,11 +434,12 @@ public class MenuDB extends Database {
    */
   public void addItem(Item item) throws ConnectionError, ExecutionError, InvalidItemException {
     
-    List<String> seenAllergens = getAllergens();
+    MenuSnapshot current = refreshSnapshot(); // Another terminal may have just added an item
+    List<String> seenAllergens = new LinkedList<>(current.getAllergens());
     
     String[] itemData = new String[11]; // Gets the correct item data
     if (item.getID() == -1) {
-      itemData[0] = String.valueOf(Collections.max(getMap().keySet()) + 1);
+      itemData[0] = String.valueOf(Collections.max(current.getMap().keySet()) + 1);
     } else {
       itemData[0] = String.valueOf(item.getID()); // Allows replacing items
     }
@@ -383,8 +497,13 @@ public class MenuDB extends Database {
         throw new ExecutionError("Couldn't add allergens to item");
       }
     }
-    if (allergenInItemsPs != null) {
-      executeInsert(allergenInItemsPs);
+    try {
+      if (allergenInItemsPs != null) {
+        executeInsert(allergenInItemsPs);
+      }
+    } finally {
+      closeConnection(connection);
+      menuChanged();
     }
   }
   
@@ -416,6 +535,7 @@ public class MenuDB extends Database {
       throw new ExecutionError("Could not remove item", SQLE);
     } finally {
       closeConnection(connection);
+      menuChanged();
     }
     
   }
@@ -430,9 +550,7 @@ public class MenuDB extends Database {
    * @throws InvalidItemException when the new version of the item is invalid
    */
   public void modifyItem(Item item) throws ConnectionError, ExecutionError, InvalidItemException {
-    Connection connection = getConnection();
-    lastUpdated.put(new Filter(new HashSet<>(), false, false, false),
-        LocalTime.MIN);
+    menuChanged();
     
     Item origItem = null;
     List<Item> originalMenu = getMenu();
@@ -446,26 +564,61 @@ public class MenuDB extends Database {
       throw new InvalidItemException("Item not in database", null, null, -1);
     }
     
+    // Only taken once the lookup is done, so this never holds more than one connection
+    Connection connection = getConnection();
+    ExecutionError updateError = null;
     try {
-      PreparedStatement ps = connection.prepareStatement("UPDATE menu SET itemname = ?," +
-          " itemdesc = ?, price = ?, calories = ?, category = ?, isvegi = ?, isvegen = ?," +
-          " isglutenfree = ?, stock =  ?, costPrice = ? " +
-          "WHERE itemid = ?");
+      try {
+        PreparedStatement ps = connection.prepareStatement("UPDATE menu SET itemname = ?," +
+            " itemdesc = ?, price = ?, calories = ?, category = ?, isvegi = ?, isvegen = ?," +
+            " isglutenfree = ?, stock =  ?, costPrice = ? " +
+            "WHERE itemid = ?");
+        
+        ps.setString(1, item.getName());
+        ps.setString(2, item.getDescription());
+        ps.setInt(3, item.getPrice().getPriceValue());
+        ps.setInt(4, item.getCalories());
+        ps.setString(5, item.getCategory().toString());
+        ps.setBoolean(6, item.isVegi());
+        ps.setBoolean(7, item.isVegan());
+        ps.setBoolean(8, item.isGlutenFree());
+        ps.setInt(9, item.getStock());
+        ps.setInt(10, item.getCostPrice().getPriceValue());
+        ps.setInt(11, item.getID());
+        ps.execute();
+      } catch (SQLException SQLE) {
+        updateError = new ExecutionError("Could not modify item", SQLE);
+      }
       
-      ps.setString(1, item.getName());
-      ps.setString(2, item.getDescription());
-      ps.setInt(3, item.getPrice().getPriceValue());
-      ps.setInt(4, item.getCalories());
-      ps.setString(5, item.getCategory().toString());
-      ps.setBoolean(6, item.isVegi());
-      ps.setBoolean(7, item.isVegan());
-      ps.setBoolean(8, item.isGlutenFree());
-      ps.setInt(9, item.getStock());
-      ps.setInt(10, item.getCostPrice().getPriceValue());
-      ps.setInt(11, item.getID());
-      ps.execute();
-    } catch (SQLException SQLE) {
+      if (updateError == null && origItem.getAllergens() != item.getAllergens()){
+        try {
+          PreparedStatement ps = connection.prepareStatement("DELETE FROM allergensinitems " +
+              "WHERE itemid = ?");
+          ps.setInt(1, item.getID());
+          ps.execute();
+        } catch (SQLException SQLE) {
+          throw new ExecutionError("Could not clear old allergens");
+        }
+        
+        try {
+          PreparedStatement ps = connection.prepareStatement("INSERT INTO allergensinitems " +
+              "VALUES ((SELECT allergenid FROM allergens WHERE allergenname = ?), ?)");
+          for (String allergen: item.getAllergens()) {
+            ps.setString(1, allergen);
+            ps.setInt(2, item.getID());
+            ps.addBatch();
+          }
+          ps.executeBatch();
+        } catch (SQLException SQLE) {
+          throw new ExecutionError("Could not add new allergens");
+        }
+      }
+    } finally {
       closeConnection(connection);
+      menuChanged();
+    }
+    
+    if (updateError != null) {
       String[] itemData = new String[11];
       
       itemData[1] = item.getName(); // Only need the parts likely to throw an error
@@ -474,33 +627,9 @@ public class MenuDB extends Database {
       itemData[9] = String.valueOf(item.getStock());
       itemData[10] = String.valueOf(item.getCostPrice());
       
-      dealWithItemError(new ExecutionError("Could not modify item", SQLE), itemData);
-    }
-    
-    if (origItem.getAllergens() != item.getAllergens()){
-      try {
-        PreparedStatement ps = connection.prepareStatement("DELETE FROM allergensinitems " +
-            "WHERE itemid = ?");
-        ps.setInt(1, item.getID());
-        ps.execute();
-      } catch (SQLException SQLE) {
-        throw new ExecutionError("Could not clear old allergens");
-      }
-      
-      try {
-        PreparedStatement ps = connection.prepareStatement("INSERT INTO allergensinitems " +
-            "VALUES ((SELECT allergenid FROM allergens WHERE allergenname = ?), ?)");
-        for (String allergen: item.getAllergens()) {
-          ps.setString(1, allergen);
-          ps.setInt(2, item.getID());
-          ps.addBatch();
-        }
-        ps.executeBatch();
-      } catch (SQLException SQLE) {
-        throw new ExecutionError("Could not add new allergens");
-      }
+      dealWithItemError(updateError, itemData);
+      throw updateError; // The error wasn't down to the item
     }
-    
   }
   
   /**
@@ -513,54 +642,139 @@ public class MenuDB extends Database {
    */
   public float getAverageTimeToCook(int itemID) throws ConnectionError, ExecutionError {
     Connection connection = getConnection();
-    int timeUncooked;
+    float timeUncooked;
     int numOrders;
     try {
-      PreparedStatement ps = connection.prepareStatement("SELECT NumServed, TotalTimeToCook " +
-          "FROM menu WHERE itemid = ?");
+      PreparedStatement ps = connection.prepareStatement("SELECT NumServed, " +
+          "EXTRACT(EPOCH FROM TotalTimeToCook) / 60 FROM menu WHERE itemid = ?");
       ps.setInt(1, itemID);
       ResultSet rs = ps.executeQuery();
       if (!rs.next()) {
         throw new ExecutionError("Could not find item with id " + itemID);
       }
       numOrders = rs.getInt(1);
-      timeUncooked = rs.getTime(2).toLocalTime().getMinute();
+      timeUncooked = rs.getFloat(2);
     } catch (SQLException SQLE) {
       throw new ExecutionError("Could not get data", SQLE);
     } finally {
       closeConnection(connection);
     }
-    return (float) timeUncooked / (float) numOrders;
+    return timeUncooked / (float) numOrders;
   }
   
   /**
-   * Adds an order to the cooking time data.
+   * Gets the spread of times the given item has taken to cook, from which percentiles such as
+   * the median and 90th percentile can be read.
    *
-   * @param order the order to add
-   * @param time  the time it took to cook
+   * @param itemID the items id
+   * @return the sketch of the times - empty if it hasn't been cooked
    * @throws ConnectionError when unable to connect to the database
-   * @throws ExecutionError when unable to add the data to the database
+   * @throws ExecutionError  when unable to fetch the data from the database
    */
-  public void addOrderToData(Order order, int time) throws ConnectionError, ExecutionError {
-    int averageTime = round((float) time / (float) order.getItemCount());
+  public QuantileSketch getPrepTimes(int itemID) throws ConnectionError, ExecutionError {
     Connection connection = getConnection();
     try {
-      PreparedStatement ps = connection.prepareStatement("UPDATE menu " +
-          "SET NumServed = NumServed + 1, TotalTimeToCook = TotalTimeToCook + ?::INTERVAL " +
+      PreparedStatement ps = connection.prepareStatement("SELECT PrepTimes FROM menu " +
           "WHERE itemid = ?");
-      for (Item item : order.getItemsInOrder()) {
-        ps.setString(1, averageTime + " minutes");
-        ps.setInt(2, item.getID());
-        ps.addBatch();
+      ps.setInt(1, itemID);
+      ResultSet rs = ps.executeQuery();
+      if (!rs.next()) {
+        throw new ExecutionError("Could not find item with id " + itemID);
       }
-      ps.executeBatch();
+      return readPrepTimes(rs.getBytes(1), itemID);
     } catch (SQLException SQLE) {
-      throw new ExecutionError("Could not update cooking time stats", SQLE);
+      throw new ExecutionError("Could not get data", SQLE);
     } finally {
       closeConnection(connection);
     }
   }
   
+  /**
+   * Gets the stock and cooking statistics of every item in one query.
+   *
+   * @return the statistics in item id order
+   * @throws ConnectionError when unable to connect to the database
+   * @throws ExecutionError  when unable to fetch the data from the database
+   */
+  public List<ItemStatistics> getItemStatistics() throws ConnectionError, ExecutionError {
+    List<ItemStatistics> statistics = new ArrayList<>();
+    Statement st = getStatement();
+    try {
+      ResultSet rs = st.executeQuery("SELECT ItemID, ItemName, Price, Stock, NumServed, " +
+          "EXTRACT(EPOCH FROM TotalTimeToCook) / 60, PrepTimes FROM menu ORDER BY ItemID");
+      while (rs.next()) {
+        statistics.add(new ItemStatistics(rs.getInt(1), rs.getString(2), rs.getInt(3),
+            rs.getInt(4), rs.getInt(5), rs.getDouble(6), readPrepTimes(rs.getBytes(7),
+            rs.getInt(1))));
+      }
+      rs.close();
+    } catch (SQLException SQLE) {
+      throw new ExecutionError("Could not get item statistics", SQLE);
+    } finally {
+      try {
+        closeConnection(st.getConnection());
+      } catch (SQLException SQLE) {
+        // Not concerned with closing issues
+      }
+    }
+    return statistics;
+  }
+  
+  /**
+   * Adds an order to the cooking time data.
+   * The time is split evenly between the items, and every item in the order is updated in one
+   * transaction, with each items stored times locked while its new times are merged in.
+   *
+   * @param order the order to add
+   * @param time  the time it took to cook
+   * @throws ConnectionError when unable to connect to the database
+   * @throws ExecutionError when unable to add the data to the database
+   */
+  public void addOrderToData(Order order, int time) throws ConnectionError, ExecutionError {
+    if (order.getItemCount() == 0) {
+      return;
+    }
+    double itemTime = (double) time / order.getItemCount();
+    Map<Integer, QuantileSketch> newTimes = new HashMap<>();
+    for (Item item : order.getItemsInOrder()) {
+      newTimes.computeIfAbsent(item.getID(), id -> new QuantileSketch()).add(itemTime);
+    }
+    
+    inTransaction(connection -> {
+      PreparedStatement select = connection.prepareStatement("SELECT ItemID, PrepTimes " +
+          "FROM menu WHERE ItemID = ANY(?) FOR UPDATE");
+      select.setArray(1, connection.createArrayOf("integer", newTimes.keySet().toArray()));
+      ResultSet rs = select.executeQuery();
+      
+      PreparedStatement update = connection.prepareStatement("UPDATE menu " +
+          "SET NumServed = NumServed + ?, " +
+          "TotalTimeToCook = TotalTimeToCook + ? * INTERVAL '1 minute', PrepTimes = ? " +
+          "WHERE ItemID = ?");
+      while (rs.next()) {
+        QuantileSketch itemTimes = newTimes.get(rs.getInt(1));
+        QuantileSketch prepTimes = readPrepTimes(rs.getBytes(2), rs.getInt(1));
+        prepTimes.merge(itemTimes);
+        
+        update.setLong(1, itemTimes.getCount());
+        update.setDouble(2, itemTime * itemTimes.getCount());
+        update.setBytes(3, prepTimes.toBytes());
+        update.setInt(4, rs.getInt(1));
+        update.addBatch();
+      }
+      rs.close();
+      update.executeBatch();
+      return null;
+    });
+  }
+  
+  private static QuantileSketch readPrepTimes(byte[] bytes, int itemID) throws ExecutionError {
+    try {
+      return QuantileSketch.fromBytes(bytes);
+    } catch (IllegalArgumentException IAE) {
+      throw new ExecutionError("Stored cooking times for item " + itemID + " are corrupt", IAE);
+    }
+  }
+  
   @Override
   protected void makeTables() throws ConnectionError, ExecutionError {
     Statement st = getStatement();
@@ -580,6 +794,7 @@ public class MenuDB extends Database {
           "CostPrice int not null, " + //
           "NumServed int DEFAULT 0," + //
           "TotalTimeToCook INTERVAL DEFAULT '0 mins'::INTERVAL," + //
+          "PrepTimes bytea," + //
           "CONSTRAINT Profit CHECK ( Price >= 1.6*CostPrice )," + //
           "CONSTRAINT StockLevel CHECK ( Stock>=0 )" + //
           ");");
@@ -615,6 +830,96 @@ public class MenuDB extends Database {
     }
   }
   
+  /**
+   * Adds the cooking times column to menus made before the times were sketched.
+   * Run every time as makeTables doesn't run once the menu tables exist.
+   *
+   * @throws ConnectionError when unable to connect to the database
+   * @throws ExecutionError  when unable to add the column
+   */
+  private void addPrepTimesColumn() throws ConnectionError, ExecutionError {
+    Statement st = getStatement();
+    try {
+      st.execute("ALTER TABLE menu ADD COLUMN IF NOT EXISTS PrepTimes bytea;");
+    } catch (SQLException SQLE) {
+      throw new ExecutionError("Couldn't add the cooking times to menu", SQLE);
+    } finally {
+      try {
+        closeConnection(st.getConnection());
+      } catch (SQLException SQLE) {
+        // Closing errors not considered important
+      }
+    }
+  }
+  
+  /**
+   * Makes the menu version and the triggers moving it on, if they don't already exist.
+   * Run every time rather than in makeTables, as menus made before the version was added
+   * already have all their tables.
+   * The version is kept in a row updated by the same transaction as the change, so no other
+   * terminal sees the new version until it can also see the new menu. It only counts changes
+   * to what is shown on the menu. Stock instead marks each changed row with the txid that
+   * changed it, so confirming orders doesn't queue on the version row, and the cooking
+   * statistics aren't versioned as they aren't held in the snapshot.
+   *
+   * @throws ConnectionError when unable to connect to the database
+   * @throws ExecutionError  when unable to make the version or triggers
+   */
+  private void makeVersionTriggers() throws ConnectionError, ExecutionError {
+    Statement st = getStatement();
+    try {
+      st.execute("CREATE TABLE IF NOT EXISTS menuVersion(Version bigint not null);");
+      st.execute("INSERT INTO menuVersion SELECT 0 " //
+          + "WHERE NOT EXISTS (SELECT 1 FROM menuVersion);");
+      st.execute("CREATE OR REPLACE FUNCTION version_menu_change() RETURNS trigger AS $$ " //
+          + "BEGIN " //
+          + "  UPDATE menuVersion SET Version = Version + 1; " //
+          + "  RETURN NULL; " //
+          + "END; $$ LANGUAGE plpgsql;");
+      st.execute("DROP SEQUENCE IF EXISTS menuChangeSeq;"); // Replaced by menuVersion
+      st.execute("ALTER TABLE menu ADD COLUMN IF NOT EXISTS StockTxid bigint NOT NULL DEFAULT 0;");
+      st.execute("CREATE OR REPLACE FUNCTION mark_stock_change() RETURNS trigger AS $$ " //
+          + "BEGIN " //
+          + "  NEW.StockTxid := txid_current(); " //
+          + "  RETURN NEW; " //
+          + "END; $$ LANGUAGE plpgsql;");
+      st.execute("DO $$ BEGIN " //
+          + "IF EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'menu_version') THEN " //
+          + "  DROP TRIGGER menu_version ON menu; " // Versioned stock and statistics too
+          + "END IF; " //
+          + "IF NOT EXISTS (SELECT 1 FROM pg_trigger " //
+          + "    WHERE tgname = 'menu_catalogue_version') THEN " //
+          + "  CREATE TRIGGER menu_catalogue_version AFTER INSERT OR DELETE OR TRUNCATE " //
+          + "  OR UPDATE OF ItemName, ItemDesc, Price, Calories, Category, IsVegi, IsVegen, " //
+          + "  IsGlutenFree, CostPrice " //
+          + "  ON menu FOR EACH STATEMENT EXECUTE PROCEDURE version_menu_change(); " //
+          + "END IF; " //
+          + "IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'menu_stock_txid') THEN " //
+          + "  CREATE TRIGGER menu_stock_txid BEFORE UPDATE OF Stock " //
+          + "  ON menu FOR EACH ROW EXECUTE PROCEDURE mark_stock_change(); " //
+          + "END IF; " //
+          + "IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'allergens_version') THEN " //
+          + "  CREATE TRIGGER allergens_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE " //
+          + "  ON allergens FOR EACH STATEMENT EXECUTE PROCEDURE version_menu_change(); " //
+          + "END IF; " //
+          + "IF NOT EXISTS (SELECT 1 FROM pg_trigger " //
+          + "    WHERE tgname = 'allergensinitems_version') THEN " //
+          + "  CREATE TRIGGER allergensinitems_version " //
+          + "  AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON allergensInItems " //
+          + "  FOR EACH STATEMENT EXECUTE PROCEDURE version_menu_change(); " //
+          + "END IF; " //
+          + "END $$;");
+    } catch (SQLException SQLE) {
+      throw new ExecutionError("Couldn't make menu version triggers", SQLE);
+    } finally {
+      try {
+        closeConnection(st.getConnection());
+      } catch (SQLException SQLE) {
+        // Closing errors not considered important
+      }
+    }
+  }
+  
   /**
    * @param table The name of the table to populate
    * @throws ExecutionError  Thrown when theres an error
@@ -627,11 +932,7 @@ public class MenuDB extends Database {
     
     
     // Connects to the database
-    try {
-      connection = DriverManager.getConnection(URL, userName, password);
-    } catch (SQLException SQLE) {
-      throw new ConnectionError("Could not connect to database", SQLE);
-    }
+    connection = getConnection();
     
     try {
       tableFile = loadFile(table + ".txt");
@@ -675,11 +976,7 @@ public class MenuDB extends Database {
     Connection connection;
     
     // Connects to the database
-    try {
-      connection = DriverManager.getConnection(URL, userName, password);
-    } catch (SQLException SQLE) {
-      throw new ConnectionError("Could not connect to database", SQLE);
-    }
+    connection = getConnection();
     
     // Inits prepared statements
     PreparedStatement toMenu = null;
@@ -814,59 +1111,6 @@ public class MenuDB extends Database {
     
   }
   
-  private List<Item> getItemsFromResultSet(ResultSet rs) throws ExecutionError, ConnectionError {
-    List<Item> items = new LinkedList<>();
-    Statement st = getStatement();
-    try {
-      while (rs.next()) {
-        items.add(new Item(rs.getInt(1), rs.getString(2), rs.getString(3),
-            rs.getInt(4), rs.getInt(5), ItemCategory.toCategory(rs.getString(6)),
-            rs.getBoolean(7), rs.getBoolean(8), rs.getBoolean(9), rs.getInt(10),
-            rs.getInt(11)));
-      }
-    } catch (SQLException SQLE) {
-      throw new ExecutionError("Couldn't read next item", SQLE);
-    }
-    
-    // Gets each items allergens
-    for (Item item : items) {
-      addAllergensToItem(st, item);
-    }
-    
-    try {
-      rs.close();
-      Database.closeConnection(st.getConnection());
-    } catch (SQLException SQLE) {
-      // Not concerned with closing errors
-    }
-    
-    return items;
-  }
-  
-  private void addAllergensToItem(Statement st, Item item) throws ExecutionError {
-    ResultSet rs;
-    try {
-      rs = st.executeQuery("SELECT allergens.allergenName FROM allergens, allergensinitems " +
-          "WHERE allergens.allergenid = allergensinitems.allergenid " +
-          "AND itemid = " + item.getID() + ";");
-    } catch (SQLException SQLE) {
-      throw new ExecutionError("Couldn't get allergens for item " + item.getName(), SQLE);
-    }
-    try {
-      while (rs.next()) {
-        item.addAllergen(rs.getString(1));
-      }
-    } catch (SQLException SQLE) {
-      throw new ExecutionError("Couldn't read next allergen", SQLE);
-    } finally {
-      try {
-        rs.close();
-      } catch (SQLException SQLE) {
-        // Not worried with closing issues.
-      }
-    }
-  }
-  
   private void dealWithItemError(ExecutionError EE, String[] data)
       throws ExecutionError, ConnectionError, InvalidItemException {
   
@@ -0,0 +1,187 @@
+package uk.ac.rhul.cs2810.database;
+
+import uk.ac.rhul.cs2810.containers.Item;
+import uk.ac.rhul.cs2810.containers.ItemCategory;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An unchanging copy of the menu at one version, indexed by id and category.
+ * Each items allergens are stored as a bitset and its dietary flags as bits of an int, so checking
+ * an item against a filter is a couple of bitwise operations. A snapshot is never changed once
+ * made, a new one replaces it when the menu changes, so it can be read without locking. Items are
+ * copied on the way out so callers changing them can't change the snapshot.
+ */
+class MenuSnapshot {
+  private static final int VEGI = 1;
+  private static final int VEGAN = 1 << 1;
+  private static final int GLUTEN_FREE = 1 << 2;
+
+  private final long version;
+  private final List<Item> items;
+  private final Map<Integer, Integer> idToPosition = new HashMap<>();
+  private final Map<ItemCategory, List<Item>> byCategory = new HashMap<>();
+  private final List<String> allergens;
+  private final int[] dietFlags;
+  private final BitSet[] allergenBits;
+  private final Map<String, Integer> allergenToBit = new HashMap<>();
+
+  /**
+   * Instantiates a new menu snapshot.
+   *
+   * @param version   the menu version the items were read at
+   * @param items     the items on the menu, in the order they should be shown
+   * @param allergens every allergen known to the menu
+   */
+  MenuSnapshot(long version, List<Item> items, List<String> allergens) {
+    this.version = version;
+    this.items = Collections.unmodifiableList(new ArrayList<>(items));
+    this.allergens = Collections.unmodifiableList(new ArrayList<>(allergens));
+    dietFlags = new int[this.items.size()];
+    allergenBits = new BitSet[this.items.size()];
+
+    for (int i = 0; i < this.items.size(); i++) {
+      Item item = this.items.get(i);
+      idToPosition.put(item.getID(), i);
+      byCategory.computeIfAbsent(item.getCategory(), k -> new ArrayList<>()).add(item);
+
+      dietFlags[i] = getDietFlags(item.isVegi(), item.isVegan(), item.isGlutenFree());
+      allergenBits[i] = new BitSet();
+      for (String allergen : item.getAllergens()) {
+        Integer bit = allergenToBit.get(allergen);
+        if (bit == null) {
+          bit = allergenToBit.size();
+          allergenToBit.put(allergen, bit);
+        }
+        allergenBits[i].set(bit);
+      }
+    }
+  }
+
+  /**
+   * Gets the menu version the snapshot was made from.
+   *
+   * @return the version
+   */
+  long getVersion() {
+    return version;
+  }
+
+  /**
+   * Gets an item.
+   *
+   * @param id the items id
+   * @return a copy of the item - null if it isn't on the menu
+   */
+  Item getItem(int id) {
+    Integer position = idToPosition.get(id);
+    return position == null ? null : copy(items.get(position));
+  }
+
+  /**
+   * Gets a map of item id to item.
+   *
+   * @return copies of the items by id, in menu order
+   */
+  Map<Integer, Item> getMap() {
+    Map<Integer, Item> itemMap = new LinkedHashMap<>();
+    for (Item item : items) {
+      itemMap.put(item.getID(), copy(item));
+    }
+    return itemMap;
+  }
+
+  /**
+   * Gets the items in a category.
+   *
+   * @param category the category
+   * @return copies of the items in menu order
+   */
+  List<Item> getItemsFromCategory(ItemCategory category) {
+    List<Item> found = new LinkedList<>();
+    for (Item item : byCategory.getOrDefault(category, Collections.emptyList())) {
+      found.add(copy(item));
+    }
+    return found;
+  }
+
+  /**
+   * Gets every allergen known to the menu.
+   *
+   * @return the allergens, which can't be changed
+   */
+  List<String> getAllergens() {
+    return allergens;
+  }
+
+  /**
+   * Makes a copy of the snapshot with some items stock changed.
+   * The copy keeps this snapshots version, so the next version check still reloads the menu.
+   *
+   * @param stock a map of item id to its new stock
+   * @return the new snapshot
+   */
+  MenuSnapshot withStock(Map<Integer, Integer> stock) {
+    List<Item> changed = new ArrayList<>(items.size());
+    for (Item item : items) {
+      Integer newStock = stock.get(item.getID());
+      changed.add(newStock == null ? item : copy(item, newStock));
+    }
+    return new MenuSnapshot(version, changed, allergens);
+  }
+
+  /**
+   * Gets the items that pass the filter.
+   *
+   * @param filter      the filter to use
+   * @param ignoreStock whether or not to include items out of stock
+   * @return copies of the matching items in menu order
+   */
+  List<Item> filter(Filter filter, boolean ignoreStock) {
+    int required = getDietFlags(filter.isVegi(), filter.isVegan(), filter.isGlutenFree());
+    BitSet banned = new BitSet();
+    for (String allergen : filter.getAllergens()) {
+      Integer bit = allergenToBit.get(allergen);
+      if (bit != null) { // Allergens no item contains can't filter anything out
+        banned.set(bit);
+      }
+    }
+
+    List<Item> found = new LinkedList<>();
+    for (int i = 0; i < items.size(); i++) {
+      if ((dietFlags[i] & required) != required || allergenBits[i].intersects(banned)) {
+        continue;
+      }
+      Item item = items.get(i);
+      if (ignoreStock || item.getStock() > 0) {
+        found.add(copy(item));
+      }
+    }
+    return found;
+  }
+
+  private static int getDietFlags(boolean vegi, boolean vegan, boolean glutenFree) {
+    return (vegi ? VEGI : 0) | (vegan ? VEGAN : 0) | (glutenFree ? GLUTEN_FREE : 0);
+  }
+
+  private static Item copy(Item item) {
+    return copy(item, item.getStock());
+  }
+
+  private static Item copy(Item item, int stock) {
+    Item copy = new Item(item.getID(), item.getName(), item.getDescription(),
+        item.getPrice().getPriceValue(), item.getCalories(), item.getCategory(), item.isVegi(),
+        item.isVegan(), item.isGlutenFree(), stock, item.getCostPrice().getPriceValue());
+    for (String allergen : item.getAllergens()) {
+      copy.addAllergen(allergen);
+    }
+    return copy;
+  }
+}
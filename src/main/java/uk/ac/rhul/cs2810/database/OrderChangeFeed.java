@@ -0,0 +1,149 @@
+package uk.ac.rhul.cs2810.database;
+
+import uk.ac.rhul.cs2810.Exceptions.ConnectionError;
+import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
+import uk.ac.rhul.cs2810.containers.Order;
+import uk.ac.rhul.cs2810.containers.OrderChange;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Listens for order changes published by the database triggers and passes them on to listeners.
+ * The feed only runs while there are listeners.
+ */
+class OrderChangeFeed {
+  static final String CHANNEL = "order_changes";
+  
+  private final OrderDB orderDB;
+  private final ChangeFeed feed;
+  private final List<OrderChangeListener> listeners = new CopyOnWriteArrayList<>();
+  
+  /**
+   * Instantiates a new order change feed.
+   *
+   * @param orderDB  the order database used to load changed orders
+   * @param URL      the url of the database
+   * @param userName the username to login with
+   * @param password the password to login with
+   */
+  OrderChangeFeed(OrderDB orderDB, String URL, String userName, String password) {
+    this.orderDB = orderDB;
+    // Anything could have changed while disconnected
+    feed = new ChangeFeed(CHANNEL, URL, userName, password, () -> orderDB.changesReceived(true),
+        this::dispatch);
+  }
+  
+  /**
+   * Adds a listener, starting the feed if it isn't already running.
+   *
+   * @param listener the listener to add
+   */
+  synchronized void addListener(OrderChangeListener listener) {
+    listeners.add(listener);
+    feed.start();
+  }
+  
+  /**
+   * Removes a listener, stopping the feed if there are none left.
+   *
+   * @param listener the listener to remove
+   */
+  synchronized void removeListener(OrderChangeListener listener) {
+    listeners.remove(listener);
+    if (listeners.isEmpty()) {
+      close();
+    }
+  }
+  
+  /**
+   * Checks if the feed is currently receiving changes from the database.
+   * While this is false listeners may miss changes, so callers should fall back to polling.
+   *
+   * @return if changes are being received
+   */
+  boolean isConnected() {
+    return feed.isConnected();
+  }
+  
+  /**
+   * Stops the feed and closes its connection.
+   */
+  void close() {
+    feed.close();
+  }
+  
+  /**
+   * Sends the notifications to the listeners. Several changes to the same order are combined so
+   * listeners only hear about each order once per batch.
+   *
+   * @param notifications the payloads of the notifications received from the database
+   */
+  private void dispatch(List<String> notifications) {
+    Map<Integer, OrderChange.Type> changes = new LinkedHashMap<>();
+    boolean waitersChanged = false;
+    
+    for (String notification : notifications) {
+      String[] parts = notification.split(":");
+      if (parts.length != 2) {
+        continue;
+      }
+      if (parts[0].equals("TABLES")) { // Waiters assigned to tables changed
+        waitersChanged = true;
+        continue;
+      }
+      int orderID;
+      try {
+        orderID = Integer.parseInt(parts[1]);
+      } catch (NumberFormatException NFE) {
+        continue;
+      }
+      
+      OrderChange.Type type;
+      switch (parts[0]) {
+        case "INSERT":
+          type = OrderChange.Type.ADDED;
+          break;
+        case "DELETE":
+          type = OrderChange.Type.REMOVED;
+          break;
+        default:
+          type = OrderChange.Type.UPDATED;
+      }
+      
+      // An order added in this batch is still new to the listeners
+      if (changes.get(orderID) == OrderChange.Type.ADDED && type == OrderChange.Type.UPDATED) {
+        type = OrderChange.Type.ADDED;
+      }
+      changes.put(orderID, type);
+    }
+    orderDB.changesReceived(waitersChanged);
+    
+    for (Map.Entry<Integer, OrderChange.Type> change : changes.entrySet()) {
+      OrderChange.Type type = change.getValue();
+      Order order = null;
+      
+      if (type != OrderChange.Type.REMOVED) {
+        try {
+          order = orderDB.getOrderFromID(change.getKey());
+          if (order == null) {
+            type = OrderChange.Type.REMOVED; // Removed since the notification was sent
+          }
+        } catch (ConnectionError | ExecutionError E) {
+          // Listeners are still told so they can fetch the order themselves
+        }
+      }
+      
+      OrderChange orderChange = new OrderChange(type, change.getKey(), order);
+      for (OrderChangeListener listener : listeners) {
+        try {
+          listener.orderChanged(orderChange);
+        } catch (RuntimeException RE) {
+          System.err.println("Order change listener failed: " + RE.getMessage());
+        }
+      }
+    }
+  }
+}
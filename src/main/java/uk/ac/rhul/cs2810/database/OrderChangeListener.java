@@ -0,0 +1,18 @@
+package uk.ac.rhul.cs2810.database;
+
+import uk.ac.rhul.cs2810.containers.OrderChange;
+
+/**
+ * Receives changes made to orders in the database.
+ * Called from a background thread, so anything touching the UI should use Platform.runLater.
+ */
+@FunctionalInterface
+public interface OrderChangeListener {
+  
+  /**
+   * Called when an order is added, updated or removed.
+   *
+   * @param change the change made
+   */
+  void orderChanged(OrderChange change);
+}
@@ -1,10 +1,11 @@
 package uk.ac.rhul.cs2810.database;
 
-import org.postgresql.util.PSQLException;
 import uk.ac.rhul.cs2810.Exceptions.*;
 import uk.ac.rhul.cs2810.containers.Item;
 import uk.ac.rhul.cs2810.containers.Order;
+import uk.ac.rhul.cs2810.containers.OrderDelta;
 import uk.ac.rhul.cs2810.containers.OrderState;
+import uk.ac.rhul.cs2810.containers.WaiterDashboard;
 
 import java.sql.*;
 import java.time.Duration;
@@ -19,8 +20,12 @@ import static java.lang.Math.abs;
 public class OrderDB extends Database {
   private final boolean testing;
   
-  private final Map<OrderState, List<Order>> orderCache;
-  private final Map<OrderState, LocalTime> timeFetched;
+  private final OrderStore store = new OrderStore();
+  private final Object syncLock = new Object();
+  private volatile boolean storeStale = true;
+  private volatile boolean waitersStale = true;
+  private final OrderChangeFeed changeFeed;
+  private final boolean changeTriggers;
   
   /**
    * Initiates a new Order db.
@@ -30,10 +35,7 @@ public class OrderDB extends Database {
    * @throws ExecutionError  if unable to setup the tables
    */
   OrderDB(boolean testing) throws ConnectionError, ExecutionError {
-    super(new String[]{"orders", "itemsInOrder"}, testing);
-    
-    timeFetched = new HashMap<>();
-    orderCache = new HashMap<>();
+    super(new String[]{"orders", "itemsInOrder", "deletedOrders"}, testing);
     
     insertStatments.put("orders", "INSERT INTO orders VALUES (?, ?, ?);");
     insertStatments.put("itemsInOrder", "INSERT INTO itemsInOrder VALUES (?, ?, ?);");
@@ -42,11 +44,66 @@ public class OrderDB extends Database {
     layouts.put("itemsInOrder", new char[]{'i', 'i', 'i'});
     
     this.testing = testing;
+    
+    makeVersionTriggers();
+    changeFeed = new OrderChangeFeed(this, URL, userName, password);
+    changeTriggers = makeChangeTriggers();
+  }
+  
+  /**
+   * Adds a listener to be told when orders are added, updated or removed.
+   * Changes are pushed by the database so there is no need to poll while
+   * {@link #isReceivingChanges()} is true.
+   *
+   * @param listener the listener to add
+   */
+  public void addOrderChangeListener(OrderChangeListener listener) {
+    changeFeed.addListener(listener);
+  }
+  
+  /**
+   * Stops a listener being told about order changes.
+   *
+   * @param listener the listener to remove
+   */
+  public void removeOrderChangeListener(OrderChangeListener listener) {
+    changeFeed.removeListener(listener);
   }
   
   /**
-   * Adds an order to the database. Gets attributes of the order, then cycles through the items.
-   * Adding each item to the order database.
+   * Checks if order changes are currently being pushed to the listeners.
+   * If not, changes may be missed so the orders should be polled instead.
+   *
+   * @return if changes are being received
+   */
+  public boolean isReceivingChanges() {
+    return changeTriggers && changeFeed.isConnected();
+  }
+  
+  /**
+   * Stops listening for order changes.
+   */
+  void closeChangeFeed() {
+    changeFeed.close();
+  }
+  
+  /**
+   * Marks the stored orders as out of date. Called by the change feed when it hears about a
+   * change, so the next read fetches what changed.
+   *
+   * @param waitersChanged if the waiters assigned to tables may have changed
+   */
+  void changesReceived(boolean waitersChanged) {
+    storeStale = true;
+    if (waitersChanged) {
+      waitersStale = true;
+    }
+  }
+  
+  /**
+   * Adds an order to the database along with its items and state.
+   * Everything is sent as one statement in one transaction, so either all of the order is added
+   * or none of it is. Cancelled orders aren't added.
    *
    * @param order the order to be added to the database
    * @throws ConnectionError if unable to connect to the database
@@ -63,96 +120,78 @@ public class OrderDB extends Database {
       throw new MissingDataError("Order must contain items");
     }
     
-    Connection connection = Database.getConnection(URL, userName, password);
-    Statement st = getStatement();
-    
-    // Gets important info from the order
-    String id = String.valueOf(order.getID());
-    String tableNumber = String.valueOf(order.getTableNumber());
-    String timeOfOrder = String.valueOf(Time.valueOf(LocalTime.now()));
-    List<Item> items = order.getItemsInOrder();
-    
-    // Prepared statements allow faster execution and provide more security
-    PreparedStatement intoOrder;
-    PreparedStatement intoItemsInOrders = null;
-    
-    if (Integer.parseInt(id) < 0) { // Generates ID if needed
-      try {
-        ResultSet rs = st.executeQuery("SELECT MAX(orderid) FROM orders");
-        rs.next();
-        id = String.valueOf(rs.getInt(1) + 1);
-        rs.close();
-      } catch (SQLException SQLE) {
-        throw new ExecutionError("Could not assign ID", SQLE);
-      }
+    String statusCode = getCodeFromState(order.getState());
+    if (statusCode.equals("canc")) {
+      return;
     }
     
-    order.setID(Integer.parseInt(id));
-    
-    try {
-      intoOrder = inputIntoTable("orders", new String[]{id, tableNumber, timeOfOrder},
-          connection);
-    } catch (SQLException SQLE) {
-      throw new ExecutionError("Could not insert order into table", SQLE);
-    }
+    LocalTime timeOfOrder = Time.valueOf(LocalTime.now()).toLocalTime(); // Stored to the second
     
-    // Adds all the items into the database
+    // Gets the items as arrays so they can all be sent in the one statement
     Map<Item, Integer> occuranceMap = order.getOccuranceMap();
-    for (Item item : occuranceMap.keySet()) {
-      
-      String itemCount = String.valueOf(occuranceMap.get(item));
-      
-      try {
-        if (intoItemsInOrders == null) {
-          intoItemsInOrders = inputIntoTable("itemsInOrder",
-              new String[]{id, String.valueOf(item.getID()), itemCount}, connection);
-        } else {
-          inputIntoTable("itemsInOrder", new String[]{id, String.valueOf(item.getID()),
-                  itemCount},
-              intoItemsInOrders);
-        }
-      } catch (SQLException SQLE) {
-        throw new ExecutionError("Could not insert item into table", SQLE);
-      }
+    Integer[] itemIDs = new Integer[occuranceMap.size()];
+    Integer[] itemCounts = new Integer[occuranceMap.size()];
+    int i = 0;
+    for (Map.Entry<Item, Integer> item : occuranceMap.entrySet()) {
+      itemIDs[i] = item.getKey().getID();
+      itemCounts[i] = item.getValue();
+      i++;
     }
     
-    // Adds all the data to the database
+    int id;
     try {
-      executeInsert(intoOrder);
+      id = inTransaction(connection -> {
+        // The database assigns the ID from a sequence if the order doesn't have one
+        PreparedStatement ps = connection.prepareStatement("WITH newOrder AS ("
+            + "INSERT INTO orders (orderID, tableID, timeAdded, status, timeStatusChanged) "
+            + "VALUES (?, ?, ?, ?, ?) RETURNING orderID) "
+            + "INSERT INTO itemsInOrder "
+            + "SELECT newOrder.orderID, items.itemID, items.numInOrder "
+            + "FROM newOrder, unnest(?::int[], ?::int[]) AS items(itemID, numInOrder) "
+            + "RETURNING orderID");
+        if (order.getID() < 0) {
+          ps.setNull(1, Types.INTEGER);
+        } else {
+          ps.setInt(1, order.getID());
+        }
+        ps.setInt(2, order.getTableNumber());
+        ps.setTime(3, Time.valueOf(timeOfOrder));
+        ps.setString(4, statusCode);
+        ps.setTime(5, Time.valueOf(timeOfOrder));
+        ps.setArray(6, connection.createArrayOf("integer", itemIDs));
+        ps.setArray(7, connection.createArrayOf("integer", itemCounts));
+        
+        ResultSet rs = ps.executeQuery();
+        rs.next();
+        int newID = rs.getInt(1);
+        rs.close();
+        ps.close();
+        return newID;
+      });
     } catch (ExecutionError EE) {
-      Throwable baseException = EE;
-      while (baseException.getCause() != null) {
-        baseException = baseException.getCause();
-      }
-      if (baseException.getClass() != PSQLException.class) {
-        throw EE; // Not the error we're looking for
+      if (!(EE.getCause() instanceof SQLException)) {
+        throw EE;
       }
-      if (baseException.getMessage().toLowerCase().contains("orderid")) {
+      SQLException SQLE = (SQLException) EE.getCause();
+      String message = SQLE.getMessage().toLowerCase();
+      if (message.contains("duplicate") && message.contains("orderid")) {
         throw new OrderAlreadyExistsException("Cannot add an order with ID " + order.getID()
             + " as order with that ID already exists", order.getID());
       }
-    }
-    if (intoItemsInOrders != null) {
-      executeInsert(intoItemsInOrders);
+      throw getInsertError(SQLE);
     }
     
-    try {
-      setOrderState(order, order.getState());
-    } catch (OrderNotFoundException ONFE) {
-      throw new ExecutionError("Order unsuccessfully added with ID " + ONFE.getOrderId());
-    }
+    order.setID(id);
+    order.setTimeStatusChanged(LocalTime.now());
     
-    try {
-      Database.closeConnection(st.getConnection());
-      Database.closeConnection(connection);
-      intoOrder.close();
-      intoItemsInOrders.close();
-    } catch (SQLException SQLE) {
-      // Errors in closing are not a major issue
+    Order stored = new Order(id, order.getItemsInOrder(), order.getTableNumber(), timeOfOrder,
+        LocalTime.now());
+    stored.setState(order.getState());
+    synchronized (syncLock) { // Stops an older sync overwriting this
+      store.put(stored);
     }
   }
   
-  
   /**
    * Modifies an order in the database
    *
@@ -241,6 +280,13 @@ public class OrderDB extends Database {
       closeConnection(connection);
     }
     
+    Order stored = new Order(ID, order.getItemsInOrder(), order.getTableNumber(),
+        oldOrder.getTime(), oldOrder.getTimeStatusChanged());
+    stored.setState(oldOrder.getState());
+    synchronized (syncLock) {
+      store.put(stored);
+    }
+    
     
   }
   
@@ -252,8 +298,8 @@ public class OrderDB extends Database {
    * @throws ExecutionError if unable to fetch the orders
    */
   public List<Order> getOrders() throws ConnectionError, ExecutionError {
-    // Use null as state for caching
-    return getOrdersUsingQuery("SELECT * FROM orders", new String[0], new char[0]);
+    syncStore();
+    return store.getAll();
   }
   
   /**
@@ -279,27 +325,67 @@ public class OrderDB extends Database {
   }
   
   /**
-   * Marks the orders as confirmed in the database.
+   * Marks the orders as confirmed in the database, taking the stock it needs.
+   * The stock and the state change are made in one transaction, so a failure leaves both as they
+   * were. Only an unconfirmed order can be confirmed, so confirming it twice, such as from two
+   * terminals, can't take the stock twice.
    *
    * @param order the order to confirm
+   * @return How many minutes the order waited to be confirmed
    * @throws ConnectionError if unable to connect to the database
-   * @throws ExecutionError if unable to update the database
+   * @throws ExecutionError if unable to update the database or the order is already confirmed
+   * @throws OutOfStockException if there isn't enough stock, the order is left unconfirmed
    * @throws OrderNotFoundException if the order is not in the database
    */
-  public void confirmOrder(Order order)
-      throws ConnectionError, ExecutionError, OrderNotFoundException {
-    Connection connection;
-    connection = getConnection();
+  public int confirmOrder(Order order)
+      throws ConnectionError, ExecutionError, OutOfStockException, OrderNotFoundException {
     MenuDB menuDB;
     if (testing) {
       menuDB = DatabaseFactory.getTestMenu();
     } else {
       menuDB = DatabaseFactory.getMenuDB();
     }
-    menuDB.decreaseStock(order);
-    setOrderState(order, OrderState.CONFIRMED);
+    if (getOrderFromID(order.getID()) == null) {
+      throw new OrderNotFoundException("Cannot confirm an order not in the database",
+          order.getID());
+    }
+    
+    LocalTime confirmedAt = LocalTime.now();
+    Object[] result = inTransaction(connection -> {
+      // Locks the order first, so a second confirm waits and then finds it already confirmed
+      PreparedStatement ps = connection.prepareStatement("SELECT timeStatusChanged "
+          + "FROM orders WHERE orderID = ? AND status = ? FOR UPDATE");
+      ps.setInt(1, order.getID());
+      ps.setString(2, getCodeFromState(OrderState.UNCONFIRMED));
+      ResultSet rs = ps.executeQuery();
+      if (!rs.next()) {
+        throw new ExecutionError("Order " + order.getID() + " is no longer unconfirmed");
+      }
+      LocalTime unconfirmedSince = rs.getTime(1).toLocalTime();
+      rs.close();
+      ps.close();
+      
+      Map<Integer, Integer> newStock = menuDB.takeStock(order, connection);
+      
+      ps = connection.prepareStatement("UPDATE orders SET status = ?, timeStatusChanged = ? "
+          + "WHERE orderID = ?");
+      ps.setString(1, getCodeFromState(OrderState.CONFIRMED));
+      ps.setTime(2, Time.valueOf(confirmedAt));
+      ps.setInt(3, order.getID());
+      ps.execute();
+      ps.close();
+      return new Object[]{unconfirmedSince, newStock};
+    });
+    
+    @SuppressWarnings("unchecked")
+    Map<Integer, Integer> newStock = (Map<Integer, Integer>) result[1];
+    menuDB.stockTaken(newStock);
+    synchronized (syncLock) {
+      store.setState(order.getID(), OrderState.CONFIRMED);
+    }
     order.setState(OrderState.CONFIRMED);
-    Database.closeConnection(connection);
+    order.setTimeStatusChanged(confirmedAt);
+    return abs((int) Duration.between((LocalTime) result[0], confirmedAt).toMinutes());
   }
   
   /**
@@ -318,9 +404,13 @@ public class OrderDB extends Database {
       ps.execute();
     } catch (SQLException SQLE) {
       throw new ExecutionError("Could not remove order.", SQLE);
+    } finally {
+      closeConnection(connection);
     }
     
-    closeConnection(connection);
+    synchronized (syncLock) {
+      store.remove(order.getID());
+    }
   }
   
   /**
@@ -332,15 +422,20 @@ public class OrderDB extends Database {
   public void clearOrders() throws ConnectionError, ExecutionError {
     Statement st = getStatement();
     try {
-      st.executeUpdate("TRUNCATE orders");
-      st.executeUpdate("TRUNCATE itemsinorder");
+      // Deleted rather than truncated so the removals are seen by getOrdersChangedSince
+      st.executeUpdate("DELETE FROM itemsinorder");
+      st.executeUpdate("DELETE FROM orders");
     } catch (SQLException SQLE) {
       throw new ExecutionError("Could not clear order table.", SQLE);
+    } finally {
+      try {
+        closeConnection(st.getConnection());
+      } catch (SQLException SQLE) {
+        // Not worried with closing errors
+      }
     }
-    try {
-      closeConnection(st.getConnection());
-    } catch (SQLException SQLE) {
-      // Not worried with closing errors
+    synchronized (syncLock) {
+      store.clear();
     }
   }
   
@@ -356,7 +451,6 @@ public class OrderDB extends Database {
    */
   public int setOrderState(Order order, OrderState orderState)
       throws ConnectionError, ExecutionError, OrderNotFoundException {
-    Connection connection = getConnection();
     PreparedStatement ps;
     
     Order updatedOrder = getOrderFromID(order.getID());
@@ -365,12 +459,14 @@ public class OrderDB extends Database {
           order.getID());
     }
     
+    String statusCode = getCodeFromState(orderState);
+    if (statusCode.equals("canc")) {
+      removeOrder(order);
+      return -1;
+    }
+    
+    Connection connection = getConnection();
     try {
-      String statusCode = getCodeFromState(orderState);
-      if (statusCode.equals("canc")) {
-        removeOrder(order);
-        return -1;
-      }
       ps = connection.prepareStatement(
           "UPDATE orders SET status = ?," + " timeStatusChanged = ? where orderid = ?");
       ps.setString(1, statusCode);
@@ -379,8 +475,12 @@ public class OrderDB extends Database {
       ps.execute();
     } catch (SQLException SQLE) {
       throw new ExecutionError("Could not change state.", SQLE);
+    } finally {
+      closeConnection(connection);
+    }
+    synchronized (syncLock) {
+      store.setState(order.getID(), orderState);
     }
-    closeConnection(connection);
     order.setState(orderState);
     int timeTaken =
         (int) Duration.between(LocalTime.now(), order.getTimeStatusChanged()).toMinutes();
@@ -399,12 +499,9 @@ public class OrderDB extends Database {
   public List<Order> getOrdersAssignedToWaiter(int waiterID)
       throws ConnectionError, ExecutionError {
     
-    List<Order> orders = getOrdersUsingQuery(
-        "SELECT * FROM orders, tables "
-            + "WHERE orders.tableid = tables.tableid AND tables.waiterid = ? ORDER BY timeadded",
-        new String[]{String.valueOf(waiterID)}, new char[]{'i'});
-    
-    return orders;
+    syncStore();
+    syncWaiters();
+    return store.getFromWaiter(waiterID);
   }
   
   /**
@@ -436,8 +533,8 @@ public class OrderDB extends Database {
    * @throws ExecutionError if a database error occurs when getting the orders
    */
   public List<Order> getOrdersFromTable(int tableID) throws ConnectionError, ExecutionError {
-    return getOrdersUsingQuery("SELECT * FROM orders WHERE tableID = ?",
-        new String[]{String.valueOf(tableID)}, new char[]{'i'});
+    syncStore();
+    return store.getFromTable(tableID);
   }
   
   /**
@@ -502,6 +599,7 @@ public class OrderDB extends Database {
   
   /**
    * Gets orders assigned to the given waiter with the given state.
+   * Answered from the stored orders, which are only refreshed once an order has changed.
    *
    * @param state    the state
    * @param waiterID the waiters id - Use id = 0 to get orders assigned to anyone
@@ -511,100 +609,381 @@ public class OrderDB extends Database {
    */
   public List<Order> getOrdersAssignedToWaiterFromState(OrderState state, int waiterID)
       throws ConnectionError, ExecutionError {
+    syncStore();
+    if (waiterID <= 0) {
+      return store.getFromState(state);
+    }
+    syncWaiters();
+    return store.getFromStateAndWaiter(state, waiterID);
+  }
+  
+  /**
+   * Gets everything the waiter screen shows for a waiter.
+   * The order change version, table assignments and table requests are read in one query, and
+   * the orders are then answered from the stored orders. This is one round trip only while no
+   * order has changed; if the version has moved, or earlier transactions may still commit
+   * changes, a second query fetches the changed orders before answering.
+   *
+   * @param waiterID the waiters id - Use id = 0 to get orders assigned to anyone
+   * @return the waiters orders by state and the tables asking for them
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError if unable to get the orders or tables from the database
+   */
+  public WaiterDashboard getWaiterDashboard(int waiterID) throws ConnectionError, ExecutionError {
+    long version;
+    Map<Integer, Integer> tableWaiters = new HashMap<>();
+    List<Integer> neededTables = new LinkedList<>();
+  
+    Connection connection = getConnection();
+    try {
+      Statement st = connection.createStatement();
+      ResultSet rs = st.executeQuery("SELECT v.version, t.tableID, t.waiterID, t.isAlerted "
+          + "FROM (SELECT GREATEST((SELECT max(changeVersion) FROM orders), "
+          + "(SELECT max(changeVersion) FROM deletedOrders), 0) AS version) v "
+          + "LEFT JOIN tables t ON true");
+      version = 0;
+      while (rs.next()) {
+        version = rs.getLong(1);
+        int tableID = rs.getInt(2);
+        if (rs.wasNull()) {
+          continue; // No tables, only the version was returned
+        }
+        int tableWaiter = rs.getInt(3);
+        tableWaiters.put(tableID, tableWaiter);
+        if (tableWaiter == waiterID && rs.getBoolean(4)) {
+          neededTables.add(tableID);
+        }
+      }
+      rs.close();
+      st.close();
+    } catch (SQLException SQLE) {
+      throw new ExecutionError("Could not get the waiter dashboard", SQLE);
+    } finally {
+      closeConnection(connection);
+    }
+  
+    store.setTableWaiters(tableWaiters);
+    if (version != store.getVersion() || store.hasUnfinishedChanges()) {
+      synchronized (syncLock) {
+        // May have been brought up to date while waiting
+        if (version > store.getVersion() || store.hasUnfinishedChanges()) {
+          store.apply(getOrdersChangedSince(store.getVersion(), store.getHorizon()));
+        }
+      }
+    }
+  
+    List<Order> orders = waiterID <= 0 ? store.getAll() : store.getFromWaiter(waiterID);
+    Map<OrderState, List<Order>> ordersByState = new EnumMap<>(OrderState.class);
+    for (Order order : orders) {
+      ordersByState.computeIfAbsent(order.getState(), k -> new LinkedList<>()).add(order);
+    }
+    return new WaiterDashboard(ordersByState, neededTables);
+  }
+  
+  /**
+   * Brings the stored orders up to date with the database.
+   * While the change feed is connected this only goes to the database once it has heard about a
+   * change, otherwise it checks the change version and fetches any changes.
+   *
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError if unable to get the changes from the database
+   */
+  private void syncStore() throws ConnectionError, ExecutionError {
+    if (isReceivingChanges() && !storeStale) {
+      return;
+    }
+    synchronized (syncLock) {
+      storeStale = false; // Cleared first so changes heard while fetching aren't lost
+      // Transactions running at the last sync may have committed changes below the version
+      if (store.hasUnfinishedChanges() || getCurrentVersion() != store.getVersion()) {
+        store.apply(getOrdersChangedSince(store.getVersion(), store.getHorizon()));
+      }
+    }
+  }
+  
+  /**
+   * Refreshes which waiter each table is assigned to.
+   * Assignments aren't versioned, so they are fetched every time unless the change feed is
+   * connected and hasn't heard about a change to them.
+   *
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError if unable to get the assignments from the database
+   */
+  private void syncWaiters() throws ConnectionError, ExecutionError {
+    if (isReceivingChanges() && !waitersStale) {
+      return;
+    }
+    waitersStale = false;
     
-    LocalTime lastFetched = LocalTime.MIN;
-    
-    if (timeFetched.containsKey(state)) {
-      lastFetched = timeFetched.get(state);
+    Map<Integer, Integer> tableWaiters = new HashMap<>();
+    Statement st = getStatement();
+    try {
+      ResultSet rs = st.executeQuery("SELECT tableID, waiterID FROM tables");
+      while (rs.next()) {
+        tableWaiters.put(rs.getInt(1), rs.getInt(2));
+      }
+      rs.close();
+    } catch (SQLException SQLE) {
+      waitersStale = true;
+      throw new ExecutionError("Could not get the waiters assigned to tables", SQLE);
+    } finally {
+      try {
+        closeConnection(st.getConnection());
+      } catch (SQLException SQLE) {
+        // Not worried with closing errors
+      }
     }
+    store.setTableWaiters(tableWaiters);
+  }
+  
+  /**
+   * Gets the latest order change version.
+   * Every time an order is added, changed or removed the version goes up.
+   *
+   * @return the current version - 0 if no orders have been changed
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError if unable to get the version from the database
+   */
+  public long getCurrentVersion() throws ConnectionError, ExecutionError {
+    Connection connection = getConnection();
+    try {
+      return getCurrentVersion(connection);
+    } finally {
+      closeConnection(connection);
+    }
+  }
+  
+  /**
+   * Gets the orders which have been added, changed or removed since the given version.
+   * Start with version 0 to get all the orders, then pass in the version of the last delta to
+   * only get what has changed since.
+   * Changes committed out of order can be below the version, so callers keeping up to date
+   * should use {@link #getOrdersChangedSince(long, long)} with the deltas horizon instead.
+   *
+   * @param version the version the caller is up to date with
+   * @return the changed orders, the ids of the removed orders and the new version
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError if unable to get the changes from the database
+   */
+  public OrderDelta getOrdersChangedSince(long version) throws ConnectionError, ExecutionError {
+    return getOrdersChangedSince(version, Long.MAX_VALUE);
+  }
+  
+  /**
+   * Gets the orders which have been added, changed or removed since the given version, along
+   * with any made by transactions from the horizon on.
+   * Versions are taken when a change is made but only seen once it commits, so a transaction
+   * still running at the last read can commit changes below the version. Reading everything
+   * from those transactions again means those changes are never skipped.
+   *
+   * @param version the version the caller is up to date with
+   * @param horizon the horizon of the last delta - Long.MAX_VALUE if there is none
+   * @return the changed orders, the ids of the removed orders, the new version and horizon
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError if unable to get the changes from the database
+   */
+  public OrderDelta getOrdersChangedSince(long version, long horizon)
+      throws ConnectionError, ExecutionError {
+    Connection connection = getConnection();
     
-    List<Order> cached = orderCache.getOrDefault(state, new LinkedList<>());
-    // Used to get the size and to stop reloading the same data
+    try {
+      // Reads everything from one snapshot so the new version matches the changes returned
+      connection.setAutoCommit(false);
+      connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+    } catch (SQLException SQLE) {
+      closeConnection(connection);
+      throw new ExecutionError("Could not start reading changes", SQLE);
+    }
     
-    List<Order> orders;
-    if (waiterID <= 0) {
-      orders = getOrdersFromState(state);
-    } else {
+    try {
+      long newVersion = Math.max(version, getCurrentVersion(connection));
       
-      orders = getOrdersUsingQuery(
-          "SELECT orders.OrderID, orders.tableID, orders.TimeAdded, orders.status," +
-              " orders.timeStatusChanged " // Data to get
-              + "FROM orders, tables " + // Need tables to get assigned waiter
-              "WHERE orders.status = ? AND" // Only with correct status
-              // Only get if theres changes
-              + " ( (SELECT max(timeStatusChanged) FROM orders WHERE status = ?) >= ? " +
-              "OR (SELECT count(*) FROM orders WHERE status = ?) != ? )" +
-              "AND tables.tableID = orders.tableID AND tables.waiterID = ?", // checks waiter
-          // waiter is assigned
-          new String[]{getCodeFromState(state),
-              getCodeFromState(state), String.valueOf(Time.valueOf(lastFetched)),
-              getCodeFromState(state), String.valueOf(cached.size()),
-              String.valueOf(waiterID)},
-          new char[]{'s', 's', 't', 's', 'i', 'i'}); // Input format
-    }
-    
-    if (orders.size() == 0) { // If no results need to check if there's nothing new or if data has
-      // been removed
-      Connection connection = getConnection();
+      // Transactions from the oldest one still running on may not have committed yet
+      Statement st = connection.createStatement();
+      ResultSet rs = st.executeQuery("SELECT txid_snapshot_xmin(s), txid_snapshot_xmax(s) "
+          + "FROM txid_current_snapshot() s");
+      rs.next();
+      long newHorizon = rs.getLong(1) < rs.getLong(2) ? rs.getLong(1) : Long.MAX_VALUE;
+      rs.close();
+      st.close();
       
+      List<Order> changed = getOrdersUsingQuery("SELECT * FROM orders "
+              + "WHERE changeVersion > ? OR changeTxid >= ?",
+          new String[]{String.valueOf(version), String.valueOf(horizon)},
+          new char[]{'l', 'l'}, connection);
+      
+      // Ignores removals if the order has been added again since
+      PreparedStatement ps = connection.prepareStatement("SELECT DISTINCT d.orderID "
+          + "FROM deletedOrders d WHERE (d.changeVersion > ? OR d.changeTxid >= ?) "
+          + "AND NOT EXISTS (SELECT 1 FROM orders o WHERE o.orderID = d.orderID "
+          + "AND o.changeVersion > d.changeVersion)");
+      ps.setLong(1, version);
+      ps.setLong(2, horizon);
+      rs = ps.executeQuery();
+      List<Integer> removed = new LinkedList<>();
+      while (rs.next()) {
+        removed.add(rs.getInt(1));
+      }
+      rs.close();
+      
+      connection.commit();
+      return new OrderDelta(changed, removed, newVersion, newHorizon);
+    } catch (SQLException SQLE) {
+      throw new ExecutionError("Could not get the changed orders", SQLE);
+    } finally {
       try {
-        // Counts how many item with that state
-        PreparedStatement ps = connection.prepareStatement("SELECT count(*)"
-            + " FROM orders WHERE status = ?");
-        ps.setString(1, getCodeFromState(state));
-        ResultSet rs = ps.executeQuery();
-        
-        rs.next();
-        int size = rs.getInt(1);
-        if (size == 0) {
-          orders = new LinkedList<>(); // If theres no items with the state return an empty list
-        } else { // All items are known
-          orders = cached;
-        }
-        
+        connection.rollback(); // Nothing to undo but ends the transaction if it failed
+        connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
       } catch (SQLException SQLE) {
-        throw new ExecutionError("Could not get state of cache");
-      } finally {
-        closeConnection(connection);
+        // The connection is reset when it is returned to the pool
       }
+      closeConnection(connection);
     }
-    
-    if (orders == null) {
-      orders = new LinkedList<>();
+  }
+  
+  private long getCurrentVersion(Connection connection) throws ExecutionError {
+    try {
+      Statement st = connection.createStatement();
+      ResultSet rs = st.executeQuery("SELECT GREATEST("
+          + "(SELECT max(changeVersion) FROM orders), "
+          + "(SELECT max(changeVersion) FROM deletedOrders), 0)");
+      rs.next();
+      long version = rs.getLong(1);
+      rs.close();
+      st.close();
+      return version;
+    } catch (SQLException SQLE) {
+      throw new ExecutionError("Could not get the order change version", SQLE);
     }
-    
-    timeFetched.put(state, LocalTime.now()); // Adds data to the cache
-    orderCache.put(state, orders);
-    
-    return orders;
   }
   
   /**
-   * Gets all orders with a given state.
+   * Makes the change versions and the triggers giving every change to an order one, if they
+   * don't already exist.
+   * Run every time rather than in makeTables, as databases made before versions were added
+   * already have all their tables.
    *
-   * @param state the state
-   * @return the order with that state
    * @throws ConnectionError if unable to connect to the database
-   * @throws ExecutionError if unable to get the list of orders
+   * @throws ExecutionError if unable to make the versions or triggers
    */
-  private List<Order> getOrdersFromState(OrderState state) throws ConnectionError, ExecutionError {
-    
-    LocalTime lastFetched = LocalTime.MIN;
+  private void makeVersionTriggers() throws ConnectionError, ExecutionError {
+    Statement st = getStatement();
+    try {
+      // Every change to an order takes the next version so clients can ask for what changed
+      st.execute("CREATE SEQUENCE IF NOT EXISTS orderChangeSeq;");
+      st.execute("ALTER TABLE orders ADD COLUMN IF NOT EXISTS ChangeVersion bigint;");
+      st.execute("CREATE INDEX IF NOT EXISTS ordersChangeVersion ON orders(ChangeVersion);");
+      st.execute("CREATE TABLE IF NOT EXISTS deletedOrders(" //
+          + "OrderID int," //
+          + "ChangeVersion bigint PRIMARY KEY" + ");");
+      // The transaction making each change, so changes committed out of order can be found
+      st.execute("ALTER TABLE orders ADD COLUMN IF NOT EXISTS ChangeTxid bigint;");
+      st.execute("CREATE INDEX IF NOT EXISTS ordersChangeTxid ON orders(ChangeTxid);");
+      st.execute("ALTER TABLE deletedOrders ADD COLUMN IF NOT EXISTS ChangeTxid bigint;");
+      st.execute("CREATE INDEX IF NOT EXISTS deletedOrdersChangeTxid " //
+          + "ON deletedOrders(ChangeTxid);");
+    } catch (SQLException SQLE) {
+      throw new ExecutionError("Couldn't make table deletedOrders", SQLE);
+    }
     
-    if (timeFetched.containsKey(state)) {
-      lastFetched = timeFetched.get(state);
+    try {
+      st.execute("CREATE OR REPLACE FUNCTION version_order_change() RETURNS trigger AS $$ " //
+          + "BEGIN " //
+          // Changing the items in an order is a change to the order
+          + "  IF TG_TABLE_NAME = 'itemsinorder' THEN " //
+          + "    IF TG_OP = 'DELETE' THEN " //
+          + "      UPDATE orders SET changeVersion = 0 WHERE orderID = OLD.orderID; " //
+          + "    ELSE " //
+          + "      UPDATE orders SET changeVersion = 0 WHERE orderID = NEW.orderID; " //
+          + "    END IF; " //
+          + "    RETURN NULL; " //
+          + "  END IF; " //
+          + "  IF TG_OP = 'DELETE' THEN " //
+          + "    INSERT INTO deletedOrders (OrderID, ChangeVersion, ChangeTxid) " //
+          + "    VALUES (OLD.orderID, nextval('orderChangeSeq'), txid_current()); " //
+          + "    RETURN OLD; " //
+          + "  END IF; " //
+          + "  NEW.changeVersion := nextval('orderChangeSeq'); " //
+          + "  NEW.changeTxid := txid_current(); " //
+          + "  RETURN NEW; " //
+          + "END; $$ LANGUAGE plpgsql;");
+      st.execute("DO $$ BEGIN " //
+          + "IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'orders_version') THEN " //
+          + "  CREATE TRIGGER orders_version BEFORE INSERT OR UPDATE OR DELETE ON orders " //
+          + "  FOR EACH ROW EXECUTE PROCEDURE version_order_change(); " //
+          + "END IF; " //
+          + "IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'itemsinorder_version') THEN "
+          + "  CREATE TRIGGER itemsinorder_version AFTER INSERT OR UPDATE OR DELETE " //
+          + "  ON itemsinorder FOR EACH ROW EXECUTE PROCEDURE version_order_change(); " //
+          + "END IF; " //
+          + "END $$;");
+      // Gives orders made before versions were added a version
+      st.execute("UPDATE orders SET changeVersion = 0 WHERE changeVersion IS NULL;");
+    } catch (SQLException SQLE) {
+      throw new ExecutionError("Couldn't make order version triggers", SQLE);
     }
     
-    List<Order> orders = getOrdersUsingQuery("SELECT * FROM orders WHERE status = ? AND"
-            + " ( (SELECT max(timeStatusChanged) FROM orders WHERE status = ?) >= ? " +
-            " OR (SELECT count(*) FROM orders WHERE status = ?) != ? )",
-        new String[]{getCodeFromState(state),
-            getCodeFromState(state), String.valueOf(Time.valueOf(lastFetched)),
-            getCodeFromState(state), String.valueOf(orderCache.getOrDefault(state,
-            new LinkedList<>()).size())},
-        new char[]{'s', 's', 't', 's', 'i'}); // The format of the inputs
+    try {
+      Database.closeConnection(st.getConnection());
+    } catch (SQLException SQLE) {
+      // Closing errors not considered major
+    }
+  }
+  
+  /**
+   * Makes the triggers that publish order changes to the order change feed.
+   * Failing to make them isn't fatal as the orders can still be polled.
+   *
+   * @return if the triggers are in place
+   * @throws ConnectionError if unable to connect to the database
+   */
+  private boolean makeChangeTriggers() throws ConnectionError {
+    Statement st = getStatement();
     
-    return orders;
+    try {
+      st.execute("CREATE OR REPLACE FUNCTION notify_order_change() RETURNS trigger AS $$ " //
+          + "DECLARE " //
+          + "  op text := TG_OP; " //
+          + "  id int; " //
+          + "BEGIN " //
+          + "  IF TG_OP = 'DELETE' THEN id := OLD.orderid; ELSE id := NEW.orderid; END IF; " //
+          // Changing the items in an order is an update to the order
+          + "  IF TG_TABLE_NAME = 'itemsinorder' THEN op := 'UPDATE'; END IF; " //
+          + "  PERFORM pg_notify('" + OrderChangeFeed.CHANNEL + "', op || ':' || id); " //
+          + "  RETURN NULL; " //
+          + "END; $$ LANGUAGE plpgsql;");
+      st.execute("DO $$ BEGIN " //
+          + "IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'orders_notify') THEN " //
+          + "  CREATE TRIGGER orders_notify AFTER INSERT OR UPDATE OR DELETE ON orders " //
+          + "  FOR EACH ROW EXECUTE PROCEDURE notify_order_change(); " //
+          + "END IF; " //
+          + "IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'itemsinorder_notify') THEN " //
+          + "  CREATE TRIGGER itemsinorder_notify AFTER INSERT OR UPDATE OR DELETE ON itemsinorder "
+          + "  FOR EACH ROW EXECUTE PROCEDURE notify_order_change(); " //
+          + "END IF; " //
+          + "END $$;");
+      st.execute("CREATE OR REPLACE FUNCTION notify_table_change() RETURNS trigger AS $$ " //
+          + "BEGIN " //
+          + "  PERFORM pg_notify('" + OrderChangeFeed.CHANNEL + "', 'TABLES:0'); " //
+          + "  RETURN NULL; " //
+          + "END; $$ LANGUAGE plpgsql;");
+      st.execute("DO $$ BEGIN " //
+          + "IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'tables_notify') THEN " //
+          + "  CREATE TRIGGER tables_notify AFTER INSERT OR UPDATE OR DELETE ON tables " //
+          + "  FOR EACH STATEMENT EXECUTE PROCEDURE notify_table_change(); " //
+          + "END IF; " //
+          + "END $$;");
+      return true;
+    } catch (SQLException SQLE) {
+      System.err.println("Could not make order change triggers, orders will be polled");
+      return false;
+    } finally {
+      try {
+        closeConnection(st.getConnection());
+      } catch (SQLException SQLE) {
+        // Closing errors not considered major
+      }
+    }
   }
   
   @Override
@@ -636,6 +1015,34 @@ public class OrderDB extends Database {
       throw new ExecutionError("Couldn't make table itemsInOrder", SQLE);
     }
     
+    try {
+      // Order IDs come from a sequence so orders added at the same time never share an ID
+      st.execute("CREATE SEQUENCE IF NOT EXISTS orderIDSeq;");
+      st.execute("SELECT setval('orderIDSeq', max(orderID)) FROM orders "
+          + "HAVING max(orderID) >= (SELECT last_value FROM orderIDSeq);");
+      st.execute("CREATE OR REPLACE FUNCTION assign_order_id() RETURNS trigger AS $$ " //
+          + "BEGIN " //
+          // Checking and moving the sequence isn't atomic, so inserts take turns doing it.
+          // Otherwise a smaller setval could run last and move the sequence backwards
+          + "  PERFORM pg_advisory_xact_lock('orderIDSeq'::regclass::oid::bigint); " //
+          + "  IF NEW.orderID IS NULL THEN " //
+          + "    NEW.orderID := nextval('orderIDSeq'); " //
+          // Moves the sequence past IDs chosen by the caller so it won't hand them out again
+          + "  ELSIF NEW.orderID >= (SELECT last_value FROM orderIDSeq) THEN " //
+          + "    PERFORM setval('orderIDSeq', NEW.orderID); " //
+          + "  END IF; " //
+          + "  RETURN NEW; " //
+          + "END; $$ LANGUAGE plpgsql;");
+      st.execute("DO $$ BEGIN " //
+          + "IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'orders_id') THEN " //
+          + "  CREATE TRIGGER orders_id BEFORE INSERT ON orders " //
+          + "  FOR EACH ROW EXECUTE PROCEDURE assign_order_id(); " //
+          + "END IF; " //
+          + "END $$;");
+    } catch (SQLException SQLE) {
+      throw new ExecutionError("Couldn't make order id sequence", SQLE);
+    }
+    
     try {
       Database.closeConnection(st.getConnection());
     } catch (SQLException SQLE) {
@@ -643,10 +1050,43 @@ public class OrderDB extends Database {
     }
   }
   
+  /**
+   * Gets the orders selected by a query along with the items in each order.
+   * The query only needs to select from the orders table, its results are joined with the items
+   * so that all the orders are loaded in one round trip rather than one per order.
+   *
+   * @param query  the query selecting the orders
+   * @param inputs the values to put into the query
+   * @param format the format of the inputs
+   * @return the orders in the order they were added
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError if unable to get the orders from the database
+   */
   private List<Order> getOrdersUsingQuery(String query, String[] inputs, char[] format)
       throws ConnectionError, ExecutionError {
     Connection connection = getConnection();
     
+    try {
+      return getOrdersUsingQuery(query, inputs, format, connection);
+    } finally {
+      closeConnection(connection);
+    }
+  }
+  
+  /**
+   * Gets the orders selected by a query using the given connection.
+   *
+   * @param query      the query selecting the orders
+   * @param inputs     the values to put into the query
+   * @param format     the format of the inputs
+   * @param connection the connection to run the query on
+   * @return the orders in the order they were added
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError if unable to get the orders from the database
+   */
+  private List<Order> getOrdersUsingQuery(String query, String[] inputs, char[] format,
+                                          Connection connection)
+      throws ConnectionError, ExecutionError {
     if (!query.toLowerCase().contains("select ")) { // Ensures the key parts of the
       // query are present
       query = "SELECT * FROM orders " + query.strip();
@@ -655,6 +1095,13 @@ public class OrderDB extends Database {
       query = query.strip() + " ORDER BY timeadded ";
     }
     
+    // Joins the items onto the selected orders, keeping rows for the same order together
+    query = "SELECT o.orderid, o.tableid, o.timeadded, o.status, o.timestatuschanged, "
+        + "i.itemid, i.numinorder "
+        + "FROM (" + query.strip() + ") AS o "
+        + "LEFT JOIN itemsinorder i ON i.orderid = o.orderid "
+        + "ORDER BY o.timeadded, o.orderid";
+    
     ResultSet rs;
     try {
       PreparedStatement ps = connection.prepareStatement(query);
@@ -665,17 +1112,13 @@ public class OrderDB extends Database {
       throw new ExecutionError("Could not get data from database", SQLE);
     }
     
-    List<Order> orders = getOrdersFromResultSet(rs);
-    closeConnection(connection);
-    
-    return orders;
+    return getOrdersFromResultSet(rs);
   }
   
   private List<Order> getOrdersFromResultSet(ResultSet orderResult)
       throws ConnectionError, ExecutionError {
     List<Order> orders = new LinkedList<>();
     MenuDB menuDB;
-    Map<Integer, Item> menuMap;
     
     if (testing) {
       menuDB = DatabaseFactory.getTestMenu();
@@ -683,74 +1126,61 @@ public class OrderDB extends Database {
       menuDB = DatabaseFactory.getMenuDB();
     }
     
-    menuMap = menuDB.getMap();
-    
-    ResultSet itemResult = null;
-    Statement st = getStatement();
+    // Items come from the in memory menu, each item is copied once for all of the orders
+    MenuSnapshot menu = menuDB.getMenuSnapshot();
+    Map<Integer, Item> menuMap = new HashMap<>();
     
     try {
-      while (orderResult.next()) { // Goes through all the orders
+      int currentID = 0;
+      int tableID = 0;
+      LocalTime timeAdded = null;
+      LocalTime timeStatusChanged = null;
+      OrderState state = null;
+      List<Item> items = null;
+      
+      while (orderResult.next()) { // Goes through each item of each order
         int id = orderResult.getInt(1);
-        int tableID = orderResult.getInt(2);
-        LocalTime timeAdded = orderResult.getTime(3).toLocalTime();
-        String status = orderResult.getString(4);
-        LocalTime timeStatusChanged = orderResult.getTime(5).toLocalTime();
         
-        OrderState state = null;
-        
-        // Converts database info into OrderState
-        switch (status) {
-          case "conf":
-            state = OrderState.CONFIRMED;
-            break;
-          case "prep":
-            state = OrderState.PREPARING;
-            break;
-          case "srvd": // Served
-            state = OrderState.SERVED;
-            break;
-          case "redy":
-            state = OrderState.READY;
-            break;
-          default:
-            state = OrderState.UNCONFIRMED;
+        if (items == null || id != currentID) { // Rows for a new order
+          if (items != null) {
+            orders.add(makeOrder(currentID, items, tableID, timeAdded, timeStatusChanged, state));
+          }
+          currentID = id;
+          tableID = orderResult.getInt(2);
+          timeAdded = orderResult.getTime(3).toLocalTime();
+          state = getStateFromCode(orderResult.getString(4));
+          timeStatusChanged = orderResult.getTime(5).toLocalTime();
+          items = new LinkedList<>();
         }
         
-        // Gets all the items in the order
-        
-        // Prepared statements reduce the chance of errors damaging the database
-        PreparedStatement ps = st.getConnection()
-            .prepareStatement("SELECT itemid, numinorder FROM itemsinorder WHERE orderid = ?");
-        ps.setInt(1, id);
-        itemResult = ps.executeQuery();
-        ps.close();
-        
-        // Adds the items to the order
-        List<Item> items = new LinkedList<>();
-        
-        while (itemResult.next()) {
-          int itemID = itemResult.getInt(1);
-          int numInOrder = itemResult.getInt(2);
+        // Adds the item to the order, orders without items have a null item id
+        int itemID = orderResult.getInt(6);
+        if (!orderResult.wasNull()) {
+          int numInOrder = orderResult.getInt(7);
+          Item item = menuMap.get(itemID);
+          if (item == null) {
+            item = menu.getItem(itemID);
+            if (item == null) { // Added to the menu since the snapshot was taken
+              menu = menuDB.refreshSnapshot();
+              item = menu.getItem(itemID);
+            }
+            menuMap.put(itemID, item);
+          }
           for (int i = 0; i < numInOrder; i++) {
-            items.add(menuMap.get(itemID));
+            items.add(item);
           }
         }
-        
-        // Creates the order object
-        Order order = new Order(id, items, tableID, timeAdded, timeStatusChanged);
-        order.setState(state);
-        order.setTimeStatusChanged(LocalTime.now());
-        orders.add(order);
+      }
+      
+      if (items != null) {
+        orders.add(makeOrder(currentID, items, tableID, timeAdded, timeStatusChanged, state));
       }
     } catch (SQLException SQLE) {
       throw new ExecutionError("Could not read data from database", SQLE);
     }
     
     try {
-      if (itemResult != null) {
-        itemResult.close();
-      }
-      st.getConnection().close();
+      orderResult.close();
     } catch (SQLException SQLE) {
       // Not concerned with closing errors
     }
@@ -758,6 +1188,30 @@ public class OrderDB extends Database {
     return orders;
   }
   
+  private Order makeOrder(int id, List<Item> items, int tableID, LocalTime timeAdded,
+                          LocalTime timeStatusChanged, OrderState state) {
+    Order order = new Order(id, items, tableID, timeAdded, timeStatusChanged);
+    order.setState(state);
+    order.setTimeStatusChanged(LocalTime.now());
+    return order;
+  }
+  
+  private OrderState getStateFromCode(String status) {
+    // Converts database info into OrderState
+    switch (status) {
+      case "conf":
+        return OrderState.CONFIRMED;
+      case "prep":
+        return OrderState.PREPARING;
+      case "srvd": // Served
+        return OrderState.SERVED;
+      case "redy":
+        return OrderState.READY;
+      default:
+        return OrderState.UNCONFIRMED;
+    }
+  }
+  
   private String getCodeFromState(OrderState state) {
     switch (state) {
       case UNCONFIRMED:
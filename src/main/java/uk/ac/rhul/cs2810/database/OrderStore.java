@@ -0,0 +1,267 @@
+package uk.ac.rhul.cs2810.database;
+
+import uk.ac.rhul.cs2810.containers.Order;
+import uk.ac.rhul.cs2810.containers.OrderDelta;
+import uk.ac.rhul.cs2810.containers.OrderState;
+
+import java.time.LocalTime;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An in memory copy of the orders, indexed by id, state and table.
+ * Writes are made while holding the stores lock so the indexes always change together, while
+ * reads don't need the lock. Orders are copied going in and out so callers changing their orders
+ * can't change the stored ones.
+ */
+class OrderStore {
+  private static final Comparator<Order> ADDED_ORDER =
+      Comparator.comparing(Order::getTime).thenComparingInt(Order::getID);
+
+  private final Map<Integer, Order> orders = new ConcurrentHashMap<>();
+  private final Map<OrderState, Set<Integer>> byState = new ConcurrentHashMap<>();
+  private final Map<Integer, Set<Integer>> byTable = new ConcurrentHashMap<>();
+  private volatile Map<Integer, Set<Integer>> tablesByWaiter = Collections.emptyMap();
+  private volatile long version = 0;
+  private volatile long horizon = Long.MAX_VALUE;
+
+  /**
+   * Gets the change version the store is up to date with.
+   *
+   * @return the version
+   */
+  long getVersion() {
+    return version;
+  }
+
+  /**
+   * Gets the oldest transaction that was still running when the store was last brought up to
+   * date, whose changes need reading again even if the version hasn't moved.
+   *
+   * @return the transaction id - Long.MAX_VALUE if none were running
+   */
+  long getHorizon() {
+    return horizon;
+  }
+
+  /**
+   * Checks if transactions were still running when the store was last brought up to date.
+   * They may since have committed changes below the version, so the store could be behind even
+   * though its version matches the database.
+   *
+   * @return if the store needs to check for changes below its version
+   */
+  boolean hasUnfinishedChanges() {
+    return horizon != Long.MAX_VALUE;
+  }
+
+  /**
+   * Applies changes fetched from the database.
+   *
+   * @param delta the changes since the stores version
+   */
+  synchronized void apply(OrderDelta delta) {
+    if (delta.getVersion() < version) {
+      return; // Older than what is already stored
+    }
+    for (int id : delta.getRemovedOrderIDs()) {
+      remove(id);
+    }
+    for (Order order : delta.getChangedOrders()) {
+      put(order);
+    }
+    version = delta.getVersion();
+    horizon = delta.getHorizon();
+  }
+
+  /**
+   * Adds or replaces an order.
+   *
+   * @param order the order to store
+   */
+  synchronized void put(Order order) {
+    Order stored = copy(order);
+    Order old = orders.put(stored.getID(), stored);
+    if (old != null) {
+      unindex(old);
+    }
+    byState.computeIfAbsent(stored.getState(), k -> ConcurrentHashMap.newKeySet())
+        .add(stored.getID());
+    byTable.computeIfAbsent(stored.getTableNumber(), k -> ConcurrentHashMap.newKeySet())
+        .add(stored.getID());
+  }
+
+  /**
+   * Changes the state of a stored order.
+   *
+   * @param id    the orders id
+   * @param state the new state
+   */
+  synchronized void setState(int id, OrderState state) {
+    Order old = orders.get(id);
+    if (old != null) {
+      Order updated = copy(old);
+      updated.setState(state);
+      updated.setTimeStatusChanged(LocalTime.now());
+      put(updated);
+    }
+  }
+
+  /**
+   * Removes an order.
+   *
+   * @param id the id of the order to remove
+   */
+  synchronized void remove(int id) {
+    Order old = orders.remove(id);
+    if (old != null) {
+      unindex(old);
+    }
+  }
+
+  /**
+   * Removes all the orders.
+   */
+  synchronized void clear() {
+    orders.clear();
+    byState.clear();
+    byTable.clear();
+  }
+
+  /**
+   * Sets which tables each waiter is assigned to.
+   *
+   * @param tableWaiters a map of table id to waiter id
+   */
+  void setTableWaiters(Map<Integer, Integer> tableWaiters) {
+    Map<Integer, Set<Integer>> waiters = new HashMap<>();
+    for (Map.Entry<Integer, Integer> table : tableWaiters.entrySet()) {
+      waiters.computeIfAbsent(table.getValue(), k -> new HashSet<>()).add(table.getKey());
+    }
+    tablesByWaiter = waiters;
+  }
+
+  /**
+   * Gets an order.
+   *
+   * @param id the orders id
+   * @return a copy of the order - null if not stored
+   */
+  Order get(int id) {
+    Order order = orders.get(id);
+    return order == null ? null : copy(order);
+  }
+
+  /**
+   * Gets all the stored orders.
+   *
+   * @return copies of the orders in the order they were added
+   */
+  List<Order> getAll() {
+    return sortedCopies(orders.values());
+  }
+
+  /**
+   * Gets the orders with the given state.
+   *
+   * @param state the state
+   * @return copies of the orders in the order they were added
+   */
+  List<Order> getFromState(OrderState state) {
+    List<Order> found = new LinkedList<>();
+    for (int id : byState.getOrDefault(state, Collections.emptySet())) {
+      Order order = orders.get(id);
+      if (order != null && order.getState() == state) { // Could be mid way through a change
+        found.add(order);
+      }
+    }
+    return sortedCopies(found);
+  }
+
+  /**
+   * Gets the orders from the given table.
+   *
+   * @param tableID the table
+   * @return copies of the orders in the order they were added
+   */
+  List<Order> getFromTable(int tableID) {
+    return sortedCopies(findFromTables(Set.of(tableID)));
+  }
+
+  /**
+   * Gets the orders from tables assigned to the given waiter.
+   *
+   * @param waiterID the waiter
+   * @return copies of the orders in the order they were added
+   */
+  List<Order> getFromWaiter(int waiterID) {
+    return sortedCopies(findFromTables(
+        tablesByWaiter.getOrDefault(waiterID, Collections.emptySet())));
+  }
+
+  /**
+   * Gets the orders with the given state from tables assigned to the given waiter.
+   *
+   * @param state    the state
+   * @param waiterID the waiter
+   * @return copies of the orders in the order they were added
+   */
+  List<Order> getFromStateAndWaiter(OrderState state, int waiterID) {
+    List<Order> found = new LinkedList<>();
+    for (Order order : findFromTables(
+        tablesByWaiter.getOrDefault(waiterID, Collections.emptySet()))) {
+      if (order.getState() == state) {
+        found.add(order);
+      }
+    }
+    return sortedCopies(found);
+  }
+
+  private List<Order> findFromTables(Set<Integer> tableIDs) {
+    List<Order> found = new LinkedList<>();
+    for (int tableID : tableIDs) {
+      for (int id : byTable.getOrDefault(tableID, Collections.emptySet())) {
+        Order order = orders.get(id);
+        if (order != null && order.getTableNumber() == tableID) {
+          found.add(order);
+        }
+      }
+    }
+    return found;
+  }
+
+  private void unindex(Order order) {
+    Set<Integer> stateIDs = byState.get(order.getState());
+    if (stateIDs != null) {
+      stateIDs.remove(order.getID());
+    }
+    Set<Integer> tableIDs = byTable.get(order.getTableNumber());
+    if (tableIDs != null) {
+      tableIDs.remove(order.getID());
+    }
+  }
+
+  private List<Order> sortedCopies(Collection<Order> found) {
+    List<Order> copies = new LinkedList<>();
+    for (Order order : found) {
+      copies.add(copy(order));
+    }
+    copies.sort(ADDED_ORDER);
+    return copies;
+  }
+
+  private static Order copy(Order order) {
+    Order copy = new Order(order.getID(), new LinkedList<>(order.getItemsInOrder()),
+        order.getTableNumber(), order.getTime(), order.getTimeStatusChanged());
+    copy.setState(order.getState());
+    return copy;
+  }
+}
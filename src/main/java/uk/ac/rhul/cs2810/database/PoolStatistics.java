@@ -0,0 +1,136 @@
+package uk.ac.rhul.cs2810.database;
+
+/**
+ * A snapshot of the state of a connection pool.
+ * Used to see how busy the pool is so it can be sized correctly.
+ */
+public class PoolStatistics {
+  private final int active;
+  private final int idle;
+  private final int waiters;
+  private final int maxSize;
+  private final long acquireCount;
+  private final long timeoutCount;
+  private final long reclaimedCount;
+  private final long totalAcquireNanos;
+  private final long maxAcquireNanos;
+
+  /**
+   * Instantiates a new set of pool statistics.
+   *
+   * @param active            the number of connections currently borrowed
+   * @param idle              the number of open connections waiting to be borrowed
+   * @param waiters           the number of threads waiting for a connection
+   * @param maxSize           the maximum number of connections the pool will open
+   * @param acquireCount      the number of connections handed out
+   * @param timeoutCount      the number of requests that timed out waiting for a connection
+   * @param reclaimedCount    the number of connections reclaimed after never being closed
+   * @param totalAcquireNanos the total time spent waiting for connections
+   * @param maxAcquireNanos   the longest time spent waiting for a connection
+   */
+  PoolStatistics(int active, int idle, int waiters, int maxSize, long acquireCount,
+                 long timeoutCount, long reclaimedCount, long totalAcquireNanos,
+                 long maxAcquireNanos) {
+    this.active = active;
+    this.idle = idle;
+    this.waiters = waiters;
+    this.maxSize = maxSize;
+    this.acquireCount = acquireCount;
+    this.timeoutCount = timeoutCount;
+    this.reclaimedCount = reclaimedCount;
+    this.totalAcquireNanos = totalAcquireNanos;
+    this.maxAcquireNanos = maxAcquireNanos;
+  }
+
+  /**
+   * Gets the number of connections currently in use.
+   *
+   * @return the number of active connections
+   */
+  public int getActive() {
+    return active;
+  }
+
+  /**
+   * Gets the number of open connections not currently in use.
+   *
+   * @return the number of idle connections
+   */
+  public int getIdle() {
+    return idle;
+  }
+
+  /**
+   * Gets the number of threads waiting for a connection.
+   *
+   * @return the number of waiting threads
+   */
+  public int getWaiters() {
+    return waiters;
+  }
+
+  /**
+   * Gets the maximum number of connections the pool will open.
+   *
+   * @return the max pool size
+   */
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Gets the number of connections handed out by the pool.
+   *
+   * @return the number of connections acquired
+   */
+  public long getAcquireCount() {
+    return acquireCount;
+  }
+
+  /**
+   * Gets the number of requests that gave up waiting for a connection.
+   *
+   * @return the number of timeouts
+   */
+  public long getTimeoutCount() {
+    return timeoutCount;
+  }
+
+  /**
+   * Gets the number of connections that were reclaimed after being dropped without being closed.
+   *
+   * @return the number of reclaimed connections
+   */
+  public long getReclaimedCount() {
+    return reclaimedCount;
+  }
+
+  /**
+   * Gets the average time taken to get a connection from the pool.
+   *
+   * @return the average acquire time in milliseconds
+   */
+  public double getAverageAcquireMillis() {
+    if (acquireCount == 0) {
+      return 0;
+    }
+    return (double) totalAcquireNanos / acquireCount / 1_000_000d;
+  }
+
+  /**
+   * Gets the longest time taken to get a connection from the pool.
+   *
+   * @return the max acquire time in milliseconds
+   */
+  public double getMaxAcquireMillis() {
+    return maxAcquireNanos / 1_000_000d;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("active=%d idle=%d waiters=%d max=%d acquired=%d timeouts=%d "
+            + "reclaimed=%d avgAcquire=%.3fms maxAcquire=%.3fms", active, idle, waiters, maxSize,
+        acquireCount, timeoutCount, reclaimedCount, getAverageAcquireMillis(),
+        getMaxAcquireMillis());
+  }
+}
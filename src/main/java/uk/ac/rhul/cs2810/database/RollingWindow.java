@@ -0,0 +1,73 @@
+package uk.ac.rhul.cs2810.database;
+
+import java.util.Arrays;
+
+/**
+ * Counts values over the last day in one minute buckets held in a ring.
+ * Each slot remembers which minute it holds, so a slot left over from a day ago is ignored
+ * rather than cleared, and adding or summing never has to move anything.
+ */
+final class RollingWindow {
+  static final int MINUTES = 24 * 60;
+
+  private final long[] minutes = new long[MINUTES];
+  private final long[] counts = new long[MINUTES];
+  private final long[] totals = new long[MINUTES];
+
+  /**
+   * Instantiates a new empty window.
+   */
+  RollingWindow() {
+    clear();
+  }
+
+  /**
+   * Adds values to a minute.
+   * Minutes more than a day older than the newest added are dropped.
+   *
+   * @param minute the minute since the epoch
+   * @param count  the number of values
+   * @param total  the sum of the values
+   */
+  void add(long minute, long count, long total) {
+    int slot = (int) Math.floorMod(minute, (long) MINUTES);
+    if (minutes[slot] != minute) {
+      if (minutes[slot] > minute) {
+        return; // The slot has already moved on to a newer day
+      }
+      minutes[slot] = minute;
+      counts[slot] = 0;
+      totals[slot] = 0;
+    }
+    counts[slot] += count;
+    totals[slot] += total;
+  }
+
+  /**
+   * Sums the values added between two minutes, only going back as far as the window holds.
+   *
+   * @param from the first minute, inclusive
+   * @param to   the last minute, inclusive
+   * @return the number of values and their sum
+   */
+  long[] sum(long from, long to) {
+    long[] sum = new long[2];
+    for (long minute = Math.max(from, to - MINUTES + 1); minute <= to; minute++) {
+      int slot = (int) Math.floorMod(minute, (long) MINUTES);
+      if (minutes[slot] == minute) {
+        sum[0] += counts[slot];
+        sum[1] += totals[slot];
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Removes everything added.
+   */
+  void clear() {
+    Arrays.fill(minutes, Long.MIN_VALUE);
+    Arrays.fill(counts, 0);
+    Arrays.fill(totals, 0);
+  }
+}
@@ -0,0 +1,132 @@
+package uk.ac.rhul.cs2810.database;
+
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * A named job on the scheduler, which can be used to cancel it or check how it is running.
+ */
+public class ScheduledJob implements Runnable {
+  private final Scheduler scheduler;
+  private final String name;
+  private final Scheduler.AsyncTask task;
+  private final long periodNanos;
+  private final double jitter;
+  
+  private volatile boolean cancelled = false;
+  private ScheduledFuture<?> future;
+  
+  /**
+   * Instantiates a new scheduled job.
+   *
+   * @param scheduler   the scheduler running the job
+   * @param name        the jobs name
+   * @param task        starts the work to do
+   * @param periodNanos the wait between runs - negative to only run once
+   * @param jitter      how much each wait can differ by, as a fraction of the period
+   */
+  ScheduledJob(Scheduler scheduler, String name, Scheduler.AsyncTask task, long periodNanos,
+               double jitter) {
+    this.scheduler = scheduler;
+    this.name = name;
+    this.task = task;
+    this.periodNanos = periodNanos;
+    this.jitter = jitter;
+  }
+  
+  /**
+   * Gets the jobs name.
+   *
+   * @return the name
+   */
+  public String getName() {
+    return name;
+  }
+  
+  /**
+   * Checks if the job runs repeatedly.
+   *
+   * @return if the job repeats
+   */
+  public boolean isRepeating() {
+    return periodNanos >= 0;
+  }
+  
+  /**
+   * Stops the job running again. A run already started is left to finish.
+   */
+  public void cancel() {
+    cancelled = true;
+    synchronized (this) {
+      if (future != null) {
+        future.cancel(false);
+      }
+    }
+    scheduler.cancelIfCurrent(this);
+  }
+  
+  /**
+   * Checks if the job has been cancelled, including by being replaced.
+   *
+   * @return if the job is cancelled
+   */
+  public boolean isCancelled() {
+    return cancelled;
+  }
+  
+  /**
+   * Gets how the job has been running.
+   *
+   * @return the statistics of every job run under this name
+   */
+  public JobStatistics getStatistics() {
+    return scheduler.getStatistics(name);
+  }
+  
+  synchronized void setFuture(ScheduledFuture<?> future) {
+    this.future = future;
+    if (cancelled) {
+      future.cancel(false);
+    }
+  }
+  
+  @Override
+  public void run() {
+    if (cancelled) {
+      return;
+    }
+    Instant start = Instant.now();
+    long startNanos = System.nanoTime();
+    CompletionStage<?> work;
+    try {
+      work = task.start();
+    } catch (Exception E) {
+      work = CompletableFuture.failedFuture(E);
+    }
+    if (work == null) {
+      work = CompletableFuture.completedFuture(null);
+    }
+    work.whenComplete((result, error) -> finished(start, System.nanoTime() - startNanos,
+        error == null ? null : DatabaseExecutor.unwrap(error)));
+  }
+  
+  /**
+   * Records a run once its work has finished and schedules the next run if the job repeats.
+   * Called on whichever thread finished the work.
+   *
+   * @param start         when the run started
+   * @param durationNanos how long the run took
+   * @param error         the error thrown - null if the run succeeded
+   */
+  private void finished(Instant start, long durationNanos, Throwable error) {
+    if (error != null) {
+      error.printStackTrace(); // Prints to error file
+    }
+    scheduler.finished(this, start, durationNanos, error);
+    if (isRepeating() && !cancelled) {
+      scheduler.reschedule(this, Scheduler.jitter(periodNanos, jitter));
+    }
+  }
+}
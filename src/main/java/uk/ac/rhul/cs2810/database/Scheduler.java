@@ -0,0 +1,373 @@
+package uk.ac.rhul.cs2810.database;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs background work that happens later or repeatedly on one shared, bounded set of threads.
+ * Jobs are named, so scheduling a job under a name already in use replaces it rather than adding
+ * a second copy, and a screen can cancel all of its jobs by the prefix of their names when it
+ * closes. Repeating jobs can be given jitter so many clients polling the database don't all land
+ * at once. How each job has run is kept by name and can be read with getStatistics.
+ * The threads are only meant for timing, so jobs that wait on the database should be scheduled
+ * as async tasks that hand the work to the database threads, otherwise a slow query holds up
+ * every other job.
+ */
+public class Scheduler {
+  static final int THREADS = 2;
+  
+  /**
+   * The jitter used by screens polling the database, so clients started together spread out.
+   */
+  public static final double POLLING_JITTER = 0.1;
+  
+  private static Scheduler shared;
+  private static Scheduler housekeeping;
+  
+  private final ScheduledThreadPoolExecutor executor;
+  private final Map<String, ScheduledJob> jobs = new HashMap<>();
+  private final Map<String, Metrics> metrics = new HashMap<>();
+  
+  /**
+   * Some work to run on the scheduler.
+   */
+  @FunctionalInterface
+  public interface Task {
+    
+    /**
+     * Does the work.
+     *
+     * @throws Exception any error, which is counted as a failure of the job
+     */
+    void run() throws Exception;
+  }
+  
+  /**
+   * Some work that is only started on the scheduler and finishes elsewhere, such as on the
+   * database threads.
+   */
+  @FunctionalInterface
+  public interface AsyncTask {
+    
+    /**
+     * Starts the work.
+     *
+     * @return a stage completed once the work has finished
+     * @throws Exception any error starting the work, which is counted as a failure of the job
+     */
+    CompletionStage<?> start() throws Exception;
+  }
+  
+  /**
+   * Instantiates a new scheduler.
+   *
+   * @param threads    the number of threads to run jobs on
+   * @param threadName the name given to the threads
+   */
+  Scheduler(int threads, String threadName) {
+    AtomicInteger threadCount = new AtomicInteger();
+    executor = new ScheduledThreadPoolExecutor(threads, runnable -> {
+      Thread thread = new Thread(runnable, threadName + " " + threadCount.incrementAndGet());
+      thread.setDaemon(true); // Doesn't stop the program closing
+      return thread;
+    });
+    executor.setRemoveOnCancelPolicy(true); // Cancelled jobs don't sit in the queue
+  }
+  
+  /**
+   * Gets the scheduler shared by the whole program.
+   *
+   * @return the shared scheduler
+   */
+  public static synchronized Scheduler getShared() {
+    if (shared == null) {
+      shared = new Scheduler(THREADS, "Scheduler");
+    }
+    return shared;
+  }
+  
+  /**
+   * Gets the scheduler that keeps the connection pools topped up.
+   * It has its own thread, so the pools are still refilled when the shared scheduler and the
+   * database threads are all waiting for a connection.
+   *
+   * @return the housekeeping scheduler
+   */
+  static synchronized Scheduler getHousekeeping() {
+    if (housekeeping == null) {
+      housekeeping = new Scheduler(1, "Pool housekeeper");
+    }
+    return housekeeping;
+  }
+  
+  /**
+   * Runs a job once after a delay.
+   *
+   * @param name  the jobs name, replacing any job already using it
+   * @param delay how long to wait
+   * @param unit  the unit of the delay
+   * @param task  the work to do
+   * @return the job
+   */
+  public ScheduledJob scheduleOnce(String name, long delay, TimeUnit unit, Task task) {
+    return scheduleOnceAsync(name, delay, unit, started(task));
+  }
+  
+  /**
+   * Starts a job once after a delay. The job counts as finished when its work does.
+   *
+   * @param name  the jobs name, replacing any job already using it
+   * @param delay how long to wait
+   * @param unit  the unit of the delay
+   * @param task  starts the work to do
+   * @return the job
+   */
+  public ScheduledJob scheduleOnceAsync(String name, long delay, TimeUnit unit, AsyncTask task) {
+    return schedule(new ScheduledJob(this, name, task, -1, 0), unit.toNanos(delay));
+  }
+  
+  /**
+   * Runs a job repeatedly, waiting a period after each run finishes before starting the next.
+   * A run never overlaps the one before, so slow work can't pile up.
+   *
+   * @param name   the jobs name, replacing any job already using it
+   * @param period how long to wait between runs, and before the first run
+   * @param unit   the unit of the period
+   * @param jitter how much each wait can randomly differ by, as a fraction of the period
+   * @param task   the work to do
+   * @return the job
+   */
+  public ScheduledJob scheduleRepeating(String name, long period, TimeUnit unit, double jitter,
+                                        Task task) {
+    return scheduleRepeating(name, period, period, unit, jitter, task);
+  }
+  
+  /**
+   * Runs a job repeatedly, starting after an initial delay.
+   *
+   * @param name         the jobs name, replacing any job already using it
+   * @param initialDelay how long to wait before the first run
+   * @param period       how long to wait between runs
+   * @param unit         the unit of the delay and period
+   * @param jitter       how much each wait can randomly differ by, as a fraction of the period
+   * @param task         the work to do
+   * @return the job
+   */
+  public ScheduledJob scheduleRepeating(String name, long initialDelay, long period,
+                                        TimeUnit unit, double jitter, Task task) {
+    return scheduleRepeatingAsync(name, initialDelay, period, unit, jitter, started(task));
+  }
+  
+  /**
+   * Starts a job repeatedly, waiting a period after each runs work finishes before starting the
+   * next. The scheduler thread is free while the work runs, and runs still never overlap.
+   *
+   * @param name   the jobs name, replacing any job already using it
+   * @param period how long to wait between runs, and before the first run
+   * @param unit   the unit of the period
+   * @param jitter how much each wait can randomly differ by, as a fraction of the period
+   * @param task   starts the work to do
+   * @return the job
+   */
+  public ScheduledJob scheduleRepeatingAsync(String name, long period, TimeUnit unit,
+                                             double jitter, AsyncTask task) {
+    return scheduleRepeatingAsync(name, period, period, unit, jitter, task);
+  }
+  
+  /**
+   * Starts a job repeatedly after an initial delay, waiting a period after each runs work
+   * finishes before starting the next.
+   *
+   * @param name         the jobs name, replacing any job already using it
+   * @param initialDelay how long to wait before the first run
+   * @param period       how long to wait between runs
+   * @param unit         the unit of the delay and period
+   * @param jitter       how much each wait can randomly differ by, as a fraction of the period
+   * @param task         starts the work to do
+   * @return the job
+   */
+  public ScheduledJob scheduleRepeatingAsync(String name, long initialDelay, long period,
+                                             TimeUnit unit, double jitter, AsyncTask task) {
+    long periodNanos = unit.toNanos(period);
+    ScheduledJob job = new ScheduledJob(this, name, task, periodNanos, jitter);
+    return schedule(job, jitter(unit.toNanos(initialDelay), jitter));
+  }
+  
+  /**
+   * Cancels a job. A run already started is left to finish.
+   *
+   * @param name the jobs name
+   */
+  public void cancel(String name) {
+    ScheduledJob job;
+    synchronized (this) {
+      job = jobs.get(name);
+    }
+    if (job != null) {
+      job.cancel();
+    }
+  }
+  
+  /**
+   * Cancels every job whose name starts with a prefix, such as all the jobs of a closing screen.
+   *
+   * @param prefix the start of the names
+   */
+  public void cancelAll(String prefix) {
+    Map<String, ScheduledJob> cancelled = new HashMap<>();
+    synchronized (this) {
+      Iterator<Map.Entry<String, ScheduledJob>> entries = jobs.entrySet().iterator();
+      while (entries.hasNext()) {
+        Map.Entry<String, ScheduledJob> entry = entries.next();
+        if (entry.getKey().startsWith(prefix)) {
+          cancelled.put(entry.getKey(), entry.getValue());
+          entries.remove();
+        }
+      }
+    }
+    for (ScheduledJob job : cancelled.values()) {
+      job.cancel();
+    }
+  }
+  
+  /**
+   * Gets how a job has been running.
+   *
+   * @param name the jobs name
+   * @return the statistics - null if no job has been scheduled with the name
+   */
+  public synchronized JobStatistics getStatistics(String name) {
+    Metrics jobMetrics = metrics.get(name);
+    if (jobMetrics == null) {
+      return null;
+    }
+    return new JobStatistics(name, jobMetrics.runs, jobMetrics.failures, jobMetrics.lastRun,
+        jobMetrics.lastDurationNanos, jobMetrics.lastError, jobs.containsKey(name));
+  }
+  
+  /**
+   * Gets how every job scheduled so far has been running.
+   *
+   * @return the statistics of each job by name
+   */
+  public synchronized Map<String, JobStatistics> getAllStatistics() {
+    Map<String, JobStatistics> statistics = new TreeMap<>();
+    for (String name : metrics.keySet()) {
+      statistics.put(name, getStatistics(name));
+    }
+    return statistics;
+  }
+  
+  /**
+   * Stops every job and the threads running them.
+   */
+  void shutdown() {
+    cancelAll("");
+    executor.shutdownNow();
+  }
+  
+  /**
+   * Picks a delay randomly within the jitter of a period.
+   *
+   * @param periodNanos the period
+   * @param jitter      the most the delay can differ by, as a fraction of the period
+   * @return the delay
+   */
+  static long jitter(long periodNanos, double jitter) {
+    if (jitter <= 0) {
+      return periodNanos;
+    }
+    double offset = jitter * (ThreadLocalRandom.current().nextDouble() * 2 - 1);
+    return Math.max(0, Math.round(periodNanos * (1 + offset)));
+  }
+  
+  /**
+   * Wraps work that runs on the scheduler thread as a task that has finished once started.
+   *
+   * @param task the work to do
+   * @return the async task
+   */
+  private static AsyncTask started(Task task) {
+    return () -> {
+      task.run();
+      return CompletableFuture.completedFuture(null);
+    };
+  }
+  
+  private ScheduledJob schedule(ScheduledJob job, long delayNanos) {
+    ScheduledJob replaced;
+    synchronized (this) {
+      replaced = jobs.put(job.getName(), job);
+      metrics.computeIfAbsent(job.getName(), name -> new Metrics());
+      job.setFuture(executor.schedule(job, delayNanos, TimeUnit.NANOSECONDS));
+    }
+    if (replaced != null) {
+      replaced.cancel();
+    }
+    return job;
+  }
+  
+  /**
+   * Schedules the next run of a repeating job, unless it has been cancelled or replaced.
+   *
+   * @param job        the job
+   * @param delayNanos how long to wait
+   */
+  synchronized void reschedule(ScheduledJob job, long delayNanos) {
+    if (jobs.get(job.getName()) == job && !executor.isShutdown()) {
+      job.setFuture(executor.schedule(job, delayNanos, TimeUnit.NANOSECONDS));
+    }
+  }
+  
+  /**
+   * Forgets a cancelled job, unless it has already been replaced.
+   *
+   * @param job the job
+   */
+  synchronized void cancelIfCurrent(ScheduledJob job) {
+    jobs.remove(job.getName(), job);
+  }
+  
+  /**
+   * Records a run of a job.
+   *
+   * @param job           the job
+   * @param start         when the run started
+   * @param durationNanos how long the run took
+   * @param error         the error thrown - null if the run succeeded
+   */
+  synchronized void finished(ScheduledJob job, Instant start, long durationNanos,
+                             Throwable error) {
+    Metrics jobMetrics = metrics.get(job.getName());
+    jobMetrics.runs++;
+    jobMetrics.lastRun = start;
+    jobMetrics.lastDurationNanos = durationNanos;
+    if (error != null) {
+      jobMetrics.failures++;
+      jobMetrics.lastError = error;
+    }
+    if (!job.isRepeating()) {
+      jobs.remove(job.getName(), job);
+    }
+  }
+  
+  /**
+   * The running totals of a job, kept by name.
+   */
+  private static class Metrics {
+    private long runs = 0;
+    private long failures = 0;
+    private Instant lastRun = null;
+    private long lastDurationNanos = 0;
+    private Throwable lastError = null;
+  }
+}
@@ -0,0 +1,103 @@
+package uk.ac.rhul.cs2810.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Holds the name of every member of staff and which of them are logged in, so the login database
+ * can answer lookups from memory. Loaded from the database in one go and then kept up to date by
+ * the logins and logouts made here, with the change feed saying when another terminal has made
+ * one and it needs loading again.
+ */
+class SessionRegistry {
+  private final Map<Integer, String> names = new TreeMap<>();
+  private final Set<Integer> loggedIn = new TreeSet<>();
+  private final AtomicBoolean stale = new AtomicBoolean(true);
+
+  /**
+   * Replaces everything held with a fresh read of the logins.
+   *
+   * @param names    every users name by id
+   * @param loggedIn the ids of the users logged in
+   */
+  synchronized void load(Map<Integer, String> names, Set<Integer> loggedIn) {
+    this.names.clear();
+    this.names.putAll(names);
+    this.loggedIn.clear();
+    this.loggedIn.addAll(loggedIn);
+  }
+
+  /**
+   * Marks what is held as out of date, so it is loaded again before it is next used.
+   */
+  void markStale() {
+    stale.set(true);
+  }
+
+  /**
+   * Checks if what is held is out of date and clears the mark.
+   * The mark is cleared before loading, so a change heard while loading isn't lost.
+   *
+   * @return if it needs loading
+   */
+  boolean takeStale() {
+    return stale.getAndSet(false);
+  }
+
+  /**
+   * Records a user logging in.
+   *
+   * @param id the users id
+   */
+  synchronized void loggedIn(int id) {
+    loggedIn.add(id);
+  }
+
+  /**
+   * Records a user logging out.
+   *
+   * @param id the users id
+   */
+  synchronized void loggedOut(int id) {
+    loggedIn.remove(id);
+  }
+
+  /**
+   * Gets a users name.
+   *
+   * @param id the users id
+   * @return the name - an empty string if there isn't a user with the id
+   */
+  synchronized String getName(int id) {
+    return names.getOrDefault(id, "");
+  }
+
+  /**
+   * Gets the users logged in, including the management and kitchen.
+   *
+   * @return the ids in order
+   */
+  synchronized List<Integer> getLoggedIn() {
+    return new ArrayList<>(loggedIn);
+  }
+
+  /**
+   * Gets every waiter, leaving out the management and kitchen.
+   *
+   * @return the ids in order
+   */
+  synchronized List<Integer> getWaiters() {
+    List<Integer> waiters = new ArrayList<>();
+    for (int id : names.keySet()) {
+      if (id > 0) {
+        waiters.add(id);
+      }
+    }
+    return waiters;
+  }
+}
@@ -2,19 +2,39 @@ package uk.ac.rhul.cs2810.database;
 
 import uk.ac.rhul.cs2810.Exceptions.ConnectionError;
 import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
+import uk.ac.rhul.cs2810.containers.TableStates;
 
 import java.sql.*;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-
-import static java.lang.Math.ceil;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.UnaryOperator;
 
 /**
  * An object for interacting with the part of the database that deals with tables in the restaurant.
+ * The state of every table is also held in memory for the floor views. The change feed marks it
+ * out of date when a table is changed on any terminal, and while the feed isn't connected it is
+ * read again once it gets older than a couple of seconds.
  */
 public class TableDB extends Database {
+  private static final long ASSIGNER_REFRESH_MILLIS = 5000;
+  private static final long TABLE_STATES_MAX_AGE_MILLIS = 2000;
+  static final String CHANGE_CHANNEL = "table_changes";
   private int maxTableCount = -1;
   private final LoginDB loginDB;
+  private final ChangeFeed changeFeed;
+  private final boolean changeTriggers;
+  private final AtomicBoolean tableStatesStale = new AtomicBoolean();
+  private volatile TableStates tableStates;
+  private volatile long tableStatesReadAt;
+  private final WaiterAssigner assigner = new WaiterAssigner();
+  private long assignerLoadedAt = -1;
   
   /**
    * Instantiates a new Table db.
@@ -30,6 +50,11 @@ public class TableDB extends Database {
     
     insertStatments.put("Tables", "INSERT INTO Tables (tableID) VALUES (?);");
     
+    // Copies read before the feed connected are checked by their age instead
+    changeFeed = new ChangeFeed(CHANGE_CHANNEL, URL, userName, password, () -> { },
+        changes -> tableStatesChanged());
+    changeTriggers = makeChangeTriggers();
+    
     Statement st = getStatement();
     try {
       ResultSet rs = st.executeQuery("SELECT count(*) FROM tables;");
@@ -54,6 +79,31 @@ public class TableDB extends Database {
     }
   }
   
+  /**
+   * Checks if table changes made on other terminals are currently being pushed to this one.
+   * If not, the table states held in memory are read again once they get old.
+   *
+   * @return if changes are being received
+   */
+  public boolean isReceivingChanges() {
+    return changeTriggers && changeFeed.isConnected();
+  }
+  
+  /**
+   * Stops listening for table changes.
+   */
+  void closeChangeFeed() {
+    changeFeed.close();
+  }
+  
+  /**
+   * Marks the table states held as out of date. Called by the change feed when it hears about a
+   * change, so the next call to getTableStates reads them again.
+   */
+  void tableStatesChanged() {
+    tableStatesStale.set(true);
+  }
+  
   /**
    * Gets the id of the waiter assigned to a table.
    *
@@ -112,6 +162,41 @@ public class TableDB extends Database {
     } catch (SQLException SQLE) {
       // We're not worried with closing issues
     }
+    updateTableStates(states -> states.withWaiter(Collections.singletonList(tableID), waiterID));
+  }
+  
+  /**
+   * Sets the waiters assigned to several tables in one transaction.
+   *
+   * @param tableWaiters the waiter id to assign to each table id
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError  if a table isn't in the database or unable to update the database
+   */
+  private void setWaiters(Map<Integer, Integer> tableWaiters)
+      throws ConnectionError, ExecutionError {
+    checkTables(tableWaiters.keySet());
+    if (tableWaiters.isEmpty()) {
+      return;
+    }
+    
+    inTransaction(connection -> {
+      PreparedStatement ps = connection.prepareStatement("UPDATE tables SET waiterid = ?" +
+          " WHERE tableid = ?");
+      for (Map.Entry<Integer, Integer> tableWaiter : tableWaiters.entrySet()) {
+        ps.setInt(1, tableWaiter.getValue());
+        ps.setInt(2, tableWaiter.getKey());
+        ps.addBatch();
+      }
+      ps.executeBatch();
+      return null;
+    });
+    updateTableStates(states -> {
+      for (Map.Entry<Integer, Integer> tableWaiter : tableWaiters.entrySet()) {
+        states = states.withWaiter(Collections.singletonList(tableWaiter.getKey()),
+            tableWaiter.getValue());
+      }
+      return states;
+    });
   }
   
   /**
@@ -135,7 +220,21 @@ public class TableDB extends Database {
    * @throws ConnectionError if unable to connect to the database
    */
   public void setClean(int tableID, boolean isClean) throws ExecutionError, ConnectionError {
-    setColumn(tableID, isClean, "isClean");
+    setClean(Collections.singletonList(tableID), isClean);
+  }
+  
+  /**
+   * Updates the database's information on if several tables are clean in one statement.
+   *
+   * @param tableIDs the table ids
+   * @param isClean  are the tables clean
+   * @throws ExecutionError  if a table isn't in the database or unable to update the database
+   * @throws ConnectionError if unable to connect to the database
+   */
+  public void setClean(Collection<Integer> tableIDs, boolean isClean)
+      throws ExecutionError, ConnectionError {
+    setColumn(tableIDs, isClean, "isClean");
+    updateTableStates(states -> states.withClean(tableIDs, isClean));
   }
   
   /**
@@ -159,7 +258,21 @@ public class TableDB extends Database {
    * @throws ExecutionError  if unable to update the database
    */
   public void setSeated(int tableID, boolean isSeated) throws ConnectionError, ExecutionError {
-    setColumn(tableID, isSeated, "isSeated");
+    setSeated(Collections.singletonList(tableID), isSeated);
+  }
+  
+  /**
+   * Updates the database's information on if several tables are being used in one statement.
+   *
+   * @param tableIDs the table ids
+   * @param isSeated are the tables being used
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError  if a table isn't in the database or unable to update the database
+   */
+  public void setSeated(Collection<Integer> tableIDs, boolean isSeated)
+      throws ConnectionError, ExecutionError {
+    setColumn(tableIDs, isSeated, "isSeated");
+    updateTableStates(states -> states.withSeated(tableIDs, isSeated));
   }
   
   /**
@@ -184,7 +297,105 @@ public class TableDB extends Database {
    */
   public void setWaiterAlerted(int tableId, boolean isAlerted) throws ConnectionError,
       ExecutionError {
-    setColumn(tableId, isAlerted, "isAlerted");
+    setWaiterAlerted(Collections.singletonList(tableId), isAlerted);
+  }
+  
+  /**
+   * Sets if several tables have called the waiter in one statement.
+   *
+   * @param tableIDs  the table ids
+   * @param isAlerted have the tables called the waiter
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError  if a table isn't in the database or unable to update the database
+   */
+  public void setWaiterAlerted(Collection<Integer> tableIDs, boolean isAlerted)
+      throws ConnectionError, ExecutionError {
+    setColumn(tableIDs, isAlerted, "isAlerted");
+    updateTableStates(states -> states.withAlerted(tableIDs, isAlerted));
+  }
+  
+  /**
+   * Gets the state of every table from the database in one query.
+   * The snapshot is also kept as the copy returned by getTableStates.
+   *
+   * @return the waiter, clean, seated and alerted state of each table
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError  if unable to fetch the data from the database
+   */
+  public TableStates getAllTableStates() throws ConnectionError, ExecutionError {
+    Map<Integer, Integer> waiters = new HashMap<>();
+    BitSet clean = new BitSet();
+    BitSet seated = new BitSet();
+    BitSet alerted = new BitSet();
+    int maxTableID = 0;
+    
+    long readAt = System.nanoTime(); // Taken before the query so a change made during it is seen
+    Statement st = getStatement();
+    try {
+      ResultSet rs = st.executeQuery("SELECT tableid, waiterid, isclean, isseated, isalerted" +
+          " FROM tables");
+      while (rs.next()) {
+        int tableID = rs.getInt(1);
+        maxTableID = Math.max(maxTableID, tableID);
+        waiters.put(tableID, rs.getInt(2));
+        clean.set(tableID, rs.getBoolean(3));
+        seated.set(tableID, rs.getBoolean(4));
+        alerted.set(tableID, rs.getBoolean(5));
+      }
+      rs.close();
+    } catch (SQLException SQLE) {
+      tableStatesStale.set(true);
+      throw new ExecutionError("Could not get the table states", SQLE);
+    } finally {
+      try {
+        Database.closeConnection(st.getConnection());
+      } catch (SQLException SQLE) {
+        // Not worried with closing issues
+      }
+    }
+    
+    int[] waiterIDs = new int[maxTableID + 1];
+    for (Map.Entry<Integer, Integer> waiter : waiters.entrySet()) {
+      waiterIDs[waiter.getKey()] = waiter.getValue();
+    }
+    TableStates states = new TableStates(waiterIDs, clean, seated, alerted);
+    synchronized (this) {
+      tableStates = states;
+      tableStatesReadAt = readAt;
+    }
+    return states;
+  }
+  
+  /**
+   * Gets the copy of every table's state kept in memory, fetching it if there isn't one yet.
+   * Changes made through this object are applied to the copy straight away. Changes made
+   * elsewhere are seen once the change feed reports them, or once the copy is a couple of
+   * seconds old while the feed isn't connected.
+   *
+   * @return the waiter, clean, seated and alerted state of each table
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError  if unable to fetch the data from the database
+   */
+  public TableStates getTableStates() throws ConnectionError, ExecutionError {
+    if (changeTriggers) {
+      changeFeed.start();
+    }
+    TableStates states;
+    long readAt;
+    synchronized (this) {
+      states = tableStates;
+      readAt = tableStatesReadAt;
+    }
+    if (tableStatesStale.getAndSet(false) || states == null) {
+      return getAllTableStates();
+    }
+    // Only a copy read after the feed started listening can't have missed a change
+    boolean pushed = isReceivingChanges() && readAt - changeFeed.getConnectedAt() > 0;
+    if (!pushed && System.nanoTime() - readAt
+        > TimeUnit.MILLISECONDS.toNanos(TABLE_STATES_MAX_AGE_MILLIS)) {
+      return getAllTableStates();
+    }
+    return states;
   }
   
   /**
@@ -279,58 +490,152 @@ public class TableDB extends Database {
   
   /**
    * Assigns a waiter to the given table.
-   * Assigns only logged in waiters so if no waiters are signed in a waiter will be assigned later
+   * The table goes to the logged in waiter with the least work, counted by their seated tables,
+   * open orders and calls for a waiter. If no waiters are signed in a waiter will be assigned later
    *
    * @param tableID the table id
    * @throws ExecutionError  if a database error occurs when assigning the waiter
    * @throws ConnectionError if unable to connect to the database
    */
   public void assignTable(int tableID) throws ExecutionError, ConnectionError {
-    List<Integer> waiters = loginDB.getLoggedInWaiters();
-    for (int waiter: waiters) {
-      if (waiter <= 0){
-        waiters.remove(new Integer(waiter));
-        // Have to leave the Integer call in to make the compiler treat it as an element
-        // not an index
+    checkTables(Collections.singletonList(tableID));
+    int waiterID;
+    synchronized (assigner) {
+      // Loads change as orders come and go elsewhere so are refetched once they get old
+      if (assignerLoadedAt < 0
+          || System.currentTimeMillis() - assignerLoadedAt > ASSIGNER_REFRESH_MILLIS) {
+        loadAssigner();
       }
+      waiterID = assigner.assign(tableID);
     }
-    if (waiters.size() == 0) {
-      setWaiter(tableID, -1);
-    } else {
-      float blockSize = (float) getMaxTableNum() / (float) waiters.size();
-      int block = (int) ceil(tableID / blockSize);
-      setWaiter(tableID, waiters.get(block - 1));
-    }
+    setWaiter(tableID, waiterID);
     setSeated(tableID, true);
   }
   
   /**
    * Reassigns tables from the given waiter.
+   * Every other table is rebalanced at the same time, with all the changes saved in one go.
    *
    * @param waiterID the waiter id
    * @throws ConnectionError if unable to connect to the database
    * @throws ExecutionError  if a database error occurs when reassigning the tables
    */
   public void reassignTablesFromWaiter(int waiterID) throws ConnectionError, ExecutionError {
-    List<Integer> assignedTables = getAssignedTables(waiterID);
-    for (int table: assignedTables) {
-      setWaiter(table, -1);
-      assignTable(table);
+    Map<Integer, Integer> changed;
+    synchronized (assigner) {
+      loadAssigner();
+      changed = assigner.removeWaiter(waiterID);
     }
+    setWaiters(changed);
+  }
+  
+  /**
+   * Rebalances the tables when a waiter logs in, giving them tables from the busiest waiters and
+   * any tables left without a waiter.
+   *
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError  if a database error occurs when reassigning the tables
+   */
+  public void rebalanceTables() throws ConnectionError, ExecutionError {
+    Map<Integer, Integer> changed;
+    synchronized (assigner) {
+      loadAssigner();
+      changed = assigner.rebalance();
+    }
+    setWaiters(changed);
+  }
+  
+  /**
+   * Loads the logged in waiters and the weight of each seated table into the assigner.
+   * Only called while holding the assigner.
+   *
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError  if unable to fetch the data from the database
+   */
+  private void loadAssigner() throws ConnectionError, ExecutionError {
+    List<Integer> waiters = loginDB.getLoggedInWaiters();
+    Map<Integer, Integer> tableWaiters = new HashMap<>();
+    Map<Integer, Integer> tableWeights = new HashMap<>();
+    
+    Statement st = getStatement();
+    try {
+      ResultSet rs = st.executeQuery("SELECT to_regclass('orders') IS NOT NULL");
+      rs.next();
+      boolean hasOrders = rs.getBoolean(1);
+      rs.close();
+      
+      // Open orders are only counted once the orders table has been made
+      rs = st.executeQuery("SELECT t.tableid, t.waiterid, 1 + t.isalerted::int" +
+          (hasOrders ? " + count(o.orderid)" : "") + " FROM tables t" +
+          (hasOrders ? " LEFT JOIN orders o ON o.tableid = t.tableid" +
+              " AND o.status NOT IN ('srvd', 'canc')" : "") +
+          " WHERE t.isseated GROUP BY t.tableid");
+      while (rs.next()) {
+        tableWaiters.put(rs.getInt(1), rs.getInt(2));
+        tableWeights.put(rs.getInt(1), rs.getInt(3));
+      }
+      rs.close();
+    } catch (SQLException SQLE) {
+      throw new ExecutionError("Could not get the waiters work", SQLE);
+    } finally {
+      try {
+        Database.closeConnection(st.getConnection());
+      } catch (SQLException SQLE) {
+        // Not worried with closing issues
+      }
+    }
+    
+    assigner.load(waiters, tableWaiters, tableWeights);
+    assignerLoadedAt = System.currentTimeMillis();
   }
   
   /**
    * Assigns unassigned tables after a 30 second delay to let other waiters sign in.
+   * Timed by the shared scheduler, so asking again before it runs restarts the delay, and run
+   * on a database thread.
    */
   public void assignUnassignedTables(){
-    new Thread(() -> {
+    Scheduler.getShared().scheduleOnceAsync("tables.assignUnassigned", 30, TimeUnit.SECONDS,
+        () -> callAsync(() -> {
+          reassignTablesFromWaiter(-1);
+          return null;
+        }));
+  }
+  
+  /**
+   * Makes the trigger that publishes table changes to the change feed.
+   * Failing to make it isn't fatal as the table states can still be read when they get old.
+   *
+   * @return if the trigger is in place
+   * @throws ConnectionError if unable to connect to the database
+   */
+  private boolean makeChangeTriggers() throws ConnectionError {
+    Statement st = getStatement();
+    
+    try {
+      st.execute("CREATE OR REPLACE FUNCTION notify_table_change() RETURNS trigger AS $$ " //
+          + "BEGIN " //
+          + "  PERFORM pg_notify('" + CHANGE_CHANNEL + "', 'TABLES'); " //
+          + "  RETURN NULL; " //
+          + "END; $$ LANGUAGE plpgsql;");
+      st.execute("DO $$ BEGIN " //
+          + "IF NOT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'tables_notify') THEN " //
+          + "  CREATE TRIGGER tables_notify " //
+          + "  AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON tables " //
+          + "  FOR EACH STATEMENT EXECUTE PROCEDURE notify_table_change(); " //
+          + "END IF; " //
+          + "END $$;");
+      return true;
+    } catch (SQLException SQLE) {
+      System.err.println("Could not make table change triggers, tables will be read when old");
+      return false;
+    } finally {
       try {
-        Thread.sleep(30*1000);
-        reassignTablesFromWaiter(-1);
-      } catch (ConnectionError | ExecutionError | InterruptedException error) {
-        error.printStackTrace();
+        closeConnection(st.getConnection());
+      } catch (SQLException SQLE) {
+        // Not worried with closing errors
       }
-    }).start();
+    }
   }
   
   @Override
@@ -381,14 +686,15 @@ public class TableDB extends Database {
     }
   }
   
-  private void setColumn(int tableID, boolean value, String columnName)
+  private void setColumn(Collection<Integer> tableIDs, boolean value, String columnName)
       throws ConnectionError, ExecutionError {
+    checkTables(tableIDs);
     Connection connection = getConnection();
     try {
       PreparedStatement ps = connection.prepareStatement("UPDATE tables SET " + columnName +
-          " = ? WHERE tableid = ?");
-      ps.setInt(2, tableID);
+          " = ? WHERE tableid = ANY(?)");
       ps.setBoolean(1, value);
+      ps.setArray(2, connection.createArrayOf("int", tableIDs.toArray()));
       ps.execute();
     } catch (SQLException SQLE) {
       throw new ExecutionError("Could not update table data", SQLE);
@@ -400,6 +706,26 @@ public class TableDB extends Database {
     }
   }
   
+  private void checkTables(Collection<Integer> tableIDs) throws ConnectionError, ExecutionError {
+    for (int tableID : tableIDs) {
+      if (tableID > getMaxTableNum() || tableID < 1) {
+        throw new ExecutionError("Table " + tableID + " not found");
+      }
+    }
+  }
+  
+  /**
+   * Applies a change made to the database to the copy of the table states in memory.
+   * Nothing is done if the copy hasn't been fetched yet, as it will be fetched up to date.
+   *
+   * @param update makes the changed copy
+   */
+  private synchronized void updateTableStates(UnaryOperator<TableStates> update) {
+    if (tableStates != null) {
+      tableStates = update.apply(tableStates);
+    }
+  }
+  
   private boolean getColumn(int tableID, String columnName) throws ConnectionError, ExecutionError {
     Connection connection = getConnection();
     boolean value;
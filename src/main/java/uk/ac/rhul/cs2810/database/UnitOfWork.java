@@ -0,0 +1,26 @@
+package uk.ac.rhul.cs2810.database;
+
+import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A piece of database work that should either happen completely or not at all.
+ * Run using {@link Database#inTransaction(UnitOfWork)}.
+ *
+ * @param <T> the type of result the work gives back
+ */
+@FunctionalInterface
+interface UnitOfWork<T> {
+  
+  /**
+   * Does the work using the given connection. Nothing is committed until this returns.
+   *
+   * @param connection the connection the transaction is running on
+   * @return the result of the work
+   * @throws SQLException   if a statement fails, rolling back the transaction
+   * @throws ExecutionError if the work fails, rolling back the transaction
+   */
+  T run(Connection connection) throws SQLException, ExecutionError;
+}
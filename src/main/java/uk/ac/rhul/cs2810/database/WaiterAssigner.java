@@ -0,0 +1,166 @@
+package uk.ac.rhul.cs2810.database;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Decides which waiter looks after each table by how busy each waiter is.
+ * A waiter's load is the weight of the seated tables they look after, where a table weighs one
+ * plus its open orders plus one if it has called for a waiter. Waiters are kept ordered by load,
+ * so the least busy waiter is found, and their load updated, in logarithmic time.
+ * This only decides assignments, TableDB loads it from the database and saves what it decides.
+ */
+class WaiterAssigner {
+  static final int NO_WAITER = -1;
+  
+  private final Map<Integer, WaiterLoad> loads = new HashMap<>();
+  private final TreeSet<WaiterLoad> byLoad = new TreeSet<>(Comparator
+      .comparingInt((WaiterLoad waiter) -> waiter.load).thenComparingInt(waiter -> waiter.id));
+  private final Map<Integer, Integer> tableWaiters = new HashMap<>();
+  private final Map<Integer, Integer> tableWeights = new HashMap<>();
+  
+  /**
+   * Replaces everything known with the current state of the restaurant.
+   *
+   * @param waiters      the ids of the logged in waiters
+   * @param tableWaiters the waiter assigned to each seated table
+   * @param tableWeights the weight of each seated table
+   */
+  synchronized void load(Collection<Integer> waiters, Map<Integer, Integer> tableWaiters,
+                         Map<Integer, Integer> tableWeights) {
+    loads.clear();
+    byLoad.clear();
+    this.tableWaiters.clear();
+    this.tableWeights.clear();
+    
+    for (int waiterID : waiters) {
+      if (waiterID > 0) { // Kitchen and management log in too
+        WaiterLoad waiter = new WaiterLoad(waiterID);
+        loads.put(waiterID, waiter);
+        byLoad.add(waiter);
+      }
+    }
+    for (Map.Entry<Integer, Integer> table : tableWaiters.entrySet()) {
+      int weight = tableWeights.getOrDefault(table.getKey(), 1);
+      this.tableWaiters.put(table.getKey(), table.getValue());
+      this.tableWeights.put(table.getKey(), weight);
+      addLoad(table.getValue(), weight);
+    }
+  }
+  
+  /**
+   * Assigns a newly seated table to the least busy waiter.
+   * A table already looked after by a logged in waiter keeps them.
+   *
+   * @param tableID the table id
+   * @return the id of the waiter assigned - NO_WAITER if none are logged in
+   */
+  synchronized int assign(int tableID) {
+    Integer current = tableWaiters.get(tableID);
+    if (current != null && loads.containsKey(current)) {
+      return current;
+    }
+    
+    int weight = tableWeights.getOrDefault(tableID, 1);
+    int waiterID = byLoad.isEmpty() ? NO_WAITER : byLoad.first().id;
+    tableWaiters.put(tableID, waiterID);
+    tableWeights.put(tableID, weight);
+    addLoad(waiterID, weight);
+    return waiterID;
+  }
+  
+  /**
+   * Takes a waiter out of the assignments and rebalances their tables onto the others.
+   *
+   * @param waiterID the waiters id
+   * @return the tables whose waiter has changed, and the waiter now assigned to each
+   */
+  synchronized Map<Integer, Integer> removeWaiter(int waiterID) {
+    WaiterLoad waiter = loads.remove(waiterID);
+    if (waiter != null) {
+      byLoad.remove(waiter);
+    }
+    return rebalance();
+  }
+  
+  /**
+   * Assigns tables without a logged in waiter, then moves tables from the busiest waiters to the
+   * least busy while that brings their loads closer together.
+   *
+   * @return the tables whose waiter has changed, and the waiter now assigned to each
+   */
+  synchronized Map<Integer, Integer> rebalance() {
+    Map<Integer, Integer> changed = new HashMap<>();
+    for (Map.Entry<Integer, Integer> table : tableWaiters.entrySet()) {
+      if (!loads.containsKey(table.getValue())) {
+        int waiterID = byLoad.isEmpty() ? NO_WAITER : byLoad.first().id;
+        if (waiterID != table.getValue()) {
+          table.setValue(waiterID);
+          changed.put(table.getKey(), waiterID);
+        }
+        addLoad(waiterID, tableWeights.get(table.getKey()));
+      }
+    }
+    
+    // Each move lowers the sum of the squared loads, so this always finishes
+    while (byLoad.size() > 1) {
+      WaiterLoad busiest = byLoad.last();
+      WaiterLoad quietest = byLoad.first();
+      int gap = busiest.load - quietest.load;
+      int lightest = -1;
+      for (Map.Entry<Integer, Integer> table : tableWaiters.entrySet()) {
+        int weight = tableWeights.get(table.getKey());
+        if (table.getValue() == busiest.id && weight < gap
+            && (lightest == -1 || weight < tableWeights.get(lightest))) {
+          lightest = table.getKey();
+        }
+      }
+      if (lightest == -1) {
+        break;
+      }
+      int weight = tableWeights.get(lightest);
+      addLoad(busiest.id, -weight);
+      addLoad(quietest.id, weight);
+      tableWaiters.put(lightest, quietest.id);
+      changed.put(lightest, quietest.id);
+    }
+    return changed;
+  }
+  
+  /**
+   * Gets how busy a waiter is.
+   *
+   * @param waiterID the waiters id
+   * @return the waiters load - 0 if they aren't logged in
+   */
+  synchronized int getLoad(int waiterID) {
+    WaiterLoad waiter = loads.get(waiterID);
+    return waiter == null ? 0 : waiter.load;
+  }
+  
+  private void addLoad(int waiterID, int weight) {
+    WaiterLoad waiter = loads.get(waiterID);
+    if (waiter == null || weight == 0) {
+      return;
+    }
+    // The set is ordered by load so the waiter has to be taken out while it changes
+    byLoad.remove(waiter);
+    waiter.load += weight;
+    byLoad.add(waiter);
+  }
+  
+  /**
+   * A waiter and how busy they are.
+   */
+  private static class WaiterLoad {
+    private final int id;
+    private int load = 0;
+    
+    WaiterLoad(int id) {
+      this.id = id;
+    }
+  }
+}
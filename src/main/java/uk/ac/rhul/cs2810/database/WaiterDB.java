@@ -3,14 +3,29 @@ package uk.ac.rhul.cs2810.database;
 import uk.ac.rhul.cs2810.Exceptions.ConnectionError;
 import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
 import uk.ac.rhul.cs2810.containers.Employee;
+import uk.ac.rhul.cs2810.containers.WaiterMetrics;
 
 import java.io.*;
 import java.sql.*;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * The object for interacting with the waiter data in the database
  */
 public class WaiterDB extends Database {
+  private static final int METRICS_SECONDS = 15;
+  
+  private final WaiterMetricsTracker metrics = new WaiterMetricsTracker(Clock.systemDefaultZone());
+  private final AtomicBoolean syncingMetrics = new AtomicBoolean();
   
   /**
    * Instantiates a new Database.
@@ -20,7 +35,7 @@ public class WaiterDB extends Database {
    * @throws ExecutionError if unable to setup the tables
    */
   WaiterDB(boolean testing) throws ConnectionError, ExecutionError {
-    super(new String[]{"WaiterData"}, testing);
+    super(new String[]{"WaiterData", "WaiterMetrics"}, testing);
     
     insertStatments.put("WaiterData", "INSERT INTO WaiterData Values (?, ?, ?, ?)");
     layouts.put("WaiterData", new char[]{'i', 's', 'd', 'd'});
@@ -66,6 +81,48 @@ public class WaiterDB extends Database {
     return waiter;
   }
   
+  /**
+   * Gets every employee with their hours worked, assigned orders and average confirm and serve
+   * times in one query, so showing all the staff costs the same however many there are.
+   * Needs the tables and orders tables to have been made.
+   *
+   * @return the employees in id order
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError if unable to get the employees from the database
+   */
+  public List<Employee> getAllEmployees() throws ConnectionError, ExecutionError {
+    flushMetrics();
+    List<Employee> employees = new LinkedList<>();
+    Statement st = getStatement();
+    try {
+      // Orders are assigned to whichever waiter their table is assigned to
+      ResultSet rs = st.executeQuery("SELECT d.waiterID, d.waiterName, d.dateOfBirth," +
+          " d.dateHired, d.halfHoursWorked, COALESCE(a.assigned, 0)," +
+          " d.numOrdersConfirmed, EXTRACT(EPOCH FROM d.totalTimeOrdersUnconfirmed) / 60," +
+          " d.numOrdersServed, EXTRACT(EPOCH FROM d.totalTimeOrdersNotServed) / 60 " +
+          "FROM waiterData d " +
+          "LEFT JOIN (SELECT t.waiterID, count(*) AS assigned FROM tables t" +
+          " JOIN orders o ON o.tableID = t.tableID GROUP BY t.waiterID) a" +
+          " ON a.waiterID = d.waiterID " +
+          "WHERE d.waiterID > 0 ORDER BY d.waiterID");
+      while (rs.next()) {
+        employees.add(new Employee(rs.getInt(1), rs.getString(2), toLocalDate(rs.getDate(3)),
+            toLocalDate(rs.getDate(4)), rs.getInt(6), rs.getInt(5),
+            average(rs.getDouble(8), rs.getInt(7)), average(rs.getDouble(10), rs.getInt(9))));
+      }
+      rs.close();
+    } catch (SQLException SQLE) {
+      throw new ExecutionError("Could not get the employees", SQLE);
+    } finally {
+      try {
+        closeConnection(st.getConnection());
+      } catch (SQLException SQLE) {
+        // Not concerned with closing issues
+      }
+    }
+    return employees;
+  }
+  
   /**
    * Added a shift to the time worked (measured in half hours).
    *
@@ -123,29 +180,15 @@ public class WaiterDB extends Database {
   }
   
   /**
-   * Add time to confirm an order to the database.
+   * Add time to confirm an order to the waiters stats.
+   * Counted in their metrics straight away and written to the database with the next batch.
    *
    * @param id            the waiters ID
    * @param minutesPassed the number of minutes taken to confirm the order
-   * @throws ConnectionError if unable to connect to the database
-   * @throws ExecutionError if unable to update the stats
    */
-  public void addOrderConfirmTime(int id, int minutesPassed) throws ConnectionError, ExecutionError {
-    Connection connection = getConnection();
-    try {
-      PreparedStatement ps = connection.prepareStatement("UPDATE waiterData " +
-          "SET numordersconfirmed = numordersconfirmed+1," +
-          " totaltimeordersunconfirmed = totaltimeordersunconfirmed + ?::INTERVAL " +
-          "WHERE waiterid = ?");
-      ps.setString(1, minutesPassed + " minutes");
-      ps.setInt(2, id); // Casting causes the code analysis to believe there's an error
-      // when there's not
-      ps.execute();
-    } catch (SQLException SQLE) {
-      throw new ExecutionError("Couldn't add stats to database", SQLE);
-    } finally {
-      closeConnection(connection);
-    }
+  public void addOrderConfirmTime(int id, int minutesPassed) {
+    metrics.recordConfirm(id, minutesPassed);
+    startSyncingMetrics();
   }
   
   /**
@@ -157,50 +200,40 @@ public class WaiterDB extends Database {
    * @throws ExecutionError if unable to fetch the data from the database
    */
   public float getAverageConfirmTime(int id) throws ConnectionError, ExecutionError {
+    flushMetrics();
     Connection connection = getConnection();
     int numOrders;
-    int timeUnconfirmed;
+    double timeUnconfirmed;
     try {
       PreparedStatement ps = connection.prepareStatement("SELECT numordersconfirmed," +
-          " totaltimeordersunconfirmed FROM waiterdata WHERE waiterid = ?");
+          " EXTRACT(EPOCH FROM totaltimeordersunconfirmed) / 60 " +
+          "FROM waiterdata WHERE waiterid = ?");
       ps.setInt(1, id);
       ResultSet rs = ps.executeQuery();
       if (!rs.next()) {
         throw new ExecutionError("Could not find data for waiter with ID " + id);
       }
       numOrders = rs.getInt(1);
-      timeUnconfirmed = rs.getTime(2).toLocalTime().getMinute();
+      timeUnconfirmed = rs.getDouble(2);
       
     } catch (SQLException SQLE) {
       throw new ExecutionError("Could not get the data", SQLE);
     } finally {
       closeConnection(connection);
     }
-    return (float) timeUnconfirmed / (float) numOrders;
+    return average(timeUnconfirmed, numOrders);
   }
   
   /**
    * Add the order serve time to the waiters stats.
+   * Counted in their metrics straight away and written to the database with the next batch.
    *
    * @param id           the waiters id
    * @param minutesTaken the minutes taken
-   * @throws ExecutionError if unable to update the stats
-   * @throws ConnectionError if unable to connect to the database
    */
-  public void addOrderServeTime(int id, int minutesTaken) throws ExecutionError, ConnectionError {
-    Connection connection = getConnection();
-    try {
-      PreparedStatement ps = connection.prepareStatement("UPDATE waiterData " +
-          "SET numordersserved = numordersserved+1," +
-          " totaltimeordersnotserved = totaltimeordersnotserved + ?::INTERVAL WHERE waiterid = ?");
-      ps.setString(1, minutesTaken + " minutes");
-      ps.setInt(2, id);
-      ps.execute();
-    } catch (SQLException SQLE) {
-      throw new ExecutionError("Couldn't add stats to database", SQLE);
-    } finally {
-      closeConnection(connection);
-    }
+  public void addOrderServeTime(int id, int minutesTaken) {
+    metrics.recordServe(id, minutesTaken);
+    startSyncingMetrics();
   }
   
   /**
@@ -212,26 +245,211 @@ public class WaiterDB extends Database {
    * @throws ExecutionError if unable to fetch the stats from the database
    */
   public float getAverageServeTime(int id) throws ConnectionError, ExecutionError {
+    flushMetrics();
     Connection connection = getConnection();
     int numOrders;
-    int timeUnserved;
+    double timeUnserved;
     try {
       PreparedStatement ps = connection.prepareStatement("SELECT numordersserved," +
-          " totaltimeordersnotserved FROM waiterdata WHERE waiterid = ?");
+          " EXTRACT(EPOCH FROM totaltimeordersnotserved) / 60 FROM waiterdata WHERE waiterid = ?");
       ps.setInt(1, id);
       ResultSet rs = ps.executeQuery();
       if (!rs.next()) {
         throw new ExecutionError("Could not find data for waiter with ID " + id);
       }
       numOrders = rs.getInt(1);
-      timeUnserved = rs.getTime(2).toLocalTime().getMinute();
+      timeUnserved = rs.getDouble(2);
       
     } catch (SQLException SQLE) {
       throw new ExecutionError("Could not get the data", SQLE);
     } finally {
       closeConnection(connection);
     }
-    return (float) timeUnserved / (float) numOrders;
+    return average(timeUnserved, numOrders);
+  }
+  
+  /**
+   * Gets every waiters rolling metrics for the last hour, their shift and today, held in memory
+   * so the whole staff can be shown without a query per waiter.
+   * Includes the times recorded on other terminals up to the last sync with the database.
+   *
+   * @return the metrics by waiter id, leaving out waiters with nothing recorded
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError if unable to load the metrics for the first time
+   */
+  public Map<Integer, WaiterMetrics> getWaiterMetrics() throws ConnectionError, ExecutionError {
+    if (!metrics.isLoaded()) {
+      syncMetrics();
+      startSyncingMetrics();
+    }
+    return metrics.getAllMetrics();
+  }
+  
+  /**
+   * Gets a waiters rolling metrics for the last hour, their shift and today.
+   *
+   * @param id the waiters id
+   * @return the metrics - all 0 if nothing has been recorded for them
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError if unable to load the metrics for the first time
+   */
+  public WaiterMetrics getWaiterMetrics(int id) throws ConnectionError, ExecutionError {
+    getWaiterMetrics();
+    return metrics.getMetrics(id);
+  }
+  
+  /**
+   * Writes every confirm and serve time not yet in the database in one transaction, adding them
+   * to the waiters totals and their minute buckets.
+   * Buckets older than a day are removed at the same time. If the write fails the times are kept
+   * to be tried again. Runs one at a time so a sync never reads a batch still being written.
+   *
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError if unable to write the times
+   */
+  public synchronized void flushMetrics() throws ConnectionError, ExecutionError {
+    List<WaiterMetricsTracker.MinuteBucket> buckets = metrics.drainPending();
+    if (buckets.isEmpty()) {
+      return;
+    }
+    try {
+      inTransaction(connection -> {
+        PreparedStatement minutes = connection.prepareStatement("INSERT INTO WaiterMetrics " +
+            "VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT (WaiterID, Minute) DO UPDATE SET " +
+            "NumConfirmed = WaiterMetrics.NumConfirmed + EXCLUDED.NumConfirmed, " +
+            "ConfirmMinutes = WaiterMetrics.ConfirmMinutes + EXCLUDED.ConfirmMinutes, " +
+            "NumServed = WaiterMetrics.NumServed + EXCLUDED.NumServed, " +
+            "ServeMinutes = WaiterMetrics.ServeMinutes + EXCLUDED.ServeMinutes");
+        PreparedStatement totals = connection.prepareStatement("UPDATE waiterData SET " +
+            "NumOrdersConfirmed = NumOrdersConfirmed + ?, " +
+            "TotalTimeOrdersUnconfirmed = TotalTimeOrdersUnconfirmed + ? * INTERVAL '1 minute', " +
+            "NumOrdersServed = NumOrdersServed + ?, " +
+            "TotalTimeOrdersNotServed = TotalTimeOrdersNotServed + ? * INTERVAL '1 minute' " +
+            "WHERE waiterID = ?");
+        for (WaiterMetricsTracker.MinuteBucket bucket : buckets) {
+          minutes.setInt(1, bucket.waiterID);
+          minutes.setLong(2, bucket.minute);
+          minutes.setLong(3, bucket.numConfirmed);
+          minutes.setLong(4, bucket.confirmMinutes);
+          minutes.setLong(5, bucket.numServed);
+          minutes.setLong(6, bucket.serveMinutes);
+          minutes.addBatch();
+          
+          totals.setLong(1, bucket.numConfirmed);
+          totals.setLong(2, bucket.confirmMinutes);
+          totals.setLong(3, bucket.numServed);
+          totals.setLong(4, bucket.serveMinutes);
+          totals.setInt(5, bucket.waiterID);
+          totals.addBatch();
+        }
+        minutes.executeBatch();
+        totals.executeBatch();
+        
+        PreparedStatement expired = connection.prepareStatement("DELETE FROM WaiterMetrics " +
+            "WHERE Minute <= ?");
+        expired.setLong(1, System.currentTimeMillis() / 60_000 - RollingWindow.MINUTES);
+        expired.execute();
+        return null;
+      });
+    } catch (ConnectionError | ExecutionError E) {
+      metrics.restorePending(buckets);
+      throw E;
+    }
+  }
+  
+  /**
+   * Writes the times recorded here and reads back those from every terminal, along with when each
+   * waiter last signed in so their shift can be told apart from the rest of the day.
+   *
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError if unable to write or read the times
+   */
+  synchronized void syncMetrics() throws ConnectionError, ExecutionError {
+    flushMetrics();
+    
+    List<WaiterMetricsTracker.MinuteBucket> stored = new LinkedList<>();
+    Map<Integer, Long> shiftStarts = new HashMap<>();
+    Statement st = getStatement();
+    try {
+      long now = System.currentTimeMillis() / 60_000;
+      ResultSet rs = st.executeQuery("SELECT WaiterID, Minute, NumConfirmed, ConfirmMinutes," +
+          " NumServed, ServeMinutes FROM WaiterMetrics WHERE Minute > " +
+          (now - RollingWindow.MINUTES));
+      while (rs.next()) {
+        WaiterMetricsTracker.MinuteBucket bucket =
+            new WaiterMetricsTracker.MinuteBucket(rs.getInt(1), rs.getLong(2));
+        bucket.numConfirmed = rs.getLong(3);
+        bucket.confirmMinutes = rs.getLong(4);
+        bucket.numServed = rs.getLong(5);
+        bucket.serveMinutes = rs.getLong(6);
+        stored.add(bucket);
+      }
+      rs.close();
+      
+      // Only the time is stored, so a sign in later than now was yesterday
+      rs = st.executeQuery("SELECT waiterid, SignedInAt FROM waiterlogin " +
+          "WHERE waiterid > 0 AND SignedInAt IS NOT NULL");
+      LocalDateTime current = LocalDateTime.now();
+      while (rs.next()) {
+        LocalDateTime signedIn = current.toLocalDate().atTime(rs.getTime(2).toLocalTime());
+        if (signedIn.isAfter(current)) {
+          signedIn = signedIn.minusDays(1);
+        }
+        shiftStarts.put(rs.getInt(1),
+            signedIn.atZone(ZoneId.systemDefault()).toEpochSecond() / 60);
+      }
+      rs.close();
+    } catch (SQLException SQLE) {
+      throw new ExecutionError("Could not load the waiter metrics", SQLE);
+    } finally {
+      try {
+        closeConnection(st.getConnection());
+      } catch (SQLException SQLE) {
+        // Not concerned with closing issues
+      }
+    }
+    metrics.reload(stored, shiftStarts);
+  }
+  
+  /**
+   * Starts writing the recorded times and reading those from other terminals in the background,
+   * if not already doing so. The sync runs on a database thread, timed by the scheduler.
+   */
+  private void startSyncingMetrics() {
+    if (syncingMetrics.compareAndSet(false, true)) {
+      Scheduler.getShared().scheduleRepeatingAsync(metricsJobName(), METRICS_SECONDS,
+          TimeUnit.SECONDS, Scheduler.POLLING_JITTER, () -> callAsync(() -> {
+            syncMetrics();
+            return null;
+          }));
+    }
+  }
+  
+  /**
+   * Stops syncing the metrics in the background and writes any times not yet written, as the
+   * sync won't be there to write them. If the write fails they are kept until the next flush.
+   */
+  void stopSyncingMetrics() {
+    if (syncingMetrics.compareAndSet(true, false)) {
+      Scheduler.getShared().cancel(metricsJobName());
+      try {
+        flushMetrics();
+      } catch (ConnectionError | ExecutionError dbe) {
+        System.err.println("Could not write the waiter metrics: " + dbe.getMessage());
+      }
+    }
+  }
+  
+  private String metricsJobName() {
+    return testing ? "waiterdb.metrics test" : "waiterdb.metrics";
+  }
+  
+  private static LocalDate toLocalDate(Date date) {
+    return date == null ? null : date.toLocalDate();
+  }
+  
+  private static float average(double totalMinutes, int numOrders) {
+    return numOrders == 0 ? 0 : (float) (totalMinutes / numOrders);
   }
   
   private void populateTables() throws ExecutionError, ConnectionError {
@@ -289,6 +507,16 @@ public class WaiterDB extends Database {
           "TotalTimeOrdersNotServed INTERVAL MINUTE default '0' not null, " +
           "FOREIGN KEY (WaiterID) REFERENCES waiterlogin(waiterid)" +
           ")");
+      // One row for each minute a waiter confirmed or served an order in, kept for a day
+      st.execute("CREATE TABLE IF NOT EXISTS WaiterMetrics(" +
+          "WaiterID int," +
+          "Minute bigint," +
+          "NumConfirmed int default 0 not null," +
+          "ConfirmMinutes bigint default 0 not null," +
+          "NumServed int default 0 not null," +
+          "ServeMinutes bigint default 0 not null," +
+          "PRIMARY KEY (WaiterID, Minute)" +
+          ")");
     } catch (SQLException SQLE) {
       throw new ExecutionError("Could not create data login", SQLE);
     }
@@ -0,0 +1,216 @@
+package uk.ac.rhul.cs2810.database;
+
+import uk.ac.rhul.cs2810.containers.WaiterMetrics;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps each waiters confirm and serve times for the last day in memory so their metrics can be
+ * read without a query.
+ * Times recorded here are also held as pending minute buckets until they are written to the
+ * database in a batch. Reloading from the database brings in the times recorded on other
+ * terminals, with anything still pending added back on top so nothing is counted twice or lost.
+ */
+class WaiterMetricsTracker {
+  private final Clock clock;
+  private final Map<Integer, Activity> activity = new HashMap<>();
+  private Map<String, MinuteBucket> pending = new LinkedHashMap<>();
+  private boolean loaded = false;
+
+  /**
+   * Instantiates a new tracker.
+   *
+   * @param clock the clock used to tell which minute times are recorded in
+   */
+  WaiterMetricsTracker(Clock clock) {
+    this.clock = clock;
+  }
+
+  /**
+   * Records the time a waiter took to confirm an order.
+   *
+   * @param waiterID the waiters id
+   * @param minutes  the minutes taken
+   */
+  synchronized void recordConfirm(int waiterID, int minutes) {
+    MinuteBucket bucket = new MinuteBucket(waiterID, currentMinute());
+    bucket.numConfirmed = 1;
+    bucket.confirmMinutes = minutes;
+    record(bucket);
+  }
+
+  /**
+   * Records the time a waiter took to serve an order.
+   *
+   * @param waiterID the waiters id
+   * @param minutes  the minutes taken
+   */
+  synchronized void recordServe(int waiterID, int minutes) {
+    MinuteBucket bucket = new MinuteBucket(waiterID, currentMinute());
+    bucket.numServed = 1;
+    bucket.serveMinutes = minutes;
+    record(bucket);
+  }
+
+  /**
+   * Takes every bucket not yet written to the database.
+   *
+   * @return the pending buckets - empty if there are none
+   */
+  synchronized List<MinuteBucket> drainPending() {
+    List<MinuteBucket> drained = new ArrayList<>(pending.values());
+    pending = new LinkedHashMap<>();
+    return drained;
+  }
+
+  /**
+   * Puts back buckets that couldn't be written so they are tried again.
+   *
+   * @param buckets the buckets taken by drainPending
+   */
+  synchronized void restorePending(Collection<MinuteBucket> buckets) {
+    for (MinuteBucket bucket : buckets) {
+      pending.computeIfAbsent(bucket.key(), key -> new MinuteBucket(bucket.waiterID,
+          bucket.minute)).merge(bucket);
+    }
+  }
+
+  /**
+   * Replaces the times held with those stored in the database, then adds back anything
+   * still pending.
+   *
+   * @param stored      the buckets stored for the last day
+   * @param shiftStarts the minute each waiter last signed in
+   */
+  synchronized void reload(Collection<MinuteBucket> stored, Map<Integer, Long> shiftStarts) {
+    for (Activity waiter : activity.values()) {
+      waiter.confirms.clear();
+      waiter.serves.clear();
+    }
+    for (MinuteBucket bucket : stored) {
+      add(bucket);
+    }
+    for (MinuteBucket bucket : pending.values()) {
+      add(bucket);
+    }
+    for (Map.Entry<Integer, Long> shiftStart : shiftStarts.entrySet()) {
+      activityOf(shiftStart.getKey()).shiftStart = shiftStart.getValue();
+    }
+    loaded = true;
+  }
+
+  /**
+   * Checks if the times have been loaded from the database yet.
+   *
+   * @return if they have been loaded
+   */
+  synchronized boolean isLoaded() {
+    return loaded;
+  }
+
+  /**
+   * Gets the metrics of every waiter with any times or a known shift.
+   *
+   * @return the metrics by waiter id
+   */
+  synchronized Map<Integer, WaiterMetrics> getAllMetrics() {
+    Map<Integer, WaiterMetrics> metrics = new TreeMap<>();
+    long now = currentMinute();
+    long startOfDay = LocalDate.now(clock).atStartOfDay(clock.getZone()).toEpochSecond() / 60;
+    for (Map.Entry<Integer, Activity> waiter : activity.entrySet()) {
+      metrics.put(waiter.getKey(), waiter.getValue().toMetrics(waiter.getKey(), now,
+          startOfDay));
+    }
+    return metrics;
+  }
+
+  /**
+   * Gets a waiters metrics.
+   *
+   * @param waiterID the waiters id
+   * @return the metrics - all 0 if nothing has been recorded for them
+   */
+  synchronized WaiterMetrics getMetrics(int waiterID) {
+    WaiterMetrics metrics = getAllMetrics().get(waiterID);
+    return metrics != null ? metrics : new Activity().toMetrics(waiterID, 0, 0);
+  }
+
+  private void record(MinuteBucket bucket) {
+    add(bucket);
+    pending.computeIfAbsent(bucket.key(), key -> new MinuteBucket(bucket.waiterID,
+        bucket.minute)).merge(bucket);
+  }
+
+  private void add(MinuteBucket bucket) {
+    Activity waiter = activityOf(bucket.waiterID);
+    waiter.confirms.add(bucket.minute, bucket.numConfirmed, bucket.confirmMinutes);
+    waiter.serves.add(bucket.minute, bucket.numServed, bucket.serveMinutes);
+  }
+
+  private Activity activityOf(int waiterID) {
+    return activity.computeIfAbsent(waiterID, id -> new Activity());
+  }
+
+  private long currentMinute() {
+    return clock.millis() / 60_000;
+  }
+
+  /**
+   * One waiters times and when their shift started.
+   */
+  private static class Activity {
+    private final RollingWindow confirms = new RollingWindow();
+    private final RollingWindow serves = new RollingWindow();
+    private long shiftStart = Long.MIN_VALUE; // Unknown until they are seen signed in
+
+    WaiterMetrics toMetrics(int waiterID, long now, long startOfDay) {
+      Map<WaiterMetrics.Window, long[]> confirmed = new EnumMap<>(WaiterMetrics.Window.class);
+      Map<WaiterMetrics.Window, long[]> served = new EnumMap<>(WaiterMetrics.Window.class);
+      long[] starts = {now - 59, shiftStart == Long.MIN_VALUE ? startOfDay : shiftStart,
+          startOfDay};
+      for (WaiterMetrics.Window window : WaiterMetrics.Window.values()) {
+        long start = starts[window.ordinal()];
+        confirmed.put(window, confirms.sum(start, now));
+        served.put(window, serves.sum(start, now));
+      }
+      return new WaiterMetrics(waiterID, confirmed, served);
+    }
+  }
+
+  /**
+   * The confirm and serve times a waiter recorded in one minute.
+   */
+  static final class MinuteBucket {
+    final int waiterID;
+    final long minute;
+    long numConfirmed;
+    long confirmMinutes;
+    long numServed;
+    long serveMinutes;
+
+    MinuteBucket(int waiterID, long minute) {
+      this.waiterID = waiterID;
+      this.minute = minute;
+    }
+
+    String key() {
+      return waiterID + ":" + minute;
+    }
+
+    void merge(MinuteBucket other) {
+      numConfirmed += other.numConfirmed;
+      confirmMinutes += other.confirmMinutes;
+      numServed += other.numServed;
+      serveMinutes += other.serveMinutes;
+    }
+  }
+}
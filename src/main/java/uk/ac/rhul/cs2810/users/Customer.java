@@ -17,11 +17,12 @@ import uk.ac.rhul.cs2810.containers.Order;
 import uk.ac.rhul.cs2810.database.DatabaseFactory;
 import uk.ac.rhul.cs2810.database.MenuDB;
 import uk.ac.rhul.cs2810.database.OrderDB;
+import uk.ac.rhul.cs2810.database.Scheduler;
 import uk.ac.rhul.cs2810.database.TableDB;
 
 import java.io.IOException;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Displays the menu to the customer and adds the extra customer functions.
@@ -30,6 +31,15 @@ public class Customer extends Application {
   
   private TableSelector tableSelector;
   private Menu menu;
+  /**
+   * What happened when placing an order.
+   */
+  private enum PlaceResult {
+    ADDED,
+    MODIFIED,
+    OUT_OF_STOCK
+  }
+  
   private OrderDB orderDB;
   private TableDB tableDB;
   private MenuDB menuDB;
@@ -78,27 +88,22 @@ public class Customer extends Application {
   
   /**
    * Resets the call waiter button when the waiter resets it.
+   * Checks the table states held in memory, on a database thread in case they need reading
+   * again, timed by the scheduler, and updates the button back on the UI thread.
    */
   public void dismissCall() {
-    Timeline timeline = new Timeline(new KeyFrame(Duration.seconds(this.pollingDelay), e -> {
-      
-      try {
-        if (!tableDB.getWaiterAlerted(Integer.parseInt(tableSelector.getTableNum()))) {
-          callWaiter.setText("Call Waiter");
-          callWaiter.setStyle(null);
-        }
-        
-        dismissCall();
-      } catch (NumberFormatException nfe) {
-        // Never thrown
-      } catch (ConnectionError | ExecutionError dbe) {
-        dbe.printStackTrace();
-        error.setText("Error: " + dbe.getMessage());
-      }
-    }));
-    
-    timeline.play();
-    
+    int tableNum = Integer.parseInt(tableSelector.getTableNum());
+    Scheduler.getShared().scheduleRepeatingAsync("customer.callWaiter", this.pollingDelay,
+        TimeUnit.SECONDS, Scheduler.POLLING_JITTER,
+        () -> tableDB.callAsync(() -> tableDB.getTableStates().isAlerted(tableNum))
+            .whenComplete((alerted, dbe) -> Platform.runLater(() -> {
+              if (dbe != null) {
+                error.setText("Error: " + dbe.getMessage());
+              } else if (!alerted) {
+                callWaiter.setText("Call Waiter");
+                callWaiter.setStyle(null);
+              }
+            })));
   }
   
   /**
@@ -115,52 +120,65 @@ public class Customer extends Application {
   @FXML
   public void placeOrder() {
     order = menu.getOrder();
-    List<Item> menuItems;
-    try {
-      menuItems = menuDB.getMenu();
-      Map<Item, Integer> orderOcc = order.getOccuranceMap();
-      orderFromCust = true;
-      
-      boolean orderInStock = true;
-      
-      for (Item item : menuItems) {
-        if (item.getStock() < orderOcc.getOrDefault(item, 0)) {
-          orderInStock = false;
-          break;
-        }
-      }
-      
-      if (orderInStock) {
-        try {
-          try {
-            orderDB.addOrder(order);
+    orderFromCust = true;
+    Order toPlace = order;
+    orderDB.callAsync(() -> submitOrder(toPlace))
+        .whenComplete((result, error) -> Platform.runLater(() -> {
+          if (error != null) {
+            error.printStackTrace();
+            this.error.setText("Error: " + error.getMessage());
+          } else if (result == PlaceResult.ADDED) {
             openWindow("CustomerPaymentWindow.fxml");
-          } catch (OrderAlreadyExistsException oaee) {
-            orderDB.modifyOrder(order);
+          } else if (result == PlaceResult.OUT_OF_STOCK) {
+            showOutOfStock();
           }
-        } catch (OrderNotFoundException | MissingDataError oe) {
-          oe.printStackTrace();
-          error.setText(oe.getMessage());
-        }
-      } else {
-        checkout.setStyle("-fx-background-color: #FF0000;");
-        error.setStyle("-fx-background-color: #FF0000;");
-        error.setText("Sorry some items in your order aren't available");
-        
-        Timeline timeline = new Timeline(new KeyFrame(Duration.seconds(10), e -> {
-          error.setStyle(null);
-          checkout.setStyle(null);
         }));
-        
-        timeline.setCycleCount(1);
-        timeline.play();
+  }
+  
+  /**
+   * Checks the order is in stock and adds it, or modifies it if it was already placed.
+   * Run on a database thread.
+   *
+   * @param toPlace the order to place
+   * @return what happened to the order
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError if unable to place the order
+   * @throws OrderNotFoundException if the order was removed while being modified
+   * @throws MissingDataError if the order is missing data
+   */
+  private PlaceResult submitOrder(Order toPlace)
+      throws ConnectionError, ExecutionError, OrderNotFoundException, MissingDataError {
+    Map<Item, Integer> orderOcc = toPlace.getOccuranceMap();
+    for (Item item : menuDB.getMenu()) {
+      if (item.getStock() < orderOcc.getOrDefault(item, 0)) {
+        return PlaceResult.OUT_OF_STOCK;
       }
-      
-      
-    } catch (ConnectionError | ExecutionError dbe) {
-      dbe.printStackTrace();
-      error.setText("Error: " + dbe.getMessage());
     }
+    
+    try {
+      orderDB.addOrder(toPlace);
+      return PlaceResult.ADDED;
+    } catch (OrderAlreadyExistsException oaee) {
+      orderDB.modifyOrder(toPlace);
+      return PlaceResult.MODIFIED;
+    }
+  }
+  
+  /**
+   * Shows that some items in the order aren't available for a few seconds.
+   */
+  private void showOutOfStock() {
+    checkout.setStyle("-fx-background-color: #FF0000;");
+    error.setStyle("-fx-background-color: #FF0000;");
+    error.setText("Sorry some items in your order aren't available");
+    
+    Timeline timeline = new Timeline(new KeyFrame(Duration.seconds(10), e -> {
+      error.setStyle(null);
+      checkout.setStyle(null);
+    }));
+    
+    timeline.setCycleCount(1);
+    timeline.play();
   }
   
   /**
@@ -185,6 +203,7 @@ public class Customer extends Application {
    * Opens the specified fxml window.
    */
   private void openWindow(String window) {
+    Scheduler.getShared().cancelAll("customer."); // This screen is no longer shown
     try {
       AnchorPane customerPane =
           FXMLLoader.load(getClass().getClassLoader().getResource(window));
@@ -1,21 +1,22 @@
 package uk.ac.rhul.cs2810.users;
 
 import java.io.IOException;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import java.util.concurrent.TimeUnit;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.stage.Stage;
-import javafx.util.Duration;
 import uk.ac.rhul.cs2810.Exceptions.ConnectionError;
 import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
 import uk.ac.rhul.cs2810.containers.Order;
+import uk.ac.rhul.cs2810.containers.OrderChange;
 import uk.ac.rhul.cs2810.containers.OrderState;
 import uk.ac.rhul.cs2810.database.DatabaseFactory;
+import uk.ac.rhul.cs2810.database.OrderChangeListener;
 import uk.ac.rhul.cs2810.database.OrderDB;
+import uk.ac.rhul.cs2810.database.Scheduler;
 import uk.ac.rhul.cs2810.database.TableDB;
 
 /**
@@ -30,6 +31,19 @@ public class CustomerOrderTracker extends Application {
   private int pollingRate;
 
   private int orderNum;
+  private boolean orderComplete;
+  // The change carries the order as it now is, so showing it doesn't need the database
+  private final OrderChangeListener orderListener = change -> {
+    if (change.getOrderID() != orderNum) {
+      return;
+    }
+    Order order = change.getOrder();
+    if (order != null || change.getType() == OrderChange.Type.REMOVED) {
+      Platform.runLater(() -> showOrderStatus(order));
+    } else {
+      loadOrderStatus(false); // The feed couldn't fetch the order
+    }
+  };
 
   @FXML
   private Label tableNumberCheckout = null;
@@ -56,6 +70,7 @@ public class CustomerOrderTracker extends Application {
    */
   @FXML
   public void exit() {
+    Scheduler.getShared().cancelAll("tracker.");
     Platform.exit();
     System.exit(0);
   }
@@ -77,35 +92,71 @@ public class CustomerOrderTracker extends Application {
   }
 
   /**
-   * Method running in a thread to update the order status displayed.
-   * Once the order is delivered, it is removed and an end screen is shown.
+   * Polls the order status until the order is complete, timed by the scheduler and loaded on a
+   * database thread.
+   * Only polls the database while order changes aren't being pushed from the database.
    */
-  private void updateOrderStatus() {
-    try {
-      Order order = orderDB.getOrderFromID(orderNum);
-      if (order != null) {
-        OrderState status = order.getState();
-        orderStatus.setText("Order Status: " + status.toString());
-        
-        Timeline timeline = new Timeline(new KeyFrame(Duration.seconds(pollingRate), e -> {
-          updateOrderStatus();
+  private void pollOrderStatus() {
+    Scheduler.getShared().scheduleRepeatingAsync("tracker.orderStatus", pollingRate,
+        TimeUnit.SECONDS, Scheduler.POLLING_JITTER, () -> {
+          if (orderDB.isReceivingChanges()) {
+            return null;
+          }
+          return orderDB.callAsync(() -> orderDB.getOrderFromID(orderNum))
+              .whenComplete((order, dbe) -> Platform.runLater(() -> {
+                if (dbe != null) {
+                  error.setText("Error: " + dbe.getMessage());
+                } else {
+                  showOrderStatus(order);
+                }
+              }));
+        });
+  }
+
+  /**
+   * Loads the order on a database thread, then shows its status on the UI thread.
+   *
+   * @param startPolling if polling should start once the order is shown and still tracked
+   */
+  private void loadOrderStatus(boolean startPolling) {
+    orderDB.callAsync(() -> orderDB.getOrderFromID(orderNum))
+        .whenComplete((order, dbe) -> Platform.runLater(() -> {
+          if (dbe != null) {
+            error.setText("Error: " + dbe.getMessage());
+          } else if (showOrderStatus(order) && startPolling) {
+            pollOrderStatus();
+          }
         }));
+  }
 
-        timeline.play();
-      } else {
-        // Updates view once order is marked as delivered
-        tableNumberCheckout.setText("Thank you for your order");
-        orderNumber.setText("Enjoy your food");
-        orderStatus.setText("Served");
-        exit.setDisable(false);
-      }
-    } catch (ConnectionError | ExecutionError dbe) {
-      error.setText("Error: " + dbe.getMessage());
+  /**
+   * Shows the status of the order, or the end screen once it has been delivered.
+   *
+   * @param order the order - null once it has been delivered
+   * @return if the order is still being tracked
+   */
+  private boolean showOrderStatus(Order order) {
+    if (orderComplete) {
+      return false;
+    }
+    if (order != null) {
+      OrderState status = order.getState();
+      orderStatus.setText("Order Status: " + status.toString());
+      return true;
     }
+    // Updates view once order is marked as delivered
+    tableNumberCheckout.setText("Thank you for your order");
+    orderNumber.setText("Enjoy your food");
+    orderStatus.setText("Served");
+    exit.setDisable(false);
+    orderComplete = true;
+    orderDB.removeOrderChangeListener(orderListener);
+    Scheduler.getShared().cancel("tracker.orderStatus");
+    return false;
   }
   
   /**
-   * Initialises database and starts a thread to update the order status.
+   * Initialises database and loads the order status in the background.
    */
   @FXML
   void initialize() {
@@ -129,10 +180,11 @@ public class CustomerOrderTracker extends Application {
     // Disables exit button while order is not complete
     exit.setDisable(true);
 
-    // Starts a thread to poll the database to get updates on the order
-    Platform.runLater(new Thread(() -> {
-      updateOrderStatus();
-    }));
+    // Updates the status whenever the order changes in the database
+    orderDB.addOrderChangeListener(orderListener);
+
+    // Polls the database for updates on the order while it is being tracked
+    loadOrderStatus(true);
   }
 
   @Override
@@ -4,8 +4,11 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
-
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.fxml.FXML;
@@ -13,15 +16,19 @@ import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.image.Image;
 import javafx.scene.layout.AnchorPane;
 import javafx.scene.layout.Pane;
 import javafx.stage.Stage;
 import uk.ac.rhul.cs2810.Exceptions.ConnectionError;
 import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
+import uk.ac.rhul.cs2810.containers.ImageSize;
 import uk.ac.rhul.cs2810.containers.Item;
 import uk.ac.rhul.cs2810.database.DatabaseFactory;
 import uk.ac.rhul.cs2810.database.ImageDB;
+import uk.ac.rhul.cs2810.database.ImagePrefetcher;
 import uk.ac.rhul.cs2810.database.MenuDB;
+import uk.ac.rhul.cs2810.database.Scheduler;
 
 /**
  * Shows the initial screen for both customers and staff.
@@ -88,18 +95,34 @@ public class JointStartMenu extends Application {
    * Gets an instance of the menu database and stores the images.
    */
   private void cacheImages() {
+    MenuDB menuDB;
+    ImageDB imageDB;
     try {
-      MenuDB menuDB = DatabaseFactory.getMenuDB();
-      ImageDB imageDB = DatabaseFactory.getImageDB();
-      List<Item> menu = menuDB.getMenu();
-      
-      for (Item item: menu) {
-        imageDB.getImage(item.getID());
-      }
+      menuDB = DatabaseFactory.getMenuDB();
+      imageDB = DatabaseFactory.getImageDB();
     } catch (ConnectionError | ExecutionError dbe) {
       error.setVisible(true);
       error.setText(dbe.getMessage());
+      return;
     }
+    
+    // Images are fetched in parallel behind anything the menu screen asks for
+    menuDB.callAsync(menuDB::getMenu).thenCompose(menu -> {
+      List<CompletableFuture<Image>> images = new LinkedList<>();
+      for (Item item : menu) {
+        images.add(imageDB.getPrefetcher()
+            .fetch(item.getID(), ImageSize.LIST, ImagePrefetcher.Priority.BACKGROUND));
+      }
+      return CompletableFuture.allOf(images.toArray(new CompletableFuture[0]));
+    }).whenComplete((done, dbe) -> {
+      if (dbe != null) {
+        Throwable cause = dbe instanceof CompletionException ? dbe.getCause() : dbe;
+        Platform.runLater(() -> {
+          error.setVisible(true);
+          error.setText(cause.getMessage());
+        });
+      }
+    });
   }
 
   /**
@@ -111,9 +134,7 @@ public class JointStartMenu extends Application {
     error.setVisible(false);
 
     // Starts a thread to cache the images to reduce load times
-    Platform.runLater(new Thread(() -> {
-      cacheImages();
-    }));
+    cacheImages();
     
     try { // Sets up printing error to file
       PrintStream out = new PrintStream(
@@ -133,6 +154,12 @@ public class JointStartMenu extends Application {
       primaryStage.setResizable(false);
       primaryStage.setScene(scene);
       primaryStage.setTitle("Oaxaca");
+      // Nothing should carry on in the background once the window is closed, but the waiter
+      // times not yet synced are written first so they aren't lost
+      primaryStage.setOnHidden(event -> {
+        DatabaseFactory.stopSyncingMetrics();
+        Scheduler.getShared().cancelAll("");
+      });
       primaryStage.show();
     } catch (IOException ioe) {
       ioe.printStackTrace();
@@ -1,8 +1,8 @@
 package uk.ac.rhul.cs2810.users;
 
 import java.util.List;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
@@ -17,16 +17,18 @@ import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
-import javafx.util.Duration;
 import uk.ac.rhul.cs2810.Exceptions.ConnectionError;
 import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
 import uk.ac.rhul.cs2810.Exceptions.OrderNotFoundException;
 import uk.ac.rhul.cs2810.containers.KitchenOrderTableData;
 import uk.ac.rhul.cs2810.containers.Order;
 import uk.ac.rhul.cs2810.containers.OrderState;
+import uk.ac.rhul.cs2810.database.CoalescingRefresh;
 import uk.ac.rhul.cs2810.database.DatabaseFactory;
 import uk.ac.rhul.cs2810.database.MenuDB;
+import uk.ac.rhul.cs2810.database.OrderChangeListener;
 import uk.ac.rhul.cs2810.database.OrderDB;
+import uk.ac.rhul.cs2810.database.Scheduler;
 
 /**
  * Represents the kitchen staff using the system.
@@ -42,6 +44,8 @@ public class Kitchen extends Application {
   private List<Order> ordersConfirmed;
   private List<Order> ordersPreparing;
   private KitchenOrderTableData selectedOrder;
+  private CoalescingRefresh<Map<OrderState, List<Order>>> ordersRefresh;
+  private final OrderChangeListener orderListener = change -> updateOrdersFromDB();
 
   @FXML
   private ListView<String> completeList = null;
@@ -117,27 +121,29 @@ public class Kitchen extends Application {
    * Change status of order.
    */
   public void confirmChangeStatus() {
-    try {
-      if (selectedOrder != null) {
-        OrderState state = OrderState.CONFIRMED;
-        String selectedItem = statusOptions.getSelectionModel().getSelectedItem();
-
-        if (selectedItem == null) {
-          pushStatusMessage(true, "No status selected");
-        } else if (selectedItem.equals("Preparing")) {
-          state = OrderState.PREPARING;
-        } else if (selectedItem.equals("Confirmed")) {
-          state = OrderState.CONFIRMED;
-        }
+    if (selectedOrder != null) {
+      OrderState state = OrderState.CONFIRMED;
+      String selectedItem = statusOptions.getSelectionModel().getSelectedItem();
 
-        odb.setOrderState(odb.getOrderFromID(selectedOrder.getId()), state);
-      } else {
-        pushStatusMessage(true, "No orders are selected");
+      if (selectedItem == null) {
+        pushStatusMessage(true, "No status selected");
+      } else if (selectedItem.equals("Preparing")) {
+        state = OrderState.PREPARING;
+      } else if (selectedItem.equals("Confirmed")) {
+        state = OrderState.CONFIRMED;
       }
-    } catch (ConnectionError | ExecutionError dbe) {
-      statusMessage.setText("Error: " + dbe.getMessage());
-    } catch (OrderNotFoundException onfe) {
-      statusMessage.setText("Error: Order not found to be paid");
+
+      int orderID = selectedOrder.getId();
+      OrderState newState = state;
+      odb.callAsync(() -> odb.setOrderState(odb.getOrderFromID(orderID), newState))
+          .whenComplete((time, error) -> Platform.runLater(() -> {
+            if (error != null) {
+              showError(error);
+            }
+            updateOrdersFromDB();
+          }));
+    } else {
+      pushStatusMessage(true, "No orders are selected");
     }
   }
 
@@ -146,22 +152,38 @@ public class Kitchen extends Application {
    */
   @FXML
   public void markFinished() {
-    try {
-      if (selectedOrder != null) {
-        Order order = odb.getOrderFromID(selectedOrder.getId());
+    if (selectedOrder != null) {
+      int orderID = selectedOrder.getId();
+      KitchenOrderTableData row = orderTable.getSelectionModel().getSelectedItem();
+      odb.callAsync(() -> {
+        Order order = odb.getOrderFromID(orderID);
         int time = odb.setOrderState(order, OrderState.READY);
-        completeList.getItems().add(order.toString());
-        orderTable.getItems().removeAll(orderTable.getSelectionModel().getSelectedItem());
         mdb.addOrderToData(order, time);
-      } else {
-        pushStatusMessage(true, "Cannot mark as finished as no orders are selected");
-      }
-    } catch (ConnectionError | ExecutionError dbe) {
-      statusMessage.setText("Error: " + dbe.getMessage());
-    } catch (OrderNotFoundException onfe) {
-      statusMessage.setText("Error: Order not found to be paid");
+        return order;
+      }).whenComplete((order, error) -> Platform.runLater(() -> {
+        if (error != null) {
+          showError(error);
+        } else {
+          completeList.getItems().add(order.toString());
+          orderTable.getItems().removeAll(row);
+        }
+      }));
+    } else {
+      pushStatusMessage(true, "Cannot mark as finished as no orders are selected");
     }
+  }
 
+  /**
+   * Shows an error from the database in the status message.
+   *
+   * @param error the error
+   */
+  private void showError(Throwable error) {
+    if (error instanceof OrderNotFoundException) {
+      statusMessage.setText("Error: Order not found to be paid");
+    } else {
+      statusMessage.setText("Error: " + error.getMessage());
+    }
   }
 
   /**
@@ -181,16 +203,36 @@ public class Kitchen extends Application {
   }
 
   /**
-   * Gets a list of confirmed orders from the database.
+   * Gets a list of confirmed orders from the database in the background, then displays them.
    */
   private void updateOrdersFromDB() {
+    ordersRefresh.request();
+  }
+
+  /**
+   * Loads the confirmed and preparing orders. Run on a database thread.
+   *
+   * @return the orders by state
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError if unable to get the orders
+   */
+  private Map<OrderState, List<Order>> loadOrders() throws ConnectionError, ExecutionError {
+    return Map.of(
+        OrderState.CONFIRMED,
+        odb.getOrdersAssignedToWaiterFromState(OrderState.CONFIRMED, login.getID()),
+        OrderState.PREPARING,
+        odb.getOrdersAssignedToWaiterFromState(OrderState.PREPARING, login.getID()));
+  }
+
+  /**
+   * Displays the loaded orders.
+   *
+   * @param orders the orders by state
+   */
+  private void showOrders(Map<OrderState, List<Order>> orders) {
     orderTable.getItems().clear();
-    try {
-      ordersConfirmed = odb.getOrdersAssignedToWaiterFromState(OrderState.CONFIRMED, login.getID());
-      ordersPreparing = odb.getOrdersAssignedToWaiterFromState(OrderState.PREPARING, login.getID());
-    } catch (ConnectionError | ExecutionError dbe) {
-      statusMessage.setText("Error: " + dbe.getMessage());
-    }
+    ordersConfirmed = orders.get(OrderState.CONFIRMED);
+    ordersPreparing = orders.get(OrderState.PREPARING);
 
     // Populates the orders table with the new data
     if (ordersConfirmed != null) {
@@ -200,12 +242,29 @@ public class Kitchen extends Application {
     if (ordersPreparing != null) {
       displayOrders(ordersPrepairingData, ordersPreparing);
     }
+  }
 
-    Timeline timeline = new Timeline(new KeyFrame(Duration.seconds(pollingRate), e -> {
-      updateOrdersFromDB();
-    }));
+  /**
+   * Polls the database for orders while changes aren't being pushed from the database.
+   */
+  private void pollOrdersFromDB() {
+    Scheduler.getShared().scheduleRepeating("kitchen.orders", pollingRate, TimeUnit.SECONDS,
+        Scheduler.POLLING_JITTER, () -> {
+          if (!odb.isReceivingChanges()) {
+            updateOrdersFromDB();
+          }
+        });
+  }
 
-    timeline.play();
+  /**
+   * Stops the polling and order change updates once the kitchen is no longer shown, so it isn't
+   * kept alive and refreshed in the background.
+   */
+  public void exit() {
+    Scheduler.getShared().cancelAll("kitchen.");
+    if (odb != null) {
+      odb.removeOrderChangeListener(orderListener);
+    }
   }
 
   /**
@@ -246,10 +305,22 @@ public class Kitchen extends Application {
     timeView.setCellValueFactory(new PropertyValueFactory<KitchenOrderTableData, String>("time"));
     itemView.setCellValueFactory(new PropertyValueFactory<KitchenOrderTableData, String>("items"));
 
-    // Runs a thread to update the orders from the database and display them.
-    Platform.runLater(new Thread(() -> {
-      updateOrdersFromDB();
-    }));
+    // Orders are loaded on a database thread and shown back on the UI thread
+    ordersRefresh = new CoalescingRefresh<>(this::loadOrders, Platform::runLater,
+        this::showOrders, this::showError);
+
+    // Refreshes the orders whenever they change in the database
+    odb.addOrderChangeListener(orderListener);
+    // Stops updating once the kitchen is replaced by another screen
+    orderTable.sceneProperty().addListener((observable, oldScene, newScene) -> {
+      if (newScene == null) {
+        exit();
+      }
+    });
+
+    // Updates the orders from the database and displays them.
+    updateOrdersFromDB();
+    pollOrdersFromDB();
   }
 
   @Override
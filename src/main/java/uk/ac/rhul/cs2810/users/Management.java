@@ -1,9 +1,11 @@
 package uk.ac.rhul.cs2810.users;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
@@ -17,16 +19,16 @@ import javafx.scene.control.TableView;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.AnchorPane;
 import javafx.stage.Stage;
-import javafx.util.Duration;
 import uk.ac.rhul.cs2810.Exceptions.ConnectionError;
 import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
 import uk.ac.rhul.cs2810.containers.Employee;
 import uk.ac.rhul.cs2810.containers.EmployeeTableData;
-import uk.ac.rhul.cs2810.containers.Item;
+import uk.ac.rhul.cs2810.containers.ItemStatistics;
 import uk.ac.rhul.cs2810.containers.StockTableData;
+import uk.ac.rhul.cs2810.database.CoalescingRefresh;
 import uk.ac.rhul.cs2810.database.DatabaseFactory;
-import uk.ac.rhul.cs2810.database.LoginDB;
 import uk.ac.rhul.cs2810.database.MenuDB;
+import uk.ac.rhul.cs2810.database.Scheduler;
 import uk.ac.rhul.cs2810.database.WaiterDB;
 
 /**
@@ -37,8 +39,10 @@ public class Management extends Application {
   private Login login;
   private MenuDB menuDB;
   private WaiterDB waiterDB;
-  private LoginDB loginDB;
   private int pollingRate;
+  private CoalescingRefresh<List<ItemStatistics>> stockRefresh;
+  private Map<Integer, ItemStatistics> shownStock = new HashMap<>();
+  private CoalescingRefresh<List<EmployeeTableData>> employeeRefresh;
 
   @FXML
   private AnchorPane mainPane = null;
@@ -54,7 +58,6 @@ public class Management extends Application {
   private Label error = null;
 
   // FXML Variables for Stock
-  private ObservableList<StockTableData> stockLevelData;
   @FXML
   private TableView stockTable = null;
   @FXML
@@ -136,20 +139,51 @@ public class Management extends Application {
    * Populates the table on the management view for the stock items to show current stock levels.
    */
   public void populateStockTable() {
-    try {
-      stockTable.getItems().clear();
-      List<Item> menuItems = menuDB.getMenu();
-      for (Item item : menuItems) {
-        StockTableData dataToAdd = new StockTableData(item.getID(), item.getName(), item.getPrice(),
-            item.getStock(), menuDB.getAverageTimeToCook(item.getID()));
+    stockRefresh.request();
+  }
 
-        stockLevelData.addAll(dataToAdd);
-        stockTable.getItems().add(dataToAdd);
+  /**
+   * Gets the stock levels and cooking times. Run on a database thread.
+   *
+   * @return the statistics of every item
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError if unable to get the stock levels
+   */
+  private List<ItemStatistics> loadStock() throws ConnectionError, ExecutionError {
+    return menuDB.getItemStatistics();
+  }
+
+  /**
+   * Displays the stock levels.
+   * Only the rows of items that have changed are replaced, so the table keeps its sorting and
+   * selection between refreshes.
+   *
+   * @param stock the statistics of every item
+   */
+  private void showStock(List<ItemStatistics> stock) {
+    @SuppressWarnings("unchecked")
+    ObservableList<StockTableData> rows = stockTable.getItems();
+    Map<Integer, ItemStatistics> latest = new HashMap<>();
+    for (ItemStatistics item : stock) {
+      latest.put(item.getItemID(), item);
+    }
+
+    // Rows may have been sorted by the user so are matched up by id
+    for (int i = rows.size() - 1; i >= 0; i--) {
+      int id = rows.get(i).getID();
+      ItemStatistics item = latest.get(id);
+      if (item == null) {
+        rows.remove(i);
+      } else if (!item.equals(shownStock.get(id))) {
+        rows.set(i, item.toStockTableData());
       }
-    } catch (ConnectionError | ExecutionError dbe) {
-      error.setVisible(true);
-      error.setText("Error: " + dbe.getMessage());
     }
+    for (ItemStatistics item : stock) {
+      if (!shownStock.containsKey(item.getItemID())) {
+        rows.add(item.toStockTableData());
+      }
+    }
+    shownStock = latest;
   }
 
   /**
@@ -157,40 +191,64 @@ public class Management extends Application {
    * about employees.
    */
   public void populateEmployeeTable() {
-    try {
-      employeeTable.getItems().clear();
-      List<Integer> employeeIDs = loginDB.getAllWaiters();
-      for (Integer empID : employeeIDs) {
-        Employee emp = waiterDB.getWaiterFromID(empID);
-        EmployeeTableData dataToAdd =
-            new EmployeeTableData(emp.getId(), emp.getName(), emp.getDateOfBirth(),
-                emp.getDateOfHire(), emp.getNumOrdersAssigned(), emp.getHalfHoursWorked());
+    employeeRefresh.request();
+  }
 
-        employeeData.addAll(dataToAdd);
-        employeeTable.getItems().add(dataToAdd);
-      }
-    } catch (ConnectionError | ExecutionError dbe) {
-      error.setVisible(true);
-      error.setText("Error: " + dbe.getMessage());
+  /**
+   * Gets the employee data. Run on a database thread.
+   *
+   * @return the rows of the employee table
+   * @throws ConnectionError if unable to connect to the database
+   * @throws ExecutionError if unable to get the employee data
+   */
+  private List<EmployeeTableData> loadEmployees() throws ConnectionError, ExecutionError {
+    List<EmployeeTableData> employees = new LinkedList<>();
+    for (Employee emp : waiterDB.getAllEmployees()) {
+      employees.add(new EmployeeTableData(emp.getId(), emp.getName(), emp.getDateOfBirth(),
+          emp.getDateOfHire(), emp.getNumOrdersAssigned(), emp.getHalfHoursWorked()));
     }
+    return employees;
   }
 
   /**
-   * Calls the method to populate the stock table. Runs in a thread.
+   * Displays the employee data.
+   *
+   * @param employees the rows of the employee table
    */
-  public void callPopulate() {
-    Timeline timeline = new Timeline(new KeyFrame(Duration.seconds(pollingRate), e -> {
-      populateStockTable();
-      populateEmployeeTable();
-    }));
+  private void showEmployees(List<EmployeeTableData> employees) {
+    employeeTable.getItems().clear();
+    for (EmployeeTableData dataToAdd : employees) {
+      employeeData.addAll(dataToAdd);
+      employeeTable.getItems().add(dataToAdd);
+    }
+  }
 
-    timeline.play();
+  /**
+   * Shows an error from the database.
+   *
+   * @param dbe the error
+   */
+  private void showError(Throwable dbe) {
+    error.setVisible(true);
+    error.setText("Error: " + dbe.getMessage());
+  }
+
+  /**
+   * Refreshes the stock and employee tables every polling period on the scheduler.
+   */
+  public void callPopulate() {
+    Scheduler.getShared().scheduleRepeating("management.tables", pollingRate, TimeUnit.SECONDS,
+        Scheduler.POLLING_JITTER, () -> {
+          populateStockTable();
+          populateEmployeeTable();
+        });
   }
 
   /**
    * Opens the specified fxml window.
    */
   private void openWindow(String window) {
+    Scheduler.getShared().cancelAll("management."); // This screen is no longer shown
     try {
       AnchorPane customerPane =
           FXMLLoader.load(getClass().getClassLoader().getResource(window));
@@ -220,7 +278,6 @@ public class Management extends Application {
     try {
       this.menuDB = DatabaseFactory.getMenuDB();
       this.waiterDB = DatabaseFactory.getWaiterDB();
-      this.loginDB = DatabaseFactory.getLoginDB();
     } catch (ConnectionError | ExecutionError dbe) {
       error.setVisible(true);
       error.setText("Error: " + dbe.getMessage());
@@ -229,7 +286,6 @@ public class Management extends Application {
     pollingRate = menuDB.getPollingRate();
 
     // Initialises the stock data table
-    this.stockLevelData = FXCollections.observableArrayList();
     stockID.setCellValueFactory(new PropertyValueFactory<>("ID"));
     stockName.setCellValueFactory(new PropertyValueFactory<>("Name"));
     stockPrice.setCellValueFactory(new PropertyValueFactory<>("Price"));
@@ -245,14 +301,18 @@ public class Management extends Application {
     employeeNumOfOrder.setCellValueFactory(new PropertyValueFactory<>("NumOrders"));
     employeeHoursWorked.setCellValueFactory(new PropertyValueFactory<>("HoursWorked"));
 
+    // Tables are loaded on a database thread and shown back on the UI thread
+    stockRefresh = new CoalescingRefresh<>(this::loadStock, Platform::runLater,
+        this::showStock, this::showError);
+    employeeRefresh = new CoalescingRefresh<>(this::loadEmployees, Platform::runLater,
+        this::showEmployees, this::showError);
+
     // Initial population of tables
     populateStockTable();
     populateEmployeeTable();
 
-    // Starts a thread to keep the stock level updated
-    Platform.runLater(new Thread(() -> {
-      callPopulate();
-    }));
+    // Keeps the stock level updated
+    callPopulate();
   }
 
   @Override
@@ -11,17 +11,23 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
+import javafx.scene.Node;
+import javafx.scene.Parent;
+import javafx.scene.control.Accordion;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
 import javafx.scene.control.MultipleSelectionModel;
 import javafx.scene.control.SelectionMode;
+import javafx.scene.control.TitledPane;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.AnchorPane;
@@ -30,6 +36,7 @@ import javafx.util.Duration;
 import uk.ac.rhul.cs2810.Exceptions.ConnectionError;
 import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
 import uk.ac.rhul.cs2810.Exceptions.MissingDataError;
+import uk.ac.rhul.cs2810.containers.ImageSize;
 import uk.ac.rhul.cs2810.containers.Item;
 import uk.ac.rhul.cs2810.containers.ItemCategory;
 import uk.ac.rhul.cs2810.containers.Order;
@@ -53,6 +60,7 @@ public class Menu extends Application {
   List<Item> menu;
   private Map<ListView, LinkedList<Item>> listToItemsPicked;
   private Map<ItemCategory, ListView> categoryToViewMap;
+  private Map<ListView, List<TitledPane>> viewToPanesMap;
 
   // Mains Lists
   @FXML
@@ -414,9 +422,14 @@ public class Menu extends Application {
 
   /**
    * Populates each list on the menu with its relevant items.
+   * Each item shows a placeholder image until its image has been fetched in the background, with
+   * the images in open categories fetched first.
    */
   private void populateMenu() {
     try {
+      Image placeholder = imageDB.getPlaceholderImage();
+      ImagePrefetcher prefetcher = imageDB.getPrefetcher();
+
       for (Item item : menu) {
         String itemAdded = item.toString();
 
@@ -426,18 +439,110 @@ public class Menu extends Application {
           ListView listView = categoryToViewMap.get(item.getCategory());
           List<Item> itemList = listToItemsPicked.get(listView);
           listView.getItems().add(itemAdded);
-          Image image = imageDB.getImage(item.getID());
-          ImageView imageView = new ImageView(image);
+          ImageView imageView = new ImageView(placeholder);
           listView.getItems().add(imageView);
           itemList.add(item);
+
+          ImagePrefetcher.Priority priority = isShown(listView)
+              ? ImagePrefetcher.Priority.VISIBLE : ImagePrefetcher.Priority.BACKGROUND;
+          showWhenFetched(imageView, prefetcher.fetch(item.getID(), ImageSize.LIST, priority));
         }
       }
-    } catch (ConnectionError | ExecutionError | MissingDataError dbe) {
+    } catch (ExecutionError | MissingDataError dbe) {
       dbe.printStackTrace(); // Prints to error file
       error.setText("Error: " + dbe.getMessage());
     }
   }
 
+  /**
+   * Swaps the placeholder for the image once it has been fetched.
+   * If it can't be fetched the placeholder is left in place.
+   *
+   * @param imageView the view showing the placeholder
+   * @param image the image being fetched
+   */
+  private void showWhenFetched(ImageView imageView, CompletableFuture<Image> image) {
+    if (image.isDone() && !image.isCompletedExceptionally()) {
+      imageView.setImage(image.join()); // Already in memory so is shown straight away
+      return;
+    }
+    image.whenComplete((fetched, fetchError) -> {
+      if (fetchError != null) {
+        fetchError.printStackTrace(); // Prints to error file
+      } else {
+        Platform.runLater(() -> imageView.setImage(fetched));
+      }
+    });
+  }
+
+  /**
+   * Finds the titled panes each category list is inside, and fetches a categories images first
+   * when it is opened.
+   */
+  private void watchCategories() {
+    viewToPanesMap = new HashMap<>();
+    findPanes(mainPane, new LinkedList<>());
+
+    for (Map.Entry<ListView, List<TitledPane>> view : viewToPanesMap.entrySet()) {
+      for (TitledPane pane : view.getValue()) {
+        pane.expandedProperty().addListener((observable, wasExpanded, expanded) -> {
+          if (expanded && isShown(view.getKey())) {
+            List<Integer> itemIDs = new LinkedList<>();
+            for (Item item : listToItemsPicked.getOrDefault(view.getKey(), new LinkedList<>())) {
+              itemIDs.add(item.getID());
+            }
+            imageDB.getPrefetcher().prioritize(itemIDs, ImageSize.LIST);
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * Walks down from a node recording the titled panes around each list.
+   * Goes through the panes contents directly as they aren't children until they have been shown.
+   *
+   * @param node the node to search
+   * @param panes the titled panes around the node
+   */
+  private void findPanes(Node node, List<TitledPane> panes) {
+    if (node instanceof ListView) {
+      viewToPanesMap.put((ListView) node, panes);
+    } else if (node instanceof TitledPane) {
+      List<TitledPane> inside = new LinkedList<>(panes);
+      inside.add((TitledPane) node);
+      if (((TitledPane) node).getContent() != null) {
+        findPanes(((TitledPane) node).getContent(), inside);
+      }
+    } else if (node instanceof Accordion) {
+      for (TitledPane pane : ((Accordion) node).getPanes()) {
+        findPanes(pane, panes);
+      }
+    } else if (node instanceof Parent) {
+      for (Node child : ((Parent) node).getChildrenUnmodifiable()) {
+        findPanes(child, panes);
+      }
+    }
+  }
+
+  /**
+   * Checks if a list can be seen, meaning every titled pane around it is open.
+   *
+   * @param listView the list
+   * @return if the list is shown
+   */
+  private boolean isShown(ListView listView) {
+    if (viewToPanesMap == null) {
+      return false;
+    }
+    for (TitledPane pane : viewToPanesMap.getOrDefault(listView, new LinkedList<>())) {
+      if (!pane.isExpanded()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /*
    * START
    */
@@ -483,6 +588,7 @@ public class Menu extends Application {
     }
 
     // Populates menu information
+    watchCategories();
     getMenu();
     populateMenu();
     getAllergensFromDatabase();
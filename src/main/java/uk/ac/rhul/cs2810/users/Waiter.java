@@ -1,9 +1,9 @@
 package uk.ac.rhul.cs2810.users;
 
 import java.io.IOException;
+import java.util.LinkedList;
 import java.util.List;
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import java.util.concurrent.TimeUnit;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
@@ -17,17 +17,19 @@ import javafx.scene.control.TableView;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.layout.AnchorPane;
 import javafx.stage.Stage;
-import javafx.util.Duration;
 import uk.ac.rhul.cs2810.containers.NotificationTableData;
 import uk.ac.rhul.cs2810.containers.Order;
 import uk.ac.rhul.cs2810.containers.OrderState;
 import uk.ac.rhul.cs2810.containers.OrderTableData;
+import uk.ac.rhul.cs2810.containers.WaiterDashboard;
 import uk.ac.rhul.cs2810.Exceptions.ConnectionError;
+import uk.ac.rhul.cs2810.database.CoalescingRefresh;
 import uk.ac.rhul.cs2810.database.DatabaseFactory;
 import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
 import uk.ac.rhul.cs2810.database.LoginDB;
+import uk.ac.rhul.cs2810.database.OrderChangeListener;
 import uk.ac.rhul.cs2810.database.OrderDB;
-import uk.ac.rhul.cs2810.database.TableDB;
+import uk.ac.rhul.cs2810.database.Scheduler;
 
 /**
  * Displays the menu to the waiter from the menu class, as well as displaying additional information
@@ -39,9 +41,11 @@ public class Waiter extends Menu {
 
   private Login login;
   private OrderDB orderDB;
+  private final OrderChangeListener orderListener = change -> updateOrderTables();
   private LoginDB loginDB;
-  private TableDB tableDB;
 
+  // Every table is loaded at once on a database thread and shown back on the UI thread
+  private CoalescingRefresh<WaiterDashboard> dashboardRefresh;
 
   ///////////////////////////////////////////////////////////////////////////
 
@@ -131,24 +135,32 @@ public class Waiter extends Menu {
   }
 
   /**
-   * Notifies the waiter when an order is ready to collect from the kitchen.
+   * Keeps every table up to date. Customer requests aren't pushed by the database, so this keeps
+   * polling even while order changes are.
    */
-  public void notifyWaiterFoodReady() {
-    try {
-      List<Order> notifOrders =
-          orderDB.getOrdersAssignedToWaiterFromState(OrderState.READY, login.getID());
-      displayWaiterFoodReady(notifOrders);
+  public void pollDashboard() {
+    updateOrderTables();
 
-      Timeline timeline = new Timeline(new KeyFrame(Duration.seconds(pollingRate), e -> {
-        notifyWaiterFoodReady();
-      }));
+    Scheduler.getShared().scheduleRepeating("waiter.dashboard", pollingRate, TimeUnit.SECONDS,
+        Scheduler.POLLING_JITTER, this::updateOrderTables);
+  }
 
-      timeline.play();
-    } catch (ConnectionError | ExecutionError dbe) {
-      statusMessage.setVisible(true);
-      statusMessage.setText("Error: " + dbe.getMessage());
-    }
+  /**
+   * Displays the orders and requests for the waiter.
+   *
+   * @param dashboard the waiters orders and the tables asking for help
+   */
+  private void displayDashboard(WaiterDashboard dashboard) {
+    populateOrdersTable(this.ordersToBeConf, dashboard.getOrders(OrderState.UNCONFIRMED),
+        this.ordersToBeConfData);
 
+    List<Order> inProgress = new LinkedList<>(dashboard.getOrders(OrderState.CONFIRMED));
+    inProgress.addAll(dashboard.getOrders(OrderState.PREPARING));
+    populateOrdersTable(this.ordersInProg, inProgress, this.ordersInProgData);
+
+    displayWaiterFoodReady(dashboard.getOrders(OrderState.READY));
+    populateWaiterCustomerRequest(dashboard.getNeededTables());
+    displayUnpaidOrders(dashboard.getOrders(OrderState.SERVED));
   }
 
   /**
@@ -168,25 +180,6 @@ public class Waiter extends Menu {
     }
   }
 
-  /**
-   * Notifies the waiter when a customer has requested help.
-   */
-  public void notifyWaiterCustomerRequest() {
-    try {
-      List<Integer> tableRequest = tableDB.getNeededTables(login.getID());
-      populateWaiterCustomerRequest(tableRequest);
-
-      Timeline timeline = new Timeline(new KeyFrame(Duration.seconds(pollingRate), e -> {
-        notifyWaiterCustomerRequest();
-      }));
-
-      timeline.play();
-    } catch (ConnectionError | ExecutionError dbe) {
-      statusMessage.setVisible(true);
-      statusMessage.setText("Error: " + dbe.getMessage());
-    }
-  }
-
   /**
    * Populate the notification table on the fxml window with customer requests.
    * 
@@ -202,28 +195,6 @@ public class Waiter extends Menu {
     }
   }
 
-  /**
-   * Displays the orders which are complete but have not been paid.
-   */
-  public void notifyWaiterUnpaidOrders() {
-    try {
-      List<Order> notPaid =
-          orderDB.getOrdersAssignedToWaiterFromState(OrderState.SERVED, login.getID());
-      displayUnpaidOrders(notPaid);
-
-      Timeline timeline = new Timeline(new KeyFrame(Duration.seconds(pollingRate), e -> {
-        notifyWaiterUnpaidOrders();
-      }));
-
-      timeline.play();
-    } catch (ConnectionError | ExecutionError dbe) {
-      statusMessage.setVisible(true);
-      statusMessage.setText("Error: " + dbe.getMessage());
-    }
-
-
-  }
-
   /**
    * Displays the orders which haven't been paid.
    */
@@ -340,46 +311,20 @@ public class Waiter extends Menu {
   }
 
   /**
-   * Run in a thread. Gets the orders to be confirmed and calls the method to display them.
+   * Shows an error from the database in the status message.
+   *
+   * @param error the error
    */
-  public void displayOrdersToBeConfirmed() {
-    try {
-      List<Order> orders =
-          orderDB.getOrdersAssignedToWaiterFromState(OrderState.UNCONFIRMED, login.getID());
-      populateOrdersTable(this.ordersToBeConf, orders, this.ordersToBeConfData);
-
-      Timeline timeline = new Timeline(new KeyFrame(Duration.seconds(pollingRate), e -> {
-        displayOrdersToBeConfirmed();
-      }));
-
-      timeline.play();
-    } catch (ConnectionError | ExecutionError dbe) {
-      statusMessage.setVisible(true);
-      statusMessage.setText("Error: " + dbe.getMessage());
-    }
-
+  private void showError(Throwable error) {
+    statusMessage.setVisible(true);
+    statusMessage.setText("Error: " + error.getMessage());
   }
 
   /**
-   * Displays the orders which are in progress, using a thread to update them from the database.
+   * Updates all the tables. Called when an order changes in the database and on each poll.
    */
-  public void displayOrdersInProgress() {
-    try {
-      List<Order> orders =
-          orderDB.getOrdersAssignedToWaiterFromState(OrderState.CONFIRMED, login.getID());
-      orders
-          .addAll(orderDB.getOrdersAssignedToWaiterFromState(OrderState.PREPARING, login.getID()));
-      Timeline timeline = new Timeline(new KeyFrame(Duration.seconds(pollingRate), e -> {
-        populateOrdersTable(this.ordersInProg, orders, this.ordersInProgData);
-        displayOrdersInProgress();
-      }));
-
-      timeline.play();
-    } catch (ConnectionError | ExecutionError dbe) {
-      statusMessage.setVisible(true);
-      statusMessage.setText("Error: " + dbe.getMessage());
-    }
-
+  private void updateOrderTables() {
+    dashboardRefresh.request();
   }
 
 
@@ -402,12 +347,21 @@ public class Waiter extends Menu {
    */
   @FXML
   public void logout() {
+    stopUpdating();
     try {
       loginDB.logOut(login.getID());
     } catch (ConnectionError | ExecutionError dbe) {
       statusMessage.setVisible(true);
       statusMessage.setText("Error: " + dbe.getMessage());
     }
+    // Times still waiting for the next sync would be lost on exit, but failing to write them
+    // mustn't stop the waiter logging out
+    try {
+      DatabaseFactory.getWaiterDB().flushMetrics();
+    } catch (ConnectionError | ExecutionError dbe) {
+      statusMessage.setVisible(true);
+      statusMessage.setText("Error: " + dbe.getMessage());
+    }
     Platform.exit();
     System.exit(0);
   }
@@ -416,10 +370,22 @@ public class Waiter extends Menu {
    * Start
    */
 
+  /**
+   * Stops the polling and order change updates of this screen once it is left, so it isn't
+   * kept alive and refreshed in the background.
+   */
+  private void stopUpdating() {
+    Scheduler.getShared().cancelAll("waiter.");
+    if (orderDB != null) {
+      orderDB.removeOrderChangeListener(orderListener);
+    }
+  }
+
   /**
    * Opens the specified fxml window.
    */
   private void openWindow(String window) {
+    stopUpdating(); // This screen is no longer shown
     try {
       AnchorPane checkoutView = FXMLLoader.load(getClass().getClassLoader().getResource(window));
       mainPane.getChildren().setAll(checkoutView);
@@ -452,7 +418,6 @@ public class Waiter extends Menu {
     try {
       orderDB = DatabaseFactory.getOrderDB();
       loginDB = DatabaseFactory.getLoginDB();
-      tableDB = DatabaseFactory.getTableDB();
     } catch (ConnectionError | ExecutionError dbe) {
       statusMessage.setVisible(true);
       statusMessage.setText("Error: " + dbe.getMessage());
@@ -490,62 +455,14 @@ public class Waiter extends Menu {
     notPaidTableNumber.setCellValueFactory(new PropertyValueFactory<>("TableNumber"));
     notPaidStatus.setCellValueFactory(new PropertyValueFactory<>("Request"));
     
-    try {
-      List<Order> unconfOrders =
-          orderDB.getOrdersAssignedToWaiterFromState(OrderState.UNCONFIRMED, login.getID());
-      List<Order> confOrders =
-          orderDB.getOrdersAssignedToWaiterFromState(OrderState.CONFIRMED, login.getID());
-      List<Integer> tableRequest = tableDB.getNeededTables(login.getID());
-      List<Order> notifOrders =
-          orderDB.getOrdersAssignedToWaiterFromState(OrderState.READY, login.getID());
-      List<Order> unpaidOrders =
-          orderDB.getOrdersAssignedToWaiterFromState(OrderState.SERVED, login.getID());
-      
-      // Initial population of orders tables
-      if (unconfOrders != null) {
-        populateOrdersTable(this.ordersToBeConf, unconfOrders, this.ordersToBeConfData);
-      }
-      if (confOrders != null) {
-        populateOrdersTable(this.ordersInProg, confOrders, this.ordersInProgData);
-      }
-      if (tableRequest != null) {
-        populateWaiterCustomerRequest(tableRequest);
-      }
-      if (notifOrders != null) {
-        displayWaiterFoodReady(notifOrders);
-      }
-      if (unpaidOrders != null) {
-        displayUnpaidOrders(unpaidOrders);
-      }
-    } catch (ConnectionError | ExecutionError dbe) {
-      statusMessage.setVisible(true);
-      statusMessage.setText("Error: " + dbe.getMessage());
-    }
+    dashboardRefresh = new CoalescingRefresh<>(() -> orderDB.getWaiterDashboard(login.getID()),
+        Platform::runLater, this::displayDashboard, this::showError);
+
+    // Refreshes the tables whenever an order changes in the database
+    orderDB.addOrderChangeListener(orderListener);
 
-    // Starts a thread to display orders in to be confirmed
-    Platform.runLater(new Thread(() -> {
-      displayOrdersToBeConfirmed();
-    }));
-
-    // Starts a thread to display orders in progress
-    Platform.runLater(new Thread(() -> {
-      displayOrdersInProgress();
-    }));
-
-    // Starts a thread to get the orders awaiting delivery
-    Platform.runLater(new Thread(() -> {
-      notifyWaiterFoodReady();
-    }));
-
-    // Starts a thread to get the customer requests.
-    Platform.runLater(new Thread(() -> {
-      notifyWaiterCustomerRequest();
-    }));
-
-    // Starts a thread to get the unpaid orders.
-    Platform.runLater(new Thread(() -> {
-      notifyWaiterUnpaidOrders();
-    }));
+    // Polls for customer requests, and for order changes while they aren't being pushed
+    pollDashboard();
 
     hideButtonsForManagement();
   }
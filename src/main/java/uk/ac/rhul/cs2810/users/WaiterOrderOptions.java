@@ -16,6 +16,7 @@ import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
 import uk.ac.rhul.cs2810.database.OrderDB;
 import uk.ac.rhul.cs2810.Exceptions.OrderNotFoundException;
 import uk.ac.rhul.cs2810.database.TableDB;
+import uk.ac.rhul.cs2810.database.WaiterDB;
 
 /**
  * Displays the options the waiter has for changing the status of an order.
@@ -24,6 +25,7 @@ public class WaiterOrderOptions extends Application {
   private Waiter waiter;
   private OrderDB orderDB;
   private TableDB tableDB;
+  private WaiterDB waiterDB;
   private TableSelector tb;
 
   @FXML
@@ -89,7 +91,8 @@ public class WaiterOrderOptions extends Application {
   @FXML
   public void setConfirmed() {
     try {
-      orderDB.confirmOrder(orderDB.getOrderFromID(waiter.getClickedOrderID()));
+      int time = orderDB.confirmOrder(orderDB.getOrderFromID(waiter.getClickedOrderID()));
+      recordTime(time, false);
       exit();
     } catch (ConnectionError | ExecutionError | OrderNotFoundException dbe) {
       error.setText("Error: " + dbe.getMessage());
@@ -106,7 +109,7 @@ public class WaiterOrderOptions extends Application {
       if (orderDB.getPayed(order)) {
         orderDB.removeOrder(order);
       } else {
-        orderDB.setOrderState(order, OrderState.SERVED);
+        recordTime(orderDB.setOrderState(order, OrderState.SERVED), true);
       }
       exit();
     } catch (ConnectionError | ExecutionError | OrderNotFoundException dbe) {
@@ -115,6 +118,24 @@ public class WaiterOrderOptions extends Application {
 
   }
 
+  /**
+   * Adds the time taken to the logged in waiters metrics. The management account isn't a waiter
+   * so isn't counted.
+   *
+   * @param minutes the minutes the order waited
+   * @param served  if the order was served rather than confirmed
+   */
+  private void recordTime(int minutes, boolean served) {
+    int waiterID = new Login().getID();
+    if (waiterID > 0) {
+      if (served) {
+        waiterDB.addOrderServeTime(waiterID, minutes);
+      } else {
+        waiterDB.addOrderConfirmTime(waiterID, minutes);
+      }
+    }
+  }
+
   /**
    * Resets the customer request after they have attended to the customer, then exits.
    */
@@ -154,6 +175,7 @@ public class WaiterOrderOptions extends Application {
     try {
       this.orderDB = DatabaseFactory.getOrderDB();
       this.tableDB = DatabaseFactory.getTableDB();
+      this.waiterDB = DatabaseFactory.getWaiterDB();
     } catch (ConnectionError | ExecutionError dbe) {
       error.setText("Error: " + dbe.getMessage());
     }
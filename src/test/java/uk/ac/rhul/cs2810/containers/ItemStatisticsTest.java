@@ -0,0 +1,46 @@
+package uk.ac.rhul.cs2810.containers;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class ItemStatisticsTest {
+
+  private static ItemStatistics taco(int stock, int numServed, double totalTimeToCook) {
+    return new ItemStatistics(1, "taco", 200, stock, numServed, totalTimeToCook,
+        new QuantileSketch());
+  }
+
+  @Test
+  void testAverageTimeToCook() {
+    assertEquals(2.5f, taco(4, 4, 10).getAverageTimeToCook());
+  }
+
+  @Test
+  void testAverageTimeToCookWhenNotServed() {
+    assertEquals(0f, taco(4, 0, 0).getAverageTimeToCook());
+  }
+
+  @Test
+  void testEqualOnlyWhenNothingChanged() {
+    ItemStatistics statistics = taco(4, 4, 10);
+    assertEquals(statistics, taco(4, 4, 10));
+    assertEquals(statistics.hashCode(), taco(4, 4, 10).hashCode());
+    assertNotEquals(statistics, taco(3, 4, 10));
+    assertNotEquals(statistics, taco(4, 5, 12));
+
+    ItemStatistics moreTimes = taco(4, 4, 10);
+    moreTimes.getPrepTimes().add(3);
+    assertNotEquals(statistics, moreTimes);
+  }
+
+  @Test
+  void testToStockTableData() {
+    StockTableData row = taco(4, 4, 10).toStockTableData();
+    assertEquals(1, row.getID());
+    assertEquals(new Price(200), row.getPrice());
+    assertEquals(4, row.getStock());
+    assertEquals("02:30 Minutes", row.getAvgTime());
+  }
+}
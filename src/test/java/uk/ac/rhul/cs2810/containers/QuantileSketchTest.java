@@ -0,0 +1,95 @@
+package uk.ac.rhul.cs2810.containers;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuantileSketchTest {
+
+  private static void assertWithinAccuracy(double expected, double actual) {
+    assertEquals(expected, actual, expected * QuantileSketch.RELATIVE_ACCURACY);
+  }
+
+  @Test
+  void testEmptySketchHasNoQuantiles() {
+    QuantileSketch sketch = new QuantileSketch();
+    assertEquals(0, sketch.getCount());
+    assertTrue(Double.isNaN(sketch.getP50()));
+  }
+
+  @Test
+  void testPercentilesWithinAccuracy() {
+    QuantileSketch sketch = new QuantileSketch();
+    for (int minutes = 1; minutes <= 100; minutes++) {
+      sketch.add(minutes);
+    }
+    assertEquals(100, sketch.getCount());
+    assertWithinAccuracy(50, sketch.getP50());
+    assertWithinAccuracy(90, sketch.getP90());
+    assertWithinAccuracy(99, sketch.getP99());
+  }
+
+  @Test
+  void testTailIsNotHiddenByMean() {
+    QuantileSketch sketch = new QuantileSketch();
+    sketch.add(5, 90);
+    sketch.add(60, 10);
+    assertWithinAccuracy(5, sketch.getP50());
+    assertWithinAccuracy(60, sketch.getP99());
+  }
+
+  @Test
+  void testLongTimesAreNotWrapped() {
+    QuantileSketch sketch = new QuantileSketch();
+    sketch.add(75);
+    assertWithinAccuracy(75, sketch.getP50());
+  }
+
+  @Test
+  void testMergeMatchesAddingEverything() {
+    QuantileSketch all = new QuantileSketch();
+    QuantileSketch first = new QuantileSketch();
+    QuantileSketch second = new QuantileSketch();
+    for (int minutes = 1; minutes <= 40; minutes++) {
+      all.add(minutes);
+      (minutes % 2 == 0 ? first : second).add(minutes);
+    }
+    first.merge(second);
+    assertEquals(all, first);
+    assertEquals(40, first.getCount());
+  }
+
+  @Test
+  void testBytesRoundTrip() {
+    QuantileSketch sketch = new QuantileSketch();
+    sketch.add(0);
+    sketch.add(12.5, 300);
+    sketch.add(2000);
+    QuantileSketch read = QuantileSketch.fromBytes(sketch.toBytes());
+    assertEquals(sketch, read);
+    assertEquals(302, read.getCount());
+  }
+
+  @Test
+  void testBytesAreCompact() {
+    QuantileSketch sketch = new QuantileSketch();
+    sketch.add(10, 1000);
+    sketch.add(11, 1000);
+    assertTrue(sketch.toBytes().length <= 8);
+  }
+
+  @Test
+  void testNullBytesAreEmptySketch() {
+    assertEquals(new QuantileSketch(), QuantileSketch.fromBytes(null));
+  }
+
+  @Test
+  void testCorruptBytesRejected() {
+    assertThrows(IllegalArgumentException.class,
+        () -> QuantileSketch.fromBytes(new byte[]{(byte) 0x80}));
+    assertThrows(IllegalArgumentException.class,
+        () -> QuantileSketch.fromBytes(new byte[]{1, 0}));
+  }
+}
@@ -0,0 +1,58 @@
+package uk.ac.rhul.cs2810.containers;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.BitSet;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class TableStatesTest {
+
+  private TableStates states;
+
+  @BeforeEach
+  public void createStates() {
+    BitSet clean = new BitSet();
+    clean.set(1, 4);
+    BitSet seated = new BitSet();
+    seated.set(1);
+    seated.set(3);
+    BitSet alerted = new BitSet();
+    alerted.set(3);
+    states = new TableStates(new int[]{0, 5, -1, 5}, clean, seated, alerted);
+  }
+
+  @Test
+  void testGetters() {
+    assertEquals(3, states.getMaxTableNum());
+    assertEquals(5, states.getWaiter(1));
+    assertTrue(states.isClean(2));
+    assertFalse(states.isSeated(2));
+    assertTrue(states.isAlerted(3));
+  }
+
+  @Test
+  void testGetAssignedAndNeededTables() {
+    assertEquals(List.of(1, 3), states.getAssignedTables(5));
+    assertEquals(List.of(3), states.getNeededTables(5));
+  }
+
+  @Test
+  void testWithLeavesOriginalUnchanged() {
+    TableStates changed = states.withClean(List.of(1, 2), false).withWaiter(List.of(2), 7);
+    assertTrue(states.isClean(1));
+    assertFalse(changed.isClean(1));
+    assertEquals(-1, states.getWaiter(2));
+    assertEquals(7, changed.getWaiter(2));
+  }
+
+  @Test
+  void testTableNotFound() {
+    assertThrows(IllegalArgumentException.class, () -> states.isSeated(4));
+    assertThrows(IllegalArgumentException.class, () -> states.getWaiter(0));
+  }
+}
@@ -0,0 +1,112 @@
+package uk.ac.rhul.cs2810.database;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CoalescingRefreshTest {
+
+  @Test
+  void testRequestLoadsAndGivesResult() throws InterruptedException {
+    CountDownLatch done = new CountDownLatch(1);
+    AtomicReference<String> result = new AtomicReference<>();
+    CoalescingRefresh<String> refresh = new CoalescingRefresh<>(() -> "loaded", Runnable::run,
+        loaded -> {
+          result.set(loaded);
+          done.countDown();
+        }, error -> done.countDown());
+
+    refresh.request();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals("loaded", result.get());
+  }
+
+  @Test
+  void testOverlappingRequestsAreCombined() throws InterruptedException {
+    CountDownLatch loadStarted = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(2);
+    AtomicInteger loads = new AtomicInteger();
+    List<Integer> results = new CopyOnWriteArrayList<>();
+
+    CoalescingRefresh<Integer> refresh = new CoalescingRefresh<>(() -> {
+      int load = loads.incrementAndGet();
+      loadStarted.countDown();
+      release.await();
+      return load;
+    }, Runnable::run, loaded -> {
+      results.add(loaded);
+      done.countDown();
+    }, error -> done.countDown());
+
+    refresh.request();
+    assertTrue(loadStarted.await(5, TimeUnit.SECONDS));
+    for (int i = 0; i < 10; i++) {
+      refresh.request();
+    }
+    release.countDown();
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    while (refresh.isRunning()) {
+      Thread.sleep(10);
+    }
+    assertEquals(2, loads.get());
+    assertEquals(List.of(1, 2), results);
+    assertFalse(refresh.isRunning());
+  }
+
+  @Test
+  void testErrorIsGivenUnwrapped() throws InterruptedException {
+    CountDownLatch done = new CountDownLatch(1);
+    ExecutionError thrown = new ExecutionError("Load failed");
+    AtomicReference<Throwable> received = new AtomicReference<>();
+    CoalescingRefresh<String> refresh = new CoalescingRefresh<>(() -> {
+      throw thrown;
+    }, Runnable::run, loaded -> done.countDown(), error -> {
+      received.set(error);
+      done.countDown();
+    });
+
+    refresh.request();
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertSame(thrown, received.get());
+  }
+
+  @Test
+  void testErrorThrownByLoadIsGivenAndLoadsAgain() throws InterruptedException {
+    CountDownLatch failed = new CountDownLatch(1);
+    CountDownLatch loaded = new CountDownLatch(1);
+    AssertionError thrown = new AssertionError("Load failed");
+    AtomicInteger loads = new AtomicInteger();
+    AtomicReference<Throwable> received = new AtomicReference<>();
+    CoalescingRefresh<Integer> refresh = new CoalescingRefresh<>(() -> {
+      if (loads.incrementAndGet() == 1) {
+        throw thrown;
+      }
+      return loads.get();
+    }, Runnable::run, result -> loaded.countDown(), error -> {
+      received.set(error);
+      failed.countDown();
+    });
+
+    refresh.request();
+    assertTrue(failed.await(5, TimeUnit.SECONDS));
+    assertSame(thrown, received.get());
+    while (refresh.isRunning()) {
+      Thread.sleep(10);
+    }
+    refresh.request();
+    assertTrue(loaded.await(5, TimeUnit.SECONDS));
+  }
+}
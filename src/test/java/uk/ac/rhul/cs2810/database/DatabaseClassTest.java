@@ -7,12 +7,16 @@ import uk.ac.rhul.cs2810.Exceptions.ConnectionError;
 import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.LocalTime;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @Tag("Database")
 class DatabaseClassTest extends DatabaseTest {
@@ -91,4 +95,86 @@ class DatabaseClassTest extends DatabaseTest {
     MenuDB menuDB = DatabaseFactory.getTestMenu();
     assertEquals(1000, menuDB.getPollingRate());
   }
-}
\ No newline at end of file
+  
+  @Test
+  void testPooledConnectionReturnedOnClose() throws ConnectionError, ExecutionError,
+      SQLException {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    int activeBefore = menuDB.getPoolStatistics().getActive();
+    Connection connection = menuDB.getConnection();
+    assertEquals(activeBefore + 1, menuDB.getPoolStatistics().getActive());
+    connection.close();
+    assertEquals(activeBefore, menuDB.getPoolStatistics().getActive());
+    assertTrue(connection.isClosed());
+  }
+  
+  @Test
+  void testPooledConnectionReused() throws ConnectionError, ExecutionError, SQLException {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    menuDB.getMenu();
+    int idle = menuDB.getPoolStatistics().getIdle();
+    menuDB.getMenu();
+    assertEquals(idle, menuDB.getPoolStatistics().getIdle());
+  }
+  
+  @Test
+  void testStatementReturnsPooledConnection() throws ConnectionError, ExecutionError,
+      SQLException {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    Connection connection = menuDB.getConnection();
+    assertSame(connection, connection.createStatement().getConnection());
+    Database.closeConnection(connection);
+  }
+  
+  @Test
+  void testPoolSharedBetweenDatabases() throws ConnectionError, ExecutionError {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    OrderDB orderDB = DatabaseFactory.getTestOrderDB();
+    orderDB.getOrders();
+    assertEquals(menuDB.getPoolStatistics().getAcquireCount(),
+        orderDB.getPoolStatistics().getAcquireCount());
+  }
+  
+  @Test
+  void testInTransactionCommits() throws ConnectionError, ExecutionError, SQLException {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    menuDB.inTransaction(connection -> {
+      Statement st = connection.createStatement();
+      st.execute("DROP TABLE IF EXISTS transactionTest");
+      st.execute("CREATE TABLE transactionTest (id int)");
+      st.execute("INSERT INTO transactionTest VALUES (1)");
+      return null;
+    });
+    assertEquals(1, countTransactionTestRows());
+  }
+  
+  @Test
+  void testInTransactionRollsBackOnError() throws ConnectionError, ExecutionError, SQLException {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    Statement st = getStatement();
+    st.execute("DROP TABLE IF EXISTS transactionTest");
+    st.execute("CREATE TABLE transactionTest (id int PRIMARY KEY)");
+    Database.closeConnection(st.getConnection());
+    
+    assertThrows(ExecutionError.class, () -> menuDB.inTransaction(connection -> {
+      Statement insert = connection.createStatement();
+      insert.execute("INSERT INTO transactionTest VALUES (1)");
+      insert.execute("INSERT INTO transactionTest VALUES (1)");
+      return null;
+    }));
+    assertEquals(0, countTransactionTestRows());
+    Connection connection = menuDB.getConnection();
+    assertTrue(connection.getAutoCommit());
+    Database.closeConnection(connection);
+  }
+  
+  private int countTransactionTestRows() throws ConnectionError, SQLException {
+    Statement st = getStatement();
+    ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM transactionTest");
+    rs.next();
+    int rows = rs.getInt(1);
+    st.execute("DROP TABLE transactionTest");
+    Database.closeConnection(st.getConnection());
+    return rows;
+  }
+}
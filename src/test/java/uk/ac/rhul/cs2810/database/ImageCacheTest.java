@@ -0,0 +1,82 @@
+package uk.ac.rhul.cs2810.database;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.WritableImage;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ImageCacheTest {
+  private static final long IMAGE_BYTES = 10 * 10 * 4;
+
+  @Test
+  void testSizeOfIsDecodedSize() {
+    assertEquals(IMAGE_BYTES, ImageCache.sizeOf(new WritableImage(10, 10)));
+  }
+
+  @Test
+  void testGetCountsHitsAndMisses() {
+    ImageCache<Integer> cache = new ImageCache<>(IMAGE_BYTES * 4, false);
+    Image image = new WritableImage(10, 10);
+    assertNull(cache.get(1));
+    cache.put(1, image);
+    assertSame(image, cache.get(1));
+
+    ImageCacheStatistics statistics = cache.getStatistics();
+    assertEquals(1, statistics.getHits());
+    assertEquals(1, statistics.getMisses());
+    assertEquals(IMAGE_BYTES, statistics.getBytesUsed());
+  }
+
+  @Test
+  void testPeekDoesNotCountMisses() {
+    ImageCache<Integer> cache = new ImageCache<>(IMAGE_BYTES * 4, false);
+    Image image = new WritableImage(10, 10);
+    assertNull(cache.peek(1));
+    cache.put(1, image);
+    assertSame(image, cache.peek(1));
+
+    ImageCacheStatistics statistics = cache.getStatistics();
+    assertEquals(1, statistics.getHits());
+    assertEquals(0, statistics.getMisses());
+  }
+
+  @Test
+  void testEvictsLeastRecentlyUsedOverBudget() {
+    ImageCache<Integer> cache = new ImageCache<>(IMAGE_BYTES * 2, false);
+    cache.put(1, new WritableImage(10, 10));
+    cache.put(2, new WritableImage(10, 10));
+    cache.get(1); // 2 is now the least recently used
+    cache.put(3, new WritableImage(10, 10));
+
+    assertNull(cache.get(2));
+    ImageCacheStatistics statistics = cache.getStatistics();
+    assertEquals(1, statistics.getEvictions());
+    assertEquals(2, statistics.getCachedCount());
+    assertEquals(IMAGE_BYTES * 2, statistics.getBytesUsed());
+  }
+
+  @Test
+  void testSoftTierKeepsEvictedImages() {
+    ImageCache<Integer> cache = new ImageCache<>(IMAGE_BYTES, true);
+    Image first = new WritableImage(10, 10);
+    cache.put(1, first);
+    cache.put(2, new WritableImage(10, 10));
+
+    assertSame(first, cache.get(1)); // Strongly held here so can't have been cleared
+    ImageCacheStatistics statistics = cache.getStatistics();
+    assertEquals(1, statistics.getSoftHits());
+    assertEquals(2, statistics.getEvictions());
+    assertEquals(IMAGE_BYTES, statistics.getBytesUsed());
+  }
+
+  @Test
+  void testReplacingImageUpdatesBytes() {
+    ImageCache<Integer> cache = new ImageCache<>(IMAGE_BYTES * 10, false);
+    cache.put(1, new WritableImage(10, 10));
+    cache.put(1, new WritableImage(20, 10));
+    assertEquals(IMAGE_BYTES * 2, cache.getStatistics().getBytesUsed());
+  }
+}
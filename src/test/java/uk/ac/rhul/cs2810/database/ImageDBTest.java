@@ -6,16 +6,26 @@ import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import uk.ac.rhul.cs2810.Exceptions.ConnectionError;
 import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
+import uk.ac.rhul.cs2810.containers.ImageSize;
 
-
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 @Tag("ImageDB")
 class ImageDBTest extends DatabaseTest {
   
   @BeforeAll
   static void setup() {
-    tables = new String[]{"images"};
+    tables = new String[]{"images", "imageVariants"};
   }
   
   @Test
@@ -24,6 +34,76 @@ class ImageDBTest extends DatabaseTest {
     Image image = imageDB.getImage(1);
   }
   
+  @Test
+  void testGetImageCached() throws ConnectionError, ExecutionError {
+    ImageDB imageDB = DatabaseFactory.getTestImageDB();
+    Image image = imageDB.getImage(1);
+    long acquired = imageDB.getPoolStatistics().getAcquireCount();
+    long hits = imageDB.getCacheStatistics().getHits();
+    
+    assertSame(image, imageDB.getImage(1));
+    assertEquals(acquired, imageDB.getPoolStatistics().getAcquireCount());
+    assertEquals(hits + 1, imageDB.getCacheStatistics().getHits());
+  }
+  
+  @Test
+  void testGetImageReadFromDiskOnRestart() throws ConnectionError, ExecutionError {
+    DatabaseFactory.getTestImageDB().getImage(1);
+    DatabaseFactory.reset();
+    
+    ImageDB imageDB = DatabaseFactory.getTestImageDB();
+    imageDB.getImage(1);
+    assertEquals(1, imageDB.getDiskCache().getHits());
+    assertEquals(0, imageDB.getDiskCache().getMisses());
+  }
+  
+  @Test
+  void testGetImageAtSize() throws ConnectionError, ExecutionError {
+    ImageDB imageDB = DatabaseFactory.getTestImageDB();
+    Image original = imageDB.getImage(1);
+    Image thumbnail = imageDB.getImage(1, ImageSize.THUMBNAIL);
+    
+    assertTrue(Math.max(thumbnail.getWidth(), thumbnail.getHeight())
+        <= ImageSize.THUMBNAIL.getMaxEdge());
+    assertTrue(thumbnail.getWidth() <= original.getWidth());
+  }
+  
+  @Test
+  void testGetImageMakesMissingSize() throws ConnectionError, ExecutionError, SQLException {
+    ImageDB imageDB = DatabaseFactory.getTestImageDB();
+    st = getStatement();
+    st.execute("DELETE FROM imageVariants;");
+    Database.closeConnection(st.getConnection());
+    
+    imageDB.getImage(1, ImageSize.LIST);
+    st = getStatement();
+    ResultSet rs = st.executeQuery("SELECT count(*) FROM imageVariants WHERE itemID = 1;");
+    rs.next();
+    assertEquals(1, rs.getInt(1));
+    Database.closeConnection(st.getConnection());
+  }
+  
+  @Test
+  void testSetImageReplacesEverySize() throws ConnectionError, ExecutionError, IOException {
+    ImageDB imageDB = DatabaseFactory.getTestImageDB();
+    imageDB.getImage(1, ImageSize.DETAIL);
+    
+    BufferedImage replacement = new BufferedImage(300, 150, BufferedImage.TYPE_INT_RGB);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(replacement, "png", out);
+    imageDB.setImage(1, out.toByteArray());
+    
+    assertEquals(300, imageDB.getImage(1).getWidth());
+    assertEquals(300, imageDB.getImage(1, ImageSize.DETAIL).getWidth());
+    assertEquals(96, imageDB.getImage(1, ImageSize.THUMBNAIL).getWidth());
+  }
+  
+  @Test
+  void testSetImageNotAnImage() throws ConnectionError, ExecutionError {
+    ImageDB imageDB = DatabaseFactory.getTestImageDB();
+    assertThrows(ExecutionError.class, () -> imageDB.setImage(1, new byte[]{1, 2, 3}));
+  }
+  
   @Test
   void testGetImageNotFound() throws ConnectionError, ExecutionError {
     ImageDB imageDB = DatabaseFactory.getTestImageDB();
@@ -0,0 +1,103 @@
+package uk.ac.rhul.cs2810.database;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import uk.ac.rhul.cs2810.containers.ImageSize;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares decoding through a BufferedImage and copying its pixels into a JavaFX image, as
+ * ImageDB used to with SwingFXUtils, against decoding straight into JavaFX with ImageDecoder.
+ * Reports the time and bytes allocated to decode each image, at full size and at list size.
+ * Run with -Dtest=ImageDecodeBenchmark as it is not part of the normal test run.
+ */
+@Tag("Capacity")
+class ImageDecodeBenchmark {
+  private static final int[][] DIMENSIONS = {{640, 480}, {1600, 1200}, {3000, 2000}};
+  private static final int REPEATS = 20;
+
+  @Test
+  @Tag("Slow")
+  void benchmarkImageDecoding() throws IOException {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    assertTrue(threads.isThreadAllocatedMemorySupported());
+
+    System.out.println("image     | path             | ms/image | KB allocated/image");
+    for (int[] dimensions : DIMENSIONS) {
+      ByteBuffer encoded = encodePhoto(dimensions[0], dimensions[1]);
+      String name = dimensions[0] + "x" + dimensions[1];
+
+      run(threads, name, "round trip", () -> decodeRoundTrip(encoded));
+      run(threads, name, "direct", () -> ImageDecoder.decode(encoded, 0));
+      run(threads, name, "direct list size", () -> {
+        Image image = ImageDecoder.decode(encoded, ImageSize.LIST.getMaxEdge());
+        assertEquals(ImageSize.LIST.getMaxEdge(), image.getWidth());
+        return image;
+      });
+    }
+  }
+
+  private void run(com.sun.management.ThreadMXBean threads, String name, String path,
+                   Decode decode) throws IOException {
+    decode.decode(); // Warms up the decoders before timing
+    long threadID = Thread.currentThread().getId();
+    long startBytes = threads.getThreadAllocatedBytes(threadID);
+    long startTime = System.nanoTime();
+    for (int i = 0; i < REPEATS; i++) {
+      assertTrue(decode.decode().getWidth() > 0);
+    }
+    double millis = (System.nanoTime() - startTime) / 1_000_000d / REPEATS;
+    long bytes = (threads.getThreadAllocatedBytes(threadID) - startBytes) / REPEATS;
+
+    System.out.printf("%-9s | %-16s | %8.2f | %18d%n", name, path, millis, bytes / 1024);
+  }
+
+  /**
+   * Decodes the way ImageDB used to, reading a BufferedImage then copying it into JavaFX.
+   */
+  private static Image decodeRoundTrip(ByteBuffer encoded) throws IOException {
+    BufferedImage bufferedImage = ImageIO.read(ImageDiskCache.asStream(encoded));
+    int width = bufferedImage.getWidth();
+    int height = bufferedImage.getHeight();
+    int[] pixels = bufferedImage.getRGB(0, 0, width, height, null, 0, width);
+    WritableImage image = new WritableImage(width, height);
+    image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(),
+        pixels, 0, width);
+    return image;
+  }
+
+  /**
+   * Makes a jpeg with enough detail that it compresses like a photo rather than a flat colour.
+   */
+  private static ByteBuffer encodePhoto(int width, int height) throws IOException {
+    Random random = new Random(width);
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int shade = (x * 255 / width + random.nextInt(32)) & 0xFF;
+        image.setRGB(x, y, (shade << 16) | ((y * 255 / height) << 8) | random.nextInt(256));
+      }
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(image, "jpg", out);
+    return ByteBuffer.wrap(out.toByteArray());
+  }
+
+  private interface Decode {
+    Image decode() throws IOException;
+  }
+}
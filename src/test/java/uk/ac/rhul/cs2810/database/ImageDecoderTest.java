@@ -0,0 +1,57 @@
+package uk.ac.rhul.cs2810.database;
+
+import javafx.scene.image.Image;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ImageDecoderTest {
+
+  @Test
+  void testDecodeFullSize() throws IOException {
+    Image image = ImageDecoder.decode(encode(300, 200), 0);
+    assertEquals(300, image.getWidth());
+    assertEquals(200, image.getHeight());
+  }
+
+  @Test
+  void testDecodeScalesDownToFit() throws IOException {
+    Image image = ImageDecoder.decode(encode(600, 300), 240);
+    assertEquals(240, image.getWidth());
+    assertEquals(120, image.getHeight());
+  }
+
+  @Test
+  void testDecodeSmallImageNotScaledUp() throws IOException {
+    Image image = ImageDecoder.decode(encode(50, 40), 240);
+    assertEquals(50, image.getWidth());
+    assertEquals(40, image.getHeight());
+  }
+
+  @Test
+  void testDecodeNotAnImage() {
+    assertThrows(IOException.class,
+        () -> ImageDecoder.decode(ByteBuffer.wrap(new byte[]{1, 2, 3}), 0));
+  }
+
+  @Test
+  void testReadDimensionsLeavesBufferUnread() throws IOException {
+    ByteBuffer encoded = encode(70, 30);
+    assertArrayEquals(new int[]{70, 30}, ImageDecoder.readDimensions(encoded));
+    assertEquals(0, encoded.position());
+  }
+
+  private static ByteBuffer encode(int width, int height) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", out);
+    return ByteBuffer.wrap(out.toByteArray());
+  }
+}
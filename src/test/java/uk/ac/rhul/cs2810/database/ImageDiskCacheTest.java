@@ -0,0 +1,80 @@
+package uk.ac.rhul.cs2810.database;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ImageDiskCacheTest {
+  private static final byte[] IMAGE = "not really an image".getBytes(StandardCharsets.UTF_8);
+  private static final String HASH = ImageDiskCache.md5(ByteBuffer.wrap(IMAGE));
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void testMd5MatchesDatabase() {
+    // SELECT md5('abc')
+    assertEquals("900150983cd24fb0d6963f7d28e17f72",
+        ImageDiskCache.md5(ByteBuffer.wrap("abc".getBytes(StandardCharsets.UTF_8))));
+  }
+
+  @Test
+  void testWriteThenRead() throws IOException {
+    ImageDiskCache cache = new ImageDiskCache(directory);
+    cache.write("1", HASH, IMAGE);
+
+    assertEquals(HASH, cache.findHash("1"));
+    assertArrayEquals(IMAGE, ImageDiskCache.asStream(cache.read("1", HASH)).readAllBytes());
+    assertEquals(1, cache.getHits());
+  }
+
+  @Test
+  void testReadMissing() {
+    ImageDiskCache cache = new ImageDiskCache(directory.resolve("missing"));
+    assertNull(cache.findHash("1"));
+    assertNull(cache.read("1", HASH));
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  void testWriteReplacesOldVersion() {
+    ImageDiskCache cache = new ImageDiskCache(directory);
+    cache.write("1", HASH, IMAGE);
+    byte[] newImage = "a new image".getBytes(StandardCharsets.UTF_8);
+    String newHash = ImageDiskCache.md5(ByteBuffer.wrap(newImage));
+    cache.write("1", newHash, newImage);
+
+    assertEquals(newHash, cache.findHash("1"));
+    assertNull(cache.read("1", HASH));
+  }
+
+  @Test
+  void testWriteKeepsOtherItems() {
+    ImageDiskCache cache = new ImageDiskCache(directory);
+    cache.write("1", HASH, IMAGE);
+    cache.write("12", HASH, IMAGE);
+    assertEquals(HASH, cache.findHash("1"));
+    assertEquals(HASH, cache.findHash("12"));
+  }
+
+  @Test
+  void testDamagedFileIsThrownAway() throws IOException {
+    ImageDiskCache cache = new ImageDiskCache(directory);
+    cache.write("1", HASH, IMAGE);
+    Path file = directory.resolve("1-" + HASH + ".img");
+    Files.write(file, "damaged".getBytes(StandardCharsets.UTF_8));
+
+    assertNull(cache.read("1", HASH));
+    assertFalse(Files.exists(file));
+  }
+}
@@ -0,0 +1,71 @@
+package uk.ac.rhul.cs2810.database;
+
+import javafx.scene.image.Image;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import uk.ac.rhul.cs2810.Exceptions.ConnectionError;
+import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
+import uk.ac.rhul.cs2810.containers.ImageSize;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Tag("ImageDB")
+class ImagePrefetcherTest extends DatabaseTest {
+
+  @BeforeAll
+  static void setup() {
+    tables = new String[]{"images", "imageVariants"};
+  }
+
+  @Test
+  void testFetchGetsImageAtSize() throws ConnectionError, ExecutionError {
+    ImageDB imageDB = DatabaseFactory.getTestImageDB();
+    Image image = imageDB.getPrefetcher()
+        .fetch(1, ImageSize.THUMBNAIL, ImagePrefetcher.Priority.VISIBLE).join();
+
+    assertTrue(Math.max(image.getWidth(), image.getHeight())
+        <= ImageSize.THUMBNAIL.getMaxEdge());
+  }
+
+  @Test
+  void testFetchCachedImageIsDone() throws ConnectionError, ExecutionError {
+    ImageDB imageDB = DatabaseFactory.getTestImageDB();
+    Image image = imageDB.getImage(1, ImageSize.LIST);
+    CompletableFuture<Image> fetched = imageDB.getPrefetcher()
+        .fetch(1, ImageSize.LIST, ImagePrefetcher.Priority.BACKGROUND);
+
+    assertTrue(fetched.isDone());
+    assertSame(image, fetched.join());
+  }
+
+  @Test
+  void testFetchSharedWhileFetching() throws ConnectionError, ExecutionError {
+    ImageDB imageDB = DatabaseFactory.getTestImageDB();
+    ImagePrefetcher prefetcher = imageDB.getPrefetcher();
+    long misses = imageDB.getCacheStatistics().getMisses();
+    CompletableFuture<Image> first =
+        prefetcher.fetch(1, ImageSize.DETAIL, ImagePrefetcher.Priority.BACKGROUND);
+    CompletableFuture<Image> second =
+        prefetcher.fetch(1, ImageSize.DETAIL, ImagePrefetcher.Priority.VISIBLE);
+
+    assertSame(first.join(), second.join());
+    assertEquals(misses + 1, imageDB.getCacheStatistics().getMisses());
+  }
+
+  @Test
+  void testPrioritizeStillFetches() throws ConnectionError, ExecutionError {
+    ImageDB imageDB = DatabaseFactory.getTestImageDB();
+    ImagePrefetcher prefetcher = imageDB.getPrefetcher();
+    CompletableFuture<Image> fetched =
+        prefetcher.fetch(1, ImageSize.LIST, ImagePrefetcher.Priority.BACKGROUND);
+    prefetcher.prioritize(List.of(1), ImageSize.LIST);
+
+    assertTrue(fetched.join().getWidth() > 0);
+  }
+}
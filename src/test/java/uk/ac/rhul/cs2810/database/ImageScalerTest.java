@@ -0,0 +1,67 @@
+package uk.ac.rhul.cs2810.database;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.rhul.cs2810.containers.ImageSize;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageScalerTest {
+
+  @Test
+  void testScaleFitsLongestEdge() throws IOException {
+    BufferedImage scaled = read(ImageScaler.scale(encode(600, 450, false), ImageSize.THUMBNAIL));
+    assertEquals(96, scaled.getWidth());
+    assertEquals(72, scaled.getHeight());
+  }
+
+  @Test
+  void testScaleTallImage() throws IOException {
+    BufferedImage scaled = read(ImageScaler.scale(encode(300, 900, false), ImageSize.LIST));
+    assertEquals(80, scaled.getWidth());
+    assertEquals(240, scaled.getHeight());
+  }
+
+  @Test
+  void testSmallImageNotScaledUp() throws IOException {
+    byte[] original = encode(50, 40, false);
+    assertSame(original, ImageScaler.scale(original, ImageSize.THUMBNAIL));
+  }
+
+  @Test
+  void testOriginalNotScaled() throws IOException {
+    byte[] original = encode(1000, 1000, false);
+    assertSame(original, ImageScaler.scale(original, ImageSize.ORIGINAL));
+  }
+
+  @Test
+  void testScaleKeepsTransparency() throws IOException {
+    BufferedImage scaled = read(ImageScaler.scale(encode(400, 400, true), ImageSize.THUMBNAIL));
+    assertTrue(scaled.getColorModel().hasAlpha());
+  }
+
+  @Test
+  void testScaleNotAnImage() {
+    assertThrows(IOException.class, () -> ImageScaler.scale(new byte[]{1, 2, 3}, ImageSize.LIST));
+  }
+
+  private static byte[] encode(int width, int height, boolean alpha) throws IOException {
+    BufferedImage image = new BufferedImage(width, height,
+        alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", out);
+    return out.toByteArray();
+  }
+
+  private static BufferedImage read(byte[] image) throws IOException {
+    return ImageIO.read(new ByteArrayInputStream(image));
+  }
+}
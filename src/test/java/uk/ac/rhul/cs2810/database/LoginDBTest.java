@@ -147,4 +147,47 @@ class LoginDBTest extends DatabaseTest{
     testLogin = DatabaseFactory.getLoginDB();
     assertEquals(-2, testLogin.getID(LoginDB.hash(4578)));
   }
-}
\ No newline at end of file
+  
+  @Test
+  void testSessionsFollowLoginAndLogOut() throws ConnectionError, ExecutionError {
+    int id = testLogin.getID(LoginDB.hash(8149));
+    assertEquals("Chris", testLogin.getName(id));
+    assertTrue(testLogin.getLoggedInWaiters().contains(id));
+    testLogin.logOut(id);
+    assertFalse(testLogin.getLoggedInWaiters().contains(id));
+  }
+  
+  @Test
+  void testLookupsDontQueryWhileReceivingChanges()
+      throws ConnectionError, ExecutionError, InterruptedException {
+    waitForChangeFeed();
+    testLogin.getName(2); // Reads anything changed before the feed connected
+    
+    long acquired = testLogin.getPoolStatistics().getAcquireCount();
+    assertEquals("Chris", testLogin.getName(2));
+    assertEquals(3, testLogin.getAllWaiters().size());
+    testLogin.getLoggedInWaiters();
+    assertEquals(acquired, testLogin.getPoolStatistics().getAcquireCount());
+  }
+  
+  @Test
+  void testLoginFromOtherTerminalIsSeen()
+      throws ConnectionError, ExecutionError, InterruptedException, SQLException {
+    waitForChangeFeed();
+    assertFalse(testLogin.getLoggedInWaiters().contains(3));
+    
+    st.execute("UPDATE waiterlogin SET loggedIn = TRUE WHERE waiterid = 3");
+    for (int i = 0; i < 100 && !testLogin.getLoggedInWaiters().contains(3); i++) {
+      Thread.sleep(50);
+    }
+    assertTrue(testLogin.getLoggedInWaiters().contains(3));
+  }
+  
+  private void waitForChangeFeed() throws ConnectionError, ExecutionError, InterruptedException {
+    testLogin.getName(-1); // Starts the feed
+    for (int i = 0; i < 100 && !testLogin.isReceivingChanges(); i++) {
+      Thread.sleep(50);
+    }
+    assertTrue(testLogin.isReceivingChanges());
+  }
+}
@@ -4,14 +4,21 @@ import org.junit.jupiter.api.*;
 import uk.ac.rhul.cs2810.Exceptions.ConnectionError;
 import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
 import uk.ac.rhul.cs2810.Exceptions.InvalidItemException;
+import uk.ac.rhul.cs2810.Exceptions.OutOfStockException;
 import uk.ac.rhul.cs2810.containers.Item;
 import uk.ac.rhul.cs2810.containers.ItemCategory;
+import uk.ac.rhul.cs2810.containers.ItemStatistics;
 import uk.ac.rhul.cs2810.containers.Order;
+import uk.ac.rhul.cs2810.containers.QuantileSketch;
 
 import java.io.*;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
@@ -143,6 +150,118 @@ class MenuDBTest extends DatabaseTest{
     assertEquals(1, filteredMenus.size());
   }
   
+  @Test
+  void testGetFilteredMenuUnknownAllergen() throws ConnectionError, ExecutionError {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    List<Item> filteredMenus = menuDB.getFilteredMenu(new Filter(Set.of("Not an allergen"),
+        false, false, false));
+    assertEquals(2, filteredMenus.size());
+  }
+  
+  @Test
+  void testGetFilteredMenuAnsweredFromMemory() throws ConnectionError, ExecutionError {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    menuDB.getMenu();
+    long acquired = menuDB.getPoolStatistics().getAcquireCount();
+    menuDB.getFilteredMenu(new Filter(Set.of("Wheat"), true, false, false));
+    menuDB.getMenu();
+    assertEquals(acquired, menuDB.getPoolStatistics().getAcquireCount());
+  }
+  
+  @Test
+  void testGetFilteredMenuReturnsCopies() throws ConnectionError, ExecutionError {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    menuDB.getMenu().get(0).addAllergen("Changed");
+    assertFalse(menuDB.getMenu().get(0).getAllergens().contains("Changed"));
+  }
+  
+  @Test
+  void testGetFilteredMenuSeesRemovedItem() throws ConnectionError, ExecutionError {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    assertEquals(2, menuDB.getMenu().size());
+    menuDB.removeItem(2);
+    assertEquals(1, menuDB.getMenu().size());
+  }
+  
+  @Test
+  void testGetMapAnsweredFromMemory() throws ConnectionError, ExecutionError {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    menuDB.getMap();
+    long acquired = menuDB.getPoolStatistics().getAcquireCount();
+    assertEquals(2, menuDB.getMap().size());
+    menuDB.getAllergens();
+    assertEquals(acquired, menuDB.getPoolStatistics().getAcquireCount());
+  }
+  
+  @Test
+  void testGetItemsFromCategory() throws ConnectionError, ExecutionError {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    List<Item> burritos = menuDB.getItemsFromCategory(ItemCategory.BURRITOS);
+    assertEquals(1, burritos.get(0).getID());
+    for (Item burrito : burritos) {
+      assertEquals(ItemCategory.BURRITOS, burrito.getCategory());
+    }
+  }
+  
+  @Test
+  void testSnapshotSeesChangesMadeOutsideMenuDB() throws ConnectionError, ExecutionError,
+      SQLException {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    MenuSnapshot before = menuDB.getMenuSnapshot();
+    st.executeUpdate("UPDATE menu SET stock = 5 WHERE itemid = 1");
+    MenuSnapshot after = menuDB.refreshSnapshot();
+    assertNotSame(before, after);
+    assertEquals(5, after.getItem(1).getStock());
+    assertSame(after, menuDB.refreshSnapshot());
+  }
+  
+  @Test
+  void testVersionIsMadeForAnExistingMenu() throws ConnectionError, ExecutionError,
+      SQLException {
+    DatabaseFactory.getTestMenu();
+    st.execute("DROP TABLE menuVersion");
+    st.execute("DROP TRIGGER menu_catalogue_version ON menu");
+    DatabaseFactory.reset();
+    
+    MenuDB menuDB = DatabaseFactory.getTestMenu(); // Tables already exist so aren't made again
+    MenuSnapshot before = menuDB.getMenuSnapshot();
+    st.executeUpdate("UPDATE menu SET itemname = 'Renamed' WHERE itemid = 1");
+    assertEquals("Renamed", menuDB.refreshSnapshot().getItem(1).getName());
+    assertNotEquals(before.getVersion(), menuDB.refreshSnapshot().getVersion());
+  }
+  
+  @Test
+  void testStockChangesDontMoveTheVersion() throws ConnectionError, ExecutionError,
+      SQLException {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    MenuSnapshot before = menuDB.refreshSnapshot();
+    st.executeUpdate("UPDATE menu SET stock = 5 WHERE itemid = 1");
+    st.executeUpdate("UPDATE menu SET NumServed = NumServed + 1 WHERE itemid = 2");
+    
+    MenuSnapshot after = menuDB.refreshSnapshot();
+    assertEquals(before.getVersion(), after.getVersion());
+    assertEquals(5, after.getItem(1).getStock());
+    assertEquals(before.getItem(2).getStock(), after.getItem(2).getStock());
+  }
+  
+  @Test
+  void testVersionIsNotSeenBeforeTheChangeCommits() throws ConnectionError, ExecutionError,
+      SQLException {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    MenuSnapshot before = menuDB.refreshSnapshot();
+    
+    Statement writer = getStatement();
+    writer.getConnection().setAutoCommit(false);
+    try {
+      writer.executeUpdate("UPDATE menu SET stock = 5 WHERE itemid = 1");
+      assertSame(before, menuDB.refreshSnapshot());
+      writer.getConnection().commit();
+    } finally {
+      writer.getConnection().close();
+    }
+    assertEquals(5, menuDB.refreshSnapshot().getItem(1).getStock());
+  }
+  
   @Test
   @Tag("Creation")
   void testGetAllergens() throws ConnectionError, ExecutionError {
@@ -165,6 +284,74 @@ class MenuDBTest extends DatabaseTest{
     assertEquals(1, menuDB.getMenu().size());
   }
   
+  @Test
+  void testReserveStockTakesAllOfEachItem() throws ConnectionError, ExecutionError,
+      SQLException {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    st.executeUpdate("UPDATE menu SET stock = 5 WHERE itemid = 1");
+    order = new Order(1);
+    for (int i = 0; i < 3; i++) {
+      order.addItemToOrder(item);
+    }
+    menuDB.reserveStock(order);
+    assertEquals(2, menuDB.getMap().get(1).getStock());
+    ResultSet rs = st.executeQuery("SELECT stock FROM menu WHERE itemid = 1");
+    rs.next();
+    assertEquals(2, rs.getInt(1));
+  }
+  
+  @Test
+  void testReserveStockTakesNothingWhenShort() throws ConnectionError, ExecutionError,
+      SQLException {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    Item otherItem = menuDB.getMap().get(2);
+    order = new Order(1);
+    order.addItemToOrder(item);
+    order.addItemToOrder(otherItem);
+    order.addItemToOrder(otherItem);
+    
+    OutOfStockException OOSE = assertThrows(OutOfStockException.class,
+        () -> menuDB.reserveStock(order));
+    assertEquals(Map.of(2, 1), OOSE.getShortItems());
+    assertThat(OOSE.getMessage(), containsString(otherItem.getName()));
+    ResultSet rs = st.executeQuery("SELECT stock FROM menu WHERE itemid = 1");
+    rs.next();
+    assertEquals(1, rs.getInt(1));
+  }
+  
+  @Test
+  void testReserveStockConcurrently() throws Exception {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    st.executeUpdate("UPDATE menu SET stock = 20 WHERE itemid = 1");
+    Order single = new Order(1);
+    single.addItemToOrder(item);
+    
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<Boolean>> reservations = new LinkedList<>();
+    for (int i = 0; i < 40; i++) {
+      reservations.add(executor.submit(() -> {
+        try {
+          menuDB.reserveStock(single);
+          return true;
+        } catch (OutOfStockException OOSE) {
+          return false;
+        }
+      }));
+    }
+    int reserved = 0;
+    for (Future<Boolean> reservation : reservations) {
+      if (reservation.get()) {
+        reserved++;
+      }
+    }
+    executor.shutdown();
+    
+    assertEquals(20, reserved);
+    ResultSet rs = st.executeQuery("SELECT stock FROM menu WHERE itemid = 1");
+    rs.next();
+    assertEquals(0, rs.getInt(1));
+  }
+  
   @Test
   @Tag("Creation")
   void testGetItemsOutOfStock() throws ConnectionError, ExecutionError {
@@ -231,6 +418,78 @@ class MenuDBTest extends DatabaseTest{
     assertEquals(10, menuDB.getAverageTimeToCook(1));
   }
   
+  @Test
+  void testAverageTimeToCookPastAnHour() throws ConnectionError, ExecutionError {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    menuDB.addOrderToData(order, 75);
+    assertEquals(75, menuDB.getAverageTimeToCook(1));
+  }
+  
+  @Test
+  void testGetPrepTimesPercentiles() throws ConnectionError, ExecutionError {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    for (int i = 0; i < 9; i++) {
+      menuDB.addOrderToData(order, 5);
+    }
+    menuDB.addOrderToData(order, 40);
+    
+    QuantileSketch prepTimes = menuDB.getPrepTimes(1);
+    assertEquals(10, prepTimes.getCount());
+    assertEquals(5, prepTimes.getP50(), 5 * QuantileSketch.RELATIVE_ACCURACY);
+    assertEquals(40, prepTimes.getP99(), 40 * QuantileSketch.RELATIVE_ACCURACY);
+    assertEquals(0, menuDB.getPrepTimes(2).getCount());
+  }
+  
+  @Test
+  void testPrepTimesAddedToAnExistingMenu() throws ConnectionError, ExecutionError,
+      SQLException {
+    DatabaseFactory.getTestMenu();
+    st.execute("ALTER TABLE menu DROP COLUMN PrepTimes"); // As menus were before the sketch
+    DatabaseFactory.reset();
+    
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    menuDB.addOrderToData(order, 5);
+    assertEquals(1, menuDB.getPrepTimes(1).getCount());
+    assertEquals(1, menuDB.getItemStatistics().get(0).getPrepTimes().getCount());
+  }
+  
+  @Test
+  void testAddOrderToDataSplitsTimeBetweenItems() throws ConnectionError, ExecutionError {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    Order twoItems = new Order(1);
+    twoItems.addItemToOrder(item);
+    twoItems.addItemToOrder(item);
+    menuDB.addOrderToData(twoItems, 12);
+    
+    assertEquals(6, menuDB.getAverageTimeToCook(1));
+    assertEquals(2, menuDB.getPrepTimes(1).getCount());
+    assertEquals(2, menuDB.getItemStatistics().get(0).getPrepTimes().getCount());
+  }
+  
+  @Test
+  void testGetItemStatisticsMatchesMenu() throws ConnectionError, ExecutionError {
+    MenuDB menuDB = DatabaseFactory.getTestMenu();
+    menuDB.addOrderToData(order, 10);
+    menuDB.addOrderToData(order, 5);
+    
+    List<ItemStatistics> statistics = menuDB.getItemStatistics();
+    Map<Integer, Item> menu = menuDB.getMap();
+    assertEquals(menu.size(), statistics.size());
+    for (ItemStatistics itemStatistics : statistics) {
+      Item menuItem = menu.get(itemStatistics.getItemID());
+      assertEquals(menuItem.getName(), itemStatistics.getName());
+      assertEquals(menuItem.getPrice(), itemStatistics.getPrice());
+      assertEquals(menuItem.getStock(), itemStatistics.getStock());
+    }
+    
+    ItemStatistics first = statistics.get(0);
+    assertEquals(1, first.getItemID());
+    assertEquals(2, first.getNumServed());
+    assertEquals(15, first.getTotalTimeToCook(), 0.001);
+    assertEquals(7.5f, first.getAverageTimeToCook());
+    assertEquals(0f, statistics.get(1).getAverageTimeToCook());
+  }
+  
   @Test
   void modifyItemWithImages() throws ConnectionError, ExecutionError, InvalidItemException {
     MenuDB menuDB = DatabaseFactory.getTestMenu();
@@ -8,16 +8,28 @@ import uk.ac.rhul.cs2810.Exceptions.*;
 import uk.ac.rhul.cs2810.containers.Item;
 import uk.ac.rhul.cs2810.containers.ItemCategory;
 import uk.ac.rhul.cs2810.containers.Order;
+import uk.ac.rhul.cs2810.containers.OrderChange;
+import uk.ac.rhul.cs2810.containers.OrderDelta;
 import uk.ac.rhul.cs2810.containers.OrderState;
+import uk.ac.rhul.cs2810.containers.WaiterDashboard;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.Duration;
 import java.time.LocalTime;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
-import static java.lang.Math.abs;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 import static org.junit.jupiter.api.Assertions.*;
@@ -27,7 +39,7 @@ public class OrderDBTest extends DatabaseTest {
   
   @BeforeAll
   static void generateTables() {
-    tables = new String[]{"orders", "itemsInOrder"};
+    tables = new String[]{"orders", "itemsInOrder", "deletedOrders"};
   }
   
   @BeforeEach
@@ -80,6 +92,44 @@ public class OrderDBTest extends DatabaseTest {
     });
   }
   
+  @Test
+  void testAddOrderWithUnknownItemAddsNothing() throws ConnectionError, ExecutionError, SQLException {
+    Order badOrder = new Order(1);
+    badOrder.addItemToOrder(item);
+    badOrder.addItemToOrder(new Item(9999, "ghost", "not on the menu", 2, 30,
+        ItemCategory.BURRITOS, false, false, false, 10, 1));
+    assertThrows(ExecutionError.class, () -> orderDB.addOrder(badOrder));
+    
+    Statement st = getStatement();
+    ResultSet rs = st.executeQuery("SELECT (SELECT COUNT(*) FROM orders), "
+        + "(SELECT COUNT(*) FROM itemsinorder)");
+    rs.next();
+    assertEquals(0, rs.getInt(1));
+    assertEquals(0, rs.getInt(2));
+    Database.closeConnection(st.getConnection());
+    assertEquals(0, orderDB.getOrders().size());
+  }
+  
+  @Test
+  void testAddOrderStoresStateWithOrder() throws ConnectionError, ExecutionError,
+      MissingDataError, OrderAlreadyExistsException, OrderNotFoundException {
+    order.setState(OrderState.CONFIRMED);
+    orderDB.addOrder(order);
+    assertEquals(OrderState.CONFIRMED, orderDB.getOrderState(order));
+    assertEquals(OrderState.CONFIRMED, orderDB.getOrderFromID(order.getID()).getState());
+  }
+  
+  @Test
+  void testLoadingOrderDoesNotQueryMenu() throws ConnectionError, ExecutionError,
+      MissingDataError, OrderAlreadyExistsException {
+    orderDB.addOrder(order);
+    DatabaseFactory.getTestMenu().getMenu();
+    long acquired = orderDB.getPoolStatistics().getAcquireCount();
+    assertEquals(item.getID(), orderDB.getOrderFromID(order.getID()).getItemsInOrder().get(0)
+        .getID());
+    assertEquals(acquired + 1, orderDB.getPoolStatistics().getAcquireCount());
+  }
+  
   //2 connection excess
   @Test
   void testGetOrders() throws ConnectionError, ExecutionError, MissingDataError, OrderAlreadyExistsException {
@@ -454,9 +504,7 @@ public class OrderDBTest extends DatabaseTest {
     orderDB.addOrder(order);
     Order oldOrder = orderDB.getOrderFromID(order.getID());
     orderDB.setOrderState(order, OrderState.SERVED);
-    int millis = (int) abs(Duration.between(oldOrder.getTimeStatusChanged(),
-        order.getTimeStatusChanged()).toMillis());
-    assertThat(millis, greaterThan(10));
+    assertTrue(order.getTimeStatusChanged().isAfter(oldOrder.getTimeStatusChanged()));
   }
   
   @Test
@@ -601,11 +649,29 @@ public class OrderDBTest extends DatabaseTest {
     orderDB.addOrder(order);
     orderDB.confirmOrder(order);
     order.setID(idA);
-    try {
-      orderDB.confirmOrder(order);
-    } catch (ExecutionError EE) {
-      testExecutionError(EE, "out of stock");
-    }
+    OutOfStockException OOSE = assertThrows(OutOfStockException.class,
+        () -> orderDB.confirmOrder(order));
+    assertThat(OOSE.getMessage(), containsString("out of stock"));
+    assertEquals(Map.of(item.getID(), 1), OOSE.getShortItems());
+    assertEquals(OrderState.UNCONFIRMED, orderDB.getOrderState(order));
+  }
+  
+  @Test
+  void testConfirmOrderTwiceOnlyTakesStockOnce()
+      throws ConnectionError, MissingDataError, ExecutionError,
+      OrderAlreadyExistsException, OrderNotFoundException, SQLException {
+    orderDB.addOrder(order);
+    orderDB.confirmOrder(order);
+    ResultSet rs = st.executeQuery("SELECT stock FROM menu WHERE itemid = " + item.getID());
+    rs.next();
+    int stock = rs.getInt(1);
+    
+    ExecutionError EE = assertThrows(ExecutionError.class, () -> orderDB.confirmOrder(order));
+    assertFalse(EE instanceof OutOfStockException);
+    rs = st.executeQuery("SELECT stock FROM menu WHERE itemid = " + item.getID());
+    rs.next();
+    assertEquals(stock, rs.getInt(1));
+    assertEquals(OrderState.CONFIRMED, orderDB.getOrderState(order));
   }
   
   @Test
@@ -643,5 +709,376 @@ public class OrderDBTest extends DatabaseTest {
     assertEquals(2,
         orderDB.getOrdersAssignedToWaiterFromState(OrderState.CONFIRMED, 0).size());
   }
+  
+  @Test
+  void testGetOrdersKeepsItemsWithTheirOrder()
+      throws ConnectionError, MissingDataError, ExecutionError, OrderAlreadyExistsException {
+    Item newItem = new Item(2, "a", "a", 1, 1,
+        ItemCategory.BURRITOS, false, false, false, 10, 0);
+    order.addItemToOrder(item);
+    order.addItemToOrder(newItem);
+    orderDB.addOrder(order);
+    
+    Order orderB = new Order(2);
+    orderB.addItemToOrder(newItem);
+    orderDB.addOrder(orderB);
+    
+    List<Order> fetchedOrders = orderDB.getOrders();
+    assertEquals(2, fetchedOrders.size());
+    assertEquals(3, orderDB.getOrderFromID(order.getID()).getItemsInOrder().size());
+    assertEquals(1, orderDB.getOrderFromID(orderB.getID()).getItemsInOrder().size());
+    assertEquals(orderB.getID(), orderDB.getOrdersFromTable(2).get(0).getID());
+  }
+  
+  @Test
+  void testChangeListenerToldOfNewOrder()
+      throws ConnectionError, MissingDataError, ExecutionError, OrderAlreadyExistsException,
+      InterruptedException {
+    BlockingQueue<OrderChange> changes = listenForChanges();
+    orderDB.addOrder(order);
+    
+    OrderChange change = waitForChange(changes, order.getID());
+    assertEquals(OrderChange.Type.ADDED, change.getType());
+    assertEquals(order.getID(), change.getOrder().getID());
+  }
+  
+  @Test
+  void testChangeListenerToldOfStateChange()
+      throws ConnectionError, MissingDataError, ExecutionError, OrderAlreadyExistsException,
+      OrderNotFoundException, InterruptedException {
+    orderDB.addOrder(order);
+    BlockingQueue<OrderChange> changes = listenForChanges();
+    orderDB.setOrderState(order, OrderState.READY);
+    
+    OrderChange change = waitForChange(changes, order.getID());
+    assertEquals(OrderChange.Type.UPDATED, change.getType());
+    assertEquals(OrderState.READY, change.getOrder().getState());
+  }
+  
+  @Test
+  void testChangeListenerToldOfRemovedOrder()
+      throws ConnectionError, MissingDataError, ExecutionError, OrderAlreadyExistsException,
+      InterruptedException {
+    orderDB.addOrder(order);
+    BlockingQueue<OrderChange> changes = listenForChanges();
+    orderDB.removeOrder(order);
+    
+    OrderChange change = waitForChange(changes, order.getID());
+    assertEquals(OrderChange.Type.REMOVED, change.getType());
+    assertNull(change.getOrder());
+  }
+  
+  @Test
+  void testRemovedChangeListenerStopsFeed() throws InterruptedException {
+    BlockingQueue<OrderChange> changes = new LinkedBlockingQueue<>();
+    OrderChangeListener listener = changes::add;
+    orderDB.addOrderChangeListener(listener);
+    orderDB.removeOrderChangeListener(listener);
+    assertFalse(orderDB.isReceivingChanges());
+  }
+  
+  private BlockingQueue<OrderChange> listenForChanges() throws InterruptedException {
+    BlockingQueue<OrderChange> changes = new LinkedBlockingQueue<>();
+    orderDB.addOrderChangeListener(changes::add);
+    for (int i = 0; i < 100 && !orderDB.isReceivingChanges(); i++) {
+      Thread.sleep(50);
+    }
+    assertTrue(orderDB.isReceivingChanges());
+    return changes;
+  }
+  
+  private OrderChange waitForChange(BlockingQueue<OrderChange> changes, int orderID)
+      throws InterruptedException {
+    OrderChange change = changes.poll(5, TimeUnit.SECONDS);
+    while (change != null && change.getOrderID() != orderID) {
+      change = changes.poll(5, TimeUnit.SECONDS);
+    }
+    assertNotNull(change);
+    return change;
+  }
+  
+  @Test
+  void testGetOrdersChangedSinceStart()
+      throws ConnectionError, MissingDataError, ExecutionError, OrderAlreadyExistsException {
+    orderDB.addOrder(order);
+    OrderDelta delta = orderDB.getOrdersChangedSince(0);
+    assertEquals(1, delta.getChangedOrders().size());
+    assertEquals(order.getID(), delta.getChangedOrders().get(0).getID());
+    assertTrue(delta.getRemovedOrderIDs().isEmpty());
+    assertEquals(orderDB.getCurrentVersion(), delta.getVersion());
+  }
+  
+  @Test
+  void testGetOrdersChangedSinceNoChanges()
+      throws ConnectionError, MissingDataError, ExecutionError, OrderAlreadyExistsException {
+    orderDB.addOrder(order);
+    long version = orderDB.getOrdersChangedSince(0).getVersion();
+    OrderDelta delta = orderDB.getOrdersChangedSince(version);
+    assertTrue(delta.isEmpty());
+    assertEquals(version, delta.getVersion());
+  }
+  
+  @Test
+  void testGetOrdersChangedSinceOnlyReturnsChanged()
+      throws ConnectionError, MissingDataError, ExecutionError, OrderAlreadyExistsException,
+      OrderNotFoundException {
+    orderDB.addOrder(order);
+    Order orderB = new Order(2);
+    orderB.addItemToOrder(item);
+    orderDB.addOrder(orderB);
+    long version = orderDB.getCurrentVersion();
+    
+    orderDB.setOrderState(orderB, OrderState.READY);
+    OrderDelta delta = orderDB.getOrdersChangedSince(version);
+    assertEquals(1, delta.getChangedOrders().size());
+    assertEquals(OrderState.READY, delta.getChangedOrders().get(0).getState());
+    assertThat(delta.getVersion(), greaterThan(version));
+  }
+  
+  @Test
+  void testGetOrdersChangedSinceItemsChanged()
+      throws ConnectionError, MissingDataError, ExecutionError, OrderAlreadyExistsException,
+      OrderNotFoundException {
+    orderDB.addOrder(order);
+    long version = orderDB.getCurrentVersion();
+    
+    order.addItemToOrder(item);
+    orderDB.modifyOrder(order);
+    OrderDelta delta = orderDB.getOrdersChangedSince(version);
+    assertEquals(1, delta.getChangedOrders().size());
+    assertEquals(2, delta.getChangedOrders().get(0).getItemsInOrder().size());
+  }
+  
+  @Test
+  void testGetOrdersChangedSinceRemoved()
+      throws ConnectionError, MissingDataError, ExecutionError, OrderAlreadyExistsException {
+    orderDB.addOrder(order);
+    long version = orderDB.getCurrentVersion();
+    
+    orderDB.removeOrder(order);
+    OrderDelta delta = orderDB.getOrdersChangedSince(version);
+    assertTrue(delta.getChangedOrders().isEmpty());
+    assertEquals(List.of(order.getID()), delta.getRemovedOrderIDs());
+  }
+  
+  @Test
+  void testGetOrdersChangedSinceClearedThenAddedAgain()
+      throws ConnectionError, MissingDataError, ExecutionError, OrderAlreadyExistsException {
+    orderDB.addOrder(order);
+    long version = orderDB.getCurrentVersion();
+    
+    orderDB.clearOrders();
+    orderDB.addOrder(order);
+    OrderDelta delta = orderDB.getOrdersChangedSince(version);
+    assertEquals(1, delta.getChangedOrders().size());
+    assertTrue(delta.getRemovedOrderIDs().isEmpty());
+  }
+  
+  @Test
+  void testGetOrdersChangedSinceSeesChangesCommittedOutOfOrder()
+      throws ConnectionError, MissingDataError, ExecutionError, OrderAlreadyExistsException,
+      SQLException {
+    orderDB.addOrder(order);
+    Order orderB = new Order(2);
+    orderB.addItemToOrder(item);
+    orderDB.addOrder(orderB);
+    OrderDelta start = orderDB.getOrdersChangedSince(0);
+    
+    Statement first = getStatement();
+    Statement second = getStatement();
+    try {
+      first.getConnection().setAutoCommit(false);
+      second.getConnection().setAutoCommit(false);
+      // The first writer takes the lower version but commits last
+      first.executeUpdate("UPDATE orders SET status = 'redy' WHERE orderID = " + order.getID());
+      second.executeUpdate("UPDATE orders SET status = 'conf' WHERE orderID = " + orderB.getID());
+      second.getConnection().commit();
+      
+      OrderDelta before = orderDB.getOrdersChangedSince(start.getVersion(), start.getHorizon());
+      assertEquals(List.of(orderB.getID()), getIDs(before.getChangedOrders()));
+      assertTrue(before.hasUnfinishedChanges());
+      first.getConnection().commit();
+      
+      OrderDelta after = orderDB.getOrdersChangedSince(before.getVersion(), before.getHorizon());
+      assertEquals(before.getVersion(), after.getVersion());
+      assertTrue(getIDs(after.getChangedOrders()).contains(order.getID()));
+    } finally {
+      first.getConnection().close();
+      second.getConnection().close();
+    }
+  }
+  
+  @Test
+  void testWaiterDashboardSeesChangesCommittedOutOfOrder()
+      throws ConnectionError, MissingDataError, ExecutionError, OrderAlreadyExistsException,
+      SQLException {
+    DatabaseFactory.getTestTableDB();
+    orderDB.addOrder(order);
+    Order orderB = new Order(2);
+    orderB.addItemToOrder(item);
+    orderDB.addOrder(orderB);
+    orderDB.getWaiterDashboard(0);
+    
+    Statement first = getStatement();
+    Statement second = getStatement();
+    try {
+      first.getConnection().setAutoCommit(false);
+      second.getConnection().setAutoCommit(false);
+      first.executeUpdate("UPDATE orders SET status = 'redy' WHERE orderID = " + order.getID());
+      second.executeUpdate("UPDATE orders SET status = 'conf' WHERE orderID = " + orderB.getID());
+      second.getConnection().commit();
+      assertEquals(List.of(orderB.getID()),
+          getIDs(orderDB.getWaiterDashboard(0).getOrders(OrderState.CONFIRMED)));
+      first.getConnection().commit();
+    } finally {
+      first.getConnection().close();
+      second.getConnection().close();
+    }
+    
+    // The version hasn't moved on, but the store still has to pick up the first change
+    assertEquals(List.of(order.getID()),
+        getIDs(orderDB.getWaiterDashboard(0).getOrders(OrderState.READY)));
+    assertEquals(List.of(order.getID()),
+        getIDs(orderDB.getOrdersAssignedToWaiterFromState(OrderState.READY, 0)));
+  }
+  
+  @Test
+  void testStoredOrdersReturnedAsCopies()
+      throws ConnectionError, MissingDataError, ExecutionError, OrderAlreadyExistsException {
+    orderDB.addOrder(order);
+    Order fetched = orderDB.getOrdersAssignedToWaiterFromState(OrderState.UNCONFIRMED, 0).get(0);
+    fetched.setState(OrderState.READY);
+    fetched.addItemToOrder(item);
+    
+    Order fetchedAgain =
+        orderDB.getOrdersAssignedToWaiterFromState(OrderState.UNCONFIRMED, 0).get(0);
+    assertEquals(OrderState.UNCONFIRMED, fetchedAgain.getState());
+    assertEquals(1, fetchedAgain.getItemCount());
+  }
+  
+  @Test
+  void testStateQuerySeesChangesMadeOutsideOrderDB()
+      throws ConnectionError, MissingDataError, ExecutionError, OrderAlreadyExistsException,
+      SQLException {
+    orderDB.addOrder(order);
+    assertEquals(1, orderDB.getOrdersAssignedToWaiterFromState(OrderState.UNCONFIRMED, 0).size());
+    
+    Statement st = getStatement();
+    st.execute("UPDATE orders SET status = 'redy' WHERE orderid = " + order.getID());
+    Database.closeConnection(st.getConnection());
+    
+    assertEquals(0, orderDB.getOrdersAssignedToWaiterFromState(OrderState.UNCONFIRMED, 0).size());
+    assertEquals(1, orderDB.getOrdersAssignedToWaiterFromState(OrderState.READY, 0).size());
+  }
+  
+  @Test
+  void testStateQueryAnsweredFromMemoryWhenReceivingChanges()
+      throws ConnectionError, MissingDataError, ExecutionError, OrderAlreadyExistsException,
+      OrderNotFoundException, InterruptedException {
+    orderDB.addOrder(order);
+    BlockingQueue<OrderChange> changes = listenForChanges();
+    orderDB.setOrderState(order, OrderState.READY);
+    waitForChange(changes, order.getID());
+    orderDB.getOrdersAssignedToWaiterFromState(OrderState.READY, 0); // Catches up once
+    
+    long acquired = orderDB.getPoolStatistics().getAcquireCount();
+    assertEquals(1, orderDB.getOrdersAssignedToWaiterFromState(OrderState.READY, 0).size());
+    assertEquals(0, orderDB.getOrdersAssignedToWaiterFromState(OrderState.UNCONFIRMED, 0).size());
+    assertEquals(acquired, orderDB.getPoolStatistics().getAcquireCount());
+  }
+  
+  @Test
+  void testGeneratedIDAfterChosenID()
+      throws ConnectionError, MissingDataError, ExecutionError, OrderAlreadyExistsException {
+    order.setID(50);
+    orderDB.addOrder(order);
+    
+    Order newOrder = new Order(1);
+    newOrder.addItemToOrder(item);
+    orderDB.addOrder(newOrder);
+    assertThat(newOrder.getID(), greaterThan(50));
+  }
+  
+  @Test
+  void testConcurrentAddOrdersGetUniqueIDs() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<Integer>> ids = new LinkedList<>();
+    for (int i = 0; i < 40; i++) {
+      ids.add(executor.submit(() -> {
+        Order newOrder = new Order(1 + (int) (Math.random() * 12));
+        newOrder.addItemToOrder(item);
+        try {
+          orderDB.addOrder(newOrder);
+        } catch (OrderAlreadyExistsException OAEE) {
+          return -1;
+        }
+        return newOrder.getID();
+      }));
+    }
+    
+    Set<Integer> uniqueIDs = new HashSet<>();
+    for (Future<Integer> id : ids) {
+      uniqueIDs.add(id.get());
+    }
+    executor.shutdown();
+    assertEquals(40, uniqueIDs.size());
+    assertEquals(40, orderDB.getOrders().size());
+  }
+  
+  @Test
+  void testGetWaiterDashboardGroupsOrdersByState()
+      throws ConnectionError, MissingDataError, ExecutionError, OrderAlreadyExistsException,
+      OrderNotFoundException {
+    LoginDB loginDB = DatabaseFactory.getTestLoginDB();
+    int ID = loginDB.getID(LoginDB.hash(8149));
+    tableDB = DatabaseFactory.getTestTableDB();
+    tableDB.assignTable(1);
+    
+    orderDB.addOrder(order);
+    Order confirmed = new Order(1);
+    confirmed.addItemToOrder(item);
+    orderDB.addOrder(confirmed);
+    orderDB.setOrderState(confirmed, OrderState.CONFIRMED);
+    
+    WaiterDashboard dashboard = orderDB.getWaiterDashboard(ID);
+    assertEquals(List.of(order.getID()), getIDs(dashboard.getOrders(OrderState.UNCONFIRMED)));
+    assertEquals(List.of(confirmed.getID()), getIDs(dashboard.getOrders(OrderState.CONFIRMED)));
+    assertTrue(dashboard.getOrders(OrderState.READY).isEmpty());
+  }
+  
+  @Test
+  void testGetWaiterDashboardIncludesNeededTables() throws ConnectionError, ExecutionError {
+    LoginDB loginDB = DatabaseFactory.getTestLoginDB();
+    int ID = loginDB.getID(LoginDB.hash(8149));
+    tableDB = DatabaseFactory.getTestTableDB();
+    tableDB.assignTable(1);
+    
+    tableDB.setWaiterAlerted(1, true);
+    try {
+      assertEquals(tableDB.getNeededTables(ID), orderDB.getWaiterDashboard(ID).getNeededTables());
+      assertTrue(orderDB.getWaiterDashboard(ID).getNeededTables().contains(1));
+    } finally {
+      tableDB.setWaiterAlerted(1, false);
+    }
+  }
+  
+  @Test
+  void testGetWaiterDashboardUsesOneQueryWhenUnchanged()
+      throws ConnectionError, MissingDataError, ExecutionError, OrderAlreadyExistsException {
+    orderDB.addOrder(order);
+    orderDB.getWaiterDashboard(0);
+    
+    long acquired = orderDB.getPoolStatistics().getAcquireCount();
+    WaiterDashboard dashboard = orderDB.getWaiterDashboard(0);
+    assertEquals(acquired + 1, orderDB.getPoolStatistics().getAcquireCount());
+    assertEquals(1, dashboard.getOrders(OrderState.UNCONFIRMED).size());
+  }
+  
+  private static List<Integer> getIDs(List<Order> orders) {
+    List<Integer> ids = new LinkedList<>();
+    for (Order found : orders) {
+      ids.add(found.getID());
+    }
+    return ids;
+  }
 }
-
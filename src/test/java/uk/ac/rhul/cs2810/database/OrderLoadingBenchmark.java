@@ -0,0 +1,103 @@
+package uk.ac.rhul.cs2810.database;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import uk.ac.rhul.cs2810.Exceptions.ConnectionError;
+import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
+import uk.ac.rhul.cs2810.containers.Order;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares loading orders with one query per order against the single joined query used by
+ * OrderDB. Run with -Dtest=OrderLoadingBenchmark as it is not part of the normal test run.
+ */
+@Tag("Capacity")
+class OrderLoadingBenchmark extends DatabaseTest {
+  private static final int[] ORDER_COUNTS = {10, 50, 100, 500, 1000};
+  private static final int REPEATS = 20;
+
+  @BeforeAll
+  static void setUp() {
+    tables = new String[]{"orders", "itemsInOrder"};
+  }
+
+  @Test
+  @Tag("Slow")
+  void benchmarkOrderLoading() throws ConnectionError, ExecutionError, SQLException {
+    OrderDB orderDB = DatabaseFactory.getTestOrderDB();
+    DatabaseFactory.getTestTableDB();
+
+    System.out.println("orders | per order trips | per order ms | joined trips | joined ms");
+    for (int orderCount : ORDER_COUNTS) {
+      fillOrders(orderCount);
+
+      // Warms up both paths before timing
+      assertEquals(orderCount, loadOneQueryPerOrder(orderDB));
+      assertEquals(orderCount, orderDB.getOrders().size());
+
+      int perOrderTrips = 0;
+      long startTime = System.nanoTime();
+      for (int i = 0; i < REPEATS; i++) {
+        perOrderTrips = 1 + loadOneQueryPerOrder(orderDB);
+      }
+      double perOrderMillis = (System.nanoTime() - startTime) / 1_000_000d / REPEATS;
+
+      startTime = System.nanoTime();
+      for (int i = 0; i < REPEATS; i++) {
+        List<Order> orders = orderDB.getOrders();
+        assertEquals(orderCount, orders.size());
+      }
+      double joinedMillis = (System.nanoTime() - startTime) / 1_000_000d / REPEATS;
+
+      System.out.printf("%6d | %15d | %12.2f | %12d | %9.2f%n", orderCount, perOrderTrips,
+          perOrderMillis, 1, joinedMillis);
+    }
+  }
+
+  private void fillOrders(int orderCount) throws ConnectionError, SQLException {
+    Statement st = getStatement();
+    st.execute("TRUNCATE orders, itemsinorder");
+    st.execute("INSERT INTO orders SELECT g, 1 + g % 12, localtime, 'conf', localtime "
+        + "FROM generate_series(1, " + orderCount + ") g");
+    st.execute("INSERT INTO itemsinorder SELECT g, 1, 1 + g % 3 "
+        + "FROM generate_series(1, " + orderCount + ") g");
+    Database.closeConnection(st.getConnection());
+  }
+
+  /**
+   * Loads the orders the way OrderDB used to, fetching the items of each order separately.
+   *
+   * @return the number of orders loaded, which is also the number of item queries made
+   */
+  private int loadOneQueryPerOrder(OrderDB orderDB) throws ConnectionError, SQLException {
+    Connection connection = orderDB.getConnection();
+    int orders = 0;
+    try {
+      ResultSet orderResult = connection.createStatement()
+          .executeQuery("SELECT * FROM orders ORDER BY timeadded");
+      PreparedStatement ps = connection
+          .prepareStatement("SELECT itemid, numinorder FROM itemsinorder WHERE orderid = ?");
+      while (orderResult.next()) {
+        ps.setInt(1, orderResult.getInt(1));
+        ResultSet itemResult = ps.executeQuery();
+        while (itemResult.next()) {
+          itemResult.getInt(2);
+        }
+        itemResult.close();
+        orders++;
+      }
+    } finally {
+      Database.closeConnection(connection);
+    }
+    return orders;
+  }
+}
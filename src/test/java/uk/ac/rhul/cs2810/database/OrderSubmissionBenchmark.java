@@ -0,0 +1,159 @@
+package uk.ac.rhul.cs2810.database;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import uk.ac.rhul.cs2810.Exceptions.ConnectionError;
+import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
+import uk.ac.rhul.cs2810.Exceptions.MissingDataError;
+import uk.ac.rhul.cs2810.Exceptions.OrderAlreadyExistsException;
+import uk.ac.rhul.cs2810.containers.Order;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Types;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares submitting orders with a statement per step against the single transaction used by
+ * OrderDB.addOrder, with several threads submitting at once.
+ * Run with -Dtest=OrderSubmissionBenchmark as it is not part of the normal test run.
+ */
+@Tag("Capacity")
+class OrderSubmissionBenchmark extends DatabaseTest {
+  private static final int[] THREAD_COUNTS = {1, 4, 8};
+  private static final int ORDERS_PER_THREAD = 100;
+
+  @BeforeAll
+  static void setUp() {
+    tables = new String[]{"orders", "itemsInOrder", "deletedOrders"};
+  }
+
+  @Test
+  @Tag("Slow")
+  void benchmarkOrderSubmission() throws Exception {
+    OrderDB orderDB = DatabaseFactory.getTestOrderDB();
+
+    System.out.println("threads | path          | orders/s | p50 ms | p95 ms");
+    for (int threads : THREAD_COUNTS) {
+      run(threads, "per statement", () -> submitPerStatement(orderDB));
+      run(threads, "transaction", () -> {
+        submitInTransaction(orderDB);
+        return null;
+      });
+    }
+  }
+
+  private void run(int threads, String path, Callable<Void> submit) throws Exception {
+    clearOrders();
+    submit.call(); // Warms up the path before timing
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<List<Long>>> results = new ArrayList<>();
+    long startTime = System.nanoTime();
+    for (int t = 0; t < threads; t++) {
+      results.add(executor.submit(() -> {
+        List<Long> latencies = new ArrayList<>();
+        for (int i = 0; i < ORDERS_PER_THREAD; i++) {
+          long orderStart = System.nanoTime();
+          submit.call();
+          latencies.add(System.nanoTime() - orderStart);
+        }
+        return latencies;
+      }));
+    }
+    List<Long> latencies = new ArrayList<>();
+    for (Future<List<Long>> result : results) {
+      latencies.addAll(result.get());
+    }
+    double seconds = (System.nanoTime() - startTime) / 1_000_000_000d;
+    executor.shutdown();
+
+    assertEquals(threads * ORDERS_PER_THREAD, latencies.size());
+    Collections.sort(latencies);
+    System.out.printf("%7d | %-13s | %8.0f | %6.2f | %6.2f%n", threads, path,
+        latencies.size() / seconds, percentile(latencies, 0.5), percentile(latencies, 0.95));
+  }
+
+  private static double percentile(List<Long> sorted, double percentile) {
+    return sorted.get((int) Math.ceil(percentile * sorted.size()) - 1) / 1_000_000d;
+  }
+
+  private void clearOrders() throws ConnectionError, SQLException {
+    Statement st = getStatement();
+    st.execute("DELETE FROM itemsinorder");
+    st.execute("DELETE FROM orders");
+    Database.closeConnection(st.getConnection());
+  }
+
+  private static void submitInTransaction(OrderDB orderDB)
+      throws ConnectionError, ExecutionError, MissingDataError {
+    Order newOrder = new Order(1);
+    newOrder.addItemToOrder(item);
+    try {
+      orderDB.addOrder(newOrder);
+    } catch (OrderAlreadyExistsException OAEE) {
+      throw new ExecutionError("Generated order ID already used");
+    }
+  }
+
+  /**
+   * Submits an order the way OrderDB used to, inserting the order, then its items, then reading
+   * it back and setting its state, each on its own round trip with auto commit on.
+   */
+  private static Void submitPerStatement(OrderDB orderDB) throws ConnectionError, SQLException {
+    Connection connection = orderDB.getConnection();
+    int id;
+    try {
+      PreparedStatement intoOrder = connection.prepareStatement("INSERT INTO orders "
+          + "(orderID, tableID, timeAdded) VALUES (?, ?, ?) RETURNING orderID");
+      intoOrder.setNull(1, Types.INTEGER);
+      intoOrder.setInt(2, 1);
+      intoOrder.setTime(3, Time.valueOf(LocalTime.now()));
+      ResultSet rs = intoOrder.executeQuery();
+      rs.next();
+      id = rs.getInt(1);
+
+      PreparedStatement intoItems =
+          connection.prepareStatement("INSERT INTO itemsInOrder VALUES (?, ?, ?)");
+      intoItems.setInt(1, id);
+      intoItems.setInt(2, item.getID());
+      intoItems.setInt(3, 1);
+      intoItems.addBatch();
+      intoItems.executeBatch();
+    } finally {
+      Database.closeConnection(connection);
+    }
+
+    // The old path then looked the order up and set its state with another connection
+    connection = orderDB.getConnection();
+    try {
+      PreparedStatement find =
+          connection.prepareStatement("SELECT * FROM orders WHERE orderid = ?");
+      find.setInt(1, id);
+      find.executeQuery().close();
+      PreparedStatement setState = connection.prepareStatement(
+          "UPDATE orders SET status = ?, timeStatusChanged = ? WHERE orderid = ?");
+      setState.setString(1, "ucnf");
+      setState.setTime(2, Time.valueOf(LocalTime.now()));
+      setState.setInt(3, id);
+      setState.execute();
+    } finally {
+      Database.closeConnection(connection);
+    }
+    return null;
+  }
+}
@@ -0,0 +1,174 @@
+package uk.ac.rhul.cs2810.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SchedulerTest {
+  private Scheduler scheduler;
+
+  @BeforeEach
+  void makeScheduler() {
+    scheduler = new Scheduler(2, "Test scheduler");
+  }
+
+  @AfterEach
+  void stopScheduler() {
+    scheduler.shutdown();
+  }
+
+  @Test
+  void testScheduleOnceRunsOnceAndRecords() throws InterruptedException {
+    CountDownLatch ran = new CountDownLatch(1);
+    scheduler.scheduleOnce("test.once", 10, TimeUnit.MILLISECONDS, ran::countDown);
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+
+    JobStatistics statistics = waitForRuns("test.once", 1);
+    assertEquals(0, statistics.getFailures());
+    assertNotNull(statistics.getLastRun());
+    assertFalse(statistics.isScheduled());
+  }
+
+  @Test
+  void testRepeatingKeepsRunningAfterFailure() throws InterruptedException {
+    CountDownLatch ran = new CountDownLatch(3);
+    scheduler.scheduleRepeating("test.repeat", 5, TimeUnit.MILLISECONDS, 0.5, () -> {
+      ran.countDown();
+      throw new ExecutionError("Failed");
+    });
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+
+    JobStatistics statistics = scheduler.getStatistics("test.repeat");
+    assertTrue(statistics.getFailures() >= 2);
+    assertEquals("Failed", statistics.getLastError().getMessage());
+    assertTrue(statistics.isScheduled());
+  }
+
+  @Test
+  void testAsyncJobFreesTheSchedulerWhileItsWorkRuns() throws InterruptedException {
+    Scheduler oneThread = new Scheduler(1, "One thread scheduler");
+    try {
+      CompletableFuture<Void> work = new CompletableFuture<>();
+      CountDownLatch started = new CountDownLatch(1);
+      oneThread.scheduleOnceAsync("test.slow", 0, TimeUnit.MILLISECONDS, () -> {
+        started.countDown();
+        return work;
+      });
+      assertTrue(started.await(5, TimeUnit.SECONDS));
+
+      CountDownLatch ran = new CountDownLatch(1);
+      oneThread.scheduleOnce("test.quick", 0, TimeUnit.MILLISECONDS, ran::countDown);
+      assertTrue(ran.await(5, TimeUnit.SECONDS));
+      assertEquals(0, oneThread.getStatistics("test.slow").getRuns());
+
+      work.completeExceptionally(new ExecutionError("Failed"));
+      JobStatistics statistics = waitForRuns(oneThread, "test.slow", 1);
+      assertEquals(1, statistics.getFailures());
+      assertEquals("Failed", statistics.getLastError().getMessage());
+    } finally {
+      oneThread.shutdown();
+    }
+  }
+
+  @Test
+  void testAsyncRepeatingWaitsForItsWork() throws InterruptedException {
+    AtomicInteger starts = new AtomicInteger();
+    CompletableFuture<Void> work = new CompletableFuture<>();
+    scheduler.scheduleRepeatingAsync("test.asyncRepeat", 5, TimeUnit.MILLISECONDS, 0,
+        () -> starts.incrementAndGet() == 1 ? work : CompletableFuture.completedFuture(null));
+    Thread.sleep(50);
+    assertEquals(1, starts.get());
+
+    work.complete(null);
+    waitForRuns("test.asyncRepeat", 2);
+    assertTrue(starts.get() >= 2);
+  }
+
+  @Test
+  void testCancelStopsJob() throws InterruptedException {
+    AtomicInteger runs = new AtomicInteger();
+    ScheduledJob job = scheduler.scheduleRepeating("test.cancel", 5, TimeUnit.MILLISECONDS, 0,
+        runs::incrementAndGet);
+    waitForRuns("test.cancel", 1);
+    job.cancel();
+    Thread.sleep(20); // Lets a run that had already started finish
+    int cancelledAt = runs.get();
+
+    Thread.sleep(50);
+    assertEquals(cancelledAt, runs.get());
+    assertTrue(job.isCancelled());
+    assertFalse(scheduler.getStatistics("test.cancel").isScheduled());
+  }
+
+  @Test
+  void testSameNameReplacesJob() throws InterruptedException {
+    AtomicInteger first = new AtomicInteger();
+    ScheduledJob old = scheduler.scheduleOnce("test.replace", 100, TimeUnit.MILLISECONDS,
+        first::incrementAndGet);
+    CountDownLatch ran = new CountDownLatch(1);
+    scheduler.scheduleOnce("test.replace", 0, TimeUnit.MILLISECONDS, ran::countDown);
+
+    assertTrue(ran.await(5, TimeUnit.SECONDS));
+    Thread.sleep(200);
+    assertTrue(old.isCancelled());
+    assertEquals(0, first.get());
+  }
+
+  @Test
+  void testCancelAllByPrefix() throws InterruptedException {
+    ScheduledJob waiter = scheduler.scheduleOnce("waiter.dashboard", 1, TimeUnit.HOURS, () -> {
+    });
+    ScheduledJob kitchen = scheduler.scheduleOnce("kitchen.orders", 1, TimeUnit.HOURS, () -> {
+    });
+    scheduler.cancelAll("waiter.");
+
+    assertTrue(waiter.isCancelled());
+    assertFalse(kitchen.isCancelled());
+    assertFalse(scheduler.getStatistics("waiter.dashboard").isScheduled());
+    assertTrue(scheduler.getStatistics("kitchen.orders").isScheduled());
+  }
+
+  @Test
+  void testStatisticsUnknownJob() {
+    assertNull(scheduler.getStatistics("test.unknown"));
+    assertTrue(scheduler.getAllStatistics().isEmpty());
+  }
+
+  @Test
+  void testJitterWithinBounds() {
+    long period = TimeUnit.SECONDS.toNanos(10);
+    for (int i = 0; i < 100; i++) {
+      long delay = Scheduler.jitter(period, 0.2);
+      assertTrue(delay >= period * 0.8 && delay <= period * 1.2);
+    }
+    assertEquals(period, Scheduler.jitter(period, 0));
+  }
+
+  private JobStatistics waitForRuns(String name, long runs) throws InterruptedException {
+    return waitForRuns(scheduler, name, runs);
+  }
+
+  private JobStatistics waitForRuns(Scheduler scheduler, String name, long runs)
+      throws InterruptedException {
+    for (int i = 0; i < 500; i++) { // The run is recorded just after the task finishes
+      JobStatistics statistics = scheduler.getStatistics(name);
+      if (statistics != null && statistics.getRuns() >= runs) {
+        return statistics;
+      }
+      Thread.sleep(10);
+    }
+    throw new AssertionError(name + " did not run " + runs + " times");
+  }
+}
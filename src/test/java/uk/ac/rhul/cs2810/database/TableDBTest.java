@@ -7,6 +7,9 @@ import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import uk.ac.rhul.cs2810.containers.TableStates;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
@@ -204,4 +207,128 @@ class TableDBTest extends DatabaseTest{
     tableDB.assignTable(1);
     assertEquals(id, tableDB.getWaiter(1));
   }
-}
\ No newline at end of file
+  
+  @Test
+  void testGetAllTableStates() throws ConnectionError, ExecutionError {
+    int id = testLogin.getID(LoginDB.hash(8149));
+    tableDB.assignTable(2);
+    tableDB.setWaiterAlerted(2, true);
+    tableDB.setClean(3, false);
+    
+    TableStates states = tableDB.getAllTableStates();
+    assertEquals(12, states.getMaxTableNum());
+    assertEquals(id, states.getWaiter(2));
+    assertTrue(states.isSeated(2));
+    assertTrue(states.isAlerted(2));
+    assertFalse(states.isClean(3));
+    assertEquals(-1, states.getWaiter(1));
+    assertEquals(List.of(2), states.getNeededTables(id));
+  }
+  
+  @Test
+  void testGetTableStatesKeptInMemory() throws ConnectionError, ExecutionError {
+    TableStates states = tableDB.getAllTableStates();
+    long acquired = tableDB.getPoolStatistics().getAcquireCount();
+    assertSame(states, tableDB.getTableStates());
+    assertEquals(acquired, tableDB.getPoolStatistics().getAcquireCount());
+  }
+  
+  @Test
+  void testSettersUpdateTableStates() throws ConnectionError, ExecutionError {
+    int id = testLogin.getID(LoginDB.hash(8149));
+    TableStates before = tableDB.getAllTableStates();
+    tableDB.assignTable(4);
+    tableDB.setClean(Arrays.asList(5, 6), false);
+    
+    TableStates after = tableDB.getTableStates();
+    assertFalse(before.isSeated(4));
+    assertTrue(after.isSeated(4));
+    assertEquals(id, after.getWaiter(4));
+    assertFalse(after.isClean(5));
+    assertFalse(after.isClean(6));
+    assertTrue(after.isClean(7));
+  }
+  
+  @Test
+  void testTableStatesDontQueryWhileReceivingChanges()
+      throws ConnectionError, ExecutionError, InterruptedException {
+    waitForChangeFeed();
+    TableStates states = tableDB.getAllTableStates(); // Read after the feed connected
+    
+    long acquired = tableDB.getPoolStatistics().getAcquireCount();
+    assertSame(states, tableDB.getTableStates());
+    assertEquals(acquired, tableDB.getPoolStatistics().getAcquireCount());
+  }
+  
+  @Test
+  void testTableChangeFromOtherTerminalIsSeen()
+      throws ConnectionError, ExecutionError, InterruptedException, SQLException {
+    waitForChangeFeed();
+    assertFalse(tableDB.getTableStates().isAlerted(5));
+    
+    st.execute("UPDATE tables SET isAlerted = TRUE WHERE tableid = 5");
+    for (int i = 0; i < 100 && !tableDB.getTableStates().isAlerted(5); i++) {
+      Thread.sleep(50);
+    }
+    assertTrue(tableDB.getTableStates().isAlerted(5));
+  }
+  
+  @Test
+  void testSetBatchUpdatesDatabase() throws ConnectionError, ExecutionError {
+    tableDB.setSeated(Arrays.asList(1, 2, 3), true);
+    tableDB.setWaiterAlerted(Arrays.asList(2, 3), true);
+    assertTrue(tableDB.getSeated(1));
+    assertTrue(tableDB.getSeated(3));
+    assertFalse(tableDB.getWaiterAlerted(1));
+    assertTrue(tableDB.getWaiterAlerted(3));
+  }
+  
+  @Test
+  void testSetBatchInvalidTable() throws ConnectionError, ExecutionError {
+    assertThrows(ExecutionError.class,
+        () -> tableDB.setClean(Arrays.asList(1, tableDB.getMaxTableNum() + 1), false));
+    assertTrue(tableDB.getClean(1));
+  }
+  
+  @Test
+  void testReassignTablesFromDefaultUpdatesTableStates() throws ConnectionError, ExecutionError {
+    tableDB.assignTable(1);
+    tableDB.assignTable(2);
+    tableDB.getAllTableStates();
+    int id = testLogin.getID(LoginDB.hash(8149));
+    tableDB.reassignTablesFromWaiter(-1);
+    assertEquals(List.of(1, 2), tableDB.getTableStates().getAssignedTables(id));
+  }
+  
+  @Test
+  void testLoginRebalancesTables() throws ConnectionError, ExecutionError {
+    int first = testLogin.getID(LoginDB.hash(3435));
+    for (int table = 1; table <= 4; table++) {
+      tableDB.assignTable(table);
+    }
+    assertEquals(4, tableDB.getAssignedTables(first).size());
+    
+    int second = testLogin.getID(LoginDB.hash(8149));
+    assertEquals(2, tableDB.getAssignedTables(first).size());
+    assertEquals(2, tableDB.getAssignedTables(second).size());
+  }
+  
+  @Test
+  void testAssignTableKeepsWaiter() throws ConnectionError, ExecutionError {
+    testLogin.getID(LoginDB.hash(3435));
+    testLogin.getID(LoginDB.hash(8149));
+    tableDB.assignTable(5);
+    int waiter = tableDB.getWaiter(5);
+    tableDB.assignTable(6);
+    tableDB.assignTable(5);
+    assertEquals(waiter, tableDB.getWaiter(5));
+  }
+  
+  private void waitForChangeFeed() throws ConnectionError, ExecutionError, InterruptedException {
+    tableDB.getTableStates(); // Starts the feed
+    for (int i = 0; i < 100 && !tableDB.isReceivingChanges(); i++) {
+      Thread.sleep(50);
+    }
+    assertTrue(tableDB.isReceivingChanges());
+  }
+}
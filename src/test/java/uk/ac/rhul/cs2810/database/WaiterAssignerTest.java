@@ -0,0 +1,75 @@
+package uk.ac.rhul.cs2810.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WaiterAssignerTest {
+
+  @Test
+  void testAssignToLeastBusyWaiter() {
+    WaiterAssigner assigner = new WaiterAssigner();
+    assigner.load(List.of(1, 2), Map.of(1, 1), Map.of(1, 3));
+    assertEquals(2, assigner.assign(2));
+    assertEquals(2, assigner.assign(3));
+    assertEquals(2, assigner.assign(4));
+    assertEquals(1, assigner.assign(5)); // Now tied so the lowest id is used
+    assertEquals(4, assigner.getLoad(1));
+    assertEquals(3, assigner.getLoad(2));
+  }
+
+  @Test
+  void testAssignKeepsCurrentWaiter() {
+    WaiterAssigner assigner = new WaiterAssigner();
+    assigner.load(List.of(1, 2), Map.of(1, 2), Map.of(1, 5));
+    assertEquals(2, assigner.assign(1));
+    assertEquals(5, assigner.getLoad(2));
+  }
+
+  @Test
+  void testAssignWithoutWaiters() {
+    WaiterAssigner assigner = new WaiterAssigner();
+    assigner.load(List.of(-2, 0), Collections.emptyMap(), Collections.emptyMap());
+    assertEquals(WaiterAssigner.NO_WAITER, assigner.assign(1));
+  }
+
+  @Test
+  void testRemoveWaiterMovesTheirTables() {
+    WaiterAssigner assigner = new WaiterAssigner();
+    assigner.load(List.of(1, 2, 3), Map.of(1, 1, 2, 1, 3, 2), Map.of(1, 2, 2, 2, 3, 1));
+    Map<Integer, Integer> changed = assigner.removeWaiter(1);
+    assertEquals(Map.of(1, 3, 2, 2), changed);
+    assertEquals(3, assigner.getLoad(2));
+    assertEquals(2, assigner.getLoad(3));
+  }
+
+  @Test
+  void testRebalanceOntoNewWaiter() {
+    WaiterAssigner assigner = new WaiterAssigner();
+    assigner.load(List.of(1, 2), Map.of(1, 1, 2, 1, 3, 1, 4, 1), Map.of(1, 1, 2, 1, 3, 1, 4, 1));
+    Map<Integer, Integer> changed = assigner.rebalance();
+    assertEquals(2, changed.size());
+    assertEquals(2, assigner.getLoad(1));
+    assertEquals(2, assigner.getLoad(2));
+  }
+
+  @Test
+  void testRebalanceDoesNotMoveWhenNoBetter() {
+    WaiterAssigner assigner = new WaiterAssigner();
+    assigner.load(List.of(1, 2), Map.of(1, 1), Map.of(1, 4));
+    assertTrue(assigner.rebalance().isEmpty());
+  }
+
+  @Test
+  void testRebalanceAssignsTablesWithoutWaiter() {
+    WaiterAssigner assigner = new WaiterAssigner();
+    assigner.load(List.of(2), Map.of(1, -1, 2, 7), Map.of(1, 1, 2, 1));
+    assertEquals(Map.of(1, 2, 2, 2), assigner.rebalance());
+    assertEquals(2, assigner.getLoad(2));
+  }
+}
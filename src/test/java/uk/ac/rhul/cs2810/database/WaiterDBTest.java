@@ -6,12 +6,19 @@ import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import uk.ac.rhul.cs2810.Exceptions.ConnectionError;
 import uk.ac.rhul.cs2810.Exceptions.ExecutionError;
+import uk.ac.rhul.cs2810.Exceptions.MissingDataError;
+import uk.ac.rhul.cs2810.Exceptions.OrderAlreadyExistsException;
+import uk.ac.rhul.cs2810.containers.Employee;
+import uk.ac.rhul.cs2810.containers.Order;
+import uk.ac.rhul.cs2810.containers.WaiterMetrics;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Time;
 import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -22,7 +29,8 @@ class WaiterDBTest extends DatabaseTest {
   
   @BeforeAll
   static void setup(){
-    tables = new String[]{"WaiterData"};
+    tables = new String[]{"WaiterData", "WaiterMetrics", "orders", "itemsInOrder",
+        "deletedOrders", "tables"};
   }
   
   @BeforeEach
@@ -49,6 +57,7 @@ class WaiterDBTest extends DatabaseTest {
   @Test
   void testAddOrderConfirmTime() throws ConnectionError, ExecutionError, SQLException {
     waiterDB.addOrderConfirmTime(1, 10);
+    waiterDB.flushMetrics();
     Statement st = getStatement();
     ResultSet rs = st.executeQuery("SELECT numordersconfirmed, totaltimeordersunconfirmed" +
         " FROM waiterdata  WHERE waiterid = 1");
@@ -57,6 +66,17 @@ class WaiterDBTest extends DatabaseTest {
     assertEquals(10, Time.valueOf(rs.getString(2)).toLocalTime().getMinute());
   }
   
+  @Test
+  void testStoppingTheSyncWritesPendingTimes()
+      throws ConnectionError, ExecutionError, SQLException {
+    waiterDB.addOrderConfirmTime(1, 10);
+    DatabaseFactory.stopSyncingMetrics();
+    Statement st = getStatement();
+    ResultSet rs = st.executeQuery("SELECT numordersconfirmed FROM waiterdata WHERE waiterid = 1");
+    rs.next();
+    assertEquals(1, rs.getInt(1));
+  }
+  
   @Test
   void testGetAverageOrderConfirmTime() throws ConnectionError, ExecutionError {
     waiterDB.addOrderConfirmTime(1, 10);
@@ -67,6 +87,7 @@ class WaiterDBTest extends DatabaseTest {
   @Test
   void testAddOrderServedTime() throws ConnectionError, ExecutionError, SQLException {
     waiterDB.addOrderServeTime(1, 10);
+    waiterDB.flushMetrics();
     Statement st = getStatement();
     ResultSet rs = st.executeQuery("SELECT numordersserved, totaltimeordersnotserved" +
         " FROM waiterdata  WHERE waiterid = 1");
@@ -81,4 +102,88 @@ class WaiterDBTest extends DatabaseTest {
     waiterDB.addOrderServeTime(1, 8);
     assertEquals(9f, waiterDB.getAverageServeTime(1));
   }
-}
\ No newline at end of file
+  
+  @Test
+  void testGetAllEmployeesIncludesStatistics() throws ConnectionError, ExecutionError {
+    DatabaseFactory.getTestOrderDB();
+    waiterDB.addHalfHoursWorked(2, 3);
+    waiterDB.addOrderConfirmTime(2, 4);
+    waiterDB.addOrderConfirmTime(2, 6);
+    waiterDB.addOrderServeTime(2, 12);
+    
+    List<Employee> employees = waiterDB.getAllEmployees();
+    assertEquals(3, employees.size());
+    Employee chris = employees.get(1);
+    assertEquals(2, chris.getId());
+    assertEquals("Chris", chris.getName());
+    assertEquals(LocalDate.of(2020, 1, 30), chris.getDateOfHire());
+    assertEquals(3, chris.getHalfHoursWorked());
+    assertEquals(5f, chris.getAverageConfirmTime());
+    assertEquals(12f, chris.getAverageServeTime());
+    assertEquals(0f, employees.get(0).getAverageServeTime());
+  }
+  
+  @Test
+  void testGetAllEmployeesCountsAssignedOrders() throws ConnectionError, ExecutionError,
+      MissingDataError, OrderAlreadyExistsException, SQLException {
+    OrderDB orderDB = DatabaseFactory.getTestOrderDB();
+    orderDB.addOrder(order); // Table 1
+    Order second = new Order(1);
+    second.addItemToOrder(item);
+    orderDB.addOrder(second);
+    Order other = new Order(2);
+    other.addItemToOrder(item);
+    orderDB.addOrder(other);
+    st.execute("UPDATE tables SET waiterID = 2 WHERE tableID = 1");
+    st.execute("UPDATE tables SET waiterID = 3 WHERE tableID = 2");
+    
+    List<Employee> employees = waiterDB.getAllEmployees();
+    assertEquals(0, employees.get(0).getNumOrdersAssigned());
+    assertEquals(2, employees.get(1).getNumOrdersAssigned());
+    assertEquals(1, employees.get(2).getNumOrdersAssigned());
+  }
+  
+  @Test
+  void testGetWaiterMetricsCountsRecordedTimes() throws ConnectionError, ExecutionError {
+    waiterDB.addOrderConfirmTime(2, 4);
+    waiterDB.addOrderConfirmTime(2, 6);
+    waiterDB.addOrderServeTime(2, 12);
+    
+    WaiterMetrics metrics = waiterDB.getWaiterMetrics(2);
+    assertEquals(2, metrics.getNumConfirmed(WaiterMetrics.Window.LAST_HOUR));
+    assertEquals(5f, metrics.getAverageConfirmTime(WaiterMetrics.Window.LAST_HOUR));
+    assertEquals(1, metrics.getNumServed(WaiterMetrics.Window.TODAY));
+    assertEquals(12f, metrics.getAverageServeTime(WaiterMetrics.Window.TODAY));
+    assertEquals(0, waiterDB.getWaiterMetrics(3).getNumConfirmed(WaiterMetrics.Window.TODAY));
+  }
+  
+  @Test
+  void testFlushMetricsWritesEachTimeOnce() throws ConnectionError, ExecutionError,
+      SQLException {
+    waiterDB.addOrderConfirmTime(2, 4);
+    waiterDB.addOrderConfirmTime(2, 6);
+    waiterDB.flushMetrics();
+    waiterDB.flushMetrics();
+    
+    ResultSet rs = st.executeQuery("SELECT sum(NumConfirmed), sum(ConfirmMinutes) " +
+        "FROM WaiterMetrics WHERE WaiterID = 2");
+    rs.next();
+    assertEquals(2, rs.getInt(1));
+    assertEquals(10, rs.getInt(2));
+    rs = st.executeQuery("SELECT NumOrdersConfirmed FROM waiterData WHERE waiterID = 2");
+    rs.next();
+    assertEquals(2, rs.getInt(1));
+  }
+  
+  @Test
+  void testGetWaiterMetricsIncludesOtherTerminals() throws ConnectionError, ExecutionError,
+      SQLException {
+    waiterDB.addOrderServeTime(2, 3);
+    long minute = System.currentTimeMillis() / 60_000;
+    st.execute("INSERT INTO WaiterMetrics VALUES (3, " + minute + ", 1, 7, 0, 0)");
+    
+    Map<Integer, WaiterMetrics> metrics = waiterDB.getWaiterMetrics();
+    assertEquals(7f, metrics.get(3).getAverageConfirmTime(WaiterMetrics.Window.LAST_HOUR));
+    assertEquals(1, metrics.get(2).getNumServed(WaiterMetrics.Window.LAST_HOUR));
+  }
+}
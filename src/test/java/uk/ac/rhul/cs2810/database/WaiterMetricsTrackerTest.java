@@ -0,0 +1,168 @@
+package uk.ac.rhul.cs2810.database;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.ac.rhul.cs2810.containers.WaiterMetrics;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static uk.ac.rhul.cs2810.containers.WaiterMetrics.Window.LAST_HOUR;
+import static uk.ac.rhul.cs2810.containers.WaiterMetrics.Window.SHIFT;
+import static uk.ac.rhul.cs2810.containers.WaiterMetrics.Window.TODAY;
+
+class WaiterMetricsTrackerTest {
+  private static final Instant NOON = Instant.parse("2021-03-10T12:00:00Z");
+
+  private MovingClock clock;
+  private WaiterMetricsTracker tracker;
+
+  @BeforeEach
+  void makeTracker() {
+    clock = new MovingClock(NOON);
+    tracker = new WaiterMetricsTracker(clock);
+  }
+
+  @Test
+  void testRecordedTimesAreCountedInEveryWindow() {
+    tracker.recordConfirm(2, 4);
+    tracker.recordConfirm(2, 6);
+    tracker.recordServe(2, 3);
+
+    WaiterMetrics metrics = tracker.getMetrics(2);
+    for (WaiterMetrics.Window window : WaiterMetrics.Window.values()) {
+      assertEquals(2, metrics.getNumConfirmed(window));
+      assertEquals(5f, metrics.getAverageConfirmTime(window));
+      assertEquals(1, metrics.getNumServed(window));
+    }
+  }
+
+  @Test
+  void testLastHourDropsOlderTimes() {
+    tracker.recordConfirm(2, 10);
+    clock.advance(Duration.ofMinutes(60));
+    tracker.recordConfirm(2, 2);
+
+    WaiterMetrics metrics = tracker.getMetrics(2);
+    assertEquals(1, metrics.getNumConfirmed(LAST_HOUR));
+    assertEquals(2f, metrics.getAverageConfirmTime(LAST_HOUR));
+    assertEquals(2, metrics.getNumConfirmed(TODAY));
+  }
+
+  @Test
+  void testTodayStartsAtMidnight() {
+    clock.advance(Duration.ofHours(11));
+    tracker.recordServe(2, 5);
+    clock.advance(Duration.ofHours(2)); // 01:00 the next day
+    tracker.recordServe(2, 7);
+
+    WaiterMetrics metrics = tracker.getMetrics(2);
+    assertEquals(1, metrics.getNumServed(TODAY));
+    assertEquals(7f, metrics.getAverageServeTime(TODAY));
+  }
+
+  @Test
+  void testShiftStartsWhenTheWaiterSignedIn() {
+    tracker.recordConfirm(2, 1);
+    clock.advance(Duration.ofHours(2));
+    tracker.recordConfirm(2, 3);
+    tracker.reload(Collections.emptyList(),
+        Map.of(2, clock.millis() / 60_000 - 30));
+
+    WaiterMetrics metrics = tracker.getMetrics(2);
+    assertEquals(1, metrics.getNumConfirmed(SHIFT));
+    assertEquals(2, metrics.getNumConfirmed(TODAY));
+  }
+
+  @Test
+  void testTimesOlderThanADayAreForgotten() {
+    tracker.recordConfirm(2, 1);
+    clock.advance(Duration.ofHours(24)); // Lands on the same slot in the ring
+    tracker.recordConfirm(2, 5);
+
+    WaiterMetrics metrics = tracker.getMetrics(2);
+    assertEquals(1, metrics.getNumConfirmed(TODAY));
+    assertEquals(5f, metrics.getAverageConfirmTime(TODAY));
+  }
+
+  @Test
+  void testDrainPendingMergesTimesInTheSameMinute() {
+    tracker.recordConfirm(2, 4);
+    tracker.recordServe(2, 6);
+    tracker.recordConfirm(3, 1);
+
+    List<WaiterMetricsTracker.MinuteBucket> pending = tracker.drainPending();
+    assertEquals(2, pending.size());
+    assertEquals(1, pending.get(0).numConfirmed);
+    assertEquals(6, pending.get(0).serveMinutes);
+    assertTrue(tracker.drainPending().isEmpty());
+  }
+
+  @Test
+  void testRestoredPendingIsWrittenAgain() {
+    tracker.recordConfirm(2, 4);
+    List<WaiterMetricsTracker.MinuteBucket> pending = tracker.drainPending();
+    tracker.recordConfirm(2, 6);
+    tracker.restorePending(pending);
+
+    List<WaiterMetricsTracker.MinuteBucket> retried = tracker.drainPending();
+    assertEquals(1, retried.size());
+    assertEquals(2, retried.get(0).numConfirmed);
+    assertEquals(10, retried.get(0).confirmMinutes);
+  }
+
+  @Test
+  void testReloadKeepsPendingTimes() {
+    assertFalse(tracker.isLoaded());
+    tracker.recordConfirm(2, 4);
+    WaiterMetricsTracker.MinuteBucket stored =
+        new WaiterMetricsTracker.MinuteBucket(3, clock.millis() / 60_000);
+    stored.numServed = 1;
+    stored.serveMinutes = 8;
+    tracker.reload(List.of(stored), Collections.emptyMap());
+
+    assertTrue(tracker.isLoaded());
+    Map<Integer, WaiterMetrics> metrics = tracker.getAllMetrics();
+    assertEquals(1, metrics.get(2).getNumConfirmed(LAST_HOUR));
+    assertEquals(8f, metrics.get(3).getAverageServeTime(LAST_HOUR));
+  }
+
+  /**
+   * A clock that only moves when told to.
+   */
+  private static class MovingClock extends Clock {
+    private Instant now;
+
+    MovingClock(Instant now) {
+      this.now = now;
+    }
+
+    void advance(Duration duration) {
+      now = now.plus(duration);
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Instant instant() {
+      return now;
+    }
+  }
+}